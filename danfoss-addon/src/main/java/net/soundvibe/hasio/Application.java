@@ -2,21 +2,26 @@ package net.soundvibe.hasio;
 
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.LoggerContext;
+import com.google.gson.JsonParser;
 import io.javalin.Javalin;
 import io.javalin.http.staticfiles.Location;
 import io.javalin.json.JsonMapper;
 import net.soundvibe.hasio.danfoss.protocol.DanfossDiscovery;
 import net.soundvibe.hasio.danfoss.protocol.config.AppConfig;
 import net.soundvibe.hasio.danfoss.protocol.config.DanfossBindingConfig;
+import net.soundvibe.hasio.metrics.Metrics;
 import net.soundvibe.hasio.model.Options;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Type;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -57,14 +62,33 @@ public class Application {
         var bootstrapper = new Bootstrapper(app, options);
 
         app.get("/health", ctx -> ctx.result("OK"));
+        app.get("/metrics", ctx -> ctx.contentType(Metrics.CONTENT_TYPE).result(Metrics.scrape()));
         app.post("/discover", ctx -> {
             var bindingConfig = DanfossBindingConfig.create(ctx.formParam("userName"));
+            var house = ctx.formParam("house");
+            try {
+                house = AppConfig.validHouse(house == null ? AppConfig.DEFAULT_HOUSE : house.trim());
+            } catch (IllegalArgumentException e) {
+                ctx.html(e.getMessage()).status(400);
+                return;
+            }
             try (var discovery = new DanfossDiscovery(ctx.formParam("oneTimeCode"), bindingConfig)) {
                 var response = discovery.discover();
                 if (response.housePeerId != null) {
                     // persist
-                    var appConfig = new AppConfig(bindingConfig.privateKey(), bindingConfig.userName(), response.housePeerId);
-                    var appConfigJson = Json.toJsonString(appConfig);
+                    var appConfig = new AppConfig(bindingConfig.privateKey(), bindingConfig.userName(), response.housePeerId, house);
+                    // other houses are kept, a house discovered again replaces its previous config
+                    var appConfigs = new ArrayList<AppConfig>();
+                    if (Files.exists(DANFOSS_CONFIG_FILE)) {
+                        for (var existing : readAppConfigs(DANFOSS_CONFIG_FILE)) {
+                            if (!existing.houseOrDefault().equals(appConfig.houseOrDefault())) {
+                                appConfigs.add(existing);
+                            }
+                        }
+                    }
+                    appConfigs.add(appConfig);
+                    var appConfigJson = Json.toJsonString(appConfigs.size() == 1 ? appConfig : appConfigs);
+                    var houseLine = house.isEmpty() ? "" : STR.",</br>&nbsp;&nbsp;\"house\": \"\{ house }\"";
                     ctx.html(STR."""
       <h1>Discovered Icon house <b>\{response.houseName}</b> successfully</h1>
       <p>Write the following config to <i>/share/danfoss-icon/danfoss_config.json</i> if addon won't start properly</p>
@@ -73,7 +97,7 @@ public class Application {
       {</br>
       &nbsp;&nbsp;"privateKey": \{ Arrays.toString(appConfig.privateKey()) },</br>
       &nbsp;&nbsp;"userName": "\{ appConfig.userName() }",</br>
-      &nbsp;&nbsp;"peerId": "\{ appConfig.peerId() }"</br>
+      &nbsp;&nbsp;"peerId": "\{ appConfig.peerId() }"\{ houseLine }</br>
       }</br>
       </p>
       """);
@@ -82,7 +106,7 @@ public class Application {
                     Files.createDirectories(DANFOSS_CONFIG_DIR);
                     Files.writeString(DANFOSS_CONFIG_FILE, appConfigJson);
                     discovery.close();
-                    bootstrapper.load(appConfig);
+                    bootstrapper.load(appConfigs);
                 } else {
                     ctx.html("House was not discovered");
                 }
@@ -94,12 +118,12 @@ public class Application {
 
         CONFIG_FILES.stream()
                 .filter(Files::exists)
-                .map(path -> Json.fromPath(path, AppConfig.class))
+                .map(Application::readAppConfigs)
                 .limit(1)
                 .findAny()
-                .ifPresentOrElse(appConfig -> {
-                    logger.info("config file found, bootstrapping...");
-                    bootstrapper.load(appConfig);
+                .ifPresentOrElse(appConfigs -> {
+                    logger.info("config file found with {} house(s), bootstrapping...", appConfigs.size());
+                    bootstrapper.load(appConfigs);
                 }, () -> logger.info("config file not found, use ip:port/discover endpoint to discover new house"));
 
 
@@ -107,6 +131,20 @@ public class Application {
         logger.info("started addon");
     }
 
+    /**
+     * Config file holds either a single house object or an array of houses.
+     */
+    static List<AppConfig> readAppConfigs(Path path) {
+        try {
+            var json = JsonParser.parseString(Files.readString(path));
+            return json.isJsonArray()
+                    ? List.of(GSON.fromJson(json, AppConfig[].class))
+                    : List.of(GSON.fromJson(json, AppConfig.class));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     public static void changeRootLogLevel(String level){
         var loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
         var logger = loggerContext.getLogger("root");
@@ -2,41 +2,67 @@ package net.soundvibe.hasio;
 
 import io.javalin.Javalin;
 import io.javalin.http.HttpStatus;
+import io.javalin.http.Context;
+import net.soundvibe.hasio.danfoss.data.DaySchedule;
+import net.soundvibe.hasio.danfoss.protocol.FieldScope;
 import net.soundvibe.hasio.danfoss.protocol.IconMasterHandler;
 import net.soundvibe.hasio.danfoss.protocol.IconRoomHandler;
+import net.soundvibe.hasio.danfoss.protocol.PacketCapture;
+import net.soundvibe.hasio.danfoss.protocol.Setpoint;
+import net.soundvibe.hasio.danfoss.protocol.SetpointWrite;
 import net.soundvibe.hasio.danfoss.protocol.config.AppConfig;
+import net.soundvibe.hasio.ha.CoalescingPublisher;
 import net.soundvibe.hasio.ha.HomeAssistantClient;
-import net.soundvibe.hasio.ha.model.MQTTSetState;
+import net.soundvibe.hasio.ha.HomeAssistantPublisher;
+import net.soundvibe.hasio.ha.HomeAssistantWebSocketClient;
+import net.soundvibe.hasio.ha.HouseNamespace;
+import net.soundvibe.hasio.ha.MQTTPublisher;
+import net.soundvibe.hasio.history.HistoryField;
+import net.soundvibe.hasio.history.RoomHistoryStore;
 import net.soundvibe.hasio.model.Command;
 import net.soundvibe.hasio.model.Options;
+import net.soundvibe.hasio.model.WeekSchedule;
 import org.eclipse.paho.client.mqttv3.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
-import static java.util.function.Predicate.not;
 import static net.soundvibe.hasio.danfoss.protocol.config.DanfossBindingConstants.ICON_MAX_ROOMS;
 
 public class Bootstrapper {
 
     private static final Logger logger = LoggerFactory.getLogger(Bootstrapper.class);
 
+    public static final Path HISTORY_DIR = Application.DANFOSS_CONFIG_DIR.resolve("history");
+    public static final Path CAPTURE_DIR = Application.DANFOSS_CONFIG_DIR.resolve("capture");
+    private static final long DEFAULT_COMMAND_TIMEOUT_SECONDS = 30;
+
     private static final ScheduledExecutorService executorService = Executors.newScheduledThreadPool(16, Thread.ofVirtual().factory());
     private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(8, Thread.ofVirtual().factory());
     private final Options options;
 
-    private final Map<String, IMqttToken> subscribers = new ConcurrentHashMap<>(ICON_MAX_ROOMS * 2);
-
     private final AtomicBoolean opened = new AtomicBoolean(false);
     private final Javalin app;
-    private final AtomicReference<IconMasterHandler> masterHandler = new AtomicReference<>();
-    private final AtomicReference<ScheduledFuture<?>> scheduleHAUpdates = new AtomicReference<>();
-    private final AtomicReference<ScheduledFuture<?>> scheduleMQTTUpdates = new AtomicReference<>();
+    // houses by id, in the order of the config file
+    private volatile Map<String, House> houses = Map.of();
+    // history stores by house id, kept across re-bootstraps
+    private final Map<String, RoomHistoryStore> historyStores = new ConcurrentHashMap<>();
+    private final AtomicReference<Runnable> unsubscribeHA = new AtomicReference<>();
+    private final AtomicReference<HomeAssistantClient> homeAssistantClient = new AtomicReference<>();
+    private final AtomicReference<Runnable> unsubscribeMQTT = new AtomicReference<>();
 
     public Bootstrapper(Javalin app, Options options) {
         this.app = app;
@@ -44,53 +70,224 @@ public class Bootstrapper {
     }
 
     public void load(AppConfig appConfig) {
-        if (this.scheduleHAUpdates.get() != null) {
-            this.scheduleHAUpdates.get().cancel(true);
+        load(List.of(appConfig));
+    }
+
+    /**
+     * Connects to every house of the list, replacing the houses loaded before.
+     * House ids must be unique, at most one house may keep the default (empty) id.
+     */
+    public void load(List<AppConfig> appConfigs) {
+        if (appConfigs.isEmpty()) {
+            throw new IllegalArgumentException("at least one house is required");
         }
-        if (scheduleMQTTUpdates.get() != null) {
-            scheduleMQTTUpdates.get().cancel(true);
+        var namespaces = new ArrayList<HouseNamespace>(appConfigs.size());
+        for (var appConfig : appConfigs) {
+            var namespace = new HouseNamespace(appConfig.houseOrDefault());
+            if (namespaces.contains(namespace)) {
+                throw new IllegalArgumentException(STR."duplicate house id: '\{namespace.house()}'");
+            }
+            namespaces.add(namespace);
         }
 
-        var masterHandler = new IconMasterHandler(appConfig.privateKey(), executorService);
-        masterHandler.scanRooms(appConfig.peerId());
-        logger.info("rooms scanned: {}", appConfig.peerId());
-        this.masterHandler.set(masterHandler);
+        var previousHA = this.unsubscribeHA.getAndSet(null);
+        if (previousHA != null) {
+            previousHA.run();
+        }
+        var previousMQTT = this.unsubscribeMQTT.getAndSet(null);
+        if (previousMQTT != null) {
+            previousMQTT.run();
+        }
+        for (var previousHouse : this.houses.values()) {
+            previousHouse.close();
+        }
+
+        var loaded = new LinkedHashMap<String, House>(appConfigs.size() * 2);
+        for (int i = 0; i < appConfigs.size(); i++) {
+            var house = openHouse(namespaces.get(i), appConfigs.get(i));
+            loaded.put(house.id(), house);
+        }
+        this.houses = Collections.unmodifiableMap(loaded);
 
         var token = resolveToken();
         logger.info("SUPERVISOR_TOKEN: {}", token);
         if (token.isEmpty()) {
             logger.warn("authorization token not found");
         } else {
-            logger.info("scheduling HA state updater");
-            this.scheduleHAUpdates.set(scheduleHomeAssistantUpdates(token, options));
+            logger.info("subscribing HA state updater");
+            this.unsubscribeHA.set(subscribeHomeAssistantUpdates(token, options));
         }
 
         if (options.mqttEnabled()) {
-            scheduleMQTTUpdates.set(scheduleMQTTUpdates(options));
+            unsubscribeMQTT.set(subscribeMQTTUpdates(options));
         }
 
         if (opened.get()) {
             return;
         }
 
+        app.get("/houses", ctx -> ctx.json(List.copyOf(this.houses.keySet())));
         app.get("/rooms", ctx -> {
-            var rooms = this.masterHandler.get().listRooms();
-            ctx.json(rooms);
+            var house = house(ctx);
+            if (house != null) {
+                ctx.json(house.masterHandler.listRooms());
+            }
         });
         app.get("/rooms/{roomName}", ctx -> {
-            var roomName = ctx.queryParam("roomName");
-            this.masterHandler.get().listRooms().stream()
-                    .filter(iconRoom -> iconRoom.name().equals(roomName))
-                    .findAny()
+            var house = house(ctx);
+            if (house == null) {
+                return;
+            }
+            var roomName = ctx.pathParam("roomName");
+            house.masterHandler.roomHandlerByName(roomName)
+                    .map(IconRoomHandler::toIconRoom)
                     .ifPresentOrElse(ctx::json, () -> ctx.status(HttpStatus.NOT_FOUND));
         });
+        app.get("/rooms/{number}/history", ctx -> {
+            var house = house(ctx);
+            if (house == null) {
+                return;
+            }
+            var historyStore = this.historyStores.get(house.id());
+            if (historyStore == null) {
+                ctx.status(HttpStatus.SERVICE_UNAVAILABLE);
+                return;
+            }
+            int roomNumber;
+            long to;
+            long from;
+            HistoryField field;
+            long resolution;
+            try {
+                roomNumber = Integer.parseInt(ctx.pathParam("number"));
+                to = parseTimestamp(ctx.queryParam("to"), System.currentTimeMillis());
+                from = parseTimestamp(ctx.queryParam("from"), to - TimeUnit.DAYS.toMillis(1));
+                var fieldName = ctx.queryParam("field");
+                field = fieldName == null || fieldName.isEmpty() ? null : HistoryField.byJsonName(fieldName);
+                resolution = parseDuration(ctx.queryParam("resolution"));
+            } catch (RuntimeException e) {
+                ctx.status(HttpStatus.BAD_REQUEST).result(e.getMessage());
+                return;
+            }
+            if (roomNumber < 0 || roomNumber >= ICON_MAX_ROOMS) {
+                ctx.status(HttpStatus.NOT_FOUND);
+                return;
+            }
+            ctx.contentType("application/json");
+            historyStore.writeJson(roomNumber, from, to, field, resolution, ctx.outputStream());
+        });
+        app.get("/rooms/{number}/schedule", ctx -> {
+            var house = house(ctx);
+            var room = house == null ? null : roomByNumber(ctx, house);
+            if (room == null) {
+                return;
+            }
+            // cached days are served right away, the missing ones are requested for the next call
+            int requested = house.masterHandler.requestMissingSchedules(room.roomNumber);
+            ctx.status(requested == 0 ? HttpStatus.OK : HttpStatus.ACCEPTED)
+                    .contentType("application/json")
+                    .result(Json.write(writer -> {
+                        writer.beginObject()
+                                .field("room", room.roomNumber)
+                                .field("complete", requested == 0);
+                        for (var day : DayOfWeek.values()) {
+                            var schedule = room.schedule(day);
+                            if (schedule != null) {
+                                writer.beginObject(day.name().toLowerCase());
+                                schedule.writeJson(writer);
+                                writer.endObject();
+                            }
+                        }
+                        writer.endObject();
+                    }));
+        });
+        app.put("/rooms/{number}/schedule", ctx -> {
+            var house = house(ctx);
+            var room = house == null ? null : roomByNumber(ctx, house);
+            if (room == null) {
+                return;
+            }
+            writeSchedules(ctx, house, List.of(room.roomNumber));
+        });
+        app.put("/schedule", ctx -> {
+            var house = house(ctx);
+            if (house == null) {
+                return;
+            }
+            var rooms = house.masterHandler.roomHandlers().stream()
+                    .map(room -> room.roomNumber)
+                    .sorted()
+                    .toList();
+            writeSchedules(ctx, house, rooms);
+        });
+        app.get("/devices", ctx -> {
+            var house = house(ctx);
+            if (house == null) {
+                return;
+            }
+            var state = house.masterHandler.houseState();
+            ctx.contentType("application/json").result(Json.write(writer -> {
+                writer.beginObject();
+                for (var scope : FieldScope.DEVICES) {
+                    writer.beginArray(STR."\{scope.jsonName}s");
+                    for (int instance = 0; instance < scope.instances(); instance++) {
+                        if (state.presentFields(scope, instance) != 0L) {
+                            state.writeJson(scope, instance, writer);
+                        }
+                    }
+                    writer.endArray();
+                }
+                writer.endObject();
+            }));
+        });
+        app.get("/devices/{scope}/{number}", ctx -> {
+            var house = house(ctx);
+            if (house == null) {
+                return;
+            }
+            var scope = FieldScope.deviceByJsonName(ctx.pathParam("scope"));
+            int instance;
+            try {
+                instance = Integer.parseInt(ctx.pathParam("number"));
+            } catch (NumberFormatException e) {
+                ctx.status(HttpStatus.BAD_REQUEST).result(e.getMessage());
+                return;
+            }
+            var state = house.masterHandler.houseState();
+            if (scope == null || instance < 0 || instance >= scope.instances() || state.presentFields(scope, instance) == 0L) {
+                ctx.status(HttpStatus.NOT_FOUND);
+                return;
+            }
+            ctx.contentType("application/json").result(Json.write(writer -> state.writeJson(scope, instance, writer)));
+        });
         app.post("/command", ctx -> {
             try {
                 var command = Json.fromString(ctx.body(), Command.class);
-                executeCommand(command);
-                ctx.status(200)
-                        .result("""
-            { "status": "OK" }""")
+                var write = executeCommand(command);
+                if (write == null) {
+                    ctx.status(HttpStatus.NOT_FOUND)
+                            .result("""
+            { "status": "error", "error": "unknown room or command" }""")
+                            .contentType("application/json");
+                    return;
+                }
+                if (!Boolean.parseBoolean(ctx.queryParam("wait"))) {
+                    ctx.status(200)
+                            .result(STR."""
+            { "status": "OK", "id": \{ write.id } }""")
+                            .contentType("application/json");
+                    return;
+                }
+                var timeout = ctx.queryParam("timeout");
+                var outcome = write.await(timeout == null ? DEFAULT_COMMAND_TIMEOUT_SECONDS : Long.parseLong(timeout), TimeUnit.SECONDS);
+                var status = outcome == null ? HttpStatus.ACCEPTED : switch (outcome) {
+                    case CONFIRMED -> HttpStatus.OK;
+                    case SUPERSEDED -> HttpStatus.CONFLICT;
+                    case FAILED -> HttpStatus.GATEWAY_TIMEOUT;
+                };
+                ctx.status(status)
+                        .result(STR."""
+            { "status": "OK", "id": \{ write.id }, "outcome": "\{ outcome == null ? "pending" : outcome.name().toLowerCase() }" }""")
                         .contentType("application/json");
             } catch (Throwable e) {
                 ctx.status(500)
@@ -103,52 +300,245 @@ public class Bootstrapper {
         opened.set(true);
     }
 
-    private void executeCommand(Command cmd) {
+    /**
+     * Named room of the {@code number} path parameter. Responds with 400 or 404 and returns null when there is none.
+     */
+    private static IconRoomHandler roomByNumber(Context ctx, House house) {
+        int roomNumber;
+        try {
+            roomNumber = Integer.parseInt(ctx.pathParam("number"));
+        } catch (NumberFormatException e) {
+            ctx.status(HttpStatus.BAD_REQUEST).result(e.getMessage());
+            return null;
+        }
+        var room = house.masterHandler.roomHandlerByNumber(roomNumber).orElse(null);
+        if (room == null) {
+            ctx.status(HttpStatus.NOT_FOUND);
+        }
+        return room;
+    }
+
+    /**
+     * Writes the schedule of the body to every room, days equal to the cached ones are skipped.
+     * Responds with 503 when the master is not connected, the cached days stay as they were then.
+     */
+    private static void writeSchedules(Context ctx, House house, List<Integer> rooms) {
+        Map<DayOfWeek, DaySchedule> days;
+        try {
+            days = Json.fromString(ctx.body(), WeekSchedule.class).toDays();
+        } catch (RuntimeException e) {
+            ctx.status(HttpStatus.BAD_REQUEST).result(String.valueOf(e.getMessage()));
+            return;
+        }
+        var schedules = new LinkedHashMap<Integer, Map<DayOfWeek, DaySchedule>>(rooms.size() * 2);
+        for (var room : rooms) {
+            schedules.put(room, days);
+        }
+        var written = house.masterHandler.writeSchedules(schedules);
+        if (!written.sent()) {
+            ctx.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .result(STR."""
+                { "status": "error", "error": "the master is not connected" }""")
+                    .contentType("application/json");
+            return;
+        }
+        ctx.status(HttpStatus.OK)
+                .result(STR."""
+            { "status": "OK", "rooms": \{ rooms.size() }, "written": \{ written.days() } }""")
+                .contentType("application/json");
+    }
+
+    private House openHouse(HouseNamespace namespace, AppConfig appConfig) {
+        var masterHandler = new IconMasterHandler(appConfig.privateKey(), executorService);
+        var history = openHistory(namespace);
+        if (history != null) {
+            // registered before scanning, so that the initial dump is recorded too
+            history.recordFrom(masterHandler.houseState());
+            masterHandler.addStateListener(history);
+        }
+        var capture = openCapture(namespace);
+        masterHandler.captureTo(capture);
+        masterHandler.scanRooms(appConfig.peerId());
+        logger.info("rooms scanned: {}", appConfig.peerId());
+        return new House(namespace, masterHandler,
+                masterHandler.newRefreshScheduler(options.refreshPacketsPerSecondOrDefault()).start(scheduler),
+                masterHandler.newDevicePoller(options.devicePollPacketsPerMinuteOrDefault()).start(scheduler),
+                masterHandler.newSetpointPipeline(options.setpointDebounceMillisOrDefault()).start(scheduler),
+                history, capture);
+    }
+
+    /**
+     * Capture of the house in {@link #CAPTURE_DIR}, null when capturing is disabled or the file can't be opened.
+     * The default house, whose id is empty, is captured to {@code default.dcap}.
+     */
+    private PacketCapture openCapture(HouseNamespace namespace) {
+        if (!options.packetCaptureEnabled()) {
+            return null;
+        }
+        var file = CAPTURE_DIR.resolve(STR."\{namespace.isDefault() ? "default" : namespace.house()}.dcap");
+        try {
+            var capture = PacketCapture.open(file);
+            logger.info("capturing packets to {}", file);
+            return capture;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("packet capture is disabled, unable to open {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * House of the {@code house} query parameter, the default one when it is missing.
+     * Responds with 404 and returns null when there is no such house.
+     */
+    private House house(Context ctx) {
+        var house = house(ctx.queryParam("house"));
+        if (house == null) {
+            ctx.status(HttpStatus.NOT_FOUND);
+        }
+        return house;
+    }
+
+    /**
+     * The default house, or the first one when none is the default, when the id is missing.
+     */
+    private House house(String id) {
+        var houses = this.houses;
+        if (id != null && !id.isEmpty()) {
+            return houses.get(id);
+        }
+        var house = houses.get(AppConfig.DEFAULT_HOUSE);
+        return house != null || houses.isEmpty() ? house : houses.values().iterator().next();
+    }
+
+    /**
+     * History of the default house is kept in {@link #HISTORY_DIR}, other houses get their own subdirectory.
+     */
+    private RoomHistoryStore openHistory(HouseNamespace namespace) {
+        var current = this.historyStores.get(namespace.house());
+        if (current != null) {
+            return current;
+        }
+        var directory = namespace.isDefault() ? HISTORY_DIR : HISTORY_DIR.resolve(namespace.house());
+        RoomHistoryStore history;
+        try {
+            history = RoomHistoryStore.open(directory, options.historyRecordsPerRoomOrDefault());
+        } catch (IOException | RuntimeException e) {
+            logger.warn("room history is disabled, unable to open {}: {}", directory, e.getMessage());
+            return null;
+        }
+        this.historyStores.put(namespace.house(), history);
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                history.compact();
+                history.force();
+            } catch (RuntimeException e) {
+                logger.warn("room history compaction failed", e);
+            }
+        }, 0, 1, TimeUnit.MINUTES);
+        Runtime.getRuntime().addShutdownHook(Thread.ofVirtual().unstarted(history::close));
+        return history;
+    }
+
+    /**
+     * Epoch millis or an ISO-8601 instant.
+     */
+    private static long parseTimestamp(String value, long defaultValue) {
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return Instant.parse(value).toEpochMilli();
+        }
+    }
+
+    /**
+     * Millis of a duration in seconds, or with one of {@code s}, {@code m}, {@code h} or {@code d} suffixes.
+     * 0 when the value is missing, which means raw records.
+     */
+    private static long parseDuration(String value) {
+        if (value == null || value.isEmpty()) {
+            return 0L;
+        }
+        var unit = switch (value.charAt(value.length() - 1)) {
+            case 's' -> TimeUnit.SECONDS;
+            case 'm' -> TimeUnit.MINUTES;
+            case 'h' -> TimeUnit.HOURS;
+            case 'd' -> TimeUnit.DAYS;
+            default -> null;
+        };
+        return unit == null
+                ? TimeUnit.SECONDS.toMillis(Long.parseLong(value))
+                : unit.toMillis(Long.parseLong(value.substring(0, value.length() - 1)));
+    }
+
+    /**
+     * Returns the tracked write of the command, null when the room or the command is unknown.
+     */
+    private SetpointWrite executeCommand(Command cmd) {
         logger.info("executing cmd: {}", cmd.command());
 
-        var maybeRoom = this.masterHandler.get().roomHandlerByNumber(cmd.roomNumber());
+        var house = house(cmd.house());
+        if (house == null) {
+            logger.info("house not found: {}", cmd.house());
+            return null;
+        }
+        var maybeRoom = house.masterHandler.roomHandlerByNumber(cmd.roomNumber());
         if (maybeRoom.isEmpty()) {
             logger.info("room not found: {}", cmd.roomNumber());
-            return;
+            return null;
         }
-        var roomHandler =  maybeRoom.get();
+        var setpoint = Setpoint.byCommand(cmd.command());
+        if (setpoint == null) {
+            logger.warn("unknown command: {}", cmd.command());
+            return null;
+        }
+        // written once no newer command of the same room setpoint arrives within the debounce window
+        return house.setpointPipeline.submit(cmd.roomNumber(), setpoint, cmd.value());
+    }
 
-        switch (cmd.command()) {
-            case "setHomeTemperature": {
-                roomHandler.setHomeTemperature(cmd.value());
-                break;
+    /**
+     * Every house gets its own publisher, all of them share a single client.
+     */
+    private Runnable subscribeHomeAssistantUpdates(String token, Options options) {
+        var houses = this.houses.values();
+        var unsubscribes = new ArrayList<Runnable>(houses.size() + 1);
+        if (options.haWebSocketSinkEnabled()) {
+            logger.warn("haSink is websocket: states are fired as {} events, sensor entities are not updated "
+                    + "unless template sensors consume the events, see DOCS.md", HomeAssistantWebSocketClient.STATE_EVENT_TYPE);
+            var webSocketClient = new HomeAssistantWebSocketClient(token, scheduler);
+            for (var house : houses) {
+                var publisher = new HomeAssistantPublisher(house.masterHandler, house.namespace, webSocketClient, options);
+                webSocketClient.onReady(publisher::resync);
+                unsubscribes.add(subscribe(house.masterHandler, publisher, options));
             }
-            case "setAwayTemperature": {
-                roomHandler.setAwayTemperature(cmd.value());
-                break;
-            }
-            case "setSleepTemperature": {
-                roomHandler.setSleepTemperature(cmd.value());
-                break;
+            webSocketClient.connect();
+            unsubscribes.add(webSocketClient::close);
+        } else {
+            // the client is kept across re-bootstraps
+            var client = homeAssistantClient.updateAndGet(current -> current != null ? current : new HomeAssistantClient(token));
+            for (var house : houses) {
+                var publisher = new HomeAssistantPublisher(house.masterHandler, house.namespace, client, options);
+                unsubscribes.add(subscribe(house.masterHandler, publisher, options));
             }
-            default:
-                logger.warn("unknown command: {}", cmd.command());
         }
+        return () -> unsubscribes.forEach(Runnable::run);
     }
 
-    private ScheduledFuture<?> scheduleHomeAssistantUpdates(String token, Options options) {
-        var masterHandler = this.masterHandler.get();
-        var homeAssistantClient = new HomeAssistantClient(token);
-        return scheduler.scheduleAtFixedRate(() -> {
-            try {
-                for (var room : masterHandler.listRooms()) {
-                    var sensorName = String.format(options.sensorNameFmt(), room.number());
-                    var state = room.toState();
-                    homeAssistantClient.upsertState(state, sensorName);
-                }
-
-                var iconMaster = masterHandler.iconMaster();
-                homeAssistantClient.upsertState(iconMaster.toState(), "sensor.danfoss_master_controller_last_updated");
-                logger.info("sensors updated successfully");
-            } catch (Exception e) {
-                logger.error("sensor update error", e);
-            }
-        }, 1, options.haUpdatePeriodInSeconds(), TimeUnit.SECONDS);
+    /**
+     * Publisher is woken up by state changes. The periodic tick only retries failed updates and sends heartbeats.
+     * Returns a callback which unsubscribes and stops the publisher.
+     */
+    private Runnable subscribe(IconMasterHandler masterHandler, CoalescingPublisher publisher, Options options) {
+        masterHandler.addStateListener(publisher);
+        publisher.start();
+        var tick = scheduler.scheduleAtFixedRate(publisher::tick, 1, options.haUpdatePeriodInSeconds(), TimeUnit.SECONDS);
+        return () -> {
+            tick.cancel(true);
+            masterHandler.removeStateListener(publisher);
+            publisher.close();
+        };
     }
 
     private String resolveToken() {
@@ -160,18 +550,50 @@ public class Bootstrapper {
         return System.getProperty("SUPERVISOR_TOKEN", "");
     }
 
-    private ScheduledFuture<?> scheduleMQTTUpdates(Options options) {
+    private Runnable subscribeMQTTUpdates(Options options) {
         String clientID = UUID.randomUUID().toString();
         try {
-            var mqttClient = new MqttClient(STR."tcp://\{options.mqttHost()}:\{options.mqttPort()}", clientID);
+            var mqttClient = new MqttAsyncClient(STR."tcp://\{options.mqttHost()}:\{options.mqttPort()}", clientID, null);
             var mqttConnOptions = new MqttConnectOptions();
             mqttConnOptions.setAutomaticReconnect(true);
             mqttConnOptions.setCleanSession(true);
             mqttConnOptions.setConnectionTimeout(10);
             mqttConnOptions.setKeepAliveInterval(options.mqttKeepAlive());
+            mqttConnOptions.setMaxInflight(MQTTPublisher.MAX_IN_FLIGHT);
             mqttConnOptions.setUserName(options.mqttUsername());
             mqttConnOptions.setPassword(options.mqttPassword().toCharArray());
-            mqttClient.connect(mqttConnOptions);
+
+            // every house gets its own publisher, all of them share the connection
+            var houses = List.copyOf(this.houses.values());
+            var publishers = houses.stream()
+                    .map(house -> new MQTTPublisher(house.masterHandler, house.namespace, mqttClient, this::executeCommand))
+                    .toList();
+            mqttClient.setCallback(new MqttCallbackExtended() {
+                @Override
+                public void connectComplete(boolean reconnect, String serverURI) {
+                    if (reconnect) {
+                        // clean session drops our subscriptions
+                        logger.info("MQTT connection re-established to {}", serverURI);
+                        publishers.forEach(MQTTPublisher::resync);
+                    }
+                }
+
+                @Override
+                public void connectionLost(Throwable cause) {
+                    logger.warn("MQTT connection lost: {}", cause.getMessage());
+                }
+
+                @Override
+                public void messageArrived(String topic, MqttMessage message) {
+                    // handled by topic listeners
+                }
+
+                @Override
+                public void deliveryComplete(IMqttDeliveryToken token) {
+                    // nop
+                }
+            });
+            mqttClient.connect(mqttConnOptions).waitForCompletion(TimeUnit.SECONDS.toMillis(30));
             Runtime.getRuntime().addShutdownHook(Thread.ofVirtual().unstarted(() -> {
                 try {
                     mqttClient.close(true);
@@ -180,82 +602,22 @@ public class Bootstrapper {
                 }
             }));
             logger.info("MQTT connection established successfully");
-            return scheduler.scheduleAtFixedRate(() -> {
-                var masterHandler = this.masterHandler.get();
+            var unsubscribes = new ArrayList<Runnable>(publishers.size());
+            for (int i = 0; i < houses.size(); i++) {
+                unsubscribes.add(subscribe(houses.get(i).masterHandler, publishers.get(i), options));
+            }
+            return () -> {
+                unsubscribes.forEach(Runnable::run);
                 try {
-                    var iconMaster = masterHandler.iconMaster();
-                    for (var room : masterHandler.listRooms()) {
-                        // first publish climate device
-                        var thermostatID = STR."danfoss_icon_thermostat_room_\{room.number()}";
-                        var entityTopic = STR."homeassistant/climate/\{thermostatID}/config";
-                        var climateEntity = room.toMQTTClimateEntity(thermostatID, STATE_TOPIC_FMT, SET_TOPIC_FMT, iconMaster);
-                        mqttClient.publish(entityTopic, Json.toJsonBytes(climateEntity), 0, false);
-
-                        // now publish update to state topic
-                        var stateTopic = String.format(STATE_TOPIC_FMT, room.number());
-                        var state = room.toState();
-                        mqttClient.publish(stateTopic, Json.toJsonBytes(state), 0, false);
-
-                        // and finally subscribe to set topic
-                        var setTopic = String.format(SET_TOPIC_FMT, room.number());
-                        var mqttToken = subscribeToTopic(setTopic, mqttClient);
-                        if (!mqttToken.isComplete()) {
-                            //force resubscribe
-                            mqttClient.unsubscribe(setTopic);
-                            subscribers.remove(setTopic);
-                            logger.info("MQTT subscriber removed = {}", setTopic);
-                        }
-                    }
-                    logger.info("MQTT sensors updated successfully");
-                } catch (Exception e) {
-                    logger.error("MQTT sensor update error", e);
+                    mqttClient.disconnect().waitForCompletion(TimeUnit.SECONDS.toMillis(30));
+                    mqttClient.close(true);
+                } catch (MqttException e) {
+                    logger.warn("unable to close MQTT connection", e);
                 }
-            }, 1, options.haUpdatePeriodInSeconds(), TimeUnit.SECONDS);
+            };
         } catch (MqttException e) {
             logger.error("unable to connect to MQTT broker", e);
             throw new RuntimeException(e);
         }
     }
-
-    private IMqttToken subscribeToTopic(String setTopic, MqttClient mqttClient) {
-        return subscribers.compute(setTopic, (key, listener) -> {
-            if (listener != null) {
-                return listener;
-            }
-
-            IMqttMessageListener newListener = (_, message) -> {
-                try {
-                    var setState = Json.fromString(message.toString(), MQTTSetState.class);
-                    // get room preset
-                    masterHandler.get().roomHandlerByNumber(setState.room_number())
-                            .map(IconRoomHandler::toIconRoom)
-                            .map(room -> switch (room.roomMode()) {
-                                case HOME -> "setHomeTemperature";
-                                case AWAY -> "setAwayTemperature";
-                                case SLEEP -> "setSleepTemperature";
-                                default -> "";
-                            })
-                            .filter(not(String::isEmpty))
-                            .map(cmdName -> new Command(cmdName, setState.room_number(), setState.temperature_target()))
-                            .ifPresent(this::executeCommand);
-                } catch (Throwable e) {
-                    logger.warn("got error on topic listener", e);
-                }
-            };
-            try {
-                var token = mqttClient.subscribeWithResponse(key, newListener);
-                if (token.getException() != null) {
-                    throw token.getException();
-                }
-                logger.info("subscribed to MQTT topic {} successfully", key);
-                return token;
-            } catch (MqttException e) {
-                logger.error("unable to subscribe to MQTT topic", e);
-                throw new RuntimeException(e);
-            }
-        });
-    }
-
-    private static final String STATE_TOPIC_FMT = "danfoss/icon/%d/state";
-    private static final String SET_TOPIC_FMT = "danfoss/icon/%d/set";
 }
@@ -0,0 +1,58 @@
+package net.soundvibe.hasio;
+
+import net.soundvibe.hasio.danfoss.protocol.DevicePoller;
+import net.soundvibe.hasio.danfoss.protocol.IconMasterHandler;
+import net.soundvibe.hasio.danfoss.protocol.PacketCapture;
+import net.soundvibe.hasio.danfoss.protocol.RoomRefreshScheduler;
+import net.soundvibe.hasio.danfoss.protocol.SetpointPipeline;
+import net.soundvibe.hasio.ha.HouseNamespace;
+import net.soundvibe.hasio.history.RoomHistoryStore;
+
+/**
+ * One Icon master managed by the addon, with its own connection and schedulers.
+ * Executors, Home Assistant and MQTT clients are shared by all the houses.
+ */
+final class House implements AutoCloseable {
+
+    final HouseNamespace namespace;
+    final IconMasterHandler masterHandler;
+    final RoomRefreshScheduler refreshScheduler;
+    final DevicePoller devicePoller;
+    final SetpointPipeline setpointPipeline;
+    // null when the history is disabled, outlives the house
+    private final RoomHistoryStore history;
+    // null when packets are not captured
+    private final PacketCapture capture;
+
+    House(HouseNamespace namespace, IconMasterHandler masterHandler, RoomRefreshScheduler refreshScheduler,
+          DevicePoller devicePoller, SetpointPipeline setpointPipeline, RoomHistoryStore history,
+          PacketCapture capture) {
+        this.namespace = namespace;
+        this.masterHandler = masterHandler;
+        this.refreshScheduler = refreshScheduler;
+        this.devicePoller = devicePoller;
+        this.setpointPipeline = setpointPipeline;
+        this.history = history;
+        this.capture = capture;
+    }
+
+    String id() {
+        return namespace.house();
+    }
+
+    @Override
+    public void close() {
+        refreshScheduler.close();
+        devicePoller.close();
+        // pending setpoints are still sent before the connection is gone
+        setpointPipeline.close();
+        if (history != null) {
+            masterHandler.removeStateListener(history);
+        }
+        masterHandler.dispose();
+        if (capture != null) {
+            masterHandler.captureTo(null);
+            capture.close();
+        }
+    }
+}
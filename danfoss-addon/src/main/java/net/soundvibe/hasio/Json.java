@@ -1,17 +1,22 @@
 package net.soundvibe.hasio;
 
 import com.google.gson.Gson;
+import net.soundvibe.hasio.ha.model.MQTTClimateEntity;
+import net.soundvibe.hasio.ha.model.State;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.function.Consumer;
 
 public final class Json {
 
     public static final Gson GSON = new Gson();
 
+    private static final ThreadLocal<JsonWriter> WRITERS = ThreadLocal.withInitial(() -> new JsonWriter(1024));
+
     public static <T> T fromPath(Path path, Class<T> classz) {
         try {
             var jsonString = Files.readString(path);
@@ -26,10 +31,67 @@ public final class Json {
     }
 
     public static String toJsonString(Object o) {
-        return GSON.toJson(o);
+        return switch (o) {
+            case State _, MQTTClimateEntity _ -> new String(toJsonBytes(o), StandardCharsets.UTF_8);
+            case null, default -> GSON.toJson(o);
+        };
     }
+
+    /**
+     * States and climate entities are written directly with {@link JsonWriter}, anything else goes through Gson.
+     */
     public static byte[] toJsonBytes(Object o) {
-        return GSON.toJson(o).getBytes(StandardCharsets.UTF_8);
+        return switch (o) {
+            case State state -> write(writer -> write(writer, state));
+            case MQTTClimateEntity entity -> write(writer -> write(writer, entity));
+            case null, default -> GSON.toJson(o).getBytes(StandardCharsets.UTF_8);
+        };
+    }
+
+    /**
+     * Writes a document with a reusable per-thread {@link JsonWriter}.
+     */
+    public static byte[] write(Consumer<JsonWriter> document) {
+        var writer = WRITERS.get().reset();
+        document.accept(writer);
+        return writer.toByteArray();
+    }
+
+    private static void write(JsonWriter writer, State state) {
+        writer.beginObject()
+                .field("state", state.state())
+                .field("attributes", state.attributes())
+                .endObject();
+    }
+
+    private static void write(JsonWriter writer, MQTTClimateEntity entity) {
+        writer.beginObject()
+                .field("unique_id", entity.unique_id())
+                .field("name", entity.name())
+                .field("modes", entity.modes())
+                .field("min_temp", entity.min_temp())
+                .field("max_temp", entity.max_temp())
+                .field("temp_step", entity.temp_step())
+                .field("device", entity.device())
+                .field("availability_topic", entity.availability_topic())
+                .field("availability_template", entity.availability_template())
+                .field("current_temperature_topic", entity.current_temperature_topic())
+                .field("current_temperature_template", entity.current_temperature_template())
+                .field("mode_state_topic", entity.mode_state_topic())
+                .field("mode_state_template", entity.mode_state_template())
+                .field("preset_modes", entity.preset_modes())
+                .field("preset_mode_command_topic", entity.preset_mode_command_topic())
+                .field("preset_mode_state_topic", entity.preset_mode_state_topic())
+                .field("preset_mode_value_template", entity.preset_mode_value_template())
+                .field("temperature_command_topic", entity.temperature_command_topic())
+                .field("temperature_command_template", entity.temperature_command_template())
+                .field("temperature_state_topic", entity.temperature_state_topic())
+                .field("temperature_state_template", entity.temperature_state_template())
+                .field("temperature_high_state_topic", entity.temperature_high_state_topic())
+                .field("temperature_high_state_template", entity.temperature_high_state_template())
+                .field("temperature_low_state_topic", entity.temperature_low_state_topic())
+                .field("temperature_low_state_template", entity.temperature_low_state_template())
+                .endObject();
     }
 
 }
@@ -0,0 +1,361 @@
+package net.soundvibe.hasio;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming JSON writer into a reusable UTF-8 byte buffer, for the fixed-shape documents sent on every state change.
+ * Produces the same output as {@link Json#GSON}: strings are escaped the same way (including HTML-safe characters),
+ * null fields are skipped and doubles are written as {@link Double#toString(double)} does.
+ * <p>
+ * Not thread safe, see {@link Json#write}.
+ */
+public final class JsonWriter {
+
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final int MAX_DEPTH = 64;
+
+    private byte[] buffer;
+    private int size;
+    private int depth;
+    // bit n is set when the container at depth n already has an element
+    private long nonEmpty;
+
+    public JsonWriter(int capacity) {
+        this.buffer = new byte[capacity];
+    }
+
+    public JsonWriter reset() {
+        size = 0;
+        depth = 0;
+        nonEmpty = 0L;
+        return this;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Writes out everything written so far and empties the buffer, keeping the nesting state,
+     * so that long documents can be streamed in chunks.
+     */
+    public JsonWriter flushTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, size);
+        size = 0;
+        return this;
+    }
+
+    public JsonWriter beginObject() {
+        separator();
+        return open('{');
+    }
+
+    public JsonWriter beginObject(String name) {
+        name(name);
+        return open('{');
+    }
+
+    public JsonWriter endObject() {
+        return close('}');
+    }
+
+    public JsonWriter beginArray() {
+        separator();
+        return open('[');
+    }
+
+    public JsonWriter beginArray(String name) {
+        name(name);
+        return open('[');
+    }
+
+    public JsonWriter endArray() {
+        return close(']');
+    }
+
+    public JsonWriter field(String name, String value) {
+        if (value != null) {
+            name(name);
+            string(value);
+        }
+        return this;
+    }
+
+    public JsonWriter field(String name, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException(STR."\{value} is not a valid double value as per JSON specification");
+        }
+        name(name);
+        number(value);
+        return this;
+    }
+
+    /**
+     * Writes the value as a string, same as {@code field(name, String.valueOf(value))}.
+     */
+    public JsonWriter stringField(String name, double value) {
+        name(name);
+        quote();
+        number(value);
+        quote();
+        return this;
+    }
+
+    /**
+     * Writes the value as a string, same as {@code field(name, String.valueOf(value))}.
+     */
+    public JsonWriter stringField(String name, long value) {
+        name(name);
+        quote();
+        integer(value);
+        quote();
+        return this;
+    }
+
+    public JsonWriter field(String name, List<String> values) {
+        if (values != null) {
+            name(name);
+            open('[');
+            for (int i = 0; i < values.size(); i++) {
+                separator();
+                var value = values.get(i);
+                if (value == null) {
+                    ascii(NULL);
+                } else {
+                    string(value);
+                }
+            }
+            close(']');
+        }
+        return this;
+    }
+
+    public JsonWriter field(String name, Map<String, String> values) {
+        if (values != null) {
+            beginObject(name);
+            for (var entry : values.entrySet()) {
+                field(entry.getKey(), entry.getValue());
+            }
+            endObject();
+        }
+        return this;
+    }
+
+    public JsonWriter field(String name, boolean value) {
+        name(name);
+        ascii(value ? TRUE : FALSE);
+        return this;
+    }
+
+    public JsonWriter field(String name, long value) {
+        name(name);
+        integer(value);
+        return this;
+    }
+
+    /**
+     * Copies all the members of an already serialized JSON object into the current object.
+     */
+    public JsonWriter rawMembers(byte[] objectJson) {
+        int start = 0;
+        int end = objectJson.length;
+        while (start < end && objectJson[start] != '{') {
+            start++;
+        }
+        while (end > start && objectJson[end - 1] != '}') {
+            end--;
+        }
+        start++;
+        end--;
+        if (start >= end) {
+            return this;
+        }
+        separator();
+        ensureCapacity(end - start);
+        System.arraycopy(objectJson, start, buffer, size, end - start);
+        size += end - start;
+        return this;
+    }
+
+    private void name(String name) {
+        separator();
+        string(name);
+        ensureCapacity(1);
+        buffer[size++] = ':';
+    }
+
+    private void separator() {
+        if (depth == 0) {
+            return;
+        }
+        long bit = 1L << (depth - 1);
+        if ((nonEmpty & bit) != 0) {
+            ensureCapacity(1);
+            buffer[size++] = ',';
+        } else {
+            nonEmpty |= bit;
+        }
+    }
+
+    private JsonWriter open(char bracket) {
+        if (depth == MAX_DEPTH) {
+            throw new IllegalStateException("JSON nesting is too deep");
+        }
+        ensureCapacity(1);
+        buffer[size++] = (byte) bracket;
+        nonEmpty &= ~(1L << depth);
+        depth++;
+        return this;
+    }
+
+    private JsonWriter close(char bracket) {
+        if (depth == 0) {
+            throw new IllegalStateException("nothing to close");
+        }
+        depth--;
+        ensureCapacity(1);
+        buffer[size++] = (byte) bracket;
+        return this;
+    }
+
+    private void number(double value) {
+        // decimals from the Icon are hundredths, they are written without going through Double.toString
+        long hundredths = Math.abs(value) < 1e7 ? Math.round(value * 100.0) : 0L;
+        if (hundredths != 0 && hundredths / 100.0 == value) {
+            if (hundredths < 0) {
+                ensureCapacity(1);
+                buffer[size++] = '-';
+                hundredths = -hundredths;
+            }
+            integer(hundredths / 100);
+            int fraction = (int) (hundredths % 100);
+            ensureCapacity(3);
+            buffer[size++] = '.';
+            buffer[size++] = (byte) ('0' + fraction / 10);
+            if (fraction % 10 != 0) {
+                buffer[size++] = (byte) ('0' + fraction % 10);
+            }
+            return;
+        }
+        var text = Double.toString(value);
+        ensureCapacity(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            buffer[size++] = (byte) text.charAt(i);
+        }
+    }
+
+    private void integer(long value) {
+        if (value == Long.MIN_VALUE) {
+            var text = Long.toString(value);
+            ensureCapacity(text.length());
+            for (int i = 0; i < text.length(); i++) {
+                buffer[size++] = (byte) text.charAt(i);
+            }
+            return;
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            buffer[size++] = '-';
+            value = -value;
+        }
+        int start = size;
+        do {
+            buffer[size++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = size - 1; i < j; i++, j--) {
+            var digit = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = digit;
+        }
+    }
+
+    private void string(String value) {
+        // worst case is a six byte escape for every char
+        ensureCapacity(value.length() * 6 + 2);
+        buffer[size++] = '"';
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                switch (c) {
+                    case '"' -> escape('"');
+                    case '\\' -> escape('\\');
+                    case '\t' -> escape('t');
+                    case '\b' -> escape('b');
+                    case '\n' -> escape('n');
+                    case '\r' -> escape('r');
+                    case '\f' -> escape('f');
+                    case '<', '>', '&', '=', '\'' -> unicodeEscape(c);
+                    default -> {
+                        if (c < 0x20) {
+                            unicodeEscape(c);
+                        } else {
+                            buffer[size++] = (byte) c;
+                        }
+                    }
+                }
+            } else if (c < 0x800) {
+                buffer[size++] = (byte) (0xC0 | (c >> 6));
+                buffer[size++] = (byte) (0x80 | (c & 0x3F));
+            } else if (c == '\u2028' || c == '\u2029') {
+                unicodeEscape(c);
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[size++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[size++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // same as String.getBytes(UTF_8) does with malformed input
+                buffer[size++] = '?';
+            } else {
+                buffer[size++] = (byte) (0xE0 | (c >> 12));
+                buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[size++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        buffer[size++] = '"';
+    }
+
+    private void quote() {
+        ensureCapacity(1);
+        buffer[size++] = '"';
+    }
+
+    private void escape(char c) {
+        buffer[size++] = '\\';
+        buffer[size++] = (byte) c;
+    }
+
+    private void unicodeEscape(char c) {
+        buffer[size++] = '\\';
+        buffer[size++] = 'u';
+        buffer[size++] = HEX[(c >> 12) & 0xF];
+        buffer[size++] = HEX[(c >> 8) & 0xF];
+        buffer[size++] = HEX[(c >> 4) & 0xF];
+        buffer[size++] = HEX[c & 0xF];
+    }
+
+    private void ascii(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package net.soundvibe.hasio.danfoss.data;
+
+import net.soundvibe.hasio.JsonWriter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Schedule of one room for one day of the week, as reported by {@code ROOM_SCHEDULE*} codes.
+ * <p>
+ * The 13 byte payload is kept verbatim, so that a schedule read from the master is written back byte for byte.
+ * It is an array as every other Dominion array: a length byte (12) followed by {@link #MAX_PERIODS} "at home"
+ * periods, each of them a start and an end minute of the day as little endian shorts. Periods which don't end
+ * after they start are unused.
+ */
+public final class DaySchedule {
+
+    public static final int PAYLOAD_LENGTH = 13;
+    public static final int MAX_PERIODS = 3;
+    public static final int MINUTES_PER_DAY = 24 * 60;
+
+    private static final int PERIOD_LENGTH = 4;
+
+    private final byte[] payload;
+
+    private DaySchedule(byte[] payload) {
+        this.payload = payload;
+    }
+
+    /**
+     * Schedule of the periods, encoded the way the master reports them.
+     */
+    public static DaySchedule of(List<Period> periods) {
+        if (periods.size() > MAX_PERIODS) {
+            throw new IllegalArgumentException(STR."at most \{MAX_PERIODS} periods per day: \{periods}");
+        }
+        var payload = new byte[PAYLOAD_LENGTH];
+        payload[0] = PAYLOAD_LENGTH - 1;
+        int previousEnd = 0;
+        for (int i = 0; i < periods.size(); i++) {
+            var period = periods.get(i);
+            if (period.startMinute() < previousEnd) {
+                throw new IllegalArgumentException(STR."periods must be ordered and must not overlap: \{periods}");
+            }
+            previousEnd = period.endMinute();
+            int offset = 1 + i * PERIOD_LENGTH;
+            putShort(payload, offset, period.startMinute());
+            putShort(payload, offset + 2, period.endMinute());
+        }
+        return new DaySchedule(payload);
+    }
+
+    /**
+     * Schedule of a reported payload, null when it doesn't have {@link #PAYLOAD_LENGTH} bytes.
+     */
+    public static DaySchedule fromPayload(byte[] data, int offset, int length) {
+        if (length != PAYLOAD_LENGTH) {
+            return null;
+        }
+        return new DaySchedule(Arrays.copyOfRange(data, offset, offset + length));
+    }
+
+    /**
+     * Schedule of a payload written as hex, e.g. copied from {@link #hex()}.
+     */
+    public static DaySchedule fromHex(String hex) {
+        var payload = HexFormat.of().parseHex(hex);
+        if (payload.length != PAYLOAD_LENGTH) {
+            throw new IllegalArgumentException(STR."schedule payload must have \{PAYLOAD_LENGTH} bytes: \{hex}");
+        }
+        return new DaySchedule(payload);
+    }
+
+    public List<Period> periods() {
+        var periods = new ArrayList<Period>(MAX_PERIODS);
+        for (int i = 0; i < MAX_PERIODS; i++) {
+            int offset = 1 + i * PERIOD_LENGTH;
+            int start = getShort(offset);
+            int end = getShort(offset + 2);
+            if (start < end && end <= MINUTES_PER_DAY) {
+                periods.add(new Period(start, end));
+            }
+        }
+        return periods;
+    }
+
+    /**
+     * Array data of the payload, i.e. without its length byte, as written by {@code Dominion.Packet}.
+     */
+    public byte[] arrayData() {
+        return Arrays.copyOfRange(payload, 1, payload.length);
+    }
+
+    public String hex() {
+        return HexFormat.of().formatHex(payload);
+    }
+
+    public void writeJson(JsonWriter writer) {
+        writer.beginArray("periods");
+        for (var period : periods()) {
+            writer.beginObject()
+                    .field("start", period.start())
+                    .field("end", period.end())
+                    .endObject();
+        }
+        writer.endArray()
+                .field("raw", hex());
+    }
+
+    private int getShort(int offset) {
+        return (payload[offset] & 0xFF) | ((payload[offset + 1] & 0xFF) << 8);
+    }
+
+    private static void putShort(byte[] payload, int offset, int value) {
+        payload[offset] = (byte) value;
+        payload[offset + 1] = (byte) (value >>> 8);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof DaySchedule other && Arrays.equals(payload, other.payload);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(payload);
+    }
+
+    @Override
+    public String toString() {
+        return STR."DaySchedule\{periods()}";
+    }
+
+    /**
+     * "At home" period from the start minute of the day, inclusive, to the end minute, exclusive.
+     */
+    public record Period(int startMinute, int endMinute) {
+
+        public Period {
+            if (startMinute < 0 || startMinute >= endMinute || endMinute > MINUTES_PER_DAY) {
+                throw new IllegalArgumentException(STR."invalid period: \{startMinute}-\{endMinute}");
+            }
+        }
+
+        /**
+         * Period of {@code HH:mm} times, the end of the day is {@code 24:00}.
+         */
+        public static Period parse(String start, String end) {
+            return new Period(minuteOfDay(start), minuteOfDay(end));
+        }
+
+        public String start() {
+            return time(startMinute);
+        }
+
+        public String end() {
+            return time(endMinute);
+        }
+
+        private static int minuteOfDay(String time) {
+            int colon = time == null ? -1 : time.indexOf(':');
+            if (colon < 1 || time.length() - colon != 3) {
+                throw new IllegalArgumentException(STR."time must be HH:mm: \{time}");
+            }
+            int hours = Integer.parseInt(time, 0, colon, 10);
+            int minutes = Integer.parseInt(time, colon + 1, time.length(), 10);
+            if (minutes > 59) {
+                throw new IllegalArgumentException(STR."time must be HH:mm: \{time}");
+            }
+            return hours * 60 + minutes;
+        }
+
+        private static String time(int minuteOfDay) {
+            int hours = minuteOfDay / 60;
+            int minutes = minuteOfDay % 60;
+            return STR."\{hours < 10 ? "0" : ""}\{hours}:\{minutes < 10 ? "0" : ""}\{minutes}";
+        }
+    }
+}
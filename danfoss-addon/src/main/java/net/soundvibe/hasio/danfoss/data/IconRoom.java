@@ -1,24 +1,31 @@
 package net.soundvibe.hasio.danfoss.data;
 
+import net.soundvibe.hasio.JsonWriter;
 import net.soundvibe.hasio.ha.model.MQTTClimateEntity;
 import net.soundvibe.hasio.ha.model.State;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import static java.util.Map.entry;
 
-public record IconRoom(String name, int number, double temperature,
+/**
+ * Snapshot of a room, {@code temperatureFloor} is null unless the room has a floor sensor.
+ */
+public record IconRoom(String name, int number, double temperature, Double temperatureFloor,
                        double temperatureHome, double temperatureAway, double temperatureSleep, double temperatureHigh, double temperatureLow,
                        short batteryPercent, HeatingState mode, RoomMode roomMode) {
 
+    private static final String[] MODE_NAMES = lowerCaseNames(HeatingState.values());
+    private static final String[] PRESET_NAMES = lowerCaseNames(RoomMode.values());
+
+    /**
+     * State of the temperature sensor. Mode, preset and the target temperature derived from the preset are left out
+     * until the room has reported them.
+     */
     public State toState() {
-        var temperatureTarget = switch (roomMode) {
-            case HOME, FATAL -> temperatureHome;
-            case AWAY -> temperatureAway;
-            case SLEEP -> temperatureSleep;
-        };
-        return new State(String.valueOf(temperature), Map.ofEntries(
+        var attributes = new HashMap<>(Map.ofEntries(
                 entry("unit_of_measurement", "°C"),
                 entry("friendly_name", String.format("%s temperature", name)),
                 entry("device_class", "temperature"),
@@ -30,11 +37,56 @@ public record IconRoom(String name, int number, double temperature,
                 entry( "temperature_sleep", String.valueOf(temperatureSleep)),
                 entry( "temperature_high", String.valueOf(temperatureHigh)),
                 entry( "temperature_low", String.valueOf(temperatureLow)),
-                entry( "temperature_target", String.valueOf(temperatureTarget)),
-                entry("room_number", String.valueOf(number)),
-                entry("mode", mode.name().toLowerCase()),
-                entry("preset", roomMode.name().toLowerCase())
+                entry("room_number", String.valueOf(number))
         ));
+        if (roomMode != null) {
+            attributes.put("temperature_target", String.valueOf(temperatureTarget()));
+            attributes.put("preset", PRESET_NAMES[roomMode.ordinal()]);
+        }
+        if (mode != null) {
+            attributes.put("mode", MODE_NAMES[mode.ordinal()]);
+        }
+        return new State(String.valueOf(temperature), attributes);
+    }
+
+    /**
+     * Writes the same document as {@code Json.toJsonBytes(toState())}, without building the {@link State}.
+     */
+    public void writeState(JsonWriter writer) {
+        writer.beginObject()
+                .stringField("state", temperature)
+                .beginObject("attributes")
+                .field("unit_of_measurement", "°C")
+                .field("friendly_name", STR."\{name} temperature")
+                .field("device_class", "temperature")
+                .field("state_class", "measurement")
+                .field("availability", "online")
+                .stringField("battery_level", batteryPercent)
+                .stringField("temperature_home", temperatureHome)
+                .stringField("temperature_away", temperatureAway)
+                .stringField("temperature_sleep", temperatureSleep)
+                .stringField("temperature_high", temperatureHigh)
+                .stringField("temperature_low", temperatureLow);
+        if (roomMode != null) {
+            writer.stringField("temperature_target", temperatureTarget());
+        }
+        writer.stringField("room_number", number);
+        if (mode != null) {
+            writer.field("mode", MODE_NAMES[mode.ordinal()]);
+        }
+        if (roomMode != null) {
+            writer.field("preset", PRESET_NAMES[roomMode.ordinal()]);
+        }
+        writer.endObject()
+                .endObject();
+    }
+
+    private double temperatureTarget() {
+        return switch (roomMode) {
+            case HOME, FATAL -> temperatureHome;
+            case AWAY -> temperatureAway;
+            case SLEEP -> temperatureSleep;
+        };
     }
 
     public MQTTClimateEntity toMQTTClimateEntity(String id, String stateTopicFmt, String setTopicFmt, IconMaster iconMaster) {
@@ -59,4 +111,12 @@ public record IconRoom(String name, int number, double temperature,
 
     private static final List<String> MODES = List.of("off", "heat", "cool");
     private static final List<String> PRESET_MODES = List.of("home", "away", "sleep");
+
+    private static String[] lowerCaseNames(Enum<?>[] values) {
+        var names = new String[values.length];
+        for (var value : values) {
+            names[value.ordinal()] = value.name().toLowerCase();
+        }
+        return names;
+    }
 }
@@ -2,6 +2,7 @@ package net.soundvibe.hasio.danfoss.protocol;
 
 import io.github.sonic_amiga.opensdg.java.PeerConnection;
 import net.soundvibe.hasio.danfoss.protocol.config.Dominion;
+import net.soundvibe.hasio.metrics.Metrics;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,16 +10,32 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HexFormat;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 
-public class DeviSmartConnection extends PeerConnection {
+public class DeviSmartConnection extends PeerConnection implements PeerLink {
     private final Logger logger = LoggerFactory.getLogger(DeviSmartConnection.class);
 
     private final SDGPeerConnector m_Handler;
+    private final Dominion.PacketCursor m_Cursor = new Dominion.PacketCursor();
+    private byte[] m_RxBuffer = new byte[RX_BUFFER_SIZE];
+
+    private static final int RX_BUFFER_SIZE = 2048;
 
     public DeviSmartConnection(SDGPeerConnector handler) {
         m_Handler = handler;
     }
 
+    @Override
+    public boolean isConnected() {
+        return getState() == State.CONNECTED;
+    }
+
+    @Override
+    public void send(byte[] data) throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        sendData(data);
+    }
+
     @Override
     protected void onError(@NotNull Throwable t) {
         m_Handler.setOfflineStatus(t);
@@ -26,40 +43,53 @@ public class DeviSmartConnection extends PeerConnection {
 
     @Override
     protected void onDataReceived(InputStream stream) {
-        int offset = 0;
         int length;
-        byte[] data;
 
+        // onDataReceived is always called from the single receive thread, so both the
+        // buffer and the cursor are reused for every incoming message
         try {
             length = stream.available();
-            data = new byte[length];
-            stream.read(data);
+            if (length > m_RxBuffer.length) {
+                m_RxBuffer = new byte[Integer.highestOneBit(length - 1) << 1];
+            }
+            length = stream.readNBytes(m_RxBuffer, 0, length);
         } catch (IOException e) {
             logger.warn("Failed to read input data: {}", e.toString());
             return;
         }
 
+        var capture = m_Handler.capture();
+        if (capture != null) {
+            capture.received(m_RxBuffer, 0, length);
+        }
+        dispatch(m_RxBuffer, length);
+    }
+
+    /**
+     * Applies the received buffer, also used by {@link PacketReplay} and {@link IconSimulator} to feed buffers
+     * which didn't come through the grid.
+     */
+    void dispatch(byte[] buffer, int length) {
         /*
          * For some reason the first data packet from the thermostat actually
          * consists of many merged messages. It looks like nothing forbids this
          * to be done at any moment. Also this suggests that garbage zero byte
          * in the beginning of this bunch could be a buffering bug.
          */
-        while (length >= Dominion.Packet.HeaderSize) {
-            Dominion.Packet pkt = new Dominion.Packet(data, offset);
-            int packetLen = pkt.getLength();
-
-            if (packetLen > length) {
-                // Packet header specifies more bytes than we have. The packet is clearly malformed.
-                logger.warn("Malformed data at position {}; size exceeds buffer", offset);
-                logger.warn(HexFormat.of().formatHex(data));
-                break; // Drop the rest of data and continue
-            }
-
-            m_Handler.handlePacket(pkt);
+        Metrics.BYTES_RECEIVED.add(length);
+        // headers only, the cursor is cheap to rewind
+        var packets = m_Cursor.reset(buffer, 0, length);
+        while (packets.next()) {
+            Metrics.PACKETS_RECEIVED.inc(Metrics.packetKey(packets.getMsgClass(), packets.getMsgCode()));
+        }
+        m_Handler.handleBatch(packets.reset(buffer, 0, length));
 
-            offset += packetLen;
-            length -= packetLen;
+        if (packets.isMalformed()) {
+            Metrics.MALFORMED_BUFFERS.inc();
+            // Packet header specifies more bytes than we have. The packet is clearly malformed.
+            logger.warn("Malformed data at position {}; size exceeds buffer", packets.position());
+            logger.warn(HexFormat.of().formatHex(buffer, 0, length));
+            // Drop the rest of data and continue
         }
     }
 }
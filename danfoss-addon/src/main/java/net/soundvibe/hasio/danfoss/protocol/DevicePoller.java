@@ -0,0 +1,150 @@
+package net.soundvibe.hasio.danfoss.protocol;
+
+import net.soundvibe.hasio.danfoss.protocol.config.Dominion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reads registered fields of rails, outputs and repeaters, which the master doesn't push on its own.
+ * <p>
+ * Every instance is probed once per connection with the first field of its scope, e.g. the error code.
+ * Instances which answered are then read field by field, round-robin across all of them, and the rest are
+ * left alone until the next (re)connect. A token bucket keeps the requests within the packets per minute budget,
+ * which is separate from the budget of {@link RoomRefreshScheduler}, so devices never slow down room polls.
+ */
+public class DevicePoller implements IconStateListener, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DevicePoller.class);
+
+    static final long TICK_MILLIS = 1_000;
+    // budget is accounted in packets per minute, so a packet costs a minute worth of millis
+    private static final long PACKET_COST = TimeUnit.MINUTES.toMillis(1);
+    private static final int ENTRIES = countEntries();
+
+    private final HouseState state;
+    private final PacketSender sender;
+    private final long creditsPerMilli;
+    private final long maxCredits;
+    private final AtomicBoolean connected = new AtomicBoolean();
+
+    // every field of every device instance, scope by scope, instance by instance
+    private final FieldScope[] entryScopes = new FieldScope[ENTRIES];
+    private final int[] entryInstances = new int[ENTRIES];
+    private final HouseField[] entryFields = new HouseField[ENTRIES];
+
+    // only used from the tick, which never runs concurrently with itself
+    // bit n is set when instance n has been probed since the last connect, indexed by scope ordinal
+    private final long[] probed = new long[FieldScope.values().length];
+    private final Dominion.Packet[] packets;
+    private int position;
+    private long credits;
+    private long lastTick = Long.MIN_VALUE;
+
+    private Future<?> ticks;
+
+    DevicePoller(HouseState state, PacketSender sender, int packetsPerMinute) {
+        if (packetsPerMinute <= 0) {
+            throw new IllegalArgumentException(STR."packetsPerMinute must be positive: \{packetsPerMinute}");
+        }
+        this.state = state;
+        this.sender = sender;
+        this.creditsPerMilli = packetsPerMinute;
+        // up to one tick worth of packets may be sent at once, but at least one
+        this.maxCredits = Math.max(PACKET_COST, packetsPerMinute * TICK_MILLIS);
+        this.packets = new Dominion.Packet[(int) Math.min(ENTRIES, maxCredits / PACKET_COST)];
+        int entry = 0;
+        for (var scope : FieldScope.DEVICES) {
+            var fields = HouseFields.of(scope);
+            for (int instance = 0; instance < scope.instances(); instance++) {
+                for (var field : fields) {
+                    entryScopes[entry] = scope;
+                    entryInstances[entry] = instance;
+                    entryFields[entry] = field;
+                    entry++;
+                }
+            }
+        }
+    }
+
+    public synchronized DevicePoller start(ScheduledExecutorService scheduler) {
+        if (ticks == null) {
+            ticks = scheduler.scheduleWithFixedDelay(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return this;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (ticks != null) {
+            ticks.cancel(false);
+        }
+    }
+
+    @Override
+    public void onConnected() {
+        connected.set(true);
+    }
+
+    private void tick() {
+        try {
+            tick(TimeUnit.NANOSECONDS.toMillis(System.nanoTime()));
+        } catch (Exception e) {
+            logger.error("device poll failed", e);
+        }
+    }
+
+    /**
+     * Sends the next requests the budget allows for and returns how many were sent.
+     */
+    int tick(long now) {
+        if (lastTick == Long.MIN_VALUE) {
+            credits = maxCredits;
+        } else {
+            credits = Math.min(maxCredits, credits + (now - lastTick) * creditsPerMilli);
+        }
+        lastTick = now;
+        if (connected.getAndSet(false)) {
+            // devices could have been added or removed while the connection was down
+            Arrays.fill(probed, 0L);
+        }
+
+        int budget = (int) Math.min(packets.length, credits / PACKET_COST);
+        int count = 0;
+        for (int scanned = 0; scanned < ENTRIES && count < budget; scanned++) {
+            int entry = position;
+            position = position + 1 == ENTRIES ? 0 : position + 1;
+            var scope = entryScopes[entry];
+            int instance = entryInstances[entry];
+            var field = entryFields[entry];
+            if (state.presentFields(scope, instance) == 0L) {
+                long bit = 1L << instance;
+                if (field.index != 0 || (probed[scope.ordinal()] & bit) != 0) {
+                    continue;
+                }
+                probed[scope.ordinal()] |= bit;
+            }
+            packets[count++] = new Dominion.Packet(scope.msgClass(instance), field.msgCode);
+        }
+        if (count > 0) {
+            credits -= count * PACKET_COST;
+            sender.send(packets, count);
+            Arrays.fill(packets, 0, count, null);
+            logger.debug("requested {} device fields", count);
+        }
+        return count;
+    }
+
+    private static int countEntries() {
+        int entries = 0;
+        for (var scope : FieldScope.DEVICES) {
+            entries += scope.instances() * HouseFields.of(scope).size();
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,78 @@
+package net.soundvibe.hasio.danfoss.protocol;
+
+import java.util.List;
+
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgClass.*;
+
+/**
+ * Range of message classes sharing the same fields, one instance per class. Classes outside of every range
+ * belong to the single {@link #MASTER} instance.
+ */
+public enum FieldScope {
+    MASTER(0, 0, "master"),
+    ROOM(ROOM_FIRST, ROOM_LAST, "room"),
+    RAIL(RAIL_FIRST, RAIL_LAST, "rail"),
+    OUTPUT(OUTPUT_FIRST, OUTPUT_LAST, "output"),
+    REPEATER(REPEATER_FIRST, REPEATER_LAST, "repeater");
+
+    /**
+     * Scopes of the hydronic installation, polled by {@link DevicePoller}.
+     */
+    public static final List<FieldScope> DEVICES = List.of(RAIL, OUTPUT, REPEATER);
+
+    private static final FieldScope[] BY_CLASS = new FieldScope[256];
+
+    static {
+        for (var scope : values()) {
+            if (scope != MASTER) {
+                for (int msgClass = scope.firstClass; msgClass <= scope.lastClass; msgClass++) {
+                    BY_CLASS[msgClass] = scope;
+                }
+            }
+        }
+        for (int msgClass = 0; msgClass < BY_CLASS.length; msgClass++) {
+            if (BY_CLASS[msgClass] == null) {
+                BY_CLASS[msgClass] = MASTER;
+            }
+        }
+    }
+
+    private final int firstClass;
+    private final int lastClass;
+    // used in REST paths and MQTT topics
+    public final String jsonName;
+
+    FieldScope(int firstClass, int lastClass, String jsonName) {
+        this.firstClass = firstClass;
+        this.lastClass = lastClass;
+        this.jsonName = jsonName;
+    }
+
+    public static FieldScope of(int msgClass) {
+        return BY_CLASS[msgClass & 0xFF];
+    }
+
+    /**
+     * Device scope of the name, null when there is no such device scope.
+     */
+    public static FieldScope deviceByJsonName(String jsonName) {
+        for (var scope : DEVICES) {
+            if (scope.jsonName.equals(jsonName)) {
+                return scope;
+            }
+        }
+        return null;
+    }
+
+    public int instances() {
+        return lastClass - firstClass + 1;
+    }
+
+    public int instance(int msgClass) {
+        return this == MASTER ? 0 : msgClass - firstClass;
+    }
+
+    public int msgClass(int instance) {
+        return firstClass + instance;
+    }
+}
@@ -0,0 +1,66 @@
+package net.soundvibe.hasio.danfoss.protocol;
+
+import net.soundvibe.hasio.danfoss.data.DaySchedule;
+import net.soundvibe.hasio.danfoss.protocol.config.Dominion;
+
+/**
+ * Payload types of registered fields. Numeric types are stored as doubles, which hold all of them exactly,
+ * the rest as objects.
+ */
+public enum FieldType {
+    /**
+     * Hundredths as a signed short, e.g. temperatures.
+     */
+    DECIMAL(true),
+    /**
+     * Signed byte.
+     */
+    BYTE(true),
+    /**
+     * Unsigned short.
+     */
+    SHORT(true),
+    /**
+     * Signed int.
+     */
+    INT(true),
+    STRING(false),
+    /**
+     * {@code major.minor} of a short, as a string.
+     */
+    VERSION(false),
+    /**
+     * UTC date and time, as an {@link java.time.Instant}.
+     */
+    DATE(false),
+    /**
+     * Weekly schedule of one day, as a {@link DaySchedule}.
+     */
+    SCHEDULE(false);
+
+    public final boolean numeric;
+
+    FieldType(boolean numeric) {
+        this.numeric = numeric;
+    }
+
+    double decodeNumber(Dominion.PacketCursor pkt) {
+        return switch (this) {
+            case DECIMAL -> pkt.getDecimal();
+            case BYTE -> pkt.getByte();
+            case SHORT -> Short.toUnsignedInt(pkt.getShort());
+            case INT -> pkt.getInt();
+            case STRING, VERSION, DATE, SCHEDULE -> throw new IllegalStateException(STR."\{this} is not numeric");
+        };
+    }
+
+    Object decodeObject(Dominion.PacketCursor pkt) {
+        return switch (this) {
+            case STRING -> pkt.getString();
+            case VERSION -> pkt.getVersion().toString();
+            case DATE -> pkt.getDate(0).toInstant();
+            case SCHEDULE -> DaySchedule.fromPayload(pkt.data(), pkt.getPayloadOffset(), pkt.getPayloadLength());
+            case DECIMAL, BYTE, SHORT, INT -> throw new IllegalStateException(STR."\{this} is numeric");
+        };
+    }
+}
@@ -0,0 +1,119 @@
+package net.soundvibe.hasio.danfoss.protocol;
+
+import io.github.sonic_amiga.opensdg.java.Connection;
+import io.github.sonic_amiga.opensdg.java.GridConnection;
+import net.soundvibe.hasio.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+
+/**
+ * Authenticated connection to the Danfoss grid of one private key, shared by every peer tunnel opened with that key.
+ * Peer reconnects open a new tunnel over the same session, the grid handshake is only repeated once the grid
+ * connection itself has failed or has been invalidated. The connection is closed when the last connector releases it.
+ */
+final class GridSession {
+
+    private static final Logger logger = LoggerFactory.getLogger(GridSession.class);
+
+    // guarded by GridSession.class
+    private static final Map<String, GridSession> sessions = new HashMap<>();
+
+    private final String key;
+    private final byte[] privateKey;
+    private final ScheduledExecutorService scheduler;
+    private final BiFunction<byte[], ScheduledExecutorService, GridConnection> connections;
+    // guarded by GridSession.class
+    private int references;
+
+    // guarded by this
+    private GridConnection grid;
+
+    private GridSession(String key, byte[] privateKey, ScheduledExecutorService scheduler,
+                        BiFunction<byte[], ScheduledExecutorService, GridConnection> connections) {
+        this.key = key;
+        this.privateKey = privateKey;
+        this.scheduler = scheduler;
+        this.connections = connections;
+    }
+
+    /**
+     * Session of the private key, it has to be released once it is not used anymore.
+     */
+    static GridSession acquire(byte[] privateKey, ScheduledExecutorService scheduler) {
+        return acquire(privateKey, scheduler, GridConnection::new);
+    }
+
+    /**
+     * Same as {@link #acquire(byte[], ScheduledExecutorService)}, grid connections of a new session are created
+     * by {@code connections}.
+     */
+    static GridSession acquire(byte[] privateKey, ScheduledExecutorService scheduler,
+                               BiFunction<byte[], ScheduledExecutorService, GridConnection> connections) {
+        var key = HexFormat.of().formatHex(privateKey);
+        synchronized (GridSession.class) {
+            var session = sessions.computeIfAbsent(key, _ -> new GridSession(key, privateKey, scheduler, connections));
+            session.references++;
+            return session;
+        }
+    }
+
+    void release() {
+        synchronized (GridSession.class) {
+            if (--references > 0) {
+                return;
+            }
+            sessions.remove(key);
+        }
+        synchronized (this) {
+            if (grid != null) {
+                grid.close();
+                grid = null;
+            }
+        }
+    }
+
+    /**
+     * The connected grid, it is connected again when the previous connection is gone.
+     */
+    synchronized GridConnection connection() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        if (grid != null && grid.getState() == Connection.State.CONNECTED) {
+            return grid;
+        }
+        if (grid != null) {
+            logger.info("Grid connection is {}, connecting again", grid.getState());
+            grid.close();
+            grid = null;
+        }
+        // errors close the connection, so a failed one is noticed by its state on the next connect
+        var connection = connections.apply(privateKey, scheduler);
+        Metrics.GRID_CONNECTS.inc();
+        try {
+            connection.connect(GridConnection.Danfoss);
+        } catch (IOException | InterruptedException | ExecutionException | TimeoutException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+        logger.info("Grid connection established");
+        grid = connection;
+        return connection;
+    }
+
+    /**
+     * Closes the connection, unless it has been replaced already, so that the next peer connect starts a new session.
+     */
+    synchronized void invalidate(GridConnection failed) {
+        if (grid == failed && grid != null) {
+            grid.close();
+            grid = null;
+        }
+    }
+}
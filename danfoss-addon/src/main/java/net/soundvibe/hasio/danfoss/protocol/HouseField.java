@@ -0,0 +1,53 @@
+package net.soundvibe.hasio.danfoss.protocol;
+
+import java.util.function.DoublePredicate;
+import java.util.function.Predicate;
+
+/**
+ * A message code of a {@link FieldScope} registered in {@link HouseFields}, decoded into a column of {@link HouseState}.
+ */
+public final class HouseField {
+
+    public final FieldScope scope;
+    public final String name;
+    public final int msgCode;
+    public final FieldType type;
+    // position within the scope, the bit of the field in changed and reported masks
+    final int index;
+    // position within numeric or object columns of the scope
+    final int column;
+    private final DoublePredicate acceptsNumber;
+    private final Predicate<Object> acceptsObject;
+
+    HouseField(FieldScope scope, String name, int msgCode, FieldType type, int index, int column,
+               DoublePredicate acceptsNumber, Predicate<Object> acceptsObject) {
+        this.scope = scope;
+        this.name = name;
+        this.msgCode = msgCode;
+        this.type = type;
+        this.index = index;
+        this.column = column;
+        this.acceptsNumber = acceptsNumber;
+        this.acceptsObject = acceptsObject;
+    }
+
+    public long bit() {
+        return 1L << index;
+    }
+
+    /**
+     * Values which are not accepted are ignored, as if the packet was never received.
+     */
+    boolean accepts(double value) {
+        return acceptsNumber == null || acceptsNumber.test(value);
+    }
+
+    boolean accepts(Object value) {
+        return value != null && (acceptsObject == null || acceptsObject.test(value));
+    }
+
+    @Override
+    public String toString() {
+        return STR."\{scope}.\{name}";
+    }
+}
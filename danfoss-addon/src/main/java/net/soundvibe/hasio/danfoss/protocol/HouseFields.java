@@ -0,0 +1,176 @@
+package net.soundvibe.hasio.danfoss.protocol;
+
+import net.soundvibe.hasio.danfoss.protocol.config.Icon;
+
+import java.time.DayOfWeek;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.DoublePredicate;
+import java.util.function.Predicate;
+
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.*;
+
+/**
+ * Registry of decoded message codes. Supporting a new code takes one entry here, its value is then kept
+ * in {@link HouseState} for every instance of the scope. Codes are dispatched by array lookups of
+ * the scope, the high byte and the low byte of the code, only the pages of registered codes are allocated.
+ * <p>
+ * Room fields keep the order of the {@code FIELD_*} bits of {@link IconRoomHandler}. The first field of every
+ * device scope is the one {@link DevicePoller} probes instances with.
+ */
+public final class HouseFields {
+
+    private static final FieldScope[] SCOPES = FieldScope.values();
+    private static final int PAGE_SIZE = 256;
+
+    @SuppressWarnings("unchecked")
+    private static final List<HouseField>[] FIELDS = new List[SCOPES.length];
+    private static final int[] NUMBER_COLUMNS = new int[SCOPES.length];
+    private static final int[] OBJECT_COLUMNS = new int[SCOPES.length];
+    // [scope][msgCode >>> 8][msgCode & 0xFF]
+    private static final HouseField[][][] BY_CODE = new HouseField[SCOPES.length][PAGE_SIZE][];
+
+    static {
+        for (var scope : SCOPES) {
+            FIELDS[scope.ordinal()] = new ArrayList<>();
+        }
+    }
+
+    public static final HouseField ROOM_NAME = register(FieldScope.ROOM, "name", ROOMNAME, FieldType.STRING,
+            null, name -> !((String) name).isEmpty());
+    public static final HouseField ROOM_TEMPERATURE = register(FieldScope.ROOM, "temperature", ROOM_ROOMTEMPERATURE, FieldType.DECIMAL);
+    public static final HouseField ROOM_TEMPERATURE_FLOOR = register(FieldScope.ROOM, "temperature_floor", ROOM_FLOORTEMPERATURE, FieldType.DECIMAL);
+    public static final HouseField ROOM_TEMPERATURE_FLOOR_MIN = register(FieldScope.ROOM, "temperature_floor_min", ROOM_FLOORTEMPERATUREMINIMUM, FieldType.DECIMAL);
+    public static final HouseField ROOM_TEMPERATURE_FLOOR_MAX = register(FieldScope.ROOM, "temperature_floor_max", ROOM_FLOORTEMPERATUREMAXIMUM, FieldType.DECIMAL);
+    public static final HouseField ROOM_SETPOINT_HIGH = register(FieldScope.ROOM, "setpoint_high", ROOM_SETPOINTMAXIMUM, FieldType.DECIMAL);
+    public static final HouseField ROOM_SETPOINT_LOW = register(FieldScope.ROOM, "setpoint_low", ROOM_SETPOINTMINIMUM, FieldType.DECIMAL);
+    public static final HouseField ROOM_SETPOINT_HOME = register(FieldScope.ROOM, "setpoint_home", ROOM_SETPOINTATHOME, FieldType.DECIMAL);
+    public static final HouseField ROOM_SETPOINT_AWAY = register(FieldScope.ROOM, "setpoint_away", ROOM_SETPOINTAWAY, FieldType.DECIMAL);
+    public static final HouseField ROOM_SETPOINT_SLEEP = register(FieldScope.ROOM, "setpoint_sleep", ROOM_SETPOINTASLEEP, FieldType.DECIMAL);
+    public static final HouseField ROOM_BATTERY = register(FieldScope.ROOM, "battery_percent", ROOM_BATTERYINDICATIONPERCENT, FieldType.BYTE);
+    public static final HouseField ROOM_MODE = register(FieldScope.ROOM, "room_mode", ROOM_ROOMMODE, FieldType.BYTE,
+            mode -> mode >= Icon.RoomMode.AtHome && mode <= Icon.RoomMode.Fatal, null);
+    public static final HouseField ROOM_CONTROL = register(FieldScope.ROOM, "room_control", ROOM_ROOMCONTROL, FieldType.BYTE);
+    public static final HouseField ROOM_HEATING_STATE = register(FieldScope.ROOM, "heating_state", ROOM_HEATINGCOOLINGSTATE, FieldType.BYTE);
+    public static final HouseField ROOM_OPERATION_MODE = register(FieldScope.ROOM, "operation_mode", ROOM_OPERATIONMODE, FieldType.BYTE);
+    public static final HouseField ROOM_ERROR_CODE = register(FieldScope.ROOM, "error_code", ROOM_ERRORCODE, FieldType.SHORT);
+    public static final HouseField ROOM_HEATING_COOLING_CONFIGURATION = register(FieldScope.ROOM, "heating_cooling_configuration",
+            ROOM_HEATINGCOOLINGCONFIGURATION, FieldType.BYTE);
+    public static final HouseField ROOM_COOLING_ENABLED = register(FieldScope.ROOM, "cooling_enabled", ROOM_COOLINGENABLED, FieldType.BYTE);
+    // one per day, from Monday to Sunday, see roomSchedule()
+    public static final HouseField ROOM_SCHEDULE_MONDAY = register(FieldScope.ROOM, "schedule_monday", ROOM_SCHEDULEMONDAY, FieldType.SCHEDULE);
+    public static final HouseField ROOM_SCHEDULE_TUESDAY = register(FieldScope.ROOM, "schedule_tuesday", ROOM_SCHEDULETUESDAY, FieldType.SCHEDULE);
+    public static final HouseField ROOM_SCHEDULE_WEDNESDAY = register(FieldScope.ROOM, "schedule_wednesday", ROOM_SCHEDULEWEDNESDAY, FieldType.SCHEDULE);
+    public static final HouseField ROOM_SCHEDULE_THURSDAY = register(FieldScope.ROOM, "schedule_thursday", ROOM_SCHEDULETHURSDAY, FieldType.SCHEDULE);
+    public static final HouseField ROOM_SCHEDULE_FRIDAY = register(FieldScope.ROOM, "schedule_friday", ROOM_SCHEDULEFRIDAY, FieldType.SCHEDULE);
+    public static final HouseField ROOM_SCHEDULE_SATURDAY = register(FieldScope.ROOM, "schedule_saturday", ROOM_SCHEDULESATURDAY, FieldType.SCHEDULE);
+    public static final HouseField ROOM_SCHEDULE_SUNDAY = register(FieldScope.ROOM, "schedule_sunday", ROOM_SCHEDULESUNDAY, FieldType.SCHEDULE);
+
+    public static final HouseField MASTER_HOUSE_NAME = register(FieldScope.MASTER, "house_name", HOUSE_NAME, FieldType.STRING);
+    public static final HouseField MASTER_VACATION_SETPOINT = register(FieldScope.MASTER, "vacation_setpoint", VACATION_SETPOINT, FieldType.DECIMAL);
+    public static final HouseField MASTER_PAUSE_SETPOINT = register(FieldScope.MASTER, "pause_setpoint", PAUSE_SETPOINT, FieldType.DECIMAL);
+    public static final HouseField MASTER_HARDWARE_REVISION = register(FieldScope.MASTER, "hardware_revision", GLOBAL_HARDWAREREVISION, FieldType.VERSION);
+    public static final HouseField MASTER_SOFTWARE_REVISION = register(FieldScope.MASTER, "software_revision", GLOBAL_SOFTWAREREVISION, FieldType.VERSION);
+    public static final HouseField MASTER_SOFTWARE_BUILD_REVISION = register(FieldScope.MASTER, "software_build_revision",
+            GLOBAL_SOFTWAREBUILDREVISION, FieldType.SHORT);
+    public static final HouseField MASTER_SERIAL_NUMBER = register(FieldScope.MASTER, "serial_number", GLOBAL_SERIALNUMBER, FieldType.INT);
+    public static final HouseField MASTER_PRODUCTION_DATE = register(FieldScope.MASTER, "production_date", GLOBAL_PRODUCTIONDATE, FieldType.DATE);
+    public static final HouseField MASTER_CONNECTION_COUNT = register(FieldScope.MASTER, "connection_count", MDG_CONNECTION_COUNT, FieldType.BYTE);
+
+    // rails, i.e. the master controller and its expansions: pump, boiler and inputs
+    public static final HouseField RAIL_ERROR_CODE = register(FieldScope.RAIL, "error_code", RAIL_ERRORCODE, FieldType.SHORT);
+    public static final HouseField RAIL_MODE = register(FieldScope.RAIL, "mode", Icon.MsgCode.RAIL_MODE, FieldType.BYTE);
+    public static final HouseField RAIL_PUMP_MODE = register(FieldScope.RAIL, "pump_mode", RAIL_PUMPMODE, FieldType.BYTE);
+    public static final HouseField RAIL_BOILER_MODE = register(FieldScope.RAIL, "boiler_mode", RAIL_BOILERMODE, FieldType.BYTE);
+    public static final HouseField RAIL_LOCAL_OUTPUT_ACTIVE = register(FieldScope.RAIL, "local_output_active", RAIL_LOCALOUTPUTACTIVE, FieldType.BYTE);
+    public static final HouseField RAIL_GLOBAL_OUTPUT_ACTIVE = register(FieldScope.RAIL, "global_output_active", RAIL_GLOBALOUTPUTACTIVE, FieldType.BYTE);
+    public static final HouseField RAIL_PUMP_START_DELAY = register(FieldScope.RAIL, "pump_start_delay", RAIL_PUMPSTARTDELAY, FieldType.SHORT);
+    public static final HouseField RAIL_PUMP_STOP_DELAY = register(FieldScope.RAIL, "pump_stop_delay", RAIL_PUMPSTOPDELAY, FieldType.SHORT);
+    public static final HouseField RAIL_BOILER_START_DELAY = register(FieldScope.RAIL, "boiler_start_delay", RAIL_BOILERSTARTDELAY, FieldType.SHORT);
+    public static final HouseField RAIL_BOILER_STOP_DELAY = register(FieldScope.RAIL, "boiler_stop_delay", RAIL_BOILERSTOPDELAY, FieldType.SHORT);
+    public static final HouseField RAIL_OUTPUTS_AVAILABLE = register(FieldScope.RAIL, "outputs_available", RAIL_OUTPUTSAVAILABLE, FieldType.SHORT);
+    public static final HouseField RAIL_OUTPUTS_IN_USE = register(FieldScope.RAIL, "outputs_in_use", RAIL_OUTPUTSINUSE, FieldType.SHORT);
+    public static final HouseField RAIL_OUTPUTS_ALARM_STATUS = register(FieldScope.RAIL, "outputs_alarm_status", RAIL_OUTPUTSALARMSTATUS, FieldType.SHORT);
+    public static final HouseField RAIL_INPUT_HEAT_OR_COOL = register(FieldScope.RAIL, "input_heat_or_cool", RAIL_INPUTHEATORCOOL, FieldType.BYTE);
+    public static final HouseField RAIL_INPUT_AWAY = register(FieldScope.RAIL, "input_away", RAIL_INPUTAWAY, FieldType.BYTE);
+    public static final HouseField RAIL_INPUT_DEW_POINT = register(FieldScope.RAIL, "input_dew_point", RAIL_INPUTDEWPOINT, FieldType.BYTE);
+    public static final HouseField RAIL_REFERENCE_ROOM = register(FieldScope.RAIL, "reference_room", RAIL_REFERENCEROOM, FieldType.BYTE);
+    public static final HouseField RAIL_REFERENCE_TEMPERATURE = register(FieldScope.RAIL, "reference_temperature", Icon.MsgCode.RAIL_REFERENCE_TEMPERATURE, FieldType.DECIMAL);
+
+    // outputs, i.e. actuators of the floor loops
+    public static final HouseField OUTPUT_ERROR_CODE = register(FieldScope.OUTPUT, "error_code", OUTPUT_ERRORCODE, FieldType.SHORT);
+    public static final HouseField OUTPUT_DUTY_CYCLE = register(FieldScope.OUTPUT, "duty_cycle", OUTPUT_REGULATIONFLOORDUTYCYCLE, FieldType.BYTE);
+    public static final HouseField OUTPUT_STATE_AUTO = register(FieldScope.OUTPUT, "state_auto", Icon.MsgCode.OUTPUT_STATE_AUTO, FieldType.BYTE);
+    public static final HouseField OUTPUT_STATE_MANUAL = register(FieldScope.OUTPUT, "state_manual", Icon.MsgCode.OUTPUT_STATE_MANUAL, FieldType.BYTE);
+    public static final HouseField OUTPUT_USED_BY_ROOM = register(FieldScope.OUTPUT, "used_by_room", OUTPUT_USEDBYROOM, FieldType.BYTE);
+    public static final HouseField OUTPUT_PERIOD_TIME = register(FieldScope.OUTPUT, "period_time", OUTPUT_PERIODTIME, FieldType.SHORT);
+    public static final HouseField OUTPUT_USER_INTERRUPTION = register(FieldScope.OUTPUT, "user_interruption", OUTPUT_USERINTERRUPTION, FieldType.BYTE);
+    public static final HouseField OUTPUT_ACTUATOR_TYPE = register(FieldScope.OUTPUT, "actuator_type", OUTPUT_OUTPUTACTUATORTYPE, FieldType.BYTE);
+
+    public static final HouseField REPEATER_ERROR_CODE = register(FieldScope.REPEATER, "error_code", REPEATER_ERRORCODE, FieldType.SHORT);
+
+    private HouseFields() {}
+
+    /**
+     * Field of the code, null when the code is not registered for the scope.
+     */
+    public static HouseField byCode(FieldScope scope, int msgCode) {
+        var page = BY_CODE[scope.ordinal()][(msgCode >>> 8) & 0xFF];
+        return page == null ? null : page[msgCode & 0xFF];
+    }
+
+    /**
+     * Room schedule field of the day.
+     */
+    public static HouseField roomSchedule(DayOfWeek day) {
+        return byCode(FieldScope.ROOM, ROOM_SCHEDULEMONDAY + day.ordinal());
+    }
+
+    /**
+     * Whether the message code is one of the room schedule days.
+     */
+    public static boolean isRoomSchedule(int msgCode) {
+        return msgCode >= ROOM_SCHEDULEMONDAY && msgCode <= ROOM_SCHEDULESUNDAY;
+    }
+
+    /**
+     * Fields of the scope in registration order, i.e. by their bits.
+     */
+    public static List<HouseField> of(FieldScope scope) {
+        return Collections.unmodifiableList(FIELDS[scope.ordinal()]);
+    }
+
+    static int numberColumns(FieldScope scope) {
+        return NUMBER_COLUMNS[scope.ordinal()];
+    }
+
+    static int objectColumns(FieldScope scope) {
+        return OBJECT_COLUMNS[scope.ordinal()];
+    }
+
+    private static HouseField register(FieldScope scope, String name, int msgCode, FieldType type) {
+        return register(scope, name, msgCode, type, null, null);
+    }
+
+    private static HouseField register(FieldScope scope, String name, int msgCode, FieldType type,
+                                       DoublePredicate acceptsNumber, Predicate<Object> acceptsObject) {
+        int s = scope.ordinal();
+        var fields = FIELDS[s];
+        if (fields.size() == Long.SIZE) {
+            throw new IllegalStateException(STR."too many fields of \{scope}");
+        }
+        if (msgCode < 0 || msgCode > 0xFFFF || byCode(scope, msgCode) != null) {
+            throw new IllegalStateException(STR."\{scope} msgCode \{msgCode} of \{name} is invalid or registered already");
+        }
+        int column = type.numeric ? NUMBER_COLUMNS[s]++ : OBJECT_COLUMNS[s]++;
+        var field = new HouseField(scope, name, msgCode, type, fields.size(), column, acceptsNumber, acceptsObject);
+        fields.add(field);
+        var page = BY_CODE[s][msgCode >>> 8];
+        if (page == null) {
+            page = BY_CODE[s][msgCode >>> 8] = new HouseField[PAGE_SIZE];
+        }
+        page[msgCode & 0xFF] = field;
+        return field;
+    }
+}
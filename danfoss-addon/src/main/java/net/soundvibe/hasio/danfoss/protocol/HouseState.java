@@ -0,0 +1,205 @@
+package net.soundvibe.hasio.danfoss.protocol;
+
+import net.soundvibe.hasio.JsonWriter;
+import net.soundvibe.hasio.danfoss.data.DaySchedule;
+import net.soundvibe.hasio.danfoss.protocol.config.Dominion;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Decoded values of one master, struct of arrays: every {@link HouseField} is a flat column holding
+ * the value of each instance of its scope, e.g. the temperatures of all the rooms, so scanning a field
+ * across rooms reads consecutive memory.
+ * <p>
+ * Values are written under the monitor of the state, by the receive thread and rarely by local commands,
+ * and published by {@link #committed()}. Reads don't lock: they see values as of the last commit or newer,
+ * values of different fields or instances may come from different commits. Consistent room snapshots
+ * are {@link net.soundvibe.hasio.danfoss.data.IconRoom}s.
+ */
+public final class HouseState {
+
+    private static final FieldScope[] SCOPES = FieldScope.values();
+
+    // [scope][column][instance]
+    private final double[][][] numbers = new double[SCOPES.length][][];
+    private final Object[][][] objects = new Object[SCOPES.length][][];
+    // field bits per instance, [scope][instance]
+    private final long[][] present = new long[SCOPES.length][];
+    private final long[][] changed = new long[SCOPES.length][];
+    private final long[][] reported = new long[SCOPES.length][];
+    private volatile long commits;
+
+    public HouseState() {
+        for (var scope : SCOPES) {
+            int s = scope.ordinal();
+            int instances = scope.instances();
+            numbers[s] = new double[HouseFields.numberColumns(scope)][instances];
+            objects[s] = new Object[HouseFields.objectColumns(scope)][instances];
+            present[s] = new long[instances];
+            changed[s] = new long[instances];
+            reported[s] = new long[instances];
+        }
+    }
+
+    /**
+     * Decodes the packet into the column of its field and returns the field, null when the code is not registered
+     * for the scope or the value is not accepted. Caller holds the monitor.
+     */
+    HouseField apply(FieldScope scope, int instance, int msgCode, Dominion.PacketCursor pkt) {
+        var field = HouseFields.byCode(scope, msgCode);
+        if (field == null) {
+            return null;
+        }
+        boolean accepted = field.type.numeric
+                ? put(field, instance, field.type.decodeNumber(pkt))
+                : put(field, instance, field.type.decodeObject(pkt));
+        if (!accepted) {
+            return null;
+        }
+        reported[scope.ordinal()][instance] |= field.bit();
+        return field;
+    }
+
+    /**
+     * Writes a numeric value, returns false when it is not accepted. Caller holds the monitor.
+     */
+    boolean put(HouseField field, int instance, double value) {
+        if (!field.accepts(value)) {
+            return false;
+        }
+        int s = field.scope.ordinal();
+        var column = numbers[s][field.column];
+        if (Double.compare(column[instance], value) != 0 || (present[s][instance] & field.bit()) == 0) {
+            column[instance] = value;
+            present[s][instance] |= field.bit();
+            changed[s][instance] |= field.bit();
+        }
+        return true;
+    }
+
+    /**
+     * Writes an object value, returns false when it is not accepted. Caller holds the monitor.
+     */
+    boolean put(HouseField field, int instance, Object value) {
+        if (!field.accepts(value)) {
+            return false;
+        }
+        int s = field.scope.ordinal();
+        var column = objects[s][field.column];
+        if (!Objects.equals(column[instance], value)) {
+            column[instance] = value;
+            present[s][instance] |= field.bit();
+            changed[s][instance] |= field.bit();
+        }
+        return true;
+    }
+
+    /**
+     * Returns and clears bits of fields changed since the previous call. Caller holds the monitor.
+     */
+    long takeChanged(FieldScope scope, int instance) {
+        var bits = changed[scope.ordinal()];
+        long fields = bits[instance];
+        bits[instance] = 0L;
+        return fields;
+    }
+
+    /**
+     * Returns and clears bits of fields reported since the previous call, whether they changed or not.
+     * Caller holds the monitor.
+     */
+    long takeReported(FieldScope scope, int instance) {
+        var bits = reported[scope.ordinal()];
+        long fields = bits[instance];
+        bits[instance] = 0L;
+        return fields;
+    }
+
+    /**
+     * Publishes the values written so far to readers.
+     */
+    void committed() {
+        commits++;
+    }
+
+    /**
+     * Bits of the fields of the instance which have been reported, 0 when the instance has never reported anything.
+     */
+    public long presentFields(FieldScope scope, int instance) {
+        acquire();
+        return present[scope.ordinal()][instance];
+    }
+
+    public boolean isPresent(HouseField field, int instance) {
+        acquire();
+        return (present[field.scope.ordinal()][instance] & field.bit()) != 0;
+    }
+
+    /**
+     * Value of a numeric field, 0 while it has not been reported.
+     */
+    public double number(HouseField field, int instance) {
+        acquire();
+        return numbers[field.scope.ordinal()][field.column][instance];
+    }
+
+    /**
+     * Value of an object field, null while it has not been reported.
+     */
+    public Object object(HouseField field, int instance) {
+        acquire();
+        return objects[field.scope.ordinal()][field.column][instance];
+    }
+
+    /**
+     * Copies the numeric column of the field, one value per instance of its scope, and returns the copy.
+     */
+    public double[] numbers(HouseField field, double[] into) {
+        acquire();
+        var column = numbers[field.scope.ordinal()][field.column];
+        System.arraycopy(column, 0, into, 0, column.length);
+        return into;
+    }
+
+    /**
+     * Copies the numeric column of the field into a new array.
+     */
+    public double[] numbers(HouseField field) {
+        return numbers(field, new double[field.scope.instances()]);
+    }
+
+    /**
+     * Writes reported fields of the instance as a JSON object with its {@code number}, integers are written
+     * as integers and dates as ISO-8601 strings.
+     */
+    public void writeJson(FieldScope scope, int instance, JsonWriter writer) {
+        long fields = presentFields(scope, instance);
+        var all = HouseFields.of(scope);
+        writer.beginObject().field("number", instance);
+        for (; fields != 0L; fields &= fields - 1) {
+            var field = all.get(Long.numberOfTrailingZeros(fields));
+            switch (field.type) {
+                case DECIMAL -> writer.field(field.name, number(field, instance));
+                case BYTE, SHORT, INT -> writer.field(field.name, (long) number(field, instance));
+                case STRING, VERSION, DATE -> writer.field(field.name, object(field, instance).toString());
+                case SCHEDULE -> writer.field(field.name, ((DaySchedule) object(field, instance)).hex());
+            }
+        }
+        writer.endObject();
+    }
+
+    public long commits() {
+        return commits;
+    }
+
+    private void acquire() {
+        // the volatile read orders the following plain reads after the last commit
+        long _ = commits;
+    }
+
+    @Override
+    public String toString() {
+        return STR."HouseState{commits=\{commits}, rooms=\{Arrays.toString(present[FieldScope.ROOM.ordinal()])}}";
+    }
+}
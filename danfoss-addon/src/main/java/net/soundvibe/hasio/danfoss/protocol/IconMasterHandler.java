@@ -1,150 +1,453 @@
 package net.soundvibe.hasio.danfoss.protocol;
 
+import net.soundvibe.hasio.danfoss.data.DaySchedule;
 import net.soundvibe.hasio.danfoss.data.IconMaster;
 import net.soundvibe.hasio.danfoss.data.IconRoom;
 import net.soundvibe.hasio.danfoss.protocol.config.Dominion;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.DayOfWeek;
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import static net.soundvibe.hasio.danfoss.protocol.config.DanfossBindingConstants.ICON_MAX_ROOMS;
 import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgClass.*;
-import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.*;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.ROOMNAME;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.VACATION_SETPOINT;
 
 
 public class IconMasterHandler implements PacketHandler {
     private final IconRoomHandler[] rooms = new IconRoomHandler[ICON_MAX_ROOMS];
+    // pre-allocated lookup results, so that lookups by number or name don't allocate
+    @SuppressWarnings("unchecked")
+    private final Optional<IconRoomHandler>[] roomLookups = new Optional[ICON_MAX_ROOMS];
     private final Map<String, IconRoomHandler> roomsByName = new ConcurrentHashMap<>(ICON_MAX_ROOMS * 2);
+    // bit n is set when room number n has a name
+    private volatile long namedRooms;
 
     private static final Logger logger = LoggerFactory.getLogger(IconMasterHandler.class);
+    private static final DayOfWeek[] DAYS = DayOfWeek.values();
 
-    private static class IconMasterControllerState {
-        private String houseName;
-        private double vacationSetPoint;
-        private double pauseSetPoint;
+    // decoded values of the master and of all the rooms, written by the receive thread under its monitor
+    private final HouseState state = new HouseState();
+    // rebuilt from the master columns on every commit of changed fields
+    private volatile IconMaster master = toIconMaster();
+    // receive thread only, rooms changed by the current commit and their snapshots before it
+    private final IconRoom[] roomsBefore = new IconRoom[ICON_MAX_ROOMS];
+    // receive thread only, instances of device scopes touched by the current commit and then the changed ones,
+    // indexed by scope ordinal
+    private final long[] touchedDevices = new long[FieldScope.values().length];
+    private final long[] changedDevices = new long[FieldScope.values().length];
 
-        private String hardwareRevision;
-        private String softwareRevision;
-        private String serialNumber;
-        private int softwareBuildRevision;
-        private int connectionCount;
-        private Instant productionDate;
+    private final List<IconStateListener> stateListeners = new CopyOnWriteArrayList<>();
+    private final IconStateListener dispatcher = new IconStateListener() {
+        @Override
+        public void onRoomChanged(IconRoom before, IconRoom after) {
+            each(listener -> listener.onRoomChanged(before, after));
+        }
 
-        public IconMaster toIconMaster() {
-            return new IconMaster(houseName, vacationSetPoint, pauseSetPoint, hardwareRevision, softwareRevision, serialNumber,
-                    softwareBuildRevision, connectionCount, productionDate);
+        @Override
+        public void onMasterChanged(IconMaster before, IconMaster after) {
+            each(listener -> listener.onMasterChanged(before, after));
+        }
+
+        @Override
+        public void onDevicesChanged(FieldScope scope, long changedInstances) {
+            each(listener -> listener.onDevicesChanged(scope, changedInstances));
+        }
+
+        @Override
+        public void onStateChanged(long changedRooms, boolean masterChanged) {
+            each(listener -> listener.onStateChanged(changedRooms, masterChanged));
         }
-    }
 
-    private final IconMasterControllerState state = new IconMasterControllerState();
+        @Override
+        public void onRoomCommanded(int roomNumber) {
+            each(listener -> listener.onRoomCommanded(roomNumber));
+        }
+
+        @Override
+        public void onSetpointReported(int roomNumber, Setpoint setpoint, double value) {
+            each(listener -> listener.onSetpointReported(roomNumber, setpoint, value));
+        }
 
-    private final ReadWriteLock lock = new ReentrantReadWriteLock(true);
+        @Override
+        public void onConnected() {
+            each(IconStateListener::onConnected);
+        }
+
+        private void each(Consumer<IconStateListener> notification) {
+            for (var listener : stateListeners) {
+                try {
+                    notification.accept(listener);
+                } catch (Exception e) {
+                    logger.warn("state listener failed", e);
+                }
+            }
+        }
+    };
     private final SDGPeerConnector connector;
 
     public IconMasterHandler(byte[] privateKey, ScheduledExecutorService executorService) {
         this.connector = new SDGPeerConnector(this, privateKey, executorService);
         for (int i = 0; i < ICON_MAX_ROOMS; i++) {
-            this.rooms[i] = new IconRoomHandler(this.connector, i);
+            this.rooms[i] = new IconRoomHandler(this.connector, i, dispatcher, state);
+            this.roomLookups[i] = Optional.of(this.rooms[i]);
         }
     }
 
     public void scanRooms(String housePeerId) {
         connector.initialize(housePeerId);
+        requestRoomNames();
+    }
+
+    /**
+     * Connects to the simulated master instead of a real one, the simulator still has to be started or ticked.
+     */
+    public void simulate(IconSimulator simulator) {
+        simulator.attach(connector);
+        requestRoomNames();
+    }
+
+    private void requestRoomNames() {
         // Request names for all the rooms
         for (int msgClass = ROOM_FIRST; msgClass <= ROOM_LAST; msgClass++) {
             connector.SendPacket(new Dominion.Packet(msgClass, ROOMNAME));
         }
     }
 
+    /**
+     * Captures raw buffers exchanged with the master from now on, see {@link PacketReplay}. Null stops capturing.
+     */
+    public void captureTo(PacketCapture capture) {
+        connector.capture(capture);
+    }
+
+    SDGPeerConnector connector() {
+        return connector;
+    }
+
+    /**
+     * Closes the connection to the master, listeners are not notified anymore.
+     */
+    public void dispose() {
+        connector.dispose();
+    }
+
+    /**
+     * Creates a scheduler which keeps polling the rooms of this master within the given budget.
+     * It still has to be started.
+     */
+    public RoomRefreshScheduler newRefreshScheduler(int packetsPerSecond) {
+        var refreshScheduler = new RoomRefreshScheduler(rooms, connector::SendPackets, packetsPerSecond);
+        addStateListener(refreshScheduler);
+        return refreshScheduler;
+    }
+
+    /**
+     * Creates a poller which keeps reading rails, outputs and repeaters of this master within the given budget.
+     * It still has to be started.
+     */
+    public DevicePoller newDevicePoller(int packetsPerMinute) {
+        var devicePoller = new DevicePoller(state, connector::SendPackets, packetsPerMinute);
+        addStateListener(devicePoller);
+        return devicePoller;
+    }
+
+    /**
+     * Creates a pipeline which writes debounced setpoints to the rooms of this master and confirms them
+     * by their echoes. It still has to be started.
+     */
+    public SetpointPipeline newSetpointPipeline(long debounceMillis) {
+        var setpointPipeline = new SetpointPipeline(rooms, connector::SendPackets, debounceMillis,
+                () -> TimeUnit.NANOSECONDS.toMillis(System.nanoTime()));
+        addStateListener(setpointPipeline);
+        return setpointPipeline;
+    }
+
+    public void addStateListener(IconStateListener listener) {
+        this.stateListeners.add(Objects.requireNonNull(listener));
+    }
+
+    public void removeStateListener(IconStateListener listener) {
+        this.stateListeners.remove(listener);
+    }
+
     public List<IconRoom> listRooms() {
         return this.roomsByName.values().stream()
                 .map(IconRoomHandler::toIconRoom)
                 .toList();
     }
 
+    public Collection<IconRoomHandler> roomHandlers() {
+        return this.roomsByName.values();
+    }
+
     public Optional<IconRoomHandler> roomHandlerByNumber(int number) {
-        return this.roomsByName.values().stream()
-                .filter(room -> room.roomNumber == number)
-                .findAny();
+        if (number < 0 || number >= ICON_MAX_ROOMS || (namedRooms & (1L << number)) == 0) {
+            return Optional.empty();
+        }
+        return roomLookups[number];
+    }
+
+    public Optional<IconRoomHandler> roomHandlerByName(String name) {
+        var room = name == null ? null : this.roomsByName.get(name);
+        return room == null ? Optional.empty() : roomLookups[room.roomNumber];
+    }
+
+    /**
+     * Writes weekly schedules of rooms by room number. Only the days whose encoding differs from the cached schedule
+     * are written, all of them as a single buffer. When the rooms are the whole house and a day is the same for all
+     * of them, it is written once through {@code ALL_ROOMS}. The cache is left as it is until the master reports
+     * the written days back, so writing the same schedules again retries the days which haven't been confirmed.
+     */
+    public ScheduleWrite writeSchedules(Map<Integer, Map<DayOfWeek, DaySchedule>> schedules) {
+        long requested = 0L;
+        for (int roomNumber : schedules.keySet()) {
+            requested |= 1L << roomNumber;
+        }
+        long named = namedRooms;
+        boolean wholeHouse = named != 0L && (requested & named) == named;
+        var packets = new Dominion.Packet[schedules.size() * DAYS.length];
+        int count = 0;
+        int days = 0;
+        for (var day : DAYS) {
+            var shared = wholeHouse ? sharedSchedule(schedules, day) : null;
+            int differing = 0;
+            for (var room : schedules.entrySet()) {
+                var roomHandler = rooms[room.getKey()];
+                var schedule = room.getValue().get(day);
+                if (schedule != null && !schedule.equals(roomHandler.schedule(day))) {
+                    differing++;
+                    if (shared == null) {
+                        packets[count++] = roomHandler.schedulePacket(day, schedule);
+                    }
+                }
+            }
+            if (shared != null && differing > 0) {
+                packets[count++] = new Dominion.Packet(ALL_ROOMS, HouseFields.roomSchedule(day).msgCode, shared.arrayData());
+            }
+            days += differing;
+        }
+        if (count == 0) {
+            return new ScheduleWrite(0, 0, true);
+        }
+        boolean sent = connector.SendPackets(packets, count);
+        if (sent) {
+            logger.info("{} room schedule days written in {} packets", days, count);
+        } else {
+            logger.warn("{} room schedule days not written, the master is not connected", days);
+        }
+        return new ScheduleWrite(days, count, sent);
+    }
+
+    /**
+     * Schedule of the day which every room gets, null when it differs between rooms or some room doesn't get one.
+     */
+    private static DaySchedule sharedSchedule(Map<Integer, Map<DayOfWeek, DaySchedule>> schedules, DayOfWeek day) {
+        DaySchedule shared = null;
+        for (var week : schedules.values()) {
+            var schedule = week.get(day);
+            if (schedule == null || (shared != null && !shared.equals(schedule))) {
+                return null;
+            }
+            shared = schedule;
+        }
+        return shared;
+    }
+
+    /**
+     * Requests schedule days of the room which have not been reported yet and returns how many were requested.
+     */
+    public int requestMissingSchedules(int roomNumber) {
+        var room = rooms[roomNumber];
+        var packets = new Dominion.Packet[DAYS.length];
+        int count = 0;
+        for (var day : DAYS) {
+            if (room.schedule(day) == null) {
+                packets[count++] = room.scheduleRequestPacket(day);
+            }
+        }
+        if (count > 0) {
+            connector.SendPackets(packets, count);
+        }
+        return count;
     }
 
     public IconMaster iconMaster() {
-        lock.readLock().lock();
-        try {
-            return state.toIconMaster();
-        } finally {
-            lock.readLock().unlock();
+        return master;
+    }
+
+    /**
+     * Decoded values of the master and its rooms by field, e.g. to scan one field across all the rooms.
+     */
+    public HouseState houseState() {
+        return state;
+    }
+
+    @Override
+    public void handlePacket(int msgClass, int msgCode, Dominion.PacketCursor pkt) {
+        IconMaster masterBefore;
+        long touchedRooms;
+        long changedRooms;
+        synchronized (state) {
+            masterBefore = master;
+            touchedRooms = apply(msgClass, msgCode, pkt);
+            changedRooms = commit(touchedRooms);
         }
+        notifyChanged(touchedRooms, changedRooms, masterBefore);
     }
 
+    /**
+     * Applies every packet of the buffer first and then publishes one new state per affected room
+     * and one for the master, followed by a single listener notification for the whole buffer.
+     */
     @Override
-    public void handlePacket(Dominion.Packet pkt) {
-        int msgClass = pkt.getMsgClass();
-
-        if (msgClass >= ROOM_FIRST && msgClass <= ROOM_LAST) {
-            var room = rooms[msgClass - ROOM_FIRST];
-            room.handlePacket(pkt);
-            var name = room.nameOrEmpty();
-            if (!name.isEmpty()) {
-                this.roomsByName.putIfAbsent(name, room);
+    public void handleBatch(Dominion.PacketCursor packets) {
+        IconMaster masterBefore;
+        long touchedRooms = 0L;
+        long changedRooms;
+        synchronized (state) {
+            masterBefore = master;
+            while (packets.next()) {
+                touchedRooms |= apply(packets.getMsgClass(), packets.getMsgCode(), packets);
             }
-        } else {
-            switch (pkt.getMsgCode()) {
-                case HOUSE_NAME: {
-                    lock.writeLock().lock();
-                    state.houseName = pkt.getString();
-                    lock.writeLock().unlock();
-                    break;
+            changedRooms = commit(touchedRooms);
+        }
+        notifyChanged(touchedRooms, changedRooms, masterBefore);
+    }
+
+    /**
+     * Decodes the packet into the state and returns the bit of the room it belongs to. Caller holds the monitor.
+     */
+    private long apply(int msgClass, int msgCode, Dominion.PacketCursor pkt) {
+        if (msgClass == ALL_ROOMS && HouseFields.isRoomSchedule(msgCode)) {
+            // a schedule written to all the rooms at once, reported the same way
+            long named = namedRooms;
+            for (long remaining = named; remaining != 0L; remaining &= remaining - 1) {
+                rooms[Long.numberOfTrailingZeros(remaining)].apply(msgCode, pkt);
+            }
+            return named;
+        }
+        var scope = FieldScope.of(msgClass);
+        if (scope == FieldScope.ROOM) {
+            int roomNumber = scope.instance(msgClass);
+            rooms[roomNumber].apply(msgCode, pkt);
+            return 1L << roomNumber;
+        }
+        int instance = scope.instance(msgClass);
+        if (state.apply(scope, instance, msgCode, pkt) != null && scope != FieldScope.MASTER) {
+            touchedDevices[scope.ordinal()] |= 1L << instance;
+        }
+        return 0L;
+    }
+
+    /**
+     * Publishes new snapshots of changed rooms and of the master and returns the changed rooms.
+     * Caller holds the monitor.
+     */
+    private long commit(long touchedRooms) {
+        long changedRooms = 0L;
+        for (long remaining = touchedRooms; remaining != 0L; remaining &= remaining - 1) {
+            int roomNumber = Long.numberOfTrailingZeros(remaining);
+            var room = rooms[roomNumber];
+            var before = room.toIconRoom();
+            int changedFields = room.commitPending();
+            if (changedFields == 0) {
+                continue;
+            }
+            changedRooms |= 1L << roomNumber;
+            roomsBefore[roomNumber] = before;
+            if ((changedFields & IconRoomHandler.FIELD_NAME) != 0) {
+                indexRoomName(room, before.name(), room.toIconRoom().name());
+            }
+        }
+        state.takeReported(FieldScope.MASTER, 0);
+        if (state.takeChanged(FieldScope.MASTER, 0) != 0) {
+            master = toIconMaster();
+        }
+        for (var scope : FieldScope.DEVICES) {
+            int s = scope.ordinal();
+            for (long touched = touchedDevices[s]; touched != 0L; touched &= touched - 1) {
+                int instance = Long.numberOfTrailingZeros(touched);
+                state.takeReported(scope, instance);
+                if (state.takeChanged(scope, instance) != 0) {
+                    changedDevices[s] |= 1L << instance;
                 }
-                case VACATION_SETPOINT:
-                    lock.writeLock().lock();
-                    state.vacationSetPoint = pkt.getDecimal();
-                    lock.writeLock().unlock();
-                    break;
-                case PAUSE_SETPOINT:
-                    lock.writeLock().lock();
-                    state.pauseSetPoint = pkt.getDecimal();
-                    lock.writeLock().unlock();
-                    break;
-                case GLOBAL_HARDWAREREVISION:
-                    lock.writeLock().lock();
-                    state.hardwareRevision = pkt.getVersion().toString();
-                    lock.writeLock().unlock();
-                    break;
-                case GLOBAL_SOFTWAREREVISION:
-                    lock.writeLock().lock();
-                    state.softwareRevision = pkt.getVersion().toString();
-                    lock.writeLock().unlock();
-                    break;
-                case GLOBAL_SOFTWAREBUILDREVISION:
-                    lock.writeLock().lock();
-                    state.softwareBuildRevision = Short.toUnsignedInt(pkt.getShort());
-                    lock.writeLock().unlock();
-                    break;
-                case GLOBAL_SERIALNUMBER:
-                    lock.writeLock().lock();
-                    state.serialNumber = String.valueOf(pkt.getInt());
-                    lock.writeLock().unlock();
-                    break;
-                case GLOBAL_PRODUCTIONDATE:
-                    lock.writeLock().lock();
-                    state.productionDate = pkt.getDate(0).toInstant();
-                    lock.writeLock().unlock();
-                    break;
-                case MDG_CONNECTION_COUNT:
-                    lock.writeLock().lock();
-                    state.connectionCount = pkt.getByte();
-                    lock.writeLock().unlock();
-                    break;
             }
+            touchedDevices[s] = 0L;
+        }
+        state.committed();
+        return changedRooms;
+    }
+
+    /**
+     * Notifies listeners about a commit, outside of the monitor so that listeners never delay local writes.
+     * Reported setpoints go first, echoes are reported whether they changed the room or not.
+     */
+    private void notifyChanged(long touchedRooms, long changedRooms, IconMaster masterBefore) {
+        for (long remaining = touchedRooms; remaining != 0L; remaining &= remaining - 1) {
+            rooms[Long.numberOfTrailingZeros(remaining)].notifySetpointsReported();
+        }
+        for (long remaining = changedRooms; remaining != 0L; remaining &= remaining - 1) {
+            int roomNumber = Long.numberOfTrailingZeros(remaining);
+            var before = roomsBefore[roomNumber];
+            roomsBefore[roomNumber] = null;
+            dispatcher.onRoomChanged(before, rooms[roomNumber].toIconRoom());
+        }
+        var masterAfter = master;
+        boolean masterChanged = masterAfter != masterBefore;
+        if (masterChanged) {
+            dispatcher.onMasterChanged(masterBefore, masterAfter);
+        }
+        for (var scope : FieldScope.DEVICES) {
+            long changed = changedDevices[scope.ordinal()];
+            if (changed != 0L) {
+                changedDevices[scope.ordinal()] = 0L;
+                dispatcher.onDevicesChanged(scope, changed);
+            }
+        }
+        if (changedRooms != 0L || masterChanged) {
+            dispatcher.onStateChanged(changedRooms, masterChanged);
+        }
+    }
+
+    private IconMaster toIconMaster() {
+        var serialNumber = state.isPresent(HouseFields.MASTER_SERIAL_NUMBER, 0)
+                ? String.valueOf((int) state.number(HouseFields.MASTER_SERIAL_NUMBER, 0))
+                : null;
+        return new IconMaster(
+                (String) state.object(HouseFields.MASTER_HOUSE_NAME, 0),
+                state.number(HouseFields.MASTER_VACATION_SETPOINT, 0),
+                state.number(HouseFields.MASTER_PAUSE_SETPOINT, 0),
+                (String) state.object(HouseFields.MASTER_HARDWARE_REVISION, 0),
+                (String) state.object(HouseFields.MASTER_SOFTWARE_REVISION, 0),
+                serialNumber,
+                (int) state.number(HouseFields.MASTER_SOFTWARE_BUILD_REVISION, 0),
+                (int) state.number(HouseFields.MASTER_CONNECTION_COUNT, 0),
+                (Instant) state.object(HouseFields.MASTER_PRODUCTION_DATE, 0));
+    }
+
+    private void indexRoomName(IconRoomHandler room, String oldName, String newName) {
+        if (!oldName.isEmpty()) {
+            this.roomsByName.remove(oldName, room);
+        }
+        if (!newName.isEmpty()) {
+            var previous = this.roomsByName.put(newName, room);
+            if (previous != null && previous != room) {
+                logger.warn("room name '{}' is used by rooms {} and {}", newName, previous.roomNumber, room.roomNumber);
+            }
+            namedRooms |= 1L << room.roomNumber;
         }
     }
 
@@ -152,4 +455,9 @@ public class IconMasterHandler implements PacketHandler {
     public void ping() {
         this.connector.SendPacket(new Dominion.Packet(ALL_ROOMS, VACATION_SETPOINT));
     }
+
+    @Override
+    public void connected() {
+        dispatcher.onConnected();
+    }
 }
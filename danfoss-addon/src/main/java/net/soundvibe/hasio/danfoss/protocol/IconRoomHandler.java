@@ -1,5 +1,6 @@
 package net.soundvibe.hasio.danfoss.protocol;
 
+import net.soundvibe.hasio.danfoss.data.DaySchedule;
 import net.soundvibe.hasio.danfoss.data.HeatingState;
 import net.soundvibe.hasio.danfoss.data.IconRoom;
 import net.soundvibe.hasio.danfoss.data.RoomMode;
@@ -8,149 +9,128 @@ import net.soundvibe.hasio.danfoss.protocol.config.Icon;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.time.DayOfWeek;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgClass.ROOM_FIRST;
-import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.*;
-
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.ROOMNAME;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.ROOM_ROOMTEMPERATURE;
+
+/**
+ * One room of a master. Reported values are decoded into the room columns of the {@link HouseState} shared
+ * with the master, every commit of changed fields publishes a new immutable {@link IconRoom} snapshot,
+ * so readers never block the receive thread.
+ */
 public class IconRoomHandler implements PacketHandler {
 
     private static final Logger logger = LoggerFactory.getLogger(IconRoomHandler.class);
 
-    private static class Room {
-        private String roomName;
-        private double temperature;
-        private double temperatureFloor;
-        private double temperatureFloorMin;
-        private double temperatureFloorMax;
-        private double setPointHigh;
-        private double setPointLow;
-        private double setPointHome;
-        private double setPointAway;
-        private double setPointSleep;
-        private short batteryPercent;
-        private RoomMode roomMode;
-        private boolean manualControl;
-        private HeatingState heatingState;
-
-        public final int roomNumber;
-
-        private Room(int roomNumber) {
-            this.roomNumber = roomNumber;
-            this.roomName = "";
-        }
-
-        @Override
-        public String toString() {
-            return STR."Room{roomName='\{roomName}\{'\''}, temperature=\{temperature}, temperatureFloor=\{temperatureFloor}, temperatureFloorMin=\{temperatureFloorMin}, temperatureFloorMax=\{temperatureFloorMax}, setPointHigh=\{setPointHigh}, setPointLow=\{setPointLow}, setPointHome=\{setPointHome}, setPointAway=\{setPointAway}, setPointSleep=\{setPointSleep}, batteryPercent=\{batteryPercent}, roomMode=\{roomMode}, manualControl=\{manualControl}, heatingState=\{heatingState}, roomNumber=\{roomNumber}\{'}'}";
-        }
-    }
-
-    private final Room room;
+    // changed field bits returned by commitPending(), the bits of the room fields of HouseFields
+    public static final int FIELD_NAME = (int) HouseFields.ROOM_NAME.bit();
+    public static final int FIELD_TEMPERATURE = (int) HouseFields.ROOM_TEMPERATURE.bit();
+    public static final int FIELD_TEMPERATURE_FLOOR = (int) HouseFields.ROOM_TEMPERATURE_FLOOR.bit();
+    public static final int FIELD_TEMPERATURE_FLOOR_MIN = (int) HouseFields.ROOM_TEMPERATURE_FLOOR_MIN.bit();
+    public static final int FIELD_TEMPERATURE_FLOOR_MAX = (int) HouseFields.ROOM_TEMPERATURE_FLOOR_MAX.bit();
+    public static final int FIELD_SETPOINT_HIGH = (int) HouseFields.ROOM_SETPOINT_HIGH.bit();
+    public static final int FIELD_SETPOINT_LOW = (int) HouseFields.ROOM_SETPOINT_LOW.bit();
+    public static final int FIELD_SETPOINT_HOME = (int) HouseFields.ROOM_SETPOINT_HOME.bit();
+    public static final int FIELD_SETPOINT_AWAY = (int) HouseFields.ROOM_SETPOINT_AWAY.bit();
+    public static final int FIELD_SETPOINT_SLEEP = (int) HouseFields.ROOM_SETPOINT_SLEEP.bit();
+    public static final int FIELD_BATTERY = (int) HouseFields.ROOM_BATTERY.bit();
+    public static final int FIELD_ROOM_MODE = (int) HouseFields.ROOM_MODE.bit();
+    public static final int FIELD_ROOM_CONTROL = (int) HouseFields.ROOM_CONTROL.bit();
+    public static final int FIELD_HEATING_STATE = (int) HouseFields.ROOM_HEATING_STATE.bit();
+    // fields reported as room changes, the rest of the room fields are only kept in the state, e.g. schedules
+    static final int ROOM_FIELDS = FIELD_NAME | FIELD_TEMPERATURE | FIELD_TEMPERATURE_FLOOR | FIELD_TEMPERATURE_FLOOR_MIN
+            | FIELD_TEMPERATURE_FLOOR_MAX | FIELD_SETPOINT_HIGH | FIELD_SETPOINT_LOW | FIELD_SETPOINT_HOME | FIELD_SETPOINT_AWAY
+            | FIELD_SETPOINT_SLEEP | FIELD_BATTERY | FIELD_ROOM_MODE | FIELD_ROOM_CONTROL | FIELD_HEATING_STATE;
+
+    private final HouseState state;
+    // rebuilt from the columns of the room on every commit of changed fields
+    private volatile IconRoom room;
+    // FIELD_* bits reported by the master since the last drainReceived()
+    private final AtomicInteger received = new AtomicInteger();
+    // receive thread only, Setpoint ordinal bits reported since the last notifySetpointsReported() and their last values
+    private int reportedSetpoints;
+    private final double[] reportedValues = new double[SETPOINTS.length];
     private final SDGPeerConnector connector;
+    private final IconStateListener stateListener;
     public final int roomNumber;
-    private final ReadWriteLock lock;
 
-    public IconRoomHandler(SDGPeerConnector connector, int roomNumber) {
-        this.room = new Room(roomNumber);
-        this.lock = new ReentrantReadWriteLock(true);
+    private static final Setpoint[] SETPOINTS = Setpoint.values();
+
+    public IconRoomHandler(SDGPeerConnector connector, int roomNumber, IconStateListener stateListener) {
+        this(connector, roomNumber, stateListener, new HouseState());
+    }
+
+    IconRoomHandler(SDGPeerConnector connector, int roomNumber, IconStateListener stateListener, HouseState state) {
+        this.state = state;
         this.connector = connector;
         this.roomNumber = roomNumber;
+        this.stateListener = stateListener;
+        this.room = snapshot();
     }
 
     public String nameOrEmpty() {
-        lock.readLock().lock();
-        try {
-            return room.roomName;
-        } finally {
-            lock.readLock().unlock();
-        }
+        return room.name();
     }
 
     @Override
-    public void handlePacket(Dominion.Packet pkt) {
-        switch (pkt.getMsgCode()) {
-            case ROOM_FLOORTEMPERATURE:
-                lock.writeLock().lock();
-                room.temperatureFloor = pkt.getDecimal();
-                lock.writeLock().unlock();
-                break;
-            case ROOM_ROOMTEMPERATURE:
-                lock.writeLock().lock();
-                room.temperature = pkt.getDecimal();
-                lock.writeLock().unlock();
-                break;
-            case ROOM_SETPOINTMAXIMUM:
-                lock.writeLock().lock();
-                room.setPointHigh = pkt.getDecimal();
-                lock.writeLock().unlock();
-                break;
-            case ROOM_SETPOINTMINIMUM:
-                lock.writeLock().lock();
-                room.setPointLow = pkt.getDecimal();
-                lock.writeLock().unlock();
-                break;
-            case ROOM_SETPOINTATHOME:
-                lock.writeLock().lock();
-                room.setPointHome = pkt.getDecimal();
-                lock.writeLock().unlock();
-                break;
-            case ROOM_SETPOINTASLEEP:
-                lock.writeLock().lock();
-                room.setPointSleep = pkt.getDecimal();
-                lock.writeLock().unlock();
-                break;
-            case ROOM_SETPOINTAWAY:
-                lock.writeLock().lock();
-                room.setPointAway = pkt.getDecimal();
-                lock.writeLock().unlock();
-                break;
-            case ROOM_FLOORTEMPERATUREMINIMUM:
-                lock.writeLock().lock();
-                room.temperatureFloorMin = pkt.getDecimal();
-                lock.writeLock().unlock();
-                break;
-            case ROOM_FLOORTEMPERATUREMAXIMUM:
-                lock.writeLock().lock();
-                room.temperatureFloorMax = pkt.getDecimal();
-                lock.writeLock().unlock();
-                break;
-            case ROOM_BATTERYINDICATIONPERCENT:
-                lock.writeLock().lock();
-                room.batteryPercent = pkt.getByte();
-                lock.writeLock().unlock();
-                break;
-            case ROOM_ROOMMODE:
-                setRoomMode(pkt.getByte());
-                break;
-            case ROOM_ROOMCONTROL:
-                lock.writeLock().lock();
-                room.manualControl = pkt.getByte() == Icon.RoomControl.Manual;
-                lock.writeLock().unlock();
-                break;
-            case ROOMNAME:
-                var roomName = pkt.getString();
-                if (roomName != null && !roomName.isEmpty()) {
-                    lock.writeLock().lock();
-                    room.roomName = roomName;
-                    logger.debug("room={}", room);
-                    lock.writeLock().unlock();
-                }
-                break;
-            case ROOM_HEATINGCOOLINGSTATE:
-                lock.writeLock().lock();
-                room.heatingState = switch (pkt.getByte()) {
-                    case 1 -> HeatingState.HEAT;
-                    case 2 -> HeatingState.COOL;
-                    default -> HeatingState.OFF;
-                };
-                lock.writeLock().unlock();
-                break;
-            case ROOM_HEATINGCOOLINGCONFIGURATION:
-                logger.debug("room heating/cooling configuration={}", pkt.getByte());
-                break;
+    public void handlePacket(int msgClass, int msgCode, Dominion.PacketCursor pkt) {
+        synchronized (state) {
+            apply(msgCode, pkt);
+            commitPending();
+            state.committed();
         }
+        notifySetpointsReported();
+    }
+
+    /**
+     * Decodes the packet into the room columns without publishing a new snapshot, see {@link #commitPending()}.
+     * Reported setpoints are kept until {@link #notifySetpointsReported()}. Caller holds the monitor of the state.
+     */
+    void apply(int msgCode, Dominion.PacketCursor pkt) {
+        var field = state.apply(FieldScope.ROOM, roomNumber, msgCode, pkt);
+        if (field == null) {
+            return;
+        }
+        var setpoint = Setpoint.byMsgCode(msgCode);
+        if (setpoint != null) {
+            reportedSetpoints |= 1 << setpoint.ordinal();
+            reportedValues[setpoint.ordinal()] = state.number(field, roomNumber);
+        }
+    }
+
+    /**
+     * Notifies the listener about setpoints reported since the previous call, with the last reported value of each.
+     * Called by the receive thread outside of the monitor of the state.
+     */
+    void notifySetpointsReported() {
+        for (int remaining = reportedSetpoints; remaining != 0; remaining &= remaining - 1) {
+            int ordinal = Integer.numberOfTrailingZeros(remaining);
+            stateListener.onSetpointReported(roomNumber, SETPOINTS[ordinal], reportedValues[ordinal]);
+        }
+        reportedSetpoints = 0;
+    }
+
+    /**
+     * Publishes all the changes applied since the previous commit as a single new snapshot.
+     * Returns changed {@code FIELD_*} bits, changes of other room fields are not returned.
+     * Caller holds the monitor of the state.
+     */
+    int commitPending() {
+        int reported = (int) state.takeReported(FieldScope.ROOM, roomNumber);
+        if (reported != 0) {
+            received.getAndAccumulate(reported, (fields, bits) -> fields | bits);
+        }
+        int changed = (int) state.takeChanged(FieldScope.ROOM, roomNumber) & ROOM_FIELDS;
+        if (changed != 0) {
+            room = snapshot();
+            if ((changed & FIELD_NAME) != 0) {
+                logger.debug("room={}", room);
+            }
+        }
+        return changed;
     }
 
     @Override
@@ -159,60 +139,106 @@ public class IconRoomHandler implements PacketHandler {
     }
 
     public void refresh() {
-        this.connector.SendPacket(new Dominion.Packet(ROOM_FIRST + roomNumber, ROOM_ROOMTEMPERATURE));
-    }
-
-    public void setHomeTemperature(double newTemperature) {
-        this.connector.SendPacket(new Dominion.Packet(ROOM_FIRST + roomNumber, ROOM_SETPOINTATHOME, newTemperature));
-        lock.writeLock().lock();
-        room.setPointHome = newTemperature;
-        lock.writeLock().unlock();
-    }
-
-    public void setAwayTemperature(double newTemperature) {
-        this.connector.SendPacket(new Dominion.Packet(ROOM_FIRST + roomNumber, ROOM_SETPOINTAWAY, newTemperature));
-        lock.writeLock().lock();
-        room.setPointAway = newTemperature;
-        lock.writeLock().unlock();
-    }
-
-    public void setSleepTemperature(double newTemperature) {
-        this.connector.SendPacket(new Dominion.Packet(ROOM_FIRST + roomNumber, ROOM_SETPOINTASLEEP, newTemperature));
-        lock.writeLock().lock();
-        room.setPointSleep = newTemperature;
-        lock.writeLock().unlock();
-    }
-
-    private void setRoomMode(byte mode) {
-        lock.writeLock().lock();
-        try {
-            switch (mode) {
-                case Icon.RoomMode.AtHome:
-                    room.roomMode = RoomMode.HOME;
-                    break;
-                case Icon.RoomMode.Away:
-                    room.roomMode = RoomMode.AWAY;
-                    break;
-                case Icon.RoomMode.Asleep:
-                    room.roomMode = RoomMode.SLEEP;
-                    break;
-                case Icon.RoomMode.Fatal:
-                    room.roomMode = RoomMode.FATAL;
-                    break;
-            }
-        } finally {
-            lock.writeLock().unlock();
+        this.connector.SendPacket(refreshPacket());
+    }
+
+    /**
+     * Request for the room temperature, or for the name while the room has none,
+     * as a room without a name may not exist at all.
+     */
+    Dominion.Packet refreshPacket() {
+        return new Dominion.Packet(ROOM_FIRST + roomNumber, nameOrEmpty().isEmpty() ? ROOMNAME : ROOM_ROOMTEMPERATURE);
+    }
+
+    /**
+     * Returns {@code FIELD_*} bits reported by the master since the previous call, whether they changed or not.
+     */
+    int drainReceived() {
+        return received.getAndSet(0);
+    }
+
+    /**
+     * Request for the current value of one {@code FIELD_*} field.
+     */
+    Dominion.Packet fieldRequestPacket(int field) {
+        var fields = HouseFields.of(FieldScope.ROOM);
+        int index = Integer.numberOfTrailingZeros(field);
+        if (Integer.bitCount(field) != 1 || index >= fields.size()) {
+            throw new IllegalArgumentException(STR."unknown field: \{field}");
         }
+        return new Dominion.Packet(ROOM_FIRST + roomNumber, fields.get(index).msgCode);
+    }
+
+    Dominion.Packet setpointPacket(Setpoint setpoint, double newTemperature) {
+        return new Dominion.Packet(ROOM_FIRST + roomNumber, setpoint.msgCode, newTemperature);
+    }
+
+    /**
+     * Request for the current value of the setpoint, answered like any other setpoint report.
+     */
+    Dominion.Packet setpointRequestPacket(Setpoint setpoint) {
+        return new Dominion.Packet(ROOM_FIRST + roomNumber, setpoint.msgCode);
+    }
+
+    /**
+     * Cached schedule of the day, null until the master has reported it.
+     */
+    public DaySchedule schedule(DayOfWeek day) {
+        return (DaySchedule) state.object(HouseFields.roomSchedule(day), roomNumber);
+    }
+
+    Dominion.Packet scheduleRequestPacket(DayOfWeek day) {
+        return new Dominion.Packet(ROOM_FIRST + roomNumber, HouseFields.roomSchedule(day).msgCode);
+    }
+
+    Dominion.Packet schedulePacket(DayOfWeek day, DaySchedule schedule) {
+        return new Dominion.Packet(ROOM_FIRST + roomNumber, HouseFields.roomSchedule(day).msgCode, schedule.arrayData());
+    }
+
+    void commanded() {
+        stateListener.onRoomCommanded(roomNumber);
     }
 
     public IconRoom toIconRoom() {
-        lock.readLock().lock();
-        try {
-            return new IconRoom(room.roomName, room.roomNumber, room.temperature,
-                    room.setPointHome, room.setPointAway, room.setPointSleep, room.setPointHigh, room.setPointLow,
-                    room.batteryPercent, room.heatingState, room.roomMode);
-        } finally {
-            lock.readLock().unlock();
-        }
+        return room;
+    }
+
+    /**
+     * Snapshot of the room columns, mode and heating state and the floor temperature stay null until they are reported.
+     */
+    private IconRoom snapshot() {
+        var name = (String) state.object(HouseFields.ROOM_NAME, roomNumber);
+        return new IconRoom(name == null ? "" : name, roomNumber,
+                number(HouseFields.ROOM_TEMPERATURE),
+                state.isPresent(HouseFields.ROOM_TEMPERATURE_FLOOR, roomNumber) ? Double.valueOf(number(HouseFields.ROOM_TEMPERATURE_FLOOR)) : null,
+                number(HouseFields.ROOM_SETPOINT_HOME),
+                number(HouseFields.ROOM_SETPOINT_AWAY),
+                number(HouseFields.ROOM_SETPOINT_SLEEP),
+                number(HouseFields.ROOM_SETPOINT_HIGH),
+                number(HouseFields.ROOM_SETPOINT_LOW),
+                (short) number(HouseFields.ROOM_BATTERY),
+                state.isPresent(HouseFields.ROOM_HEATING_STATE, roomNumber) ? toHeatingState((int) number(HouseFields.ROOM_HEATING_STATE)) : null,
+                state.isPresent(HouseFields.ROOM_MODE, roomNumber) ? toRoomMode((int) number(HouseFields.ROOM_MODE)) : null);
+    }
+
+    private double number(HouseField field) {
+        return state.number(field, roomNumber);
+    }
+
+    private static HeatingState toHeatingState(int state) {
+        return switch (state) {
+            case 1 -> HeatingState.HEAT;
+            case 2 -> HeatingState.COOL;
+            default -> HeatingState.OFF;
+        };
+    }
+
+    private static RoomMode toRoomMode(int mode) {
+        return switch (mode) {
+            case Icon.RoomMode.AtHome -> RoomMode.HOME;
+            case Icon.RoomMode.Away -> RoomMode.AWAY;
+            case Icon.RoomMode.Asleep -> RoomMode.SLEEP;
+            default -> RoomMode.FATAL;
+        };
     }
 }
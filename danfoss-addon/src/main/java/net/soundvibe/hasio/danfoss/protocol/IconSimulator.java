@@ -0,0 +1,429 @@
+package net.soundvibe.hasio.danfoss.protocol;
+
+import net.soundvibe.hasio.danfoss.data.DaySchedule;
+import net.soundvibe.hasio.danfoss.protocol.config.Dominion;
+import net.soundvibe.hasio.danfoss.protocol.config.Icon;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.time.DayOfWeek;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static net.soundvibe.hasio.danfoss.protocol.config.DanfossBindingConstants.ICON_MAX_ROOMS;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgClass.ALL_ROOMS;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgClass.ROOM_FIRST;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.*;
+
+/**
+ * Stands in for an Icon master in the same process, so that the addon can be load and soak tested without the grid.
+ * Attach it with {@link IconMasterHandler#simulate(IconSimulator)} instead of scanning a real house.
+ * <p>
+ * Right after attaching, the whole house is dumped as the master does after connecting. Then rooms report
+ * their temperature, floor temperature and heating state on their own, round-robin at the configured rate.
+ * Temperatures follow a simple model: a heating room warms up at a constant rate until it is above its setpoint,
+ * an idle one cools down towards the ambient temperature. Read requests are answered with the current value,
+ * writes of setpoints, modes, names and schedules are applied and echoed back, other requests go unanswered.
+ * <p>
+ * Buffers sent by the addon are queued, and they are applied and answered by {@link #tick}, which never runs
+ * concurrently with itself, so the handler receives from a single thread as with a real connection.
+ */
+public class IconSimulator implements PeerLink, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(IconSimulator.class);
+
+    static final long TICK_MILLIS = 10;
+
+    private static final int MASTER_CLASS = 0;
+    private static final int BUFFER_SIZE = 1024;
+    private static final int STRING_LENGTH = 33;
+    private static final double HYSTERESIS = 0.2;
+    private static final double SENSOR_NOISE = 0.02;
+    // pushed by rooms on their own, round-robin
+    private static final int[] REPORTED_CODES = {ROOM_ROOMTEMPERATURE, ROOM_FLOORTEMPERATURE, ROOM_HEATINGCOOLINGSTATE};
+
+    /**
+     * @param rooms              rooms of the house, numbered from 0
+     * @param ambientTemperature idle rooms cool down towards it
+     * @param heatingPerMinute   degrees a heating room warms up per minute
+     * @param lossPerMinute      share of the difference to the ambient temperature an idle room loses per minute
+     * @param reportsPerSecond   packets rooms push on their own, answers and echoes come on top
+     * @param seed               of sensor noise and initial temperatures, the same seed simulates the same house
+     */
+    public record Config(int rooms, double ambientTemperature, double heatingPerMinute, double lossPerMinute,
+                         double reportsPerSecond, long seed) {
+
+        public Config {
+            if (rooms < 1 || rooms > ICON_MAX_ROOMS) {
+                throw new IllegalArgumentException(STR."rooms must be between 1 and \{ICON_MAX_ROOMS}: \{rooms}");
+            }
+            if (!(reportsPerSecond >= 0.0) || !(heatingPerMinute >= 0.0) || !(lossPerMinute >= 0.0)) {
+                throw new IllegalArgumentException(STR."rates must not be negative: \{this}");
+            }
+        }
+
+        /**
+         * A house which reports a couple of packets per second, as a real one does.
+         */
+        public static Config of(int rooms) {
+            return new Config(rooms, 16.0, 0.05, 0.005, 2.0, 1L);
+        }
+
+        public Config withReportsPerSecond(double reportsPerSecond) {
+            return new Config(rooms, ambientTemperature, heatingPerMinute, lossPerMinute, reportsPerSecond, seed);
+        }
+    }
+
+    private final Config config;
+    private final Random random;
+    private final ConcurrentLinkedQueue<byte[]> inbox = new ConcurrentLinkedQueue<>();
+
+    // payloads of every value which isn't simulated, by msgClass << 16 | msgCode
+    private final Map<Integer, byte[]> values = new HashMap<>();
+    private final double[] temperatures;
+    private final boolean[] heating;
+
+    private volatile DeviSmartConnection receiver;
+    private volatile boolean closed;
+    private volatile boolean dumpPending;
+
+    // only used from the tick, which never runs concurrently with itself
+    private final byte[] out = new byte[BUFFER_SIZE];
+    private int outLength;
+    private int delivered;
+    private double reportCredits;
+    private int nextReport;
+    private long lastTick = Long.MIN_VALUE;
+
+    private Future<?> ticks;
+
+    public IconSimulator(Config config) {
+        this.config = config;
+        this.random = new Random(config.seed());
+        this.temperatures = new double[config.rooms()];
+        this.heating = new boolean[config.rooms()];
+
+        putString(MASTER_CLASS, HOUSE_NAME, "Simulated House");
+        putDecimal(MASTER_CLASS, VACATION_SETPOINT, 15.0);
+        putDecimal(MASTER_CLASS, PAUSE_SETPOINT, 5.0);
+        put(MASTER_CLASS, GLOBAL_HARDWAREREVISION, new byte[]{2, 1});
+        put(MASTER_CLASS, GLOBAL_SOFTWAREREVISION, new byte[]{3, 2});
+        put(MASTER_CLASS, GLOBAL_SERIALNUMBER, littleEndian(100_000 + (int) (config.seed() & 0xFFFF), Integer.BYTES));
+        var schedule = DaySchedule.of(List.of(DaySchedule.Period.parse("06:00", "08:00"),
+                DaySchedule.Period.parse("16:00", "22:00")));
+        var schedulePayload = HexFormat.of().parseHex(schedule.hex());
+        for (int room = 0; room < config.rooms(); room++) {
+            int msgClass = ROOM_FIRST + room;
+            temperatures[room] = 18.0 + random.nextDouble() * 4.0;
+            putString(msgClass, ROOMNAME, STR."Room \{room}");
+            putDecimal(msgClass, ROOM_SETPOINTMINIMUM, 5.0);
+            putDecimal(msgClass, ROOM_SETPOINTMAXIMUM, 35.0);
+            putDecimal(msgClass, ROOM_SETPOINTATHOME, 21.5);
+            putDecimal(msgClass, ROOM_SETPOINTAWAY, 18.0);
+            putDecimal(msgClass, ROOM_SETPOINTASLEEP, 19.0);
+            putDecimal(msgClass, ROOM_FLOORTEMPERATUREMINIMUM, 18.0);
+            putDecimal(msgClass, ROOM_FLOORTEMPERATUREMAXIMUM, 28.0);
+            put(msgClass, ROOM_BATTERYINDICATIONPERCENT, new byte[]{(byte) (100 - room)});
+            put(msgClass, ROOM_ROOMMODE, new byte[]{Icon.RoomMode.AtHome});
+            put(msgClass, ROOM_ROOMCONTROL, new byte[]{Icon.RoomControl.Manual});
+            for (var day : DayOfWeek.values()) {
+                put(msgClass, HouseFields.roomSchedule(day).msgCode, schedulePayload);
+            }
+        }
+    }
+
+    /**
+     * Connects the simulated master to the connector, the house is dumped on the next tick.
+     */
+    void attach(SDGPeerConnector connector) {
+        receiver = new DeviSmartConnection(connector);
+        inbox.clear();
+        dumpPending = true;
+        connector.attach(this);
+    }
+
+    public synchronized IconSimulator start(ScheduledExecutorService scheduler) {
+        if (ticks == null) {
+            ticks = scheduler.scheduleWithFixedDelay(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return this;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (ticks != null) {
+            ticks.cancel(false);
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return receiver != null && !closed;
+    }
+
+    @Override
+    public void send(byte[] data) {
+        // the caller may reuse its buffer, it is applied later by the tick
+        inbox.add(data.clone());
+    }
+
+    private void tick() {
+        try {
+            tick(System.nanoTime());
+        } catch (Exception e) {
+            logger.error("simulator tick failed", e);
+        }
+    }
+
+    /**
+     * Applies and answers the buffers sent since the previous tick, moves temperatures forward and sends
+     * the reports which are due. Returns how many packets were delivered to the handler.
+     * Soak tests may tick it themselves with simulated time instead of starting it.
+     */
+    public int tick(long nowNanos) {
+        if (!isConnected()) {
+            return 0;
+        }
+        delivered = 0;
+        if (dumpPending) {
+            dumpPending = false;
+            dump();
+        }
+        for (var data = inbox.poll(); data != null; data = inbox.poll()) {
+            receive(data);
+        }
+
+        long elapsed = lastTick == Long.MIN_VALUE ? 0 : nowNanos - lastTick;
+        lastTick = nowNanos;
+        if (elapsed > 0) {
+            simulate(elapsed / (double) TimeUnit.MINUTES.toNanos(1));
+            // at most a second worth of reports, e.g. when ticks were delayed by a pause
+            reportCredits = Math.min(Math.max(1.0, config.reportsPerSecond()),
+                    reportCredits + config.reportsPerSecond() * elapsed / TimeUnit.SECONDS.toNanos(1));
+        }
+        int entries = config.rooms() * REPORTED_CODES.length;
+        for (; reportCredits >= 1.0; reportCredits -= 1.0) {
+            int entry = nextReport;
+            nextReport = nextReport + 1 == entries ? 0 : nextReport + 1;
+            report(ROOM_FIRST + entry / REPORTED_CODES.length, REPORTED_CODES[entry % REPORTED_CODES.length]);
+        }
+        flush();
+        return delivered;
+    }
+
+    private void dump() {
+        for (int code : new int[]{HOUSE_NAME, VACATION_SETPOINT, PAUSE_SETPOINT, GLOBAL_HARDWAREREVISION,
+                GLOBAL_SOFTWAREREVISION, GLOBAL_SERIALNUMBER}) {
+            report(MASTER_CLASS, code);
+        }
+        for (int room = 0; room < config.rooms(); room++) {
+            int msgClass = ROOM_FIRST + room;
+            for (int code : new int[]{ROOMNAME, ROOM_ROOMTEMPERATURE, ROOM_FLOORTEMPERATURE, ROOM_SETPOINTMINIMUM,
+                    ROOM_SETPOINTMAXIMUM, ROOM_SETPOINTATHOME, ROOM_SETPOINTAWAY, ROOM_SETPOINTASLEEP,
+                    ROOM_FLOORTEMPERATUREMINIMUM, ROOM_FLOORTEMPERATUREMAXIMUM, ROOM_BATTERYINDICATIONPERCENT,
+                    ROOM_ROOMMODE, ROOM_ROOMCONTROL, ROOM_HEATINGCOOLINGSTATE}) {
+                report(msgClass, code);
+            }
+        }
+    }
+
+    /**
+     * Applies a buffer sent by the addon: packets prefixed with 1 are requests, with 0 writes.
+     */
+    private void receive(byte[] data) {
+        int pos = 0;
+        while (pos + 1 + Dominion.Packet.HeaderSize <= data.length) {
+            boolean request = data[pos] == 1;
+            int msgClass = data[pos + 1] & 0xFF;
+            int msgCode = (data[pos + 2] & 0xFF) | ((data[pos + 3] & 0xFF) << 8);
+            int length = data[pos + 4] & 0xFF;
+            int payload = pos + 1 + Dominion.Packet.HeaderSize;
+            if (payload + length > data.length) {
+                logger.warn("malformed buffer sent to the simulator at position {}", pos);
+                return;
+            }
+            if (request) {
+                report(msgClass, msgCode);
+            } else if (writable(msgClass, msgCode) && values.containsKey(key(msgClass, msgCode))) {
+                var value = writtenValue(values.get(key(msgClass, msgCode)), msgCode, data, payload, length);
+                if (value == null) {
+                    logger.warn("write of {} bytes to class {} code {} ignored by the simulator", length, msgClass, msgCode);
+                } else {
+                    put(msgClass, msgCode, value);
+                    // the master echoes accepted writes
+                    report(msgClass, msgCode);
+                }
+            } else if (msgClass == ALL_ROOMS && HouseFields.isRoomSchedule(msgCode)) {
+                writeAllRooms(msgCode, data, payload, length);
+            }
+            pos = payload + length;
+        }
+    }
+
+    /**
+     * Applies a schedule day written to all the rooms at once, echoed by every room.
+     */
+    private void writeAllRooms(int msgCode, byte[] data, int payload, int length) {
+        var value = writtenValue(values.get(key(ROOM_FIRST, msgCode)), msgCode, data, payload, length);
+        if (value == null) {
+            logger.warn("write of {} bytes to all rooms code {} ignored by the simulator", length, msgCode);
+            return;
+        }
+        for (int room = 0; room < config.rooms(); room++) {
+            put(ROOM_FIRST + room, msgCode, value.clone());
+            report(ROOM_FIRST + room, msgCode);
+        }
+    }
+
+    /**
+     * The written value, null unless it has the length of the stored one. Names are written as long as they are,
+     * the stored name keeps its fixed length.
+     */
+    private static byte[] writtenValue(byte[] stored, int msgCode, byte[] data, int payload, int length) {
+        if (length == stored.length) {
+            return Arrays.copyOfRange(data, payload, payload + length);
+        }
+        if (msgCode == ROOMNAME && length > 0 && length < stored.length && (data[payload] & 0xFF) == length - 1) {
+            return Arrays.copyOf(Arrays.copyOfRange(data, payload, payload + length), stored.length);
+        }
+        return null;
+    }
+
+    private static boolean writable(int msgClass, int msgCode) {
+        if (msgClass < ROOM_FIRST || msgClass >= ROOM_FIRST + ICON_MAX_ROOMS) {
+            return false;
+        }
+        return switch (msgCode) {
+            case ROOMNAME, ROOM_SETPOINTATHOME, ROOM_SETPOINTAWAY, ROOM_SETPOINTASLEEP, ROOM_ROOMMODE, ROOM_ROOMCONTROL,
+                 ROOM_SCHEDULEMONDAY, ROOM_SCHEDULETUESDAY, ROOM_SCHEDULEWEDNESDAY, ROOM_SCHEDULETHURSDAY,
+                 ROOM_SCHEDULEFRIDAY, ROOM_SCHEDULESATURDAY, ROOM_SCHEDULESUNDAY -> true;
+            default -> false;
+        };
+    }
+
+    private void simulate(double minutes) {
+        for (int room = 0; room < config.rooms(); room++) {
+            double target = decimal(ROOM_FIRST + room, targetSetpoint(room));
+            double temperature = temperatures[room];
+            if (!heating[room] && temperature < target - HYSTERESIS) {
+                heating[room] = true;
+            } else if (heating[room] && temperature >= target + HYSTERESIS) {
+                heating[room] = false;
+            }
+            temperatures[room] = heating[room]
+                    ? temperature + config.heatingPerMinute() * minutes
+                    : temperature - (temperature - config.ambientTemperature()) * Math.min(1.0, config.lossPerMinute() * minutes);
+        }
+    }
+
+    private int targetSetpoint(int room) {
+        return switch (values.get(key(ROOM_FIRST + room, ROOM_ROOMMODE))[0]) {
+            case Icon.RoomMode.Away -> ROOM_SETPOINTAWAY;
+            case Icon.RoomMode.Asleep -> ROOM_SETPOINTASLEEP;
+            default -> ROOM_SETPOINTATHOME;
+        };
+    }
+
+    /**
+     * Sends the current value, nothing when the simulated master doesn't know it.
+     */
+    private void report(int msgClass, int msgCode) {
+        int room = msgClass - ROOM_FIRST;
+        if (room >= 0 && room < config.rooms()) {
+            switch (msgCode) {
+                case ROOM_ROOMTEMPERATURE -> {
+                    writeDecimal(msgClass, msgCode, temperatures[room] + (random.nextDouble() * 2 - 1) * SENSOR_NOISE);
+                    return;
+                }
+                case ROOM_FLOORTEMPERATURE -> {
+                    writeDecimal(msgClass, msgCode, temperatures[room] + (heating[room] ? 3.0 : 0.5));
+                    return;
+                }
+                case ROOM_HEATINGCOOLINGSTATE -> {
+                    write(msgClass, msgCode, new byte[]{(byte) (heating[room] ? 1 : 0)});
+                    return;
+                }
+                default -> {
+                    // stored below
+                }
+            }
+        }
+        var payload = values.get(key(msgClass == ALL_ROOMS ? MASTER_CLASS : msgClass, msgCode));
+        if (payload != null) {
+            write(msgClass, msgCode, payload);
+        }
+    }
+
+    private void writeDecimal(int msgClass, int msgCode, double value) {
+        write(msgClass, msgCode, littleEndian((int) Math.round(value * 100), Short.BYTES));
+    }
+
+    private void write(int msgClass, int msgCode, byte[] payload) {
+        if (outLength + Dominion.Packet.HeaderSize + payload.length > out.length) {
+            flush();
+        }
+        out[outLength++] = (byte) msgClass;
+        out[outLength++] = (byte) msgCode;
+        out[outLength++] = (byte) (msgCode >>> 8);
+        out[outLength++] = (byte) payload.length;
+        System.arraycopy(payload, 0, out, outLength, payload.length);
+        outLength += payload.length;
+        delivered++;
+    }
+
+    private void flush() {
+        var connection = receiver;
+        if (outLength > 0 && connection != null) {
+            connection.dispatch(out, outLength);
+        }
+        outLength = 0;
+    }
+
+    private double decimal(int msgClass, int msgCode) {
+        var payload = values.get(key(msgClass, msgCode));
+        return (short) ((payload[0] & 0xFF) | (payload[1] << 8)) / 100.0;
+    }
+
+    private void putDecimal(int msgClass, int msgCode, double value) {
+        put(msgClass, msgCode, littleEndian((int) Math.round(value * 100), Short.BYTES));
+    }
+
+    private void putString(int msgClass, int msgCode, String value) {
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        var payload = new byte[STRING_LENGTH];
+        payload[0] = (byte) bytes.length;
+        System.arraycopy(bytes, 0, payload, 1, bytes.length);
+        put(msgClass, msgCode, payload);
+    }
+
+    private void put(int msgClass, int msgCode, byte[] payload) {
+        values.put(key(msgClass, msgCode), payload);
+    }
+
+    private static int key(int msgClass, int msgCode) {
+        return msgClass << 16 | msgCode;
+    }
+
+    private static byte[] littleEndian(int value, int bytes) {
+        var encoded = new byte[bytes];
+        for (int i = 0; i < bytes; i++) {
+            encoded[i] = (byte) (value >>> (Byte.SIZE * i));
+        }
+        return encoded;
+    }
+
+    @Override
+    public String toString() {
+        return STR."IconSimulator[\{config.rooms()} rooms]";
+    }
+}
@@ -0,0 +1,48 @@
+package net.soundvibe.hasio.danfoss.protocol;
+
+import net.soundvibe.hasio.danfoss.data.IconMaster;
+import net.soundvibe.hasio.danfoss.data.IconRoom;
+
+/**
+ * Subscription to state changes of {@link IconMasterHandler}. Callbacks are invoked synchronously
+ * from the receive thread, so implementations should only record the change and return.
+ * For every applied packet or merged burst of packets the handler calls {@link #onRoomChanged}
+ * for each changed room, {@link #onMasterChanged} if the master has changed, {@link #onDevicesChanged} for every
+ * device scope with changes and finally {@link #onStateChanged} once for the whole burst.
+ */
+public interface IconStateListener {
+
+    default void onRoomChanged(IconRoom before, IconRoom after) {}
+
+    default void onMasterChanged(IconMaster before, IconMaster after) {}
+
+    /**
+     * Values of rails, outputs or repeaters have changed, see {@link HouseState} for the values.
+     * Device changes alone don't trigger {@link #onStateChanged}.
+     *
+     * @param scope            one of {@link FieldScope#DEVICES}
+     * @param changedInstances bit {@code n} is set when instance {@code n} of the scope has changed
+     */
+    default void onDevicesChanged(FieldScope scope, long changedInstances) {}
+
+    /**
+     * @param changedRooms  bit {@code n} is set when room number {@code n} has changed
+     * @param masterChanged whether master controller state has changed
+     */
+    default void onStateChanged(long changedRooms, boolean masterChanged) {}
+
+    /**
+     * Called when a command has been sent to the room, from the thread which sent it.
+     */
+    default void onRoomCommanded(int roomNumber) {}
+
+    /**
+     * Called for every setpoint value received from the master, changed or not, e.g. an echo of a written setpoint.
+     */
+    default void onSetpointReported(int roomNumber, Setpoint setpoint, double value) {}
+
+    /**
+     * Called when the connection to the master has been (re)established, packets sent before could have been lost.
+     */
+    default void onConnected() {}
+}
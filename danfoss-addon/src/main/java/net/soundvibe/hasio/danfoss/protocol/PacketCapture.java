@@ -0,0 +1,274 @@
+package net.soundvibe.hasio.danfoss.protocol;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Appends raw buffers exchanged with the Icon master to a binary log, so the traffic can be replayed
+ * offline by {@link PacketReplay}.
+ * <p>
+ * The file starts with {@link #MAGIC} and a version byte, followed by records of
+ * {@code kind (1 byte) | micros since the previous record (varint) | length (varint) | data}.
+ * Every time a capture is opened a {@link #SESSION} record is appended first, its data is the wall clock
+ * in epoch millis (8 bytes, big endian) and its delta is 0, so timestamps are monotonic within a session only.
+ */
+public final class PacketCapture implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(PacketCapture.class);
+
+    public static final byte SESSION = 0;
+    public static final byte RECEIVED = 1;
+    public static final byte SENT = 2;
+
+    static final byte[] MAGIC = {'D', 'C', 'A', 'P'};
+    static final int VERSION = 1;
+
+    private static final int MAX_RECORD_HEADER = 1 + 10 + 5;
+    // way more than the master ever sends at once, a longer record can only be garbage
+    private static final int MAX_RECORD_LENGTH = 1 << 24;
+    private static final long FLUSH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final OutputStream out;
+    private final LongSupplier nanoClock;
+    private final byte[] header = new byte[MAX_RECORD_HEADER];
+    private long lastNanos;
+    private long lastFlush;
+    private boolean failed;
+
+    PacketCapture(OutputStream out, boolean writeMagic, long epochMillis, LongSupplier nanoClock) throws IOException {
+        this.out = out;
+        this.nanoClock = nanoClock;
+        if (writeMagic) {
+            out.write(MAGIC);
+            out.write(VERSION);
+        }
+        this.lastNanos = nanoClock.getAsLong();
+        this.lastFlush = lastNanos;
+        var now = new byte[Long.BYTES];
+        for (int i = 0; i < Long.BYTES; i++) {
+            now[i] = (byte) (epochMillis >>> (Long.SIZE - Byte.SIZE * (i + 1)));
+        }
+        writeRecord(SESSION, lastNanos, now, 0, now.length);
+        out.flush();
+    }
+
+    /**
+     * Opens the capture file for appending, creating it and its directory when missing.
+     * A record cut short at the end of the file is truncated first, so that appended sessions stay readable.
+     */
+    public static PacketCapture open(Path file) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        boolean empty = Files.notExists(file) || Files.size(file) == 0;
+        if (!empty) {
+            truncateTornTail(file);
+        }
+        var out = new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND), 1 << 16);
+        return new PacketCapture(out, empty, System.currentTimeMillis(), System::nanoTime);
+    }
+
+    public void received(byte[] data, int offset, int length) {
+        append(RECEIVED, data, offset, length);
+    }
+
+    public void sent(byte[] data) {
+        append(SENT, data, 0, data.length);
+    }
+
+    private synchronized void append(byte kind, byte[] data, int offset, int length) {
+        if (failed) {
+            return;
+        }
+        // timestamp under the lock, so that records are in the order of their timestamps
+        long now = nanoClock.getAsLong();
+        try {
+            writeRecord(kind, now, data, offset, length);
+            if (now - lastFlush >= FLUSH_NANOS) {
+                out.flush();
+                lastFlush = now;
+            }
+        } catch (IOException e) {
+            // capturing is a diagnostic aid, it must never break the connection
+            failed = true;
+            logger.warn("packet capture is stopped, unable to write: {}", e.toString());
+        }
+    }
+
+    private void writeRecord(byte kind, long now, byte[] data, int offset, int length) throws IOException {
+        int pos = 0;
+        header[pos++] = kind;
+        pos = putVarLong(header, pos, Math.max(0, TimeUnit.NANOSECONDS.toMicros(now - lastNanos)));
+        pos = putVarLong(header, pos, length);
+        out.write(header, 0, pos);
+        out.write(data, offset, length);
+        // deltas are rounded down, the remainder is carried over to the next record
+        lastNanos += TimeUnit.MICROSECONDS.toNanos(TimeUnit.NANOSECONDS.toMicros(now - lastNanos));
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            logger.warn("unable to close packet capture: {}", e.toString());
+        }
+    }
+
+    private static int putVarLong(byte[] buffer, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static void truncateTornTail(Path file) throws IOException {
+        long end;
+        try (var reader = Reader.open(file)) {
+            while (reader.next()) {
+                // skips to the end of the last complete record
+            }
+            end = reader.position();
+        } catch (IOException e) {
+            throw new IOException(STR."\{e.getMessage()}: \{file}", e);
+        }
+        try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (end < size) {
+                logger.warn("truncating {} bytes of a torn record at the end of {}", size - end, file);
+                channel.truncate(end);
+            }
+        }
+    }
+
+    /**
+     * Reads the records of a capture one by one, the data buffer is reused for the next record.
+     * A record cut short at the end of the file, e.g. by a crash, ends the capture.
+     */
+    public static final class Reader implements Closeable {
+
+        private final InputStream in;
+        private byte[] data = new byte[2048];
+        private byte kind;
+        private int length;
+        private long nanos;
+        private long read;
+        private long position;
+
+        public Reader(InputStream in) throws IOException {
+            this.in = in;
+            var magic = in.readNBytes(MAGIC.length + 1);
+            if (magic.length != MAGIC.length + 1 || !Arrays.equals(magic, 0, MAGIC.length, MAGIC, 0, MAGIC.length)) {
+                throw new IOException("not a packet capture");
+            }
+            if (magic[MAGIC.length] != VERSION) {
+                throw new IOException(STR."unsupported packet capture version \{magic[MAGIC.length]}");
+            }
+            read = position = magic.length;
+        }
+
+        public static Reader open(Path file) throws IOException {
+            return new Reader(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+        }
+
+        /**
+         * Moves to the next record, returns false at the end of the capture.
+         */
+        public boolean next() throws IOException {
+            int k = in.read();
+            if (k < 0) {
+                return false;
+            }
+            read++;
+            long delta = readVarLong();
+            long len = readVarLong();
+            if (delta < 0 || len < 0 || len > MAX_RECORD_LENGTH) {
+                return false;
+            }
+            if (len > data.length) {
+                data = new byte[Integer.highestOneBit((int) len - 1) << 1];
+            }
+            if (in.readNBytes(data, 0, (int) len) != len) {
+                return false;
+            }
+            read += len;
+            position = read;
+            kind = (byte) k;
+            length = (int) len;
+            nanos = kind == SESSION ? 0 : nanos + TimeUnit.MICROSECONDS.toNanos(delta);
+            return true;
+        }
+
+        /**
+         * {@link #SESSION}, {@link #RECEIVED} or {@link #SENT}, other kinds should be skipped.
+         */
+        public byte kind() {
+            return kind;
+        }
+
+        /**
+         * Monotonic time of the record since the start of its session.
+         */
+        public long nanos() {
+            return nanos;
+        }
+
+        public byte[] data() {
+            return data;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        /**
+         * Offset in the file right after the last complete record.
+         */
+        public long position() {
+            return position;
+        }
+
+        /**
+         * Wall clock of a {@link #SESSION} record in epoch millis.
+         */
+        public long epochMillis() {
+            long millis = 0;
+            for (int i = 0; i < Long.BYTES && i < length; i++) {
+                millis = (millis << Byte.SIZE) | (data[i] & 0xFF);
+            }
+            return millis;
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < Long.SIZE; shift += 7) {
+                int b = in.read();
+                if (b < 0) {
+                    return -1;
+                }
+                read++;
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
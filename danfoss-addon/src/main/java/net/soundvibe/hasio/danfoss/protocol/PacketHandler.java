@@ -4,7 +4,30 @@ import net.soundvibe.hasio.danfoss.protocol.config.Dominion;
 
 public interface PacketHandler {
 
-    void handlePacket(Dominion.Packet pkt);
+    default void handlePacket(Dominion.Packet pkt) {
+        handlePacket(pkt.getMsgClass(), pkt.getMsgCode(), Dominion.PacketCursor.of(pkt));
+    }
+
+    /**
+     * Zero-copy variant of {@link #handlePacket(Dominion.Packet)}. Payload should be read
+     * from the cursor before returning, because the cursor and its buffer are reused for the next packet.
+     */
+    void handlePacket(int msgClass, int msgCode, Dominion.PacketCursor pkt);
+
+    /**
+     * Applies all the remaining packets of a merged buffer. Handlers keeping state
+     * should override it to publish their state once per buffer instead of once per packet.
+     */
+    default void handleBatch(Dominion.PacketCursor packets) {
+        while (packets.next()) {
+            handlePacket(packets.getMsgClass(), packets.getMsgCode(), packets);
+        }
+    }
 
     void ping();
+
+    /**
+     * Called when the connection has been (re)established.
+     */
+    default void connected() {}
 }
@@ -0,0 +1,88 @@
+package net.soundvibe.hasio.danfoss.protocol;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feeds buffers of a {@link PacketCapture} to a master handler the way {@link DeviSmartConnection} does,
+ * without the master nor the grid, e.g. to benchmark decoding, state and publishing offline.
+ * <p>
+ * Received buffers are replayed at their captured pace divided by the speed, {@link #MAX_SPEED} doesn't wait at all.
+ * Every session of the capture starts with {@link PacketHandler#connected()}, gaps between sessions are skipped.
+ * Sent buffers are skipped too, whatever the handler sends in response goes nowhere as it isn't connected.
+ */
+public final class PacketReplay {
+
+    public static final double MAX_SPEED = Double.POSITIVE_INFINITY;
+
+    public record Result(int sessions, long buffers, long bytes, long elapsedNanos) {
+
+        public double buffersPerSecond() {
+            return elapsedNanos == 0 ? 0.0 : buffers * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+        }
+    }
+
+    private final double speed;
+
+    /**
+     * @param speed 1 replays in real time, 10 ten times faster, {@link #MAX_SPEED} as fast as possible
+     */
+    public PacketReplay(double speed) {
+        if (!(speed > 0.0)) {
+            throw new IllegalArgumentException(STR."speed must be positive: \{speed}");
+        }
+        this.speed = speed;
+    }
+
+    /**
+     * Replays the capture on the calling thread, the master should not be connected.
+     */
+    public Result replay(Path capture, IconMasterHandler master) throws IOException, InterruptedException {
+        try (var reader = PacketCapture.Reader.open(capture)) {
+            return replay(reader, master);
+        }
+    }
+
+    Result replay(PacketCapture.Reader reader, IconMasterHandler master) throws IOException, InterruptedException {
+        var connection = new DeviSmartConnection(master.connector());
+        int sessions = 0;
+        long buffers = 0;
+        long bytes = 0;
+        long start = System.nanoTime();
+        long sessionStart = start;
+        while (reader.next()) {
+            switch (reader.kind()) {
+                case PacketCapture.SESSION -> {
+                    sessions++;
+                    sessionStart = System.nanoTime();
+                    master.connected();
+                }
+                case PacketCapture.RECEIVED -> {
+                    awaitDue(sessionStart, reader.nanos());
+                    connection.dispatch(reader.data(), reader.length());
+                    buffers++;
+                    bytes += reader.length();
+                }
+                default -> {
+                    // sent buffers, and kinds of later versions
+                }
+            }
+        }
+        return new Result(sessions, buffers, bytes, System.nanoTime() - start);
+    }
+
+    private void awaitDue(long sessionStart, long nanos) throws InterruptedException {
+        if (speed == MAX_SPEED) {
+            return;
+        }
+        long due = sessionStart + (long) (nanos / speed);
+        for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+            LockSupport.parkNanos(wait);
+            if (Thread.interrupted()) {
+                throw new InterruptedException("replay interrupted");
+            }
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package net.soundvibe.hasio.danfoss.protocol;
+
+import net.soundvibe.hasio.danfoss.protocol.config.Dominion;
+
+/**
+ * Sends the first {@code count} packets as a single buffer, see {@link SDGPeerConnector#SendPackets}.
+ * Returns false when they were not sent, e.g. because the connection is down.
+ */
+@FunctionalInterface
+interface PacketSender {
+    boolean send(Dominion.Packet[] packets, int count);
+}
@@ -0,0 +1,16 @@
+package net.soundvibe.hasio.danfoss.protocol;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Link to the Icon master which {@link SDGPeerConnector} sends buffers through: the grid tunnel of
+ * {@link DeviSmartConnection}, or an {@link IconSimulator} standing in for the master.
+ */
+interface PeerLink {
+
+    boolean isConnected();
+
+    void send(byte[] data) throws IOException, InterruptedException, ExecutionException, TimeoutException;
+}
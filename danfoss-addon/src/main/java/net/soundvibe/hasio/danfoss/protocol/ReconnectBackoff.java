@@ -0,0 +1,55 @@
+package net.soundvibe.hasio.danfoss.protocol;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Reconnect delays growing exponentially from {@link #BASE_DELAY_MILLIS} up to {@link #MAX_DELAY_MILLIS}.
+ * Every delay is drawn from the upper half of its step, so connectors which dropped at the same time,
+ * e.g. houses behind one network, don't reconnect in lockstep, yet none of them retries right away.
+ */
+final class ReconnectBackoff {
+
+    static final long BASE_DELAY_MILLIS = 1_000;
+    static final long MAX_DELAY_MILLIS = 300_000;
+
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    // random value in [0, bound)
+    private final LongUnaryOperator random;
+    private int attempts;
+
+    ReconnectBackoff() {
+        this(BASE_DELAY_MILLIS, MAX_DELAY_MILLIS, bound -> ThreadLocalRandom.current().nextLong(bound));
+    }
+
+    ReconnectBackoff(long baseDelayMillis, long maxDelayMillis, LongUnaryOperator random) {
+        if (baseDelayMillis <= 0 || maxDelayMillis < baseDelayMillis) {
+            throw new IllegalArgumentException(STR."invalid backoff: \{baseDelayMillis}..\{maxDelayMillis}");
+        }
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.random = random;
+    }
+
+    /**
+     * Delay before the next attempt, each call counts as one more failed attempt.
+     */
+    synchronized long nextDelayMillis() {
+        int shift = Math.min(attempts++, Long.numberOfLeadingZeros(baseDelayMillis) - 1);
+        long step = Math.min(maxDelayMillis, baseDelayMillis << shift);
+        long half = step / 2;
+        return step - half + random.applyAsLong(half + 1);
+    }
+
+    /**
+     * Starts over from the base delay, once connected.
+     */
+    synchronized void reset() {
+        attempts = 0;
+    }
+
+    synchronized int attempts() {
+        return attempts;
+    }
+}
@@ -0,0 +1,272 @@
+package net.soundvibe.hasio.danfoss.protocol;
+
+import net.soundvibe.hasio.danfoss.data.IconRoom;
+import net.soundvibe.hasio.danfoss.protocol.config.Dominion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static net.soundvibe.hasio.danfoss.protocol.config.DanfossBindingConstants.ICON_MAX_ROOMS;
+
+/**
+ * Polls rooms with {@link IconRoomHandler#refreshPacket()} at adaptive rates.
+ * A room is polled every {@link #FAST_INTERVAL_MILLIS} while its temperature keeps changing or for a while after
+ * it was commanded, and the interval doubles with every poll which didn't change anything, up to
+ * {@link #SLOW_INTERVAL_MILLIS}. Rooms without a name are only asked for their name, every {@link #UNNAMED_INTERVAL_MILLIS}.
+ * <p>
+ * A token bucket keeps all the polls within the packets per second budget, the most overdue rooms go first
+ * and the rest wait for the next tick. Requests of the same tick are sent as a single buffer.
+ * <p>
+ * {@link #RESYNC_SETTLE_MILLIS} after every (re)connect, once the master had a chance to push its state,
+ * fields of named rooms which were not reported for {@link #STALE_AFTER_MILLIS} are requested one by one,
+ * the most important fields of all the rooms first. The resync only gets the budget left over by the polls,
+ * so it is spread over as many ticks as it takes.
+ */
+public class RoomRefreshScheduler implements IconStateListener, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(RoomRefreshScheduler.class);
+
+    static final long TICK_MILLIS = 1_000;
+    static final long FAST_INTERVAL_MILLIS = 30_000;
+    static final long SLOW_INTERVAL_MILLIS = 300_000;
+    static final long UNNAMED_INTERVAL_MILLIS = 900_000;
+    static final long COMMANDED_WINDOW_MILLIS = 120_000;
+    // gives the master some time to apply the command before asking for its effect
+    static final long COMMAND_ECHO_DELAY_MILLIS = 5_000;
+    static final long RESYNC_SETTLE_MILLIS = 5_000;
+    static final long STALE_AFTER_MILLIS = SLOW_INTERVAL_MILLIS;
+    // budget is accounted in thousandths of a packet
+    private static final long PACKET_COST = 1_000;
+    private static final long NEVER = Long.MIN_VALUE;
+    private static final long NOT_SCHEDULED = Long.MIN_VALUE;
+    // resynced fields, most important first; names are polled anyway
+    private static final int[] RESYNC_FIELDS = {
+            IconRoomHandler.FIELD_TEMPERATURE,
+            IconRoomHandler.FIELD_ROOM_MODE,
+            IconRoomHandler.FIELD_HEATING_STATE,
+            IconRoomHandler.FIELD_SETPOINT_HOME,
+            IconRoomHandler.FIELD_SETPOINT_AWAY,
+            IconRoomHandler.FIELD_SETPOINT_SLEEP,
+            IconRoomHandler.FIELD_SETPOINT_HIGH,
+            IconRoomHandler.FIELD_SETPOINT_LOW,
+            IconRoomHandler.FIELD_ROOM_CONTROL,
+            IconRoomHandler.FIELD_TEMPERATURE_FLOOR,
+            IconRoomHandler.FIELD_TEMPERATURE_FLOOR_MIN,
+            IconRoomHandler.FIELD_TEMPERATURE_FLOOR_MAX,
+            IconRoomHandler.FIELD_BATTERY,
+    };
+    private static final int FIELD_BITS = Integer.SIZE;
+
+    private final IconRoomHandler[] rooms;
+    private final PacketSender sender;
+    private final long creditsPerMilli;
+    private final long maxCredits;
+
+    // bits set by listener callbacks, drained by the tick
+    private final AtomicLong movingRooms = new AtomicLong();
+    private final AtomicLong commandedRooms = new AtomicLong();
+    private final AtomicBoolean connected = new AtomicBoolean();
+
+    // only used from the tick, which never runs concurrently with itself
+    private final long[] intervals = new long[ICON_MAX_ROOMS];
+    private final long[] nextDue = new long[ICON_MAX_ROOMS];
+    private final long[] commandedUntil = new long[ICON_MAX_ROOMS];
+    private final int[] dueRooms = new int[ICON_MAX_ROOMS];
+    private final Dominion.Packet[] packets = new Dominion.Packet[ICON_MAX_ROOMS];
+    // when each field was last reported, [roomNumber * FIELD_BITS + field bit], NEVER when not yet
+    private final long[] reportedAt = new long[ICON_MAX_ROOMS * FIELD_BITS];
+    // pending resync requests, [roomNumber * FIELD_BITS + field bit]
+    private final int[] resyncQueue = new int[ICON_MAX_ROOMS * RESYNC_FIELDS.length];
+    private int resyncHead;
+    private int resyncTail;
+    private long resyncAt = NOT_SCHEDULED;
+    private long credits;
+    private long lastTick = Long.MIN_VALUE;
+
+    private Future<?> ticks;
+
+    RoomRefreshScheduler(IconRoomHandler[] rooms, PacketSender sender, int packetsPerSecond) {
+        if (packetsPerSecond <= 0) {
+            throw new IllegalArgumentException(STR."packetsPerSecond must be positive: \{packetsPerSecond}");
+        }
+        this.rooms = rooms;
+        this.sender = sender;
+        this.creditsPerMilli = packetsPerSecond;
+        // up to one second worth of packets may be sent at once
+        this.maxCredits = packetsPerSecond * PACKET_COST;
+        Arrays.fill(reportedAt, NEVER);
+    }
+
+    public synchronized RoomRefreshScheduler start(ScheduledExecutorService scheduler) {
+        if (ticks == null) {
+            ticks = scheduler.scheduleWithFixedDelay(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return this;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (ticks != null) {
+            ticks.cancel(false);
+        }
+    }
+
+    @Override
+    public void onRoomChanged(IconRoom before, IconRoom after) {
+        if (Double.compare(before.temperature(), after.temperature()) != 0 || !before.name().equals(after.name())) {
+            movingRooms.getAndAccumulate(1L << after.number(), (moving, changed) -> moving | changed);
+        }
+    }
+
+    @Override
+    public void onRoomCommanded(int roomNumber) {
+        commandedRooms.getAndAccumulate(1L << roomNumber, (commanded, changed) -> commanded | changed);
+    }
+
+    @Override
+    public void onConnected() {
+        connected.set(true);
+    }
+
+    private void tick() {
+        try {
+            tick(TimeUnit.NANOSECONDS.toMillis(System.nanoTime()));
+        } catch (Exception e) {
+            logger.error("room refresh failed", e);
+        }
+    }
+
+    /**
+     * Sends refresh requests for the rooms which are due, followed by resync requests while there is budget left,
+     * and returns how many were sent.
+     */
+    int tick(long now) {
+        if (lastTick == Long.MIN_VALUE) {
+            // spread the first polls over the fast interval
+            for (int n = 0; n < ICON_MAX_ROOMS; n++) {
+                intervals[n] = FAST_INTERVAL_MILLIS;
+                nextDue[n] = now + FAST_INTERVAL_MILLIS * (n + 1) / ICON_MAX_ROOMS;
+            }
+            credits = maxCredits;
+        } else {
+            credits = Math.min(maxCredits, credits + (now - lastTick) * creditsPerMilli);
+        }
+        lastTick = now;
+
+        for (long moving = movingRooms.getAndSet(0L); moving != 0L; moving &= moving - 1) {
+            int n = Long.numberOfTrailingZeros(moving);
+            intervals[n] = FAST_INTERVAL_MILLIS;
+            nextDue[n] = Math.min(nextDue[n], now + FAST_INTERVAL_MILLIS);
+        }
+        for (long commanded = commandedRooms.getAndSet(0L); commanded != 0L; commanded &= commanded - 1) {
+            int n = Long.numberOfTrailingZeros(commanded);
+            intervals[n] = FAST_INTERVAL_MILLIS;
+            commandedUntil[n] = now + COMMANDED_WINDOW_MILLIS;
+            nextDue[n] = Math.min(nextDue[n], now + COMMAND_ECHO_DELAY_MILLIS);
+        }
+
+        for (int n = 0; n < ICON_MAX_ROOMS; n++) {
+            for (int fields = rooms[n].drainReceived(); fields != 0; fields &= fields - 1) {
+                reportedAt[n * FIELD_BITS + Integer.numberOfTrailingZeros(fields)] = now;
+            }
+        }
+        if (connected.getAndSet(false)) {
+            // a resync still running is started over, as it may have been cut short by the drop
+            resyncHead = resyncTail = 0;
+            resyncAt = now + RESYNC_SETTLE_MILLIS;
+        } else if (resyncAt != NOT_SCHEDULED && now - resyncAt >= 0) {
+            resyncAt = NOT_SCHEDULED;
+            queueStaleFields(now);
+        }
+
+        int due = collectDueRooms(now);
+        int count = (int) Math.min(due, credits / PACKET_COST);
+        for (int i = 0; i < count; i++) {
+            int n = dueRooms[i];
+            var room = rooms[n];
+            packets[i] = room.refreshPacket();
+            if (room.nameOrEmpty().isEmpty()) {
+                intervals[n] = UNNAMED_INTERVAL_MILLIS;
+            } else if (commandedUntil[n] - now > 0) {
+                intervals[n] = FAST_INTERVAL_MILLIS;
+            } else {
+                // stays fast if the answer changes the temperature, see onRoomChanged
+                intervals[n] = Math.min(SLOW_INTERVAL_MILLIS, Math.max(FAST_INTERVAL_MILLIS, intervals[n] * 2));
+            }
+            nextDue[n] = now + intervals[n];
+        }
+        int polls = count;
+        while (resyncHead < resyncTail && credits - (count + 1) * PACKET_COST >= 0 && count < packets.length) {
+            int entry = resyncQueue[resyncHead++];
+            int n = entry / FIELD_BITS;
+            int bit = entry % FIELD_BITS;
+            // could have been pushed by the master in the meantime
+            if (isStale(entry, now)) {
+                packets[count++] = rooms[n].fieldRequestPacket(1 << bit);
+            }
+        }
+        if (count > 0) {
+            credits -= count * PACKET_COST;
+            sender.send(packets, count);
+            Arrays.fill(packets, 0, count, null);
+            logger.debug("refreshed {} of {} due rooms, resynced {} fields", polls, due, count - polls);
+        }
+        return count;
+    }
+
+    /**
+     * Queues fields of named rooms which have not been reported recently, field by field across all the rooms.
+     */
+    private void queueStaleFields(long now) {
+        resyncHead = resyncTail = 0;
+        for (int field : RESYNC_FIELDS) {
+            int bit = Integer.numberOfTrailingZeros(field);
+            for (int n = 0; n < ICON_MAX_ROOMS; n++) {
+                int entry = n * FIELD_BITS + bit;
+                if (!rooms[n].nameOrEmpty().isEmpty() && isStale(entry, now)) {
+                    resyncQueue[resyncTail++] = entry;
+                }
+            }
+        }
+        if (resyncTail > 0) {
+            logger.info("resyncing {} stale room fields", resyncTail);
+        }
+    }
+
+    private boolean isStale(int entry, long now) {
+        return reportedAt[entry] == NEVER || now - reportedAt[entry] >= STALE_AFTER_MILLIS;
+    }
+
+    int pendingResyncs() {
+        return resyncTail - resyncHead;
+    }
+
+    /**
+     * Collects due rooms into {@link #dueRooms}, most overdue first.
+     */
+    private int collectDueRooms(long now) {
+        int due = 0;
+        for (int n = 0; n < ICON_MAX_ROOMS; n++) {
+            if (nextDue[n] - now > 0) {
+                continue;
+            }
+            int i = due++;
+            while (i > 0 && nextDue[dueRooms[i - 1]] > nextDue[n]) {
+                dueRooms[i] = dueRooms[i - 1];
+                i--;
+            }
+            dueRooms[i] = n;
+        }
+        return due;
+    }
+
+    long intervalMillis(int roomNumber) {
+        return intervals[roomNumber];
+    }
+}
@@ -5,6 +5,7 @@ import io.github.sonic_amiga.opensdg.java.GridConnection;
 import io.github.sonic_amiga.opensdg.java.SDG;
 import net.soundvibe.hasio.danfoss.protocol.config.Dominion;
 import net.soundvibe.hasio.danfoss.protocol.utils.SDGUtils;
+import net.soundvibe.hasio.metrics.Metrics;
 import org.eclipse.jdt.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,11 +22,18 @@ public class SDGPeerConnector {
     private final PacketHandler packetHandler;
     private final byte[] privateKey;
     private final ScheduledExecutorService scheduler;
+    private final ReconnectBackoff backoff = new ReconnectBackoff();
     private byte[] peerId;
+    private @Nullable GridSession gridSession;
     private DeviSmartConnection connection;
+    // the connection, or the link attached instead of it, buffers are sent through
+    private volatile @Nullable PeerLink link;
     private @Nullable Future<?> reconnectReq;
     private @Nullable Future<?> watchdog;
     private long lastPacket = 0;
+    // singleThread only, every connect after the first one is a reconnect
+    private boolean connectedBefore;
+    private volatile @Nullable PacketCapture capture;
 
     SDGPeerConnector(PacketHandler packetHandler, byte[] privateKey, ScheduledExecutorService scheduler) {
         this.packetHandler = packetHandler;
@@ -33,6 +41,18 @@ public class SDGPeerConnector {
         this.scheduler = scheduler;
     }
 
+    /**
+     * Captures buffers received from and sent to the master from now on, null stops capturing.
+     * The capture is not closed by the connector.
+     */
+    public void capture(@Nullable PacketCapture capture) {
+        this.capture = capture;
+    }
+
+    @Nullable PacketCapture capture() {
+        return capture;
+    }
+
     public void initialize(String peerIdStr) {
         logger.trace("initialize()");
 
@@ -46,6 +66,8 @@ public class SDGPeerConnector {
         // the framework is then able to reuse the resources from the thing handler initialization.
         // we set this upfront to reliably check status updates in unit tests.
         connection = new DeviSmartConnection(this);
+        link = connection;
+        gridSession = GridSession.acquire(privateKey, scheduler);
 
         watchdog = scheduler.scheduleAtFixedRate(() -> {
             if (connection == null || connection.getState() != Connection.State.CONNECTED) {
@@ -58,10 +80,12 @@ public class SDGPeerConnector {
                         return; // We are being disposed
                     }
                     connection.close();
-                    scheduleReconnect();
+                    // only the tunnel is opened again, the grid session is kept, so there is no need to wait
+                    connect();
                 });
             } else if (System.currentTimeMillis() - lastPacket > 15000) {
                 logger.warn("Device is inactive during 15 seconds, sending PING");
+                Metrics.WATCHDOG_PINGS.inc();
                 this.packetHandler.ping();
             }
         }, 10, 10, TimeUnit.SECONDS);
@@ -69,12 +93,23 @@ public class SDGPeerConnector {
         connect();
     }
 
+    /**
+     * Sends buffers through the link instead of connecting to the master through the grid,
+     * the link delivers the answers itself, e.g. through {@link DeviSmartConnection#dispatch}.
+     */
+    void attach(PeerLink peerLink) {
+        logger.info("Attached to {}", peerLink);
+        link = peerLink;
+        packetHandler.connected();
+    }
+
     public void dispose() {
         logger.trace("dispose()");
 
         singleThread.execute(() -> {
             DeviSmartConnection conn = connection;
             connection = null; // This signals we are being disposed
+            link = null;
 
             Future<?> reconnect = reconnectReq;
             if (reconnect != null) {
@@ -91,6 +126,12 @@ public class SDGPeerConnector {
             if (conn != null) {
                 conn.close();
             }
+
+            GridSession session = gridSession;
+            if (session != null) {
+                session.release();
+                gridSession = null;
+            }
         });
     }
 
@@ -102,18 +143,29 @@ public class SDGPeerConnector {
             if (connection == null) {
                 return; // Stale Reconnect request from deleted/disabled Thing
             }
+            if (connectedBefore) {
+                Metrics.RECONNECTS.inc();
+            }
+            connectedBefore = true;
 
+            GridConnection grid = null;
             try {
-                var grid = new GridConnection(privateKey, scheduler);
-                grid.connect(GridConnection.Danfoss);
+                grid = gridSession.connection();
                 logger.info("Connecting to peer {}", SDG.bin2hex(peerId));
                 connection.connectToRemote(grid, peerId, Dominion.ProtocolName);
             } catch (IOException | InterruptedException | ExecutionException | TimeoutException e) {
+                if (grid != null) {
+                    // the grid might be stale without having noticed it yet, the next attempt starts a new session
+                    gridSession.invalidate(grid);
+                }
                 setOfflineStatus(e);
                 return;
             }
 
+            // the watchdog gives the new tunnel its full grace period
+            lastPacket = System.currentTimeMillis();
             connection.asyncReceive();
+            backoff.reset();
             setOnlineStatus();
         });
     }
@@ -121,6 +173,7 @@ public class SDGPeerConnector {
     public void setOnlineStatus() {
         if (connection != null) {
             logger.info("Connection established");
+            packetHandler.connected();
         }
     }
 
@@ -146,36 +199,75 @@ public class SDGPeerConnector {
     }
 
     private void scheduleReconnect() {
-        logger.info("schedule reconnect");
-        reconnectReq = scheduler.schedule(this::connect, 10, TimeUnit.SECONDS);
+        long delay = backoff.nextDelayMillis();
+        logger.info("schedule reconnect in {} ms, attempt {}", delay, backoff.attempts());
+        reconnectReq = scheduler.schedule(this::connect, delay, TimeUnit.MILLISECONDS);
     }
 
-    public void Send(byte[] data) {
-        // Cache "connection" in order to avoid possible race condition
+    /**
+     * Returns false when the data was not sent, e.g. because the connection is down.
+     */
+    public boolean Send(byte[] data) {
+        // Cache "link" in order to avoid possible race condition
         // with dispose() zeroing it between test and usage
-        DeviSmartConnection conn = connection;
+        PeerLink conn = link;
 
-        if (conn == null || conn.getState() != Connection.State.CONNECTED) {
+        if (conn == null || !conn.isConnected()) {
             // Avoid "Failed to send data" warning if the connection hasn't been
             // connected yet. This may happen as OpenHAB sends REFRESH request for
             // every item right after the Thing has been initialized; it doesn't wait
             // for the Thing to go online.
-            return;
+            return false;
         }
 
         try {
-            conn.sendData(data);
+            conn.send(data);
+            Metrics.BYTES_SENT.add(data.length);
+            PacketCapture c = capture;
+            if (c != null) {
+                c.sent(data);
+            }
+            return true;
         } catch (IOException | InterruptedException | ExecutionException | TimeoutException e) {
+            Metrics.SEND_FAILURES.inc();
             logger.warn("Failed to send data: {}", e.toString());
+            return false;
         }
     }
 
-    public void SendPacket(Dominion.Packet pkt) {
-        Send(pkt.getBuffer());
+    public boolean SendPacket(Dominion.Packet pkt) {
+        return Send(pkt.getBuffer());
+    }
+
+    /**
+     * Sends the first {@code count} packets concatenated into a single buffer, so they cost one write
+     * and one encrypted frame instead of one per packet.
+     */
+    public boolean SendPackets(Dominion.Packet[] packets, int count) {
+        if (count == 1) {
+            return SendPacket(packets[0]);
+        }
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            length += packets[i].getBuffer().length;
+        }
+        var data = new byte[length];
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            var buffer = packets[i].getBuffer();
+            System.arraycopy(buffer, 0, data, offset, buffer.length);
+            offset += buffer.length;
+        }
+        return length == 0 || Send(data);
     }
 
     public void handlePacket(Dominion.Packet pkt) {
         lastPacket = System.currentTimeMillis();
         this.packetHandler.handlePacket(pkt);
     }
+
+    public void handleBatch(Dominion.PacketCursor packets) {
+        lastPacket = System.currentTimeMillis();
+        this.packetHandler.handleBatch(packets);
+    }
 }
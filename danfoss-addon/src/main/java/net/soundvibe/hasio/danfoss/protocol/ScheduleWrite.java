@@ -0,0 +1,8 @@
+package net.soundvibe.hasio.danfoss.protocol;
+
+/**
+ * Result of {@link IconMasterHandler#writeSchedules}: how many room days differed from the cached ones, how many
+ * packets carried them and whether they were sent. Cached days change once the master reports them back.
+ */
+public record ScheduleWrite(int days, int packets, boolean sent) {
+}
@@ -0,0 +1,44 @@
+package net.soundvibe.hasio.danfoss.protocol;
+
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.*;
+
+/**
+ * Writable room setpoints, with the commands setting them.
+ */
+public enum Setpoint {
+    HOME(ROOM_SETPOINTATHOME, "setHomeTemperature"),
+    AWAY(ROOM_SETPOINTAWAY, "setAwayTemperature"),
+    SLEEP(ROOM_SETPOINTASLEEP, "setSleepTemperature");
+
+    final int msgCode;
+    public final String command;
+
+    Setpoint(int msgCode, String command) {
+        this.msgCode = msgCode;
+        this.command = command;
+    }
+
+    /**
+     * Setpoint set by the command, null when the command doesn't set any.
+     */
+    public static Setpoint byCommand(String command) {
+        for (var setpoint : values()) {
+            if (setpoint.command.equals(command)) {
+                return setpoint;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Setpoint reported by the message code of a room, null when the code isn't a setpoint.
+     */
+    static Setpoint byMsgCode(int msgCode) {
+        return switch (msgCode) {
+            case ROOM_SETPOINTATHOME -> HOME;
+            case ROOM_SETPOINTAWAY -> AWAY;
+            case ROOM_SETPOINTASLEEP -> SLEEP;
+            default -> null;
+        };
+    }
+}
@@ -0,0 +1,267 @@
+package net.soundvibe.hasio.danfoss.protocol;
+
+import net.soundvibe.hasio.danfoss.protocol.config.Dominion;
+import net.soundvibe.hasio.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongSupplier;
+
+import static net.soundvibe.hasio.danfoss.protocol.config.DanfossBindingConstants.ICON_MAX_ROOMS;
+
+/**
+ * Debounced and confirmed setpoint writes of one master, e.g. while a climate slider is being dragged in Home Assistant.
+ * Every room has a single last-write-wins slot per {@link Setpoint}: a slot is written once it hasn't changed for
+ * the debounce window, so superseded values never reach the wire. Slots due at the same time are written
+ * as a single buffer.
+ * <p>
+ * Every write is followed by a request for the setpoint and is confirmed when the master reports the written value,
+ * see {@link SetpointWrite}. Unconfirmed writes are retried every {@link #CONFIRM_TIMEOUT_MILLIS} up to
+ * {@link #MAX_ATTEMPTS} times. While the connection is down nothing is sent and no attempts are used up,
+ * held writes go out as soon as it is back. Local state is not updated optimistically, it follows the echoes.
+ */
+public final class SetpointPipeline implements IconStateListener, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SetpointPipeline.class);
+
+    static final long CONFIRM_TIMEOUT_MILLIS = 5_000;
+    static final int MAX_ATTEMPTS = 5;
+    private static final Setpoint[] SETPOINTS = Setpoint.values();
+    private static final int SLOTS = SETPOINTS.length * ICON_MAX_ROOMS;
+
+    private final IconRoomHandler[] rooms;
+    private final PacketSender sender;
+    private final long debounceMillis;
+    private final LongSupplier clock;
+    private final AtomicLong ids = new AtomicLong();
+
+    // latest write of every slot, [setpoint * ICON_MAX_ROOMS + roomNumber]
+    private final AtomicReferenceArray<SetpointWrite> latest = new AtomicReferenceArray<>(SLOTS);
+    // room bits per setpoint which have not been sent yet
+    private final AtomicLongArray pending = new AtomicLongArray(SETPOINTS.length);
+    // earliest scheduled flush, a later one is replaced when an earlier one is needed
+    private final Object scheduleLock = new Object();
+    private long scheduledAt = Long.MAX_VALUE;
+    private Future<?> scheduledFlush;
+
+    // guarded by the flush
+    // room bits per setpoint which have been sent and wait for their echo
+    private final long[] unconfirmed = new long[SETPOINTS.length];
+    // a write and a request per slot
+    private final Dominion.Packet[] packets = new Dominion.Packet[2 * SLOTS];
+    private final SetpointWrite[] sending = new SetpointWrite[SLOTS];
+
+    private volatile ScheduledExecutorService scheduler;
+    private volatile boolean closed;
+
+    SetpointPipeline(IconRoomHandler[] rooms, PacketSender sender, long debounceMillis, LongSupplier clock) {
+        if (debounceMillis < 0) {
+            throw new IllegalArgumentException(STR."debounceMillis must not be negative: \{debounceMillis}");
+        }
+        this.rooms = rooms;
+        this.sender = sender;
+        this.debounceMillis = debounceMillis;
+        this.clock = clock;
+    }
+
+    public SetpointPipeline start(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+        // values submitted before the start
+        scheduleFlush(debounceMillis);
+        return this;
+    }
+
+    /**
+     * Sends all the pending setpoints right away and stops retrying.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        flush(clock.getAsLong(), true);
+    }
+
+    /**
+     * Replaces the pending value of the room setpoint, it is written once the slot stays unchanged for the debounce window.
+     * The previous write of the slot is superseded, unless it has already been confirmed.
+     */
+    public SetpointWrite submit(int roomNumber, Setpoint setpoint, double value) {
+        int slot = slot(roomNumber, setpoint);
+        var write = new SetpointWrite(ids.incrementAndGet(), roomNumber, setpoint, value, clock.getAsLong());
+        var previous = latest.getAndSet(slot, write);
+        if (previous != null && previous.complete(SetpointWrite.Outcome.SUPERSEDED)) {
+            Metrics.SETPOINTS_COALESCED.inc();
+        }
+        markPending(write);
+        if (closed) {
+            flush(clock.getAsLong(), true);
+        } else {
+            scheduleFlush(debounceMillis);
+        }
+        return write;
+    }
+
+    @Override
+    public void onSetpointReported(int roomNumber, Setpoint setpoint, double value) {
+        var write = latest.get(slot(roomNumber, setpoint));
+        if (write != null && write.sent && write.matches(value) && write.complete(SetpointWrite.Outcome.CONFIRMED)) {
+            Metrics.SETPOINTS_CONFIRMED.inc();
+            logger.debug("room {} {} setpoint {} confirmed", roomNumber, setpoint, value);
+        }
+    }
+
+    @Override
+    public void onConnected() {
+        var executor = scheduler;
+        if (executor != null && !closed) {
+            // held writes go out right away instead of on the next scheduled flush
+            executor.execute(this::flushDue);
+        }
+    }
+
+    /**
+     * Makes sure a flush runs within the delay: a flush scheduled later, e.g. a retry, is rescheduled earlier.
+     */
+    private void scheduleFlush(long delayMillis) {
+        var executor = scheduler;
+        if (executor == null || closed) {
+            return;
+        }
+        long deadline = clock.getAsLong() + delayMillis;
+        synchronized (scheduleLock) {
+            if (scheduledAt - deadline <= 0) {
+                return;
+            }
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+            }
+            scheduledAt = deadline;
+            scheduledFlush = executor.schedule(this::flushDue, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flushDue() {
+        // cleared first, so that a value submitted during the flush schedules the next one
+        synchronized (scheduleLock) {
+            scheduledAt = Long.MAX_VALUE;
+            scheduledFlush = null;
+        }
+        try {
+            flush(clock.getAsLong(), false);
+        } catch (Exception e) {
+            logger.error("setpoint flush failed", e);
+        }
+    }
+
+    /**
+     * Sends slots which stayed unchanged for the debounce window, all the pending ones when forced,
+     * along with retries of unconfirmed writes, and returns how many writes were sent.
+     */
+    synchronized int flush(long now, boolean force) {
+        int count = 0;
+        long nextDeadline = Long.MAX_VALUE;
+        for (int s = 0; s < SETPOINTS.length; s++) {
+            for (long roomBits = unconfirmed[s]; roomBits != 0L; roomBits &= roomBits - 1) {
+                int roomNumber = Long.numberOfTrailingZeros(roomBits);
+                var write = latest.get(s * ICON_MAX_ROOMS + roomNumber);
+                if (write.isDone() || !write.sent) {
+                    // confirmed, or superseded by a write which hasn't been sent yet
+                    unconfirmed[s] &= ~(1L << roomNumber);
+                } else if (write.sentAt + CONFIRM_TIMEOUT_MILLIS - now > 0) {
+                    nextDeadline = Math.min(nextDeadline, write.sentAt + CONFIRM_TIMEOUT_MILLIS);
+                } else if (write.attempts >= MAX_ATTEMPTS) {
+                    unconfirmed[s] &= ~(1L << roomNumber);
+                    if (write.complete(SetpointWrite.Outcome.FAILED)) {
+                        Metrics.SETPOINT_WRITES_FAILED.inc();
+                        logger.warn("room {} {} setpoint {} was not confirmed after {} attempts",
+                                roomNumber, SETPOINTS[s], write.value, write.attempts);
+                    }
+                } else {
+                    Metrics.SETPOINT_RETRIES.inc();
+                    count = queue(write, count);
+                }
+            }
+            for (long roomBits = pending.get(s); roomBits != 0L; roomBits &= roomBits - 1) {
+                int roomNumber = Long.numberOfTrailingZeros(roomBits);
+                long deadline = latest.get(s * ICON_MAX_ROOMS + roomNumber).submittedAt + debounceMillis;
+                if (!force && deadline - now > 0) {
+                    nextDeadline = Math.min(nextDeadline, deadline);
+                    continue;
+                }
+                // cleared before reading the write again, so that a newer one is either sent here or stays pending
+                pending.getAndAccumulate(s, ~(1L << roomNumber), (pendingRooms, mask) -> pendingRooms & mask);
+                count = queue(latest.get(s * ICON_MAX_ROOMS + roomNumber), count);
+            }
+        }
+        if (count > 0) {
+            boolean sent = sender.send(packets, 2 * count);
+            Arrays.fill(packets, 0, 2 * count, null);
+            if (sent) {
+                sent(now, count);
+            } else {
+                hold(count);
+                count = 0;
+            }
+            // held writes are retried from here as well, in case the connection comes back unnoticed
+            nextDeadline = Math.min(nextDeadline, now + CONFIRM_TIMEOUT_MILLIS);
+        }
+        if (nextDeadline != Long.MAX_VALUE) {
+            scheduleFlush(nextDeadline - now);
+        }
+        return count;
+    }
+
+    private int queue(SetpointWrite write, int count) {
+        var room = rooms[write.roomNumber];
+        packets[2 * count] = room.setpointPacket(write.setpoint, write.value);
+        packets[2 * count + 1] = room.setpointRequestPacket(write.setpoint);
+        sending[count] = write;
+        return count + 1;
+    }
+
+    private void sent(long now, int count) {
+        for (int i = 0; i < count; i++) {
+            var write = sending[i];
+            sending[i] = null;
+            write.attempts++;
+            write.sentAt = now;
+            write.sent = true;
+            unconfirmed[write.setpoint.ordinal()] |= 1L << write.roomNumber;
+            rooms[write.roomNumber].commanded();
+        }
+        Metrics.SETPOINTS_WRITTEN.add(count);
+        logger.debug("{} setpoints written", count);
+    }
+
+    /**
+     * Keeps writes which could not be sent: unsent ones go back to their slots, unconfirmed ones stay
+     * unconfirmed without using up an attempt.
+     */
+    private void hold(int count) {
+        for (int i = 0; i < count; i++) {
+            var write = sending[i];
+            sending[i] = null;
+            if (!write.sent) {
+                markPending(write);
+            }
+        }
+        logger.debug("{} setpoints held until the connection is back", count);
+    }
+
+    private void markPending(SetpointWrite write) {
+        pending.getAndAccumulate(write.setpoint.ordinal(), 1L << write.roomNumber, (pendingRooms, room) -> pendingRooms | room);
+    }
+
+    private static int slot(int roomNumber, Setpoint setpoint) {
+        if (roomNumber < 0 || roomNumber >= ICON_MAX_ROOMS) {
+            throw new IllegalArgumentException(STR."invalid room number: \{roomNumber}");
+        }
+        return setpoint.ordinal() * ICON_MAX_ROOMS + roomNumber;
+    }
+}
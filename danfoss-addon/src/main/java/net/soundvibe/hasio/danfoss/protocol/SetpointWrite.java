@@ -0,0 +1,82 @@
+package net.soundvibe.hasio.danfoss.protocol;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A setpoint command submitted to {@link SetpointPipeline}, tracked until the master echoes the written value.
+ */
+public final class SetpointWrite {
+
+    public enum Outcome {
+        /**
+         * The master has reported the written value.
+         */
+        CONFIRMED,
+        /**
+         * A newer command of the same room setpoint has replaced this one.
+         */
+        SUPERSEDED,
+        /**
+         * The master didn't report the written value after all the attempts.
+         */
+        FAILED
+    }
+
+    public final long id;
+    public final int roomNumber;
+    public final Setpoint setpoint;
+    public final double value;
+    final long submittedAt;
+    private final CompletableFuture<Outcome> outcome = new CompletableFuture<>();
+
+    // written by the pipeline flush only, sent is also read by the receive thread
+    int attempts;
+    long sentAt;
+    volatile boolean sent;
+
+    SetpointWrite(long id, int roomNumber, Setpoint setpoint, double value, long submittedAt) {
+        this.id = id;
+        this.roomNumber = roomNumber;
+        this.setpoint = setpoint;
+        this.value = value;
+        this.submittedAt = submittedAt;
+    }
+
+    /**
+     * Waits for the outcome, null when the write is still pending after the timeout.
+     */
+    public Outcome await(long timeout, TimeUnit unit) throws InterruptedException {
+        try {
+            return outcome.get(timeout, unit);
+        } catch (TimeoutException e) {
+            return null;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * The outcome, null while the write is pending.
+     */
+    public Outcome outcome() {
+        return outcome.getNow(null);
+    }
+
+    boolean isDone() {
+        return outcome.isDone();
+    }
+
+    boolean complete(Outcome result) {
+        return outcome.complete(result);
+    }
+
+    /**
+     * Whether the reported value is the written one, in hundredths of a degree as encoded by the setpoint packet.
+     */
+    boolean matches(double reported) {
+        return (short) (value * 100) == Math.round(reported * 100);
+    }
+}
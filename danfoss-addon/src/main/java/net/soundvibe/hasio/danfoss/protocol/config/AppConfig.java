@@ -1,7 +1,42 @@
 package net.soundvibe.hasio.danfoss.protocol.config;
 
+import net.soundvibe.hasio.danfoss.protocol.FieldScope;
+
+import java.util.regex.Pattern;
+
+/**
+ * Credentials of one Icon house. {@code house} namespaces MQTT topics, entities and sensors of the house
+ * when one addon manages several of them, it may be missing for the default house which keeps the plain names.
+ */
 public record AppConfig(
         byte[] privateKey,
         String userName,
-        String peerId) {}
+        String peerId,
+        String house) {
+
+    public static final String DEFAULT_HOUSE = "";
+    private static final Pattern HOUSE_PATTERN = Pattern.compile("[a-z0-9_]*");
+
+    public AppConfig(byte[] privateKey, String userName, String peerId) {
+        this(privateKey, userName, peerId, DEFAULT_HOUSE);
+    }
+
+    public String houseOrDefault() {
+        // config files of a single house don't name it
+        return house == null ? DEFAULT_HOUSE : house;
+    }
 
+    /**
+     * House ids become parts of entity ids and topics, so only lower case letters, digits and underscores are allowed.
+     * Device scope names are taken by device topics of the default house, e.g. {@code danfoss/icon/rail/3/state}.
+     */
+    public static String validHouse(String house) {
+        if (house == null || !HOUSE_PATTERN.matcher(house).matches()) {
+            throw new IllegalArgumentException(STR."invalid house id, only a-z, 0-9 and _ are allowed: \{house}");
+        }
+        if (FieldScope.deviceByJsonName(house) != null) {
+            throw new IllegalArgumentException(STR."invalid house id, it is the name of device topics: \{house}");
+        }
+        return house;
+    }
+}
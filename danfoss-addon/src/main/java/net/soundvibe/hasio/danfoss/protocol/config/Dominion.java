@@ -146,8 +146,10 @@ public class Dominion {
         }
 
         public double getDecimal() {
-            short fixed = getShort();
+            return toDecimal(getShort());
+        }
 
+        static double toDecimal(short fixed) {
             // Decimal values are 16-bit fixed-point with two decimal places.
             // On Icon missing sensors report 0x8000
             return (fixed == 0x8000) ? Double.NaN : fixed / 100.0;
@@ -168,7 +170,7 @@ public class Dominion {
 
             // For some reason empty strings, which have never been set, have
             // full length and all zero contents. At least on Icon.
-            return data[0] == 0 ? "" : new String(getArray());
+            return data[0] == 0 ? "" : new String(data);
         }
 
         public Date getDate(int offset) {
@@ -206,6 +208,154 @@ public class Dominion {
         }
     }
 
+    /**
+     * Flyweight reader over incoming packets stored back to back in a single buffer.
+     * Unlike {@link Packet} it doesn't allocate per message: the same instance is moved
+     * over the buffer with {@link #next()} and payload getters read directly from the backing array.
+     * A cursor is only valid for the duration of the call it was passed to.
+     */
+    public static class PacketCursor {
+        private byte[] m_Data;
+        private int m_Start;
+        private int m_Next;
+        private int m_Limit;
+        private boolean m_Malformed;
+
+        public static PacketCursor of(Packet pkt) {
+            var cursor = new PacketCursor();
+            cursor.reset(pkt.m_Buffer.array(), pkt.m_Start, pkt.m_Buffer.capacity());
+            cursor.next();
+            return cursor;
+        }
+
+        public PacketCursor reset(byte[] data, int offset, int limit) {
+            m_Data = data;
+            m_Start = offset;
+            m_Next = offset;
+            m_Limit = limit;
+            m_Malformed = false;
+            return this;
+        }
+
+        /**
+         * Moves to the next packet in the buffer.
+         * Returns false when there are no more complete packets or when packet header
+         * specifies more bytes than we have, see {@link #isMalformed()}.
+         */
+        public boolean next() {
+            if (m_Limit - m_Next < Packet.HeaderSize) {
+                return false;
+            }
+            int packetLen = Byte.toUnsignedInt(m_Data[m_Next + 3]) + Packet.HeaderSize;
+            if (packetLen > m_Limit - m_Next) {
+                m_Malformed = true;
+                m_Start = m_Next;
+                return false;
+            }
+            m_Start = m_Next;
+            m_Next += packetLen;
+            return true;
+        }
+
+        public boolean isMalformed() {
+            return m_Malformed;
+        }
+
+        /**
+         * Offset of the current packet or, when the buffer is malformed, of the malformed data.
+         */
+        public int position() {
+            return m_Start;
+        }
+
+        public int getMsgClass() {
+            return Byte.toUnsignedInt(m_Data[m_Start]);
+        }
+
+        public int getMsgCode() {
+            return (m_Data[m_Start + 1] & 0xFF) | ((m_Data[m_Start + 2] & 0xFF) << 8);
+        }
+
+        public int getPayloadOffset() {
+            return m_Start + Packet.HeaderSize;
+        }
+
+        public int getPayloadLength() {
+            return Byte.toUnsignedInt(m_Data[m_Start + 3]);
+        }
+
+        public int getLength() {
+            return getPayloadLength() + Packet.HeaderSize;
+        }
+
+        public byte[] data() {
+            return m_Data;
+        }
+
+        public byte getByte() {
+            return m_Data[getPayloadOffset()];
+        }
+
+        public short getShort() {
+            int offset = getPayloadOffset();
+            return (short) ((m_Data[offset] & 0xFF) | (m_Data[offset + 1] << 8));
+        }
+
+        public int getInt() {
+            int offset = getPayloadOffset();
+            return (m_Data[offset] & 0xFF) | ((m_Data[offset + 1] & 0xFF) << 8)
+                    | ((m_Data[offset + 2] & 0xFF) << 16) | (m_Data[offset + 3] << 24);
+        }
+
+        public boolean getBoolean() {
+            return getByte() != 0;
+        }
+
+        public double getDecimal() {
+            return Packet.toDecimal(getShort());
+        }
+
+        public String getString() {
+            int payloadLength = getPayloadLength();
+            if (payloadLength < 2) {
+                return "";
+            }
+            int offset = getPayloadOffset();
+            // the length prefix is not trusted to stay within the payload
+            int length = Math.min(Byte.toUnsignedInt(m_Data[offset]), payloadLength - 1);
+            // See Packet.getString()
+            return length == 0 || m_Data[offset + 1] == 0 ? "" : new String(m_Data, offset + 1, length);
+        }
+
+        public Date getDate(int offset) {
+            int pos = getPayloadOffset() + offset;
+            // See Packet.getDate()
+            byte sec = m_Data[pos];
+            byte min = m_Data[pos + 1];
+            int hr = m_Data[pos + 2] & 63;
+            int d = m_Data[pos + 3] & 31;
+            int m = m_Data[pos + 4] - 1;
+            int y = Byte.toUnsignedInt(m_Data[pos + 5]) + 2000;
+
+            Calendar c = Calendar.getInstance();
+            c.clear();
+            c.setTimeZone(TimeZone.getTimeZone("UTC"));
+            c.set(y, m, d, hr, min, sec);
+            return c.getTime();
+        }
+
+        public Version getVersion() {
+            return new Version(getShort());
+        }
+
+        @Override
+        public String toString() {
+            int length = getPayloadLength();
+            return String.format("%3d %5d %3d %s", getMsgClass(), getMsgCode(), length,
+                    HexFormat.of().formatHex(m_Data, getPayloadOffset(), getPayloadOffset() + length));
+        }
+    }
+
     public static class Version {
         public final int Major;
         public final int Minor;
@@ -0,0 +1,129 @@
+package net.soundvibe.hasio.ha;
+
+import net.soundvibe.hasio.danfoss.data.IconMaster;
+import net.soundvibe.hasio.danfoss.data.IconRoom;
+import net.soundvibe.hasio.danfoss.protocol.IconStateListener;
+import net.soundvibe.hasio.metrics.Histogram;
+import net.soundvibe.hasio.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static net.soundvibe.hasio.danfoss.protocol.config.DanfossBindingConstants.ICON_MAX_ROOMS;
+
+/**
+ * Base for sinks fed by {@link IconStateListener} events.
+ * Every room has a single slot holding its latest state, so the queue is bounded by the number of rooms
+ * and a room changing several times while the sink is busy is published only once, with its latest state.
+ * Publishing happens on a dedicated virtual thread which sleeps while nothing changes.
+ */
+public abstract class CoalescingPublisher implements IconStateListener, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CoalescingPublisher.class);
+
+    private final AtomicReferenceArray<IconRoom> latestRooms = new AtomicReferenceArray<>(ICON_MAX_ROOMS);
+    private final AtomicLong pendingRooms = new AtomicLong();
+    private final AtomicReference<IconMaster> latestMaster = new AtomicReference<>();
+    private final Semaphore signal = new Semaphore(0);
+    private final String name;
+    private final Histogram tickDuration;
+    private volatile boolean closed;
+    private Thread worker;
+
+    protected CoalescingPublisher(String name) {
+        this.name = name;
+        this.tickDuration = Metrics.publishTickDuration(name);
+    }
+
+    public synchronized CoalescingPublisher start() {
+        if (worker == null) {
+            worker = Thread.ofVirtual().name(name).start(this::run);
+        }
+        return this;
+    }
+
+    @Override
+    public void onRoomChanged(IconRoom before, IconRoom after) {
+        latestRooms.set(after.number(), after);
+        pendingRooms.getAndAccumulate(1L << after.number(), (pending, changed) -> pending | changed);
+    }
+
+    @Override
+    public void onMasterChanged(IconMaster before, IconMaster after) {
+        latestMaster.set(after);
+    }
+
+    @Override
+    public void onStateChanged(long changedRooms, boolean masterChanged) {
+        // a single wake-up for the whole burst
+        signal.release();
+    }
+
+    /**
+     * Wakes the publisher up without any changes, so it could retry failed updates and send heartbeats.
+     */
+    public void tick() {
+        signal.release();
+    }
+
+    /**
+     * Puts the room back into the queue, e.g. when it failed to be published. It will be retried on the next wake-up.
+     */
+    protected void requeue(IconRoom room) {
+        latestRooms.compareAndSet(room.number(), null, room);
+        pendingRooms.getAndAccumulate(1L << room.number(), (pending, changed) -> pending | changed);
+    }
+
+    protected void requeue(IconMaster master) {
+        latestMaster.compareAndSet(null, master);
+    }
+
+    /**
+     * Publishes changed rooms and master (null when unchanged).
+     * Implementations are also expected to send heartbeats of unchanged entities here.
+     */
+    protected abstract void publish(IconRoom[] changedRooms, int count, IconMaster changedMaster);
+
+    private void run() {
+        var changedRooms = new IconRoom[ICON_MAX_ROOMS];
+        while (!closed) {
+            try {
+                signal.acquire();
+                signal.drainPermits();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            int count = 0;
+            for (long pending = pendingRooms.getAndSet(0L); pending != 0L; pending &= pending - 1) {
+                var room = latestRooms.getAndSet(Long.numberOfTrailingZeros(pending), null);
+                if (room != null) {
+                    changedRooms[count++] = room;
+                }
+            }
+            long started = System.nanoTime();
+            try {
+                publish(changedRooms, count, latestMaster.getAndSet(null));
+            } catch (Exception e) {
+                logger.error("{} failed to publish", name, e);
+            }
+            tickDuration.observeSince(started);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        signal.release();
+        synchronized (this) {
+            if (worker != null) {
+                worker.interrupt();
+            }
+        }
+    }
+}
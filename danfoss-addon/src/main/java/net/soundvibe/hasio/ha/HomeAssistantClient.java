@@ -2,59 +2,169 @@ package net.soundvibe.hasio.ha;
 
 import net.soundvibe.hasio.Json;
 import net.soundvibe.hasio.ha.model.State;
-import okhttp3.MediaType;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.RequestBody;
+import net.soundvibe.hasio.metrics.Metrics;
+import okhttp3.*;
+import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class HomeAssistantClient {
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static net.soundvibe.hasio.danfoss.protocol.config.DanfossBindingConstants.ICON_MAX_ROOMS;
+
+public class HomeAssistantClient implements HomeAssistantStateSink {
 
     private static final Logger logger = LoggerFactory.getLogger(HomeAssistantClient.class);
-    private final String token;
-    private final OkHttpClient httpClient;
 
     private static final MediaType MEDIA_TYPE_JSON = MediaType.parse("application/json");
 
-    private static final String HA_CORE_API = "http://supervisor/core/api";
+    private static final HttpUrl HA_CORE_API = HttpUrl.get("http://supervisor/core/api");
+
+    /**
+     * Enough for every room and the master controller to be upserted at once.
+     */
+    public static final int MAX_CONCURRENT_REQUESTS = ICON_MAX_ROOMS + 1;
+
+    /**
+     * Shared by all the clients, so that re-bootstrapping doesn't create new connection pools and dispatcher threads.
+     * The supervisor proxy speaks plain HTTP/1.1, so requests are spread over pooled keep-alive connections.
+     */
+    private static final OkHttpClient SHARED_HTTP_CLIENT = newHttpClient();
+
+    private final String token;
+    private final String authorization;
+    private final OkHttpClient httpClient;
+    private final HttpUrl statesUrl;
+    private final Map<String, HttpUrl> sensorUrls = new ConcurrentHashMap<>(ICON_MAX_ROOMS * 2);
 
     public HomeAssistantClient(String token) {
-        this.token = STR."Bearer \{token}";
-        this.httpClient = new OkHttpClient.Builder()
+        this(token, HA_CORE_API, SHARED_HTTP_CLIENT);
+    }
+
+    HomeAssistantClient(String token, HttpUrl apiUrl, OkHttpClient httpClient) {
+        this.token = token == null ? "" : token;
+        this.authorization = STR."Bearer \{this.token}";
+        this.httpClient = httpClient;
+        this.statesUrl = apiUrl.newBuilder().addPathSegment("states").build();
+    }
+
+    static OkHttpClient sharedHttpClient() {
+        return SHARED_HTTP_CLIENT;
+    }
+
+    static OkHttpClient newHttpClient() {
+        var dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(MAX_CONCURRENT_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(MAX_CONCURRENT_REQUESTS);
+        return new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(MAX_CONCURRENT_REQUESTS, 5, TimeUnit.MINUTES))
                 .followRedirects(false)
                 .build();
     }
 
-    public void upsertState(State state, String sensorName) {
+    public boolean upsertState(State state, String sensorName) {
+        return upsertState(Json.toJsonBytes(state), sensorName);
+    }
+
+    public boolean upsertState(byte[] stateJson, String sensorName) {
         if (this.token.isEmpty()) {
             logger.info("no token, skipping");
-            return;
+            return false;
         }
 
-        var jsonString = Json.toJsonString(state);
-
         try {
-            var body = RequestBody.create(jsonString, MEDIA_TYPE_JSON);
-            var request = new Request.Builder()
-                    .url(String.format("%s/states/%s", HA_CORE_API, sensorName))
-                    .header("Authorization", this.token)
-                    .header("Content-Type", "application/json")
-                    .post(body)
-                    .build();
-
-            var call = this.httpClient.newCall(request);
+            var call = this.httpClient.newCall(request(stateJson, sensorName));
             try (var response = call.execute()) {
-                if (response.code() == 200 || response.code() == 201) {
-                    return;
-                }
-
-                logger.error("[{}]: failed to upsert sensor: {}\n json: {}",
-                        response.code(), response.message(), jsonString);
+                return isUpserted(response, stateJson);
             }
         } catch (Exception e) {
             logger.error("unable to upsert Home Assistant states", e);
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Upserts all the states concurrently, up to {@link #MAX_CONCURRENT_REQUESTS} at once.
+     *
+     * @return completes when all the requests are done, with whether each sensor has been upserted.
+     * Failures are logged and reported as {@code false}, the future itself never fails.
+     */
+    public CompletableFuture<Map<String, Boolean>> upsertStates(Map<String, State> states) {
+        var stateJsons = new LinkedHashMap<String, byte[]>(states.size() * 2);
+        states.forEach((sensorName, state) -> stateJsons.put(sensorName, Json.toJsonBytes(state)));
+        return upsertSerializedStates(stateJsons);
+    }
+
+    /**
+     * Same as {@link #upsertStates}, with states already serialized.
+     */
+    @Override
+    public CompletableFuture<Map<String, Boolean>> upsertSerializedStates(Map<String, byte[]> stateJsons) {
+        var results = new ConcurrentHashMap<String, Boolean>(stateJsons.size() * 2);
+        if (this.token.isEmpty()) {
+            logger.info("no token, skipping");
+            stateJsons.keySet().forEach(sensorName -> results.put(sensorName, false));
+            return CompletableFuture.completedFuture(results);
+        }
+
+        var calls = new CompletableFuture<?>[stateJsons.size()];
+        int i = 0;
+        for (var entry : stateJsons.entrySet()) {
+            var sensorName = entry.getKey();
+            var stateJson = entry.getValue();
+            var completion = new CompletableFuture<Boolean>();
+            calls[i++] = completion.thenAccept(upserted -> results.put(sensorName, upserted));
+            long started = System.nanoTime();
+            this.httpClient.newCall(request(stateJson, sensorName)).enqueue(new Callback() {
+                @Override
+                public void onResponse(@NotNull Call call, @NotNull Response response) {
+                    Metrics.HA_UPSERT_DURATION.observeSince(started);
+                    try (response) {
+                        completion.complete(isUpserted(response, stateJson));
+                    } catch (RuntimeException e) {
+                        completion.complete(false);
+                    }
+                }
+
+                @Override
+                public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                    Metrics.HA_UPSERT_DURATION.observeSince(started);
+                    Metrics.HA_UPSERT_FAILURES.inc(Metrics.HA_IO_ERROR);
+                    logger.warn("unable to upsert {}: {}", sensorName, e.getMessage());
+                    completion.complete(false);
+                }
+            });
+        }
+        return CompletableFuture.allOf(calls).thenApply(_ -> results);
+    }
+
+    private Request request(byte[] stateJson, String sensorName) {
+        return new Request.Builder()
+                .url(sensorUrl(sensorName))
+                .header("Authorization", this.authorization)
+                .post(RequestBody.create(stateJson, MEDIA_TYPE_JSON))
+                .build();
+    }
+
+    private HttpUrl sensorUrl(String sensorName) {
+        return sensorUrls.computeIfAbsent(sensorName, name -> statesUrl.newBuilder().addPathSegment(name).build());
+    }
+
+    private static boolean isUpserted(Response response, byte[] stateJson) {
+        if (response.code() == 200 || response.code() == 201) {
+            return true;
+        }
+
+        Metrics.HA_UPSERT_FAILURES.inc(response.code());
+        logger.error("[{}]: failed to upsert sensor: {}\n json: {}",
+                response.code(), response.message(), new String(stateJson, StandardCharsets.UTF_8));
+        return false;
+    }
 }
@@ -0,0 +1,157 @@
+package net.soundvibe.hasio.ha;
+
+import net.soundvibe.hasio.Json;
+import net.soundvibe.hasio.danfoss.data.IconMaster;
+import net.soundvibe.hasio.danfoss.data.IconRoom;
+import net.soundvibe.hasio.danfoss.protocol.IconMasterHandler;
+import net.soundvibe.hasio.model.Options;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import static net.soundvibe.hasio.danfoss.protocol.config.DanfossBindingConstants.ICON_MAX_ROOMS;
+
+/**
+ * Publishes room and master controller states to Home Assistant as soon as they change.
+ * Every sensor is still re-sent after {@code haMaxSilenceInSeconds} so that HA never considers it stale.
+ */
+public class HomeAssistantPublisher extends CoalescingPublisher {
+
+    private static final Logger logger = LoggerFactory.getLogger(HomeAssistantPublisher.class);
+
+    public static final String MASTER_SENSOR_NAME = "sensor.danfoss_master_controller_last_updated";
+
+    private final IconMasterHandler masterHandler;
+    private final HomeAssistantStateSink stateSink;
+    private final HouseNamespace namespace;
+    private final String masterSensorName;
+    private final String sensorNameFmt;
+    private final long maxSilenceMillis;
+    private final LongSupplier clock;
+
+    // only accessed from the publisher thread
+    private final String[] sensorNames = new String[ICON_MAX_ROOMS];
+    private final IconRoom[] lastSentRooms = new IconRoom[ICON_MAX_ROOMS];
+    private final long[] lastSentAt = new long[ICON_MAX_ROOMS];
+    private final IconRoom[] batch = new IconRoom[ICON_MAX_ROOMS];
+
+    private IconMaster lastSentMaster;
+    private long lastSentMasterAt;
+    private volatile boolean resyncRequested;
+
+    public HomeAssistantPublisher(IconMasterHandler masterHandler, HomeAssistantStateSink stateSink, Options options) {
+        this(masterHandler, HouseNamespace.DEFAULT, stateSink, options);
+    }
+
+    /**
+     * Publisher of one of the houses sharing the sink, its sensors are namespaced by the house.
+     */
+    public HomeAssistantPublisher(IconMasterHandler masterHandler, HouseNamespace namespace,
+                                  HomeAssistantStateSink stateSink, Options options) {
+        this(masterHandler, namespace, stateSink, options, System::currentTimeMillis);
+    }
+
+    HomeAssistantPublisher(IconMasterHandler masterHandler, HouseNamespace namespace,
+                           HomeAssistantStateSink stateSink, Options options, LongSupplier clock) {
+        super(STR."ha-publisher\{namespace.suffix()}");
+        this.masterHandler = masterHandler;
+        this.stateSink = stateSink;
+        this.namespace = namespace;
+        this.masterSensorName = namespace.entityId(MASTER_SENSOR_NAME);
+        this.sensorNameFmt = options.sensorNameFmt();
+        this.maxSilenceMillis = TimeUnit.SECONDS.toMillis(options.haMaxSilenceInSecondsOrDefault());
+        this.clock = clock;
+    }
+
+    /**
+     * Re-sends all the states, e.g. when the sink has reconnected or Home Assistant has restarted.
+     */
+    public void resync() {
+        resyncRequested = true;
+        tick();
+    }
+
+    @Override
+    protected void publish(IconRoom[] changedRooms, int count, IconMaster changedMaster) {
+        if (resyncRequested) {
+            resyncRequested = false;
+            Arrays.fill(lastSentRooms, null);
+            Arrays.fill(lastSentAt, 0L);
+            lastSentMaster = null;
+            lastSentMasterAt = 0L;
+        }
+        var now = clock.getAsLong();
+        int size = 0;
+        long inBatch = 0L;
+        for (int i = 0; i < count; i++) {
+            var room = changedRooms[i];
+            // a state is derived from all the room fields
+            if (!room.name().isEmpty() && !room.equals(lastSentRooms[room.number()])) {
+                batch[size++] = room;
+                inBatch |= 1L << room.number();
+            }
+        }
+        // heartbeats and rooms which have never been sent
+        for (var roomHandler : masterHandler.roomHandlers()) {
+            var number = roomHandler.roomNumber;
+            if ((inBatch & (1L << number)) == 0 && now - lastSentAt[number] >= maxSilenceMillis) {
+                batch[size++] = roomHandler.toIconRoom();
+                inBatch |= 1L << number;
+            }
+        }
+
+        var states = new LinkedHashMap<String, byte[]>((size + 1) * 2);
+        for (int i = 0; i < size; i++) {
+            states.put(sensorName(batch[i].number()), Json.write(batch[i]::writeState));
+        }
+        var iconMaster = changedMaster != null ? changedMaster : masterHandler.iconMaster();
+        if ((changedMaster != null && !changedMaster.equals(lastSentMaster)) || now - lastSentMasterAt >= maxSilenceMillis) {
+            states.put(masterSensorName, Json.toJsonBytes(iconMaster.toState()));
+        }
+        if (states.isEmpty()) {
+            logger.debug("no sensor changes to publish");
+            return;
+        }
+
+        // all the states are sent at once, so the whole batch takes about a single round trip
+        var results = stateSink.upsertSerializedStates(states).join();
+        int updated = 0;
+        for (int i = 0; i < size; i++) {
+            var room = batch[i];
+            batch[i] = null;
+            if (Boolean.TRUE.equals(results.get(sensorName(room.number())))) {
+                lastSentRooms[room.number()] = room;
+                lastSentAt[room.number()] = now;
+                updated++;
+            } else {
+                requeue(room);
+            }
+        }
+        if (states.containsKey(masterSensorName)) {
+            if (Boolean.TRUE.equals(results.get(masterSensorName))) {
+                lastSentMaster = iconMaster;
+                lastSentMasterAt = now;
+                updated++;
+            } else if (changedMaster != null) {
+                requeue(changedMaster);
+            }
+        }
+
+        if (updated > 0) {
+            logger.info("{} sensors updated successfully", updated);
+        }
+    }
+
+    private String sensorName(int roomNumber) {
+        var sensorName = sensorNames[roomNumber];
+        if (sensorName == null) {
+            sensorName = namespace.entityId(String.format(sensorNameFmt, roomNumber));
+            sensorNames[roomNumber] = sensorName;
+        }
+        return sensorName;
+    }
+}
@@ -0,0 +1,18 @@
+package net.soundvibe.hasio.ha;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Where {@link HomeAssistantPublisher} sends sensor states to.
+ */
+public interface HomeAssistantStateSink {
+
+    /**
+     * Sends serialized states by sensor name.
+     *
+     * @return completes when all the states are done, with whether each sensor has been updated.
+     * Failures are reported as {@code false}, the future itself never fails.
+     */
+    CompletableFuture<Map<String, Boolean>> upsertSerializedStates(Map<String, byte[]> stateJsons);
+}
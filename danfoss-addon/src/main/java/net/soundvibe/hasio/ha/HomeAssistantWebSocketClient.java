@@ -0,0 +1,269 @@
+package net.soundvibe.hasio.ha;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import net.soundvibe.hasio.Json;
+import net.soundvibe.hasio.metrics.Metrics;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends sensor states over a single authenticated Home Assistant WebSocket API connection.
+ * The WebSocket API has no command to set an entity state, so states are fired as {@link #STATE_EVENT_TYPE} events
+ * (see DOCS.md for template sensors consuming them). Messages are pipelined: results are matched by message id,
+ * so a whole batch takes about one round trip and a single frame per sensor.
+ * <p>
+ * The connection is re-established with exponential backoff when it is lost. After every (re)authentication
+ * it subscribes to {@code homeassistant_started} and notifies {@link #onReady} listeners, as should Home Assistant
+ * restart, so that all the states are sent again.
+ */
+public class HomeAssistantWebSocketClient implements HomeAssistantStateSink, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(HomeAssistantWebSocketClient.class);
+
+    public static final String STATE_EVENT_TYPE = "danfoss_icon_state";
+
+    private static final String HA_WEBSOCKET_API = "ws://supervisor/core/websocket";
+    private static final String HA_STARTED_EVENT_TYPE = "homeassistant_started";
+    private static final long INITIAL_RECONNECT_DELAY_MILLIS = 1_000;
+    private static final long MAX_RECONNECT_DELAY_MILLIS = 60_000;
+    private static final long RESULT_TIMEOUT_SECONDS = 30;
+    private static final int NORMAL_CLOSURE = 1000;
+
+    private final String token;
+    private final String url;
+    private final OkHttpClient httpClient;
+    private final ScheduledExecutorService scheduler;
+    private final long initialReconnectDelayMillis;
+    private final AtomicLong ids = new AtomicLong();
+    private final Map<Long, CompletableFuture<Boolean>> pending = new ConcurrentHashMap<>();
+    private final List<Runnable> readyListeners = new CopyOnWriteArrayList<>();
+
+    // set only while authenticated
+    private volatile WebSocket webSocket;
+    private volatile boolean closed;
+    private long reconnectDelayMillis;
+
+    public HomeAssistantWebSocketClient(String token, ScheduledExecutorService scheduler) {
+        this(token, HA_WEBSOCKET_API, HomeAssistantClient.sharedHttpClient(), scheduler, INITIAL_RECONNECT_DELAY_MILLIS);
+    }
+
+    HomeAssistantWebSocketClient(String token, String url, OkHttpClient httpClient, ScheduledExecutorService scheduler,
+                                 long initialReconnectDelayMillis) {
+        this.token = token;
+        this.url = url;
+        // shares connection pool and dispatcher with the given client
+        this.httpClient = httpClient.newBuilder()
+                .pingInterval(30, TimeUnit.SECONDS)
+                .build();
+        this.scheduler = scheduler;
+        this.initialReconnectDelayMillis = initialReconnectDelayMillis;
+        this.reconnectDelayMillis = initialReconnectDelayMillis;
+    }
+
+    /**
+     * Listener is called after every successful authentication and when Home Assistant has restarted.
+     */
+    public void onReady(Runnable listener) {
+        readyListeners.add(listener);
+    }
+
+    public HomeAssistantWebSocketClient connect() {
+        open();
+        return this;
+    }
+
+    public boolean isReady() {
+        return webSocket != null;
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Boolean>> upsertSerializedStates(Map<String, byte[]> stateJsons) {
+        var results = new ConcurrentHashMap<String, Boolean>(stateJsons.size() * 2);
+        var ws = webSocket;
+        if (ws == null) {
+            logger.debug("not connected to Home Assistant WebSocket API, skipping");
+            stateJsons.keySet().forEach(sensorName -> results.put(sensorName, false));
+            return CompletableFuture.completedFuture(results);
+        }
+
+        var calls = new CompletableFuture<?>[stateJsons.size()];
+        int i = 0;
+        for (var entry : stateJsons.entrySet()) {
+            var sensorName = entry.getKey();
+            long id = ids.incrementAndGet();
+            var completion = new CompletableFuture<Boolean>();
+            pending.put(id, completion);
+            long started = System.nanoTime();
+            calls[i++] = completion
+                    .completeOnTimeout(false, RESULT_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                    .thenAccept(upserted -> {
+                        pending.remove(id);
+                        Metrics.HA_UPSERT_DURATION.observeSince(started);
+                        results.put(sensorName, upserted);
+                    });
+
+            var message = Json.write(writer -> writer.beginObject()
+                    .field("id", id)
+                    .field("type", "fire_event")
+                    .field("event_type", STATE_EVENT_TYPE)
+                    .beginObject("event_data")
+                    .field("entity_id", sensorName)
+                    .rawMembers(entry.getValue())
+                    .endObject()
+                    .endObject());
+            if (!ws.send(new String(message, StandardCharsets.UTF_8))) {
+                completion.complete(false);
+            }
+        }
+        return CompletableFuture.allOf(calls).thenApply(_ -> results);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        var ws = webSocket;
+        webSocket = null;
+        if (ws != null) {
+            ws.close(NORMAL_CLOSURE, "closing");
+        }
+        failPending();
+    }
+
+    private void open() {
+        if (closed) {
+            return;
+        }
+        logger.info("connecting to Home Assistant WebSocket API {}", url);
+        httpClient.newWebSocket(new Request.Builder().url(url).build(), new Listener());
+    }
+
+    private void disconnected(WebSocket ws) {
+        if (webSocket == ws) {
+            webSocket = null;
+        }
+        failPending();
+        if (closed) {
+            return;
+        }
+        long delay;
+        synchronized (this) {
+            delay = reconnectDelayMillis;
+            reconnectDelayMillis = Math.min(reconnectDelayMillis * 2, MAX_RECONNECT_DELAY_MILLIS);
+        }
+        logger.info("reconnecting to Home Assistant WebSocket API in {} ms", delay);
+        scheduler.schedule(this::open, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void ready(WebSocket ws) {
+        synchronized (this) {
+            reconnectDelayMillis = initialReconnectDelayMillis;
+        }
+        webSocket = ws;
+        ws.send(new String(Json.write(writer -> writer.beginObject()
+                .field("id", ids.incrementAndGet())
+                .field("type", "subscribe_events")
+                .field("event_type", HA_STARTED_EVENT_TYPE)
+                .endObject()), StandardCharsets.UTF_8));
+        logger.info("authenticated to Home Assistant WebSocket API");
+        notifyReady();
+    }
+
+    private void notifyReady() {
+        for (var listener : readyListeners) {
+            try {
+                listener.run();
+            } catch (Exception e) {
+                logger.warn("ready listener failed", e);
+            }
+        }
+    }
+
+    private void failPending() {
+        for (var id : pending.keySet()) {
+            var completion = pending.remove(id);
+            if (completion != null) {
+                completion.complete(false);
+            }
+        }
+    }
+
+    private final class Listener extends WebSocketListener {
+
+        @Override
+        public void onMessage(@NotNull WebSocket ws, @NotNull String text) {
+            JsonObject message;
+            try {
+                message = JsonParser.parseString(text).getAsJsonObject();
+            } catch (RuntimeException e) {
+                logger.warn("unexpected Home Assistant WebSocket message: {}", text);
+                return;
+            }
+            var type = message.has("type") ? message.get("type").getAsString() : "";
+            switch (type) {
+                case "auth_required" -> ws.send(new String(Json.write(writer -> writer.beginObject()
+                        .field("type", "auth")
+                        .field("access_token", token)
+                        .endObject()), StandardCharsets.UTF_8));
+                case "auth_ok" -> ready(ws);
+                case "auth_invalid" -> {
+                    logger.error("Home Assistant WebSocket API authentication failed: {}", text);
+                    ws.close(NORMAL_CLOSURE, "authentication failed");
+                }
+                case "result" -> {
+                    var completion = pending.remove(message.get("id").getAsLong());
+                    var success = message.has("success") && message.get("success").getAsBoolean();
+                    if (!success) {
+                        Metrics.HA_UPSERT_FAILURES.inc(Metrics.HA_REJECTED);
+                        logger.warn("Home Assistant WebSocket API command failed: {}", text);
+                    }
+                    if (completion != null) {
+                        completion.complete(success);
+                    }
+                }
+                case "event" -> {
+                    var event = message.getAsJsonObject("event");
+                    if (event != null && HA_STARTED_EVENT_TYPE.equals(event.get("event_type").getAsString())) {
+                        logger.info("Home Assistant has started");
+                        notifyReady();
+                    }
+                }
+                default -> logger.debug("ignoring Home Assistant WebSocket message: {}", text);
+            }
+        }
+
+        @Override
+        public void onClosing(@NotNull WebSocket ws, int code, @NotNull String reason) {
+            ws.close(NORMAL_CLOSURE, null);
+        }
+
+        @Override
+        public void onClosed(@NotNull WebSocket ws, int code, @NotNull String reason) {
+            logger.warn("Home Assistant WebSocket API connection closed: [{}] {}", code, reason);
+            disconnected(ws);
+        }
+
+        @Override
+        public void onFailure(@NotNull WebSocket ws, @NotNull Throwable t, @Nullable Response response) {
+            logger.warn("Home Assistant WebSocket API connection failed: {}", t.getMessage());
+            disconnected(ws);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package net.soundvibe.hasio.ha;
+
+import net.soundvibe.hasio.danfoss.protocol.config.AppConfig;
+
+/**
+ * Names of MQTT topics, entities and sensors of one house. The default house keeps the names used before
+ * houses could be named, other houses get their id inserted, e.g. {@code danfoss/icon/flat_2/3/state}
+ * and {@code sensor.flat_2_danfoss_3_temperature}.
+ */
+public record HouseNamespace(String house) {
+
+    public static final HouseNamespace DEFAULT = new HouseNamespace(AppConfig.DEFAULT_HOUSE);
+
+    private static final String TOPIC_PREFIX = "danfoss/icon/";
+
+    public HouseNamespace {
+        AppConfig.validHouse(house);
+    }
+
+    public boolean isDefault() {
+        return house.isEmpty();
+    }
+
+    /**
+     * Topic format of the house, the format should start with {@code danfoss/icon/}.
+     */
+    public String topicFmt(String fmt) {
+        if (isDefault() || !fmt.startsWith(TOPIC_PREFIX)) {
+            return fmt;
+        }
+        return STR."\{TOPIC_PREFIX}\{house}/\{fmt.substring(TOPIC_PREFIX.length())}";
+    }
+
+    public String thermostatID(int roomNumber) {
+        return isDefault()
+                ? STR."danfoss_icon_thermostat_room_\{roomNumber}"
+                : STR."danfoss_icon_\{house}_thermostat_room_\{roomNumber}";
+    }
+
+    /**
+     * Entity id of the house: the object id, after the domain, is prefixed by the house id.
+     */
+    public String entityId(String entityId) {
+        int dot = entityId.indexOf('.');
+        if (isDefault() || dot < 0) {
+            return entityId;
+        }
+        return STR."\{entityId.substring(0, dot + 1)}\{house}_\{entityId.substring(dot + 1)}";
+    }
+
+    /**
+     * Suffix distinguishing per house instances, e.g. publisher thread names.
+     */
+    public String suffix() {
+        return isDefault() ? "" : STR."-\{house}";
+    }
+}
@@ -0,0 +1,92 @@
+package net.soundvibe.hasio.ha;
+
+import net.soundvibe.hasio.Json;
+import net.soundvibe.hasio.danfoss.data.IconMaster;
+import net.soundvibe.hasio.danfoss.data.IconRoom;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import static net.soundvibe.hasio.danfoss.protocol.config.DanfossBindingConstants.ICON_MAX_ROOMS;
+
+/**
+ * Serialized MQTT discovery configs per thermostat, as last sent to the broker.
+ * A climate entity only depends on the room name, its setpoint limits and the master device info,
+ * so it is rebuilt and serialized only when one of those changes. Temperature, mode or connection count
+ * changes are rejected by comparing a hash of these inputs, without building anything.
+ * <p>
+ * Not thread safe, meant to be used from the publisher thread.
+ */
+final class MQTTDiscoveryCache {
+
+    private record Entry(int hash, String name, double temperatureLow, double temperatureHigh,
+                         String houseName, String hardwareRevision, String softwareRevision, String serialNumber,
+                         byte[] payload) {
+
+        boolean matches(int hash, IconRoom room, IconMaster master) {
+            return this.hash == hash
+                    && Double.compare(temperatureLow, room.temperatureLow()) == 0
+                    && Double.compare(temperatureHigh, room.temperatureHigh()) == 0
+                    && name.equals(room.name())
+                    && Objects.equals(houseName, master.houseName())
+                    && Objects.equals(hardwareRevision, master.hardwareRevision())
+                    && Objects.equals(softwareRevision, master.softwareRevision())
+                    && Objects.equals(serialNumber, master.serialNumber());
+        }
+    }
+
+    private final HouseNamespace namespace;
+    private final String stateTopicFmt;
+    private final String setTopicFmt;
+    private final Entry[] entries = new Entry[ICON_MAX_ROOMS];
+
+    MQTTDiscoveryCache(String stateTopicFmt, String setTopicFmt) {
+        this(HouseNamespace.DEFAULT, stateTopicFmt, setTopicFmt);
+    }
+
+    MQTTDiscoveryCache(HouseNamespace namespace, String stateTopicFmt, String setTopicFmt) {
+        this.namespace = namespace;
+        this.stateTopicFmt = stateTopicFmt;
+        this.setTopicFmt = setTopicFmt;
+    }
+
+    /**
+     * @return the discovery config to publish when it differs from the cached one, {@code null} otherwise.
+     * The returned config becomes the cached one.
+     */
+    byte[] update(IconRoom room, IconMaster master) {
+        int number = room.number();
+        int hash = hash(room, master);
+        var entry = entries[number];
+        if (entry != null && entry.matches(hash, room, master)) {
+            return null;
+        }
+
+        var payload = Json.toJsonBytes(room.toMQTTClimateEntity(namespace.thermostatID(number), stateTopicFmt, setTopicFmt, master));
+        entries[number] = new Entry(hash, room.name(), room.temperatureLow(), room.temperatureHigh(),
+                master.houseName(), master.hardwareRevision(), master.softwareRevision(), master.serialNumber(), payload);
+        return payload;
+    }
+
+    /**
+     * Forgets the cached config, so the next {@link #update} returns it again, e.g. when publishing has failed.
+     */
+    void invalidate(int roomNumber) {
+        entries[roomNumber] = null;
+    }
+
+    void clear() {
+        Arrays.fill(entries, null);
+    }
+
+    private static int hash(IconRoom room, IconMaster master) {
+        int hash = room.name().hashCode();
+        hash = 31 * hash + Double.hashCode(room.temperatureLow());
+        hash = 31 * hash + Double.hashCode(room.temperatureHigh());
+        hash = 31 * hash + Objects.hashCode(master.houseName());
+        hash = 31 * hash + Objects.hashCode(master.hardwareRevision());
+        hash = 31 * hash + Objects.hashCode(master.softwareRevision());
+        hash = 31 * hash + Objects.hashCode(master.serialNumber());
+        return hash;
+    }
+}
@@ -0,0 +1,379 @@
+package net.soundvibe.hasio.ha;
+
+import net.soundvibe.hasio.Json;
+import net.soundvibe.hasio.danfoss.data.IconMaster;
+import net.soundvibe.hasio.danfoss.data.IconRoom;
+import net.soundvibe.hasio.danfoss.protocol.FieldScope;
+import net.soundvibe.hasio.danfoss.protocol.IconMasterHandler;
+import net.soundvibe.hasio.danfoss.protocol.IconRoomHandler;
+import net.soundvibe.hasio.ha.model.MQTTSetState;
+import net.soundvibe.hasio.metrics.Metrics;
+import net.soundvibe.hasio.model.Command;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+import static java.util.function.Predicate.not;
+import static net.soundvibe.hasio.danfoss.protocol.config.DanfossBindingConstants.ICON_MAX_ROOMS;
+
+/**
+ * Publishes climate entities (MQTT discovery) and their states as soon as rooms change
+ * and subscribes to set topics of every room.
+ * <p>
+ * Both discovery configs and states are retained and sent only when they differ from what the broker already has,
+ * so the broker (and HA after its restart) always has the latest values without periodic republishing.
+ * Publishes are pipelined: up to {@link #MAX_IN_FLIGHT} of them may wait for completion at the same time.
+ * Discovery configs use QoS 1 as a lost config hides the entity, states use QoS 0 as the next change supersedes them.
+ * <p>
+ * Reported fields of rails, outputs and repeaters are published as retained JSON states too, e.g. to
+ * {@code danfoss/icon/output/3/state}, without discovery configs.
+ */
+public class MQTTPublisher extends CoalescingPublisher {
+
+    private static final Logger logger = LoggerFactory.getLogger(MQTTPublisher.class);
+
+    public static final String STATE_TOPIC_FMT = "danfoss/icon/%d/state";
+    public static final String SET_TOPIC_FMT = "danfoss/icon/%d/set";
+    public static final String DEVICE_STATE_TOPIC_FMT = "danfoss/icon/%s/%d/state";
+    public static final int MAX_IN_FLIGHT = 32;
+
+    private static final int DISCOVERY_QOS = 1;
+    private static final int STATE_QOS = 0;
+    private static final int SET_QOS = 1;
+
+    private final IconMasterHandler masterHandler;
+    private final HouseNamespace namespace;
+    private final String stateTopicFmt;
+    private final String setTopicFmt;
+    private final String deviceStateTopicFmt;
+    private final IMqttAsyncClient mqttClient;
+    private final Consumer<Command> commandExecutor;
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+    // rooms whose publish or subscription failed, their caches are invalidated on the next pass
+    private final AtomicLong failedRooms = new AtomicLong();
+    // instances of device scopes to be published, indexed by scope ordinal
+    private final AtomicLongArray pendingDevices = new AtomicLongArray(FieldScope.values().length);
+    private volatile boolean resyncRequested;
+
+    // only accessed from the publisher thread
+    private final String[] entityTopics = new String[ICON_MAX_ROOMS];
+    private final String[] stateTopics = new String[ICON_MAX_ROOMS];
+    private final MQTTDiscoveryCache discoveryCache;
+    private final IconRoom[] pass = new IconRoom[ICON_MAX_ROOMS];
+    private final IconRoom[] sentRooms = new IconRoom[ICON_MAX_ROOMS];
+    private long subscribedRooms;
+    private IconMaster iconMaster;
+
+    private final IMqttActionListener completion = new IMqttActionListener() {
+        @Override
+        public void onSuccess(IMqttToken token) {
+            inFlight.release();
+            if (token.getUserContext() instanceof Publish publish) {
+                Metrics.MQTT_PUBLISH_DURATION.observeSince(publish.startedNanos());
+            }
+        }
+
+        @Override
+        public void onFailure(IMqttToken token, Throwable exception) {
+            inFlight.release();
+            var context = token.getUserContext();
+            if (context instanceof Publish publish) {
+                Metrics.MQTT_PUBLISH_FAILURES.inc();
+                context = publish.context();
+            }
+            switch (context) {
+                case IconRoom room -> {
+                    logger.warn("MQTT update of room {} failed: {}", room.number(), exception.getMessage());
+                    failed(room);
+                }
+                case Device device -> {
+                    logger.warn("MQTT update of {} {} failed: {}", device.scope().jsonName, device.instance(), exception.getMessage());
+                    failed(device);
+                }
+                default -> logger.warn("MQTT update failed: {}", exception.getMessage());
+            }
+        }
+    };
+
+    public MQTTPublisher(IconMasterHandler masterHandler, IMqttAsyncClient mqttClient, Consumer<Command> commandExecutor) {
+        this(masterHandler, HouseNamespace.DEFAULT, mqttClient, commandExecutor);
+    }
+
+    /**
+     * Publisher of one of the houses sharing the client, its topics and entities are namespaced by the house.
+     */
+    public MQTTPublisher(IconMasterHandler masterHandler, HouseNamespace namespace, IMqttAsyncClient mqttClient,
+                         Consumer<Command> commandExecutor) {
+        super(STR."mqtt-publisher\{namespace.suffix()}");
+        this.masterHandler = masterHandler;
+        this.namespace = namespace;
+        this.stateTopicFmt = namespace.topicFmt(STATE_TOPIC_FMT);
+        this.setTopicFmt = namespace.topicFmt(SET_TOPIC_FMT);
+        this.deviceStateTopicFmt = namespace.topicFmt(DEVICE_STATE_TOPIC_FMT);
+        this.discoveryCache = new MQTTDiscoveryCache(namespace, stateTopicFmt, setTopicFmt);
+        this.mqttClient = mqttClient;
+        this.commandExecutor = commandExecutor;
+    }
+
+    /**
+     * Publish context of a device state.
+     */
+    private record Device(FieldScope scope, int instance) {}
+
+    /**
+     * User context of a publish token: the room or device it was published for and when it was handed to the client.
+     */
+    private record Publish(Object context, long startedNanos) {}
+
+    /**
+     * Republishes everything and resubscribes, e.g. after the client has reconnected with a clean session.
+     */
+    public void resync() {
+        resyncRequested = true;
+        tick();
+    }
+
+    /**
+     * Waits until all the pipelined publishes are completed.
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!inFlight.tryAcquire(MAX_IN_FLIGHT, timeout, unit)) {
+            return false;
+        }
+        inFlight.release(MAX_IN_FLIGHT);
+        return true;
+    }
+
+    @Override
+    public void onDevicesChanged(FieldScope scope, long changedInstances) {
+        pendingDevices.getAndAccumulate(scope.ordinal(), changedInstances, (pending, changed) -> pending | changed);
+        tick();
+    }
+
+    @Override
+    protected void publish(IconRoom[] changedRooms, int count, IconMaster changedMaster) {
+        if (resyncRequested) {
+            resyncRequested = false;
+            discoveryCache.clear();
+            Arrays.fill(sentRooms, null);
+            subscribedRooms = 0L;
+            var state = masterHandler.houseState();
+            for (var scope : FieldScope.DEVICES) {
+                for (int instance = 0; instance < scope.instances(); instance++) {
+                    if (state.presentFields(scope, instance) != 0L) {
+                        pendingDevices.getAndAccumulate(scope.ordinal(), 1L << instance, (pending, bit) -> pending | bit);
+                    }
+                }
+            }
+        }
+        for (long failed = failedRooms.getAndSet(0L); failed != 0L; failed &= failed - 1) {
+            int number = Long.numberOfTrailingZeros(failed);
+            discoveryCache.invalidate(number);
+            sentRooms[number] = null;
+            subscribedRooms &= ~(1L << number);
+        }
+        if (changedMaster != null || iconMaster == null) {
+            iconMaster = masterHandler.iconMaster();
+        }
+
+        int size = 0;
+        long inPass = 0L;
+        for (int i = 0; i < count; i++) {
+            if (!changedRooms[i].name().isEmpty()) {
+                pass[size++] = changedRooms[i];
+                inPass |= 1L << changedRooms[i].number();
+            }
+        }
+        // rooms which have never been published or must be published again,
+        // device info is a part of every climate entity, so master changes are checked against all of them
+        for (var roomHandler : masterHandler.roomHandlers()) {
+            var number = roomHandler.roomNumber;
+            if ((inPass & (1L << number)) == 0
+                    && (changedMaster != null || sentRooms[number] == null || (subscribedRooms & (1L << number)) == 0)) {
+                pass[size++] = roomHandler.toIconRoom();
+                inPass |= 1L << number;
+            }
+        }
+
+        // one batched pass: discovery configs of all rooms go first, so that HA knows the entities before their states
+        long failed = 0L;
+        long published = 0L;
+        for (int i = 0; i < size; i++) {
+            var room = pass[i];
+            var discovery = discoveryCache.update(room, iconMaster);
+            if (discovery != null) {
+                if (send(entityTopic(room.number()), discovery, DISCOVERY_QOS, room)) {
+                    published |= 1L << room.number();
+                } else {
+                    failed |= 1L << room.number();
+                }
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            var room = pass[i];
+            var number = room.number();
+            // a state is derived from all the room fields
+            if ((failed & (1L << number)) != 0 || room.equals(sentRooms[number])) {
+                continue;
+            }
+            if (send(stateTopic(number), Json.write(room::writeState), STATE_QOS, room)) {
+                sentRooms[number] = room;
+                published |= 1L << number;
+            } else {
+                failed |= 1L << number;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            var room = pass[i];
+            var number = room.number();
+            if ((failed & (1L << number)) == 0 && (subscribedRooms & (1L << number)) == 0 && subscribeToTopic(room)) {
+                subscribedRooms |= 1L << number;
+            }
+        }
+        Arrays.fill(pass, 0, size, null);
+
+        if (published != 0L) {
+            logger.debug("MQTT {} sensors updated", Long.bitCount(published));
+        }
+        publishDevices();
+    }
+
+    private void publishDevices() {
+        var state = masterHandler.houseState();
+        for (var scope : FieldScope.DEVICES) {
+            for (long pending = pendingDevices.getAndSet(scope.ordinal(), 0L); pending != 0L; pending &= pending - 1) {
+                int instance = Long.numberOfTrailingZeros(pending);
+                var device = new Device(scope, instance);
+                if (!acquire(device)) {
+                    return;
+                }
+                try {
+                    mqttClient.publish(String.format(deviceStateTopicFmt, scope.jsonName, instance),
+                            Json.write(writer -> state.writeJson(scope, instance, writer)), STATE_QOS, true,
+                            new Publish(device, System.nanoTime()), completion);
+                } catch (MqttException | RuntimeException e) {
+                    inFlight.release();
+                    Metrics.MQTT_PUBLISH_FAILURES.inc();
+                    logger.error("MQTT device update error", e);
+                    failed(device);
+                }
+            }
+        }
+    }
+
+    private boolean send(String topic, byte[] payload, int qos, IconRoom room) {
+        if (!acquire(room)) {
+            return false;
+        }
+        try {
+            mqttClient.publish(topic, payload, qos, true, new Publish(room, System.nanoTime()), completion);
+            return true;
+        } catch (MqttException | RuntimeException e) {
+            inFlight.release();
+            Metrics.MQTT_PUBLISH_FAILURES.inc();
+            logger.error("MQTT sensor update error", e);
+            failed(room);
+            return false;
+        }
+    }
+
+    private boolean acquire(IconRoom room) {
+        try {
+            inFlight.acquire();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed(room);
+            return false;
+        }
+    }
+
+    private boolean acquire(Device device) {
+        try {
+            inFlight.acquire();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed(device);
+            return false;
+        }
+    }
+
+    private boolean subscribeToTopic(IconRoom room) {
+        var setTopic = String.format(setTopicFmt, room.number());
+        IMqttMessageListener listener = (_, message) -> {
+            try {
+                var setState = Json.fromString(message.toString(), MQTTSetState.class);
+                // get room preset
+                masterHandler.roomHandlerByNumber(setState.room_number())
+                        .map(IconRoomHandler::toIconRoom)
+                        .filter(r -> r.roomMode() != null)
+                        .map(r -> switch (r.roomMode()) {
+                            case HOME -> "setHomeTemperature";
+                            case AWAY -> "setAwayTemperature";
+                            case SLEEP -> "setSleepTemperature";
+                            default -> "";
+                        })
+                        .filter(not(String::isEmpty))
+                        .map(cmdName -> new Command(cmdName, setState.room_number(), setState.temperature_target(), namespace.house()))
+                        .ifPresent(commandExecutor);
+            } catch (Throwable e) {
+                logger.warn("got error on topic listener", e);
+            }
+        };
+        if (!acquire(room)) {
+            return false;
+        }
+        try {
+            mqttClient.subscribe(setTopic, SET_QOS, room, completion, listener);
+            logger.info("subscribing to MQTT topic {}", setTopic);
+            return true;
+        } catch (MqttException | RuntimeException e) {
+            inFlight.release();
+            logger.error("unable to subscribe to MQTT topic {}", setTopic, e);
+            failed(room);
+            return false;
+        }
+    }
+
+    private void failed(IconRoom room) {
+        failedRooms.getAndAccumulate(1L << room.number(), (failed, bit) -> failed | bit);
+        requeue(room);
+    }
+
+    /**
+     * The device is published again on the next wake-up.
+     */
+    private void failed(Device device) {
+        pendingDevices.getAndAccumulate(device.scope().ordinal(), 1L << device.instance(), (failed, bit) -> failed | bit);
+    }
+
+    private String entityTopic(int roomNumber) {
+        var topic = entityTopics[roomNumber];
+        if (topic == null) {
+            topic = STR."homeassistant/climate/\{namespace.thermostatID(roomNumber)}/config";
+            entityTopics[roomNumber] = topic;
+        }
+        return topic;
+    }
+
+    private String stateTopic(int roomNumber) {
+        var topic = stateTopics[roomNumber];
+        if (topic == null) {
+            topic = String.format(stateTopicFmt, roomNumber);
+            stateTopics[roomNumber] = topic;
+        }
+        return topic;
+    }
+}
@@ -0,0 +1,112 @@
+package net.soundvibe.hasio.history;
+
+import net.soundvibe.hasio.JsonWriter;
+import net.soundvibe.hasio.danfoss.data.HeatingState;
+import net.soundvibe.hasio.danfoss.data.IconRoom;
+import net.soundvibe.hasio.danfoss.data.RoomMode;
+import net.soundvibe.hasio.danfoss.protocol.HouseField;
+import net.soundvibe.hasio.danfoss.protocol.HouseFields;
+
+import java.util.Locale;
+
+/**
+ * Room fields recorded by {@link RoomHistoryStore}. Values are stored as ints: decimals in hundredths,
+ * the same fixed point the Icon uses on the wire, and enums as their ordinals.
+ * Records refer to fields by ordinal, so new fields are only ever added last.
+ */
+public enum HistoryField {
+    TEMPERATURE("temperature", true, HouseFields.ROOM_TEMPERATURE),
+    TEMPERATURE_HOME("temperature_home", true, HouseFields.ROOM_SETPOINT_HOME),
+    TEMPERATURE_AWAY("temperature_away", true, HouseFields.ROOM_SETPOINT_AWAY),
+    TEMPERATURE_SLEEP("temperature_sleep", true, HouseFields.ROOM_SETPOINT_SLEEP),
+    TEMPERATURE_HIGH("temperature_high", true, HouseFields.ROOM_SETPOINT_HIGH),
+    TEMPERATURE_LOW("temperature_low", true, HouseFields.ROOM_SETPOINT_LOW),
+    BATTERY_LEVEL("battery_level", false, HouseFields.ROOM_BATTERY),
+    MODE("mode", false, HouseFields.ROOM_HEATING_STATE),
+    PRESET("preset", false, HouseFields.ROOM_MODE),
+    TEMPERATURE_FLOOR("temperature_floor", true, HouseFields.ROOM_TEMPERATURE_FLOOR);
+
+    /**
+     * Returned by {@link #encode} when the room has no valid value for the field.
+     */
+    public static final int NO_VALUE = Integer.MIN_VALUE;
+
+    private static final HistoryField[] FIELDS = values();
+    private static final String[] MODE_NAMES = lowerCaseNames(HeatingState.values());
+    private static final String[] PRESET_NAMES = lowerCaseNames(RoomMode.values());
+
+    public final String jsonName;
+    private final boolean decimal;
+    // room field the value is taken from, snapshots hold 0 until it has been reported
+    private final HouseField source;
+
+    HistoryField(String jsonName, boolean decimal, HouseField source) {
+        this.jsonName = jsonName;
+        this.decimal = decimal;
+        this.source = source;
+    }
+
+    public static HistoryField of(int ordinal) {
+        return FIELDS[ordinal];
+    }
+
+    public static HistoryField byJsonName(String jsonName) {
+        for (var field : FIELDS) {
+            if (field.jsonName.equals(jsonName)) {
+                return field;
+            }
+        }
+        throw new IllegalArgumentException(STR."unknown field: \{jsonName}");
+    }
+
+    public boolean isDecimal() {
+        return decimal;
+    }
+
+    /**
+     * Value of the field in the room, {@link #NO_VALUE} unless the source field is among the reported
+     * {@code presentFields} of the room, see {@link net.soundvibe.hasio.danfoss.protocol.HouseState#presentFields}.
+     */
+    public int encode(IconRoom room, long presentFields) {
+        if ((presentFields & source.bit()) == 0L) {
+            return NO_VALUE;
+        }
+        return switch (this) {
+            case TEMPERATURE -> decimal(room.temperature());
+            case TEMPERATURE_HOME -> decimal(room.temperatureHome());
+            case TEMPERATURE_AWAY -> decimal(room.temperatureAway());
+            case TEMPERATURE_SLEEP -> decimal(room.temperatureSleep());
+            case TEMPERATURE_HIGH -> decimal(room.temperatureHigh());
+            case TEMPERATURE_LOW -> decimal(room.temperatureLow());
+            case BATTERY_LEVEL -> room.batteryPercent();
+            case MODE -> room.mode() == null ? NO_VALUE : room.mode().ordinal();
+            case PRESET -> room.roomMode() == null ? NO_VALUE : room.roomMode().ordinal();
+            case TEMPERATURE_FLOOR -> room.temperatureFloor() == null ? NO_VALUE : decimal(room.temperatureFloor());
+        };
+    }
+
+    public double decode(int value) {
+        return isDecimal() ? value / 100.0 : value;
+    }
+
+    public JsonWriter writeValue(JsonWriter writer, String name, int value) {
+        return switch (this) {
+            case MODE -> writer.field(name, MODE_NAMES[value]);
+            case PRESET -> writer.field(name, PRESET_NAMES[value]);
+            case BATTERY_LEVEL -> writer.field(name, (long) value);
+            default -> writer.field(name, decode(value));
+        };
+    }
+
+    private static int decimal(double value) {
+        return Double.isNaN(value) || Double.isInfinite(value) ? NO_VALUE : (int) Math.round(value * 100.0);
+    }
+
+    private static String[] lowerCaseNames(Enum<?>[] values) {
+        var names = new String[values.length];
+        for (var value : values) {
+            names[value.ordinal()] = value.name().toLowerCase(Locale.ROOT);
+        }
+        return names;
+    }
+}
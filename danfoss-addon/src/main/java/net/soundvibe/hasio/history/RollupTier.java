@@ -0,0 +1,154 @@
+package net.soundvibe.hasio.history;
+
+import net.soundvibe.hasio.JsonWriter;
+import net.soundvibe.hasio.danfoss.data.HeatingState;
+
+import java.util.Arrays;
+
+/**
+ * Fixed number of consecutive buckets of one room, kept as columns of primitive arrays indexed by
+ * {@code (bucketStart / bucketMillis) % capacity}, so the oldest bucket is reused for the next one.
+ * Every bucket has min, max and time-weighted average of each of {@link #FIELDS} and how long the room was heating.
+ * Not thread safe, see {@link RoomRollups}.
+ */
+final class RollupTier {
+
+    static final HistoryField[] FIELDS = {
+            HistoryField.TEMPERATURE, HistoryField.TEMPERATURE_HOME, HistoryField.TEMPERATURE_AWAY, HistoryField.TEMPERATURE_SLEEP,
+            HistoryField.TEMPERATURE_FLOOR
+    };
+    private static final long NO_BUCKET = Long.MIN_VALUE;
+    private static final int HEAT = HeatingState.HEAT.ordinal();
+
+    final long bucketMillis;
+    private final int capacity;
+
+    private final long[] starts;
+    // [field][slot], decimals in hundredths
+    private final short[][] mins;
+    private final short[][] maxs;
+    private final long[][] weightedSums;
+    private final int[][] coveredMillis;
+    private final int[] heatingMillis;
+    private final int[] modeCoveredMillis;
+    private long newestStart = NO_BUCKET;
+
+    RollupTier(long bucketMillis, int capacity) {
+        this.bucketMillis = bucketMillis;
+        this.capacity = capacity;
+        this.starts = new long[capacity];
+        Arrays.fill(starts, NO_BUCKET);
+        this.mins = new short[FIELDS.length][capacity];
+        this.maxs = new short[FIELDS.length][capacity];
+        this.weightedSums = new long[FIELDS.length][capacity];
+        this.coveredMillis = new int[FIELDS.length][capacity];
+        this.heatingMillis = new int[capacity];
+        this.modeCoveredMillis = new int[capacity];
+    }
+
+    static boolean supports(HistoryField field) {
+        return field == null || field == HistoryField.MODE || indexOf(field) >= 0;
+    }
+
+    /**
+     * Accounts the values, indexed by field ordinal, as held during {@code [from, to)}.
+     * Only the last {@code capacity} buckets before {@code to} are touched.
+     */
+    void integrate(long from, long to, int[] values) {
+        long t = Math.max(from, start(to - 1) - (capacity - 1) * bucketMillis);
+        while (t < to) {
+            long start = start(t);
+            long end = Math.min(start + bucketMillis, to);
+            int slot = slot(start);
+            if (starts[slot] != start) {
+                clear(slot, start);
+                newestStart = Math.max(newestStart, start);
+            }
+            int millis = (int) (end - t);
+            for (int i = 0; i < FIELDS.length; i++) {
+                int value = values[FIELDS[i].ordinal()];
+                if (value == HistoryField.NO_VALUE) {
+                    continue;
+                }
+                mins[i][slot] = (short) Math.min(mins[i][slot], value);
+                maxs[i][slot] = (short) Math.max(maxs[i][slot], value);
+                weightedSums[i][slot] += (long) value * millis;
+                coveredMillis[i][slot] += millis;
+            }
+            int mode = values[HistoryField.MODE.ordinal()];
+            if (mode != HistoryField.NO_VALUE) {
+                modeCoveredMillis[slot] += millis;
+                if (mode == HEAT) {
+                    heatingMillis[slot] += millis;
+                }
+            }
+            t = end;
+        }
+    }
+
+    /**
+     * Writes buckets starting within {@code [fromMillis, toMillis]} oldest first, as elements of the current array.
+     * All the fields when {@code field} is null.
+     */
+    void writeJson(JsonWriter writer, long fromMillis, long toMillis, HistoryField field) {
+        if (newestStart == NO_BUCKET) {
+            return;
+        }
+        long first = start(Math.max(fromMillis, newestStart - (capacity - 1) * bucketMillis));
+        long last = Math.min(toMillis, newestStart);
+        for (long start = first; start <= last; start += bucketMillis) {
+            int slot = slot(start);
+            if (starts[slot] != start) {
+                continue;
+            }
+            for (int i = 0; i < FIELDS.length; i++) {
+                if ((field == null || field == FIELDS[i]) && coveredMillis[i][slot] > 0) {
+                    writer.beginObject()
+                            .field("timestamp", start)
+                            .field("field", FIELDS[i].jsonName)
+                            .field("min", mins[i][slot] / 100.0)
+                            .field("max", maxs[i][slot] / 100.0)
+                            .field("avg", Math.round((double) weightedSums[i][slot] / coveredMillis[i][slot]) / 100.0)
+                            .endObject();
+                }
+            }
+            if ((field == null || field == HistoryField.MODE) && modeCoveredMillis[slot] > 0) {
+                writer.beginObject()
+                        .field("timestamp", start)
+                        .field("field", HistoryField.MODE.jsonName)
+                        .field("heating_millis", heatingMillis[slot])
+                        .field("duty", Math.round(heatingMillis[slot] * 1000.0 / modeCoveredMillis[slot]) / 1000.0)
+                        .endObject();
+            }
+        }
+    }
+
+    private void clear(int slot, long start) {
+        starts[slot] = start;
+        for (int i = 0; i < FIELDS.length; i++) {
+            mins[i][slot] = Short.MAX_VALUE;
+            maxs[i][slot] = Short.MIN_VALUE;
+            weightedSums[i][slot] = 0L;
+            coveredMillis[i][slot] = 0;
+        }
+        heatingMillis[slot] = 0;
+        modeCoveredMillis[slot] = 0;
+    }
+
+    private long start(long timestamp) {
+        return Math.floorDiv(timestamp, bucketMillis) * bucketMillis;
+    }
+
+    private int slot(long start) {
+        return (int) Math.floorMod(start / bucketMillis, (long) capacity);
+    }
+
+    private static int indexOf(HistoryField field) {
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (FIELDS[i] == field) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,184 @@
+package net.soundvibe.hasio.history;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Ring of fixed-width records of a single room in a memory-mapped file. Record with sequence number {@code seq}
+ * is stored in slot {@code (seq - 1) % capacity}, so the file needs no header: the tail is recovered on open
+ * as the highest sequence number of a record with a valid checksum, and records torn by a crash are ignored.
+ * <p>
+ * Record layout, little endian:
+ * <pre>
+ *  0: long  sequence number, 0 for an empty or invalidated slot
+ *  8: long  timestamp, epoch millis
+ * 16: int   value, see {@link HistoryField#encode}
+ * 20: short field ordinal
+ * 22: short checksum of all the above
+ * </pre>
+ * Single writer, any number of readers. Readers validate the sequence number before and after reading a record,
+ * so they skip a slot which is being overwritten instead of blocking the writer.
+ */
+final class RoomHistoryRing {
+
+    private static final Logger logger = LoggerFactory.getLogger(RoomHistoryRing.class);
+
+    static final int RECORD_SIZE = 24;
+    private static final int TIMESTAMP = 8;
+    private static final int VALUE = 16;
+    private static final int FIELD = 20;
+    private static final int CHECKSUM = 22;
+
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    // last written value of every field, so that unchanged values are not written again
+    private final int[] lastValues = new int[HistoryField.values().length];
+    private volatile long lastSeq;
+
+    private RoomHistoryRing(MappedByteBuffer buffer, int capacity) {
+        this.buffer = buffer;
+        this.capacity = capacity;
+        Arrays.fill(lastValues, HistoryField.NO_VALUE);
+    }
+
+    static RoomHistoryRing open(Path path, int capacity) throws IOException {
+        long size = (long) capacity * RECORD_SIZE;
+        try (var channel = FileChannel.open(path, CREATE, READ, WRITE)) {
+            if (channel.size() != 0 && channel.size() != size) {
+                logger.warn("{} was written with a different number of records per room, starting it over", path);
+                channel.truncate(0);
+            }
+            var buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            var ring = new RoomHistoryRing(buffer, capacity);
+            ring.recover();
+            return ring;
+        }
+    }
+
+    private void recover() {
+        long maxSeq = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            int offset = slot * RECORD_SIZE;
+            long seq = buffer.getLong(offset);
+            if (seq > maxSeq && (seq - 1) % capacity == slot && isValid(offset, seq)) {
+                maxSeq = seq;
+            }
+        }
+        lastSeq = maxSeq;
+        // latest value of every field, newest first
+        int missing = lastValues.length;
+        for (long seq = maxSeq; seq > 0 && seq > maxSeq - capacity && missing > 0; seq--) {
+            int offset = offset(seq);
+            if (buffer.getLong(offset) != seq || !isValid(offset, seq)) {
+                continue;
+            }
+            int field = buffer.getShort(offset + FIELD);
+            if (lastValues[field] == HistoryField.NO_VALUE) {
+                lastValues[field] = buffer.getInt(offset + VALUE);
+                missing--;
+            }
+        }
+    }
+
+    /**
+     * Appends the value unless it is the same as the last one of the field. Single writer only.
+     */
+    boolean append(long timestampMillis, HistoryField field, int value) {
+        if (value == HistoryField.NO_VALUE || lastValues[field.ordinal()] == value) {
+            return false;
+        }
+        long seq = lastSeq + 1;
+        int offset = offset(seq);
+        buffer.putLong(offset, 0L);
+        VarHandle.storeStoreFence();
+        buffer.putLong(offset + TIMESTAMP, timestampMillis);
+        buffer.putInt(offset + VALUE, value);
+        buffer.putShort(offset + FIELD, (short) field.ordinal());
+        buffer.putShort(offset + CHECKSUM, checksum(seq, timestampMillis, value, field.ordinal()));
+        VarHandle.storeStoreFence();
+        buffer.putLong(offset, seq);
+        lastValues[field.ordinal()] = value;
+        lastSeq = seq;
+        return true;
+    }
+
+    /**
+     * Visits records within {@code [fromMillis, toMillis]} oldest first, all the fields when {@code field} is null.
+     * Records are read straight from the mapped file.
+     */
+    void scan(long fromMillis, long toMillis, HistoryField field, RoomHistoryStore.Visitor visitor) {
+        read(0L, fromMillis, toMillis, field, visitor);
+    }
+
+    /**
+     * Visits records written after {@code afterSeq} which are still in the ring, oldest first,
+     * and returns the sequence number of the last one.
+     */
+    long scanAfter(long afterSeq, RoomHistoryStore.Visitor visitor) {
+        return read(afterSeq, Long.MIN_VALUE, Long.MAX_VALUE, null, visitor);
+    }
+
+    private long read(long afterSeq, long fromMillis, long toMillis, HistoryField field, RoomHistoryStore.Visitor visitor) {
+        long last = lastSeq;
+        for (long seq = Math.max(afterSeq + 1, last - capacity + 1); seq <= last; seq++) {
+            int offset = offset(seq);
+            if (buffer.getLong(offset) != seq) {
+                continue;
+            }
+            VarHandle.loadLoadFence();
+            long timestamp = buffer.getLong(offset + TIMESTAMP);
+            int value = buffer.getInt(offset + VALUE);
+            int ordinal = buffer.getShort(offset + FIELD);
+            short checksum = buffer.getShort(offset + CHECKSUM);
+            VarHandle.loadLoadFence();
+            if (buffer.getLong(offset) != seq || checksum != checksum(seq, timestamp, value, ordinal)) {
+                // overwritten while reading
+                continue;
+            }
+            if (ordinal < 0 || ordinal >= lastValues.length || timestamp < fromMillis || timestamp > toMillis
+                    || (field != null && field.ordinal() != ordinal)) {
+                continue;
+            }
+            visitor.visit(timestamp, HistoryField.of(ordinal), value);
+        }
+        return Math.max(afterSeq, last);
+    }
+
+    long size() {
+        return Math.min(lastSeq, capacity);
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    private int offset(long seq) {
+        return (int) ((seq - 1) % capacity) * RECORD_SIZE;
+    }
+
+    private boolean isValid(int offset, long seq) {
+        int ordinal = buffer.getShort(offset + FIELD);
+        return ordinal >= 0 && ordinal < lastValues.length
+                && buffer.getShort(offset + CHECKSUM) == checksum(seq, buffer.getLong(offset + TIMESTAMP),
+                buffer.getInt(offset + VALUE), ordinal);
+    }
+
+    private static short checksum(long seq, long timestamp, int value, int field) {
+        long h = seq * 0x9E3779B97F4A7C15L;
+        h = (h ^ timestamp) * 0x9E3779B97F4A7C15L;
+        h = (h ^ value) * 0x9E3779B97F4A7C15L;
+        h = (h ^ field) * 0x9E3779B97F4A7C15L;
+        return (short) (h ^ (h >>> 16) ^ (h >>> 32) ^ (h >>> 48));
+    }
+}
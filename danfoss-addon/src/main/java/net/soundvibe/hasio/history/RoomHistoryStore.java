@@ -0,0 +1,224 @@
+package net.soundvibe.hasio.history;
+
+import net.soundvibe.hasio.JsonWriter;
+import net.soundvibe.hasio.danfoss.data.IconRoom;
+import net.soundvibe.hasio.danfoss.protocol.FieldScope;
+import net.soundvibe.hasio.danfoss.protocol.HouseState;
+import net.soundvibe.hasio.danfoss.protocol.IconStateListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongSupplier;
+
+import static net.soundvibe.hasio.danfoss.protocol.config.DanfossBindingConstants.ICON_MAX_ROOMS;
+
+/**
+ * Append-only history of room field changes, one {@link RoomHistoryRing} file per room, so disk use is bounded
+ * by {@code ICON_MAX_ROOMS * recordsPerRoom * 24} bytes and the oldest records are overwritten first.
+ * Changes are recorded from {@link IconStateListener#onRoomChanged} on the receive thread, which is the only writer.
+ * A ring file is created when its room records the first change. Fields which the room has not reported yet are not
+ * recorded, rather than as the zeros its snapshot holds for them, see {@link #recordFrom}.
+ * <p>
+ * Records are also rolled up into in-memory 1 minute, 15 minute and 1 hour tiers, see {@link RoomRollups}.
+ * Rollups are rebuilt from the rings on start, so they reach back as far as the rings do plus the uptime.
+ */
+public final class RoomHistoryStore implements IconStateListener, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(RoomHistoryStore.class);
+
+    private static final HistoryField[] FIELDS = HistoryField.values();
+    private static final int FLUSH_SIZE = 8192;
+
+    @FunctionalInterface
+    public interface Visitor {
+        void visit(long timestampMillis, HistoryField field, int value);
+    }
+
+    private final Path directory;
+    private final int recordsPerRoom;
+    private final LongSupplier clock;
+    private final AtomicReferenceArray<RoomHistoryRing> rings = new AtomicReferenceArray<>(ICON_MAX_ROOMS);
+    private final AtomicReferenceArray<RoomRollups> rollups = new AtomicReferenceArray<>(ICON_MAX_ROOMS);
+    // reported fields of the rooms, null records every field
+    private volatile HouseState houseState;
+
+    RoomHistoryStore(Path directory, int recordsPerRoom, LongSupplier clock) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.recordsPerRoom = recordsPerRoom;
+        this.clock = clock;
+    }
+
+    public static RoomHistoryStore open(Path directory, int recordsPerRoom) throws IOException {
+        return open(directory, recordsPerRoom, System::currentTimeMillis);
+    }
+
+    /**
+     * Records are timestamped with the given clock instead of the system one.
+     */
+    public static RoomHistoryStore open(Path directory, int recordsPerRoom, LongSupplier clock) throws IOException {
+        return new RoomHistoryStore(directory, recordsPerRoom, clock);
+    }
+
+    /**
+     * Records only the fields of rooms which have been reported to the given state, the one of the house whose
+     * changes are recorded.
+     */
+    public void recordFrom(HouseState houseState) {
+        this.houseState = houseState;
+    }
+
+    @Override
+    public void onRoomChanged(IconRoom before, IconRoom after) {
+        if (after.name() == null || after.name().isEmpty()) {
+            return;
+        }
+        var reported = this.houseState;
+        long presentFields = reported == null ? -1L : reported.presentFields(FieldScope.ROOM, after.number());
+        try {
+            var ring = ring(after.number(), true);
+            long now = clock.getAsLong();
+            for (var field : FIELDS) {
+                // unchanged values are skipped by the ring
+                ring.append(now, field, field.encode(after, presentFields));
+            }
+        } catch (IOException e) {
+            logger.warn("unable to record history of room {}: {}", after.number(), e.getMessage());
+        }
+    }
+
+    /**
+     * Visits records of the room within {@code [fromMillis, toMillis]} oldest first, all the fields when
+     * {@code field} is null.
+     */
+    public void query(int roomNumber, long fromMillis, long toMillis, HistoryField field, Visitor visitor) {
+        RoomHistoryRing ring;
+        try {
+            ring = ring(roomNumber, false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (ring != null) {
+            ring.scan(fromMillis, toMillis, field, visitor);
+        }
+    }
+
+    /**
+     * Streams the records as a JSON array of {@code {"timestamp":millis,"field":name,"value":value}} objects,
+     * in small chunks, so that the whole range is never on the heap.
+     */
+    public void writeJson(int roomNumber, long fromMillis, long toMillis, HistoryField field, OutputStream out) throws IOException {
+        var writer = new JsonWriter(FLUSH_SIZE + 256).beginArray();
+        try {
+            query(roomNumber, fromMillis, toMillis, field, (timestamp, recordField, value) -> {
+                writer.beginObject()
+                        .field("timestamp", timestamp)
+                        .field("field", recordField.jsonName);
+                recordField.writeValue(writer, "value", value).endObject();
+                if (writer.size() >= FLUSH_SIZE) {
+                    try {
+                        writer.flushTo(out);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.endArray().flushTo(out);
+    }
+
+    /**
+     * Same as {@link #writeJson(int, long, long, HistoryField, OutputStream)} when the resolution is finer than
+     * the finest rollup or the field is not rolled up. Otherwise writes buckets of the coarsest rollup tier
+     * not coarser than the resolution: {@code {"timestamp":bucketStart,"field":name,"min":min,"max":max,"avg":avg}}
+     * for temperatures and {@code {"timestamp":bucketStart,"field":"mode","heating_millis":millis,"duty":ratio}}
+     * for the heating state.
+     */
+    public void writeJson(int roomNumber, long fromMillis, long toMillis, HistoryField field, long resolutionMillis,
+                          OutputStream out) throws IOException {
+        int tier = RoomRollups.tierFor(resolutionMillis);
+        if (tier < 0 || !RollupTier.supports(field)) {
+            writeJson(roomNumber, fromMillis, toMillis, field, out);
+            return;
+        }
+        var writer = new JsonWriter(FLUSH_SIZE + 256).beginArray();
+        var roomRollups = compact(roomNumber);
+        if (roomRollups != null) {
+            roomRollups.writeJson(writer, tier, fromMillis, toMillis, field);
+        }
+        writer.endArray().flushTo(out);
+    }
+
+    /**
+     * Rolls up records appended since the previous compaction. Runs in the background,
+     * queries compact their own room before reading rollups anyway.
+     */
+    public void compact() {
+        for (int n = 0; n < ICON_MAX_ROOMS; n++) {
+            // also opens rings of the previous runs, so that their rollups are rebuilt
+            compact(n);
+        }
+    }
+
+    private RoomRollups compact(int roomNumber) {
+        RoomHistoryRing ring;
+        try {
+            ring = ring(roomNumber, false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (ring == null) {
+            return null;
+        }
+        var roomRollups = rollups.get(roomNumber);
+        if (roomRollups == null) {
+            rollups.compareAndSet(roomNumber, null, new RoomRollups());
+            roomRollups = rollups.get(roomNumber);
+        }
+        roomRollups.compact(ring, clock.getAsLong());
+        return roomRollups;
+    }
+
+    /**
+     * Writes recorded changes through to the disk, so they survive a power loss as well.
+     */
+    public void force() {
+        for (int n = 0; n < ICON_MAX_ROOMS; n++) {
+            var ring = rings.get(n);
+            if (ring != null) {
+                ring.force();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        force();
+    }
+
+    private RoomHistoryRing ring(int roomNumber, boolean create) throws IOException {
+        var ring = rings.get(roomNumber);
+        if (ring != null) {
+            return ring;
+        }
+        var path = directory.resolve(STR."room-\{roomNumber}.ring");
+        if (!create && !Files.exists(path)) {
+            return null;
+        }
+        synchronized (this) {
+            ring = rings.get(roomNumber);
+            if (ring == null) {
+                ring = RoomHistoryRing.open(path, recordsPerRoom);
+                rings.set(roomNumber, ring);
+            }
+            return ring;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package net.soundvibe.hasio.history;
+
+import net.soundvibe.hasio.JsonWriter;
+
+import java.util.Arrays;
+
+/**
+ * 1 minute, 15 minute and 1 hour {@link RollupTier}s of one room, fed with the records of its ring.
+ * Every recorded value is held until the next change of the field, so rollups integrate values over time
+ * instead of averaging the records. Guarded by its own monitor: compaction and queries of different rooms
+ * never wait for each other.
+ */
+final class RoomRollups {
+
+    static final long[] TIER_MILLIS = {60_000L, 900_000L, 3_600_000L};
+    // a day, a week and 90 days
+    private static final int[] TIER_CAPACITY = {1440, 672, 2160};
+
+    private final RollupTier[] tiers = new RollupTier[TIER_MILLIS.length];
+    private final int[] values = new int[HistoryField.values().length];
+    // values are accounted up to this time
+    private long cursor = Long.MIN_VALUE;
+    // last record of the ring fed into the rollups
+    private long lastSeq;
+
+    RoomRollups() {
+        for (int i = 0; i < tiers.length; i++) {
+            tiers[i] = new RollupTier(TIER_MILLIS[i], TIER_CAPACITY[i]);
+        }
+        Arrays.fill(values, HistoryField.NO_VALUE);
+    }
+
+    /**
+     * Index of the coarsest tier with buckets not longer than the resolution, -1 when even the finest one is too coarse.
+     */
+    static int tierFor(long resolutionMillis) {
+        for (int i = TIER_MILLIS.length - 1; i >= 0; i--) {
+            if (TIER_MILLIS[i] <= resolutionMillis) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Feeds records appended to the ring since the previous call and accounts the latest values up to {@code now}.
+     */
+    synchronized void compact(RoomHistoryRing ring, long now) {
+        lastSeq = ring.scanAfter(lastSeq, this::feed);
+        advance(now);
+    }
+
+    synchronized void writeJson(JsonWriter writer, int tier, long fromMillis, long toMillis, HistoryField field) {
+        tiers[tier].writeJson(writer, fromMillis, toMillis, field);
+    }
+
+    private void feed(long timestampMillis, HistoryField field, int value) {
+        advance(timestampMillis);
+        values[field.ordinal()] = value;
+    }
+
+    private void advance(long to) {
+        if (cursor == Long.MIN_VALUE) {
+            cursor = to;
+            return;
+        }
+        // a record older than the cursor, e.g. after a clock adjustment, applies from the cursor on
+        if (to <= cursor) {
+            return;
+        }
+        for (var tier : tiers) {
+            tier.integrate(cursor, to, values);
+        }
+        cursor = to;
+    }
+}
@@ -0,0 +1,32 @@
+package net.soundvibe.hasio.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic counter, contended updates are spread over cells instead of retrying a single CAS.
+ */
+public final class Counter extends Metric {
+
+    private final LongAdder value = new LongAdder();
+
+    Counter(String name, String help) {
+        super(name, help, "counter", "");
+    }
+
+    public void inc() {
+        value.increment();
+    }
+
+    public void add(long amount) {
+        value.add(amount);
+    }
+
+    public long get() {
+        return value.sum();
+    }
+
+    @Override
+    void writeSamples(StringBuilder out) {
+        writeSample(out, name, labels, "", get());
+    }
+}
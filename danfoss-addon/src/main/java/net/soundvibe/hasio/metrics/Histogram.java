@@ -0,0 +1,69 @@
+package net.soundvibe.hasio.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Durations in fixed buckets. Observations are counted in their own bucket only and made cumulative
+ * when written, so observing is a bucket search over a few longs plus two atomic adds.
+ */
+public final class Histogram extends Metric {
+
+    // upper bounds in seconds, the last bucket is +Inf
+    static final double[] DEFAULT_BOUNDS = {0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1.0, 2.5, 5.0, 10.0};
+
+    private final double[] bounds;
+    private final long[] boundNanos;
+    private final AtomicLongArray buckets;
+    private final LongAdder sumNanos = new LongAdder();
+
+    Histogram(String name, String help, String labels, double[] bounds) {
+        super(name, help, "histogram", labels);
+        this.bounds = bounds.clone();
+        this.boundNanos = new long[bounds.length];
+        for (int i = 0; i < bounds.length; i++) {
+            boundNanos[i] = Math.round(bounds[i] * 1e9);
+        }
+        this.buckets = new AtomicLongArray(bounds.length + 1);
+    }
+
+    public void observeNanos(long nanos) {
+        int bucket = 0;
+        while (bucket < boundNanos.length && nanos > boundNanos[bucket]) {
+            bucket++;
+        }
+        buckets.incrementAndGet(bucket);
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Observes the time elapsed since {@code startNanos} taken from {@link System#nanoTime()}.
+     */
+    public void observeSince(long startNanos) {
+        observeNanos(System.nanoTime() - startNanos);
+    }
+
+    public long count() {
+        long count = 0L;
+        for (int i = 0; i < buckets.length(); i++) {
+            count += buckets.get(i);
+        }
+        return count;
+    }
+
+    @Override
+    void writeSamples(StringBuilder out) {
+        long cumulative = 0L;
+        for (int i = 0; i < buckets.length(); i++) {
+            cumulative += buckets.get(i);
+            var le = i < bounds.length ? Double.toString(bounds[i]) : "+Inf";
+            writeSample(out, name + "_bucket", labels, STR."le=\"\{le}\"", cumulative);
+        }
+        out.append(name).append("_sum");
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(sumNanos.sum() / 1e9).append('\n');
+        writeSample(out, name + "_count", labels, "", cumulative);
+    }
+}
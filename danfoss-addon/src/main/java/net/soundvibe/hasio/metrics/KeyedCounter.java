@@ -0,0 +1,107 @@
+package net.soundvibe.hasio.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters keyed by a non-negative int, e.g. a packet class and code, in an open addressing table of primitive arrays.
+ * A new key claims its slot with a single CAS, so counting never locks or allocates. Keys beyond the capacity,
+ * or which don't find a slot within {@link #MAX_PROBES} probes, are counted under {@link #OVERFLOW}.
+ * The capacity should be a few times the expected number of keys, so that probe sequences stay short.
+ */
+public final class KeyedCounter extends Metric {
+
+    /**
+     * Key of the counts of keys which did not fit into the table.
+     */
+    public static final int OVERFLOW = -1;
+    private static final long EMPTY = Long.MIN_VALUE;
+    // bounds the cost of counting a key which doesn't fit anymore, it is paid on every increment
+    static final int MAX_PROBES = 8;
+
+    @FunctionalInterface
+    public interface LabelWriter {
+        /**
+         * Appends labels of the key without the braces, e.g. {@code code="404"}.
+         */
+        void write(StringBuilder out, int key);
+    }
+
+    private final LabelWriter labelWriter;
+    private final int mask;
+    private final AtomicLongArray keys;
+    private final AtomicLongArray counts;
+    private final Counter overflow;
+
+    KeyedCounter(String name, String help, int capacity, LabelWriter labelWriter) {
+        super(name, help, "counter", "");
+        this.labelWriter = labelWriter;
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.mask = size - 1;
+        this.keys = new AtomicLongArray(size);
+        this.counts = new AtomicLongArray(size);
+        this.overflow = new Counter(name, help);
+        for (int i = 0; i < size; i++) {
+            keys.set(i, EMPTY);
+        }
+    }
+
+    public void inc(int key) {
+        add(key, 1L);
+    }
+
+    public void add(int key, long amount) {
+        int slot = slot(key, true);
+        if (slot < 0) {
+            overflow.add(amount);
+        } else {
+            counts.addAndGet(slot, amount);
+        }
+    }
+
+    public long get(int key) {
+        if (key == OVERFLOW) {
+            return overflow.get();
+        }
+        int slot = slot(key, false);
+        return slot < 0 ? 0L : counts.get(slot);
+    }
+
+    private int slot(int key, boolean claim) {
+        int slot = (key * 0x9E3779B9) >>> 16 & mask;
+        int maxProbes = Math.min(mask + 1, MAX_PROBES);
+        for (int probes = 0; probes < maxProbes; probes++, slot = (slot + 1) & mask) {
+            long current = keys.get(slot);
+            if (current == key) {
+                return slot;
+            }
+            if (current == EMPTY) {
+                if (!claim) {
+                    return -1;
+                }
+                if (keys.compareAndSet(slot, EMPTY, key) || keys.get(slot) == key) {
+                    return slot;
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    void writeSamples(StringBuilder out) {
+        var keyLabels = new StringBuilder();
+        for (int slot = 0; slot <= mask; slot++) {
+            long key = keys.get(slot);
+            if (key != EMPTY) {
+                keyLabels.setLength(0);
+                labelWriter.write(keyLabels, (int) key);
+                writeSample(out, name, labels, keyLabels.toString(), counts.get(slot));
+            }
+        }
+        long overflowed = overflow.get();
+        if (overflowed != 0L) {
+            keyLabels.setLength(0);
+            labelWriter.write(keyLabels, OVERFLOW);
+            writeSample(out, name, labels, keyLabels.toString(), overflowed);
+        }
+    }
+}
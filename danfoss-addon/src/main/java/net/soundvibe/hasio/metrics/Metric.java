@@ -0,0 +1,36 @@
+package net.soundvibe.hasio.metrics;
+
+/**
+ * A metric written in the Prometheus text exposition format, see {@link Metrics#writeTo(StringBuilder)}.
+ * Metrics sharing a name are written under a single {@code # HELP} and {@code # TYPE} header and must
+ * differ in their constant labels.
+ */
+public abstract sealed class Metric permits Counter, KeyedCounter, Histogram {
+
+    final String name;
+    final String help;
+    final String type;
+    // e.g. publisher="mqtt-publisher", empty when none
+    final String labels;
+
+    Metric(String name, String help, String type, String labels) {
+        this.name = name;
+        this.help = help;
+        this.type = type;
+        this.labels = labels;
+    }
+
+    abstract void writeSamples(StringBuilder out);
+
+    static void writeSample(StringBuilder out, String name, String labels, String extraLabels, long value) {
+        out.append(name);
+        if (!labels.isEmpty() || !extraLabels.isEmpty()) {
+            out.append('{').append(labels);
+            if (!labels.isEmpty() && !extraLabels.isEmpty()) {
+                out.append(',');
+            }
+            out.append(extraLabels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+}
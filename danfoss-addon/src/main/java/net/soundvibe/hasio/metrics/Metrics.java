@@ -0,0 +1,129 @@
+package net.soundvibe.hasio.metrics;
+
+import net.soundvibe.hasio.danfoss.protocol.FieldScope;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process wide metrics, served by {@code GET /metrics} in the Prometheus text exposition format.
+ * Metrics are created once, updating them on the receive, send and publish paths never locks or allocates.
+ */
+public final class Metrics {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final Map<String, List<Metric>> registry = new LinkedHashMap<>();
+    private static final Map<String, Histogram> publishTicks = new ConcurrentHashMap<>();
+    private static final FieldScope[] SCOPES = FieldScope.values();
+
+    public static final KeyedCounter PACKETS_RECEIVED = register(new KeyedCounter("danfoss_packets_received_total",
+            "Packets received from the Icon master by scope of the message class and code.", 1024, Metrics::writePacketLabels));
+    public static final Counter MALFORMED_BUFFERS = register(new Counter("danfoss_malformed_buffers_total",
+            "Received buffers dropped because a packet header specified more bytes than received."));
+    public static final Counter BYTES_RECEIVED = register(new Counter("danfoss_received_bytes_total",
+            "Bytes received from the Icon master."));
+    public static final Counter BYTES_SENT = register(new Counter("danfoss_sent_bytes_total",
+            "Bytes sent to the Icon master."));
+    public static final Counter SEND_FAILURES = register(new Counter("danfoss_send_failures_total",
+            "Sends to the Icon master which failed."));
+    public static final Counter RECONNECTS = register(new Counter("danfoss_reconnects_total",
+            "Attempts to connect to the Icon master again, after a failed attempt or a lost connection."));
+    public static final Counter SETPOINTS_WRITTEN = register(new Counter("danfoss_setpoints_written_total",
+            "Setpoints written to the Icon master."));
+    public static final Counter SETPOINTS_COALESCED = register(new Counter("danfoss_setpoints_coalesced_total",
+            "Setpoint commands superseded by a newer one before they were confirmed."));
+    public static final Counter SETPOINTS_CONFIRMED = register(new Counter("danfoss_setpoints_confirmed_total",
+            "Setpoint writes echoed back by the Icon master."));
+    public static final Counter SETPOINT_RETRIES = register(new Counter("danfoss_setpoint_retries_total",
+            "Setpoint writes sent again because they were not confirmed in time."));
+    public static final Counter SETPOINT_WRITES_FAILED = register(new Counter("danfoss_setpoint_writes_failed_total",
+            "Setpoint writes given up because they were never confirmed."));
+    public static final Counter GRID_CONNECTS = register(new Counter("danfoss_grid_connects_total",
+            "Connections to the Danfoss grid, peer reconnects reuse the previous one while it is up."));
+    public static final Counter WATCHDOG_PINGS = register(new Counter("danfoss_watchdog_pings_total",
+            "Pings sent by the watchdog because the Icon master was inactive."));
+
+    public static final Histogram HA_UPSERT_DURATION = register(new Histogram("ha_upsert_duration_seconds",
+            "Time to upsert a single Home Assistant state.", "", Histogram.DEFAULT_BOUNDS));
+    /**
+     * Keyed by the HTTP status code, {@link #HA_IO_ERROR} or {@link #HA_REJECTED}.
+     */
+    public static final KeyedCounter HA_UPSERT_FAILURES = register(new KeyedCounter("ha_upsert_failures_total",
+            "Home Assistant state upserts which failed, by HTTP status code.", 32, Metrics::writeFailureLabels));
+    public static final int HA_IO_ERROR = 0;
+    // the WebSocket API answered with success=false
+    public static final int HA_REJECTED = 1;
+
+    public static final Histogram MQTT_PUBLISH_DURATION = register(new Histogram("mqtt_publish_duration_seconds",
+            "Time from a publish pass start until the broker acknowledged the message.", "", Histogram.DEFAULT_BOUNDS));
+    public static final Counter MQTT_PUBLISH_FAILURES = register(new Counter("mqtt_publish_failures_total",
+            "MQTT publishes which failed."));
+
+    private Metrics() {
+    }
+
+    /**
+     * Duration of each publish pass of the named {@code CoalescingPublisher}.
+     */
+    public static Histogram publishTickDuration(String publisher) {
+        return publishTicks.computeIfAbsent(publisher, name -> register(new Histogram("publish_tick_duration_seconds",
+                "Duration of a single publish pass of a state sink.", STR."publisher=\"\{name}\"", Histogram.DEFAULT_BOUNDS)));
+    }
+
+    static <T extends Metric> T register(T metric) {
+        synchronized (registry) {
+            registry.computeIfAbsent(metric.name, _ -> new ArrayList<>()).add(metric);
+        }
+        return metric;
+    }
+
+    public static String scrape() {
+        var out = new StringBuilder(4096);
+        writeTo(out);
+        return out.toString();
+    }
+
+    public static void writeTo(StringBuilder out) {
+        synchronized (registry) {
+            for (var family : registry.values()) {
+                var first = family.getFirst();
+                out.append("# HELP ").append(first.name).append(' ').append(first.help).append('\n');
+                out.append("# TYPE ").append(first.name).append(' ').append(first.type).append('\n');
+                for (var metric : family) {
+                    metric.writeSamples(out);
+                }
+            }
+        }
+    }
+
+    /**
+     * Key of {@link #PACKETS_RECEIVED}. Classes are counted by their scope, e.g. all the rooms together,
+     * so that the keys of a whole house fit into the table.
+     */
+    public static int packetKey(int msgClass, int msgCode) {
+        return (FieldScope.of(msgClass).ordinal() << 16) | msgCode;
+    }
+
+    private static void writePacketLabels(StringBuilder out, int key) {
+        if (key == KeyedCounter.OVERFLOW) {
+            out.append("scope=\"other\",msg_code=\"other\"");
+            return;
+        }
+        out.append("scope=\"").append(SCOPES[key >>> 16].jsonName).append("\",msg_code=\"").append(key & 0xFFFF).append('"');
+    }
+
+    private static void writeFailureLabels(StringBuilder out, int key) {
+        out.append("code=\"");
+        switch (key) {
+            case HA_IO_ERROR -> out.append("io_error");
+            case HA_REJECTED -> out.append("rejected");
+            case KeyedCounter.OVERFLOW -> out.append("other");
+            default -> out.append(key);
+        }
+        out.append('"');
+    }
+}
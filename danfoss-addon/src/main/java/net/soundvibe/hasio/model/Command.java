@@ -1,4 +1,17 @@
 package net.soundvibe.hasio.model;
 
-public record Command(String command, int roomNumber, double value) {}
+import net.soundvibe.hasio.danfoss.protocol.config.AppConfig;
 
+/**
+ * {@code house} may be missing, the command is then executed in the default house, or the first one when none is the default.
+ */
+public record Command(String command, int roomNumber, double value, String house) {
+
+    public Command(String command, int roomNumber, double value) {
+        this(command, roomNumber, value, AppConfig.DEFAULT_HOUSE);
+    }
+
+    public String houseOrDefault() {
+        return house == null ? AppConfig.DEFAULT_HOUSE : house;
+    }
+}
@@ -7,8 +7,15 @@ import java.nio.file.Path;
 
 public record Options(
         int haUpdatePeriodInSeconds,
+        int haMaxSilenceInSeconds,
+        String haSink,
         String sensorNameFmt,
         int port,
+        int refreshPacketsPerSecond,
+        int historyRecordsPerRoom,
+        int setpointDebounceMillis,
+        int devicePollPacketsPerMinute,
+        boolean packetCaptureEnabled,
         boolean mqttEnabled,
         String mqttHost,
         int mqttPort,
@@ -19,14 +26,52 @@ public record Options(
 
 ) {
 
+    public static final int DEFAULT_HA_MAX_SILENCE_IN_SECONDS = 900;
+    public static final int DEFAULT_REFRESH_PACKETS_PER_SECOND = 2;
+    public static final int DEFAULT_HISTORY_RECORDS_PER_ROOM = 16384;
+    public static final int DEFAULT_SETPOINT_DEBOUNCE_MILLIS = 500;
+    public static final int DEFAULT_DEVICE_POLL_PACKETS_PER_MINUTE = 30;
+    public static final String HA_SINK_REST = "rest";
+    public static final String HA_SINK_WEBSOCKET = "websocket";
+
     public static Options fromPath(Path path) {
         if (Files.exists(path)) {
             return Json.fromPath(path, Options.class);
         }
 
         // serve defaults
-        return new Options(1, "sensor.danfoss_%d_temperature", 9199,
-                false, "core-mosquitto", 1883, 60, "", "", "info");
+        return new Options(1, DEFAULT_HA_MAX_SILENCE_IN_SECONDS, HA_SINK_REST, "sensor.danfoss_%d_temperature", 9199,
+                DEFAULT_REFRESH_PACKETS_PER_SECOND,
+                DEFAULT_HISTORY_RECORDS_PER_ROOM, DEFAULT_SETPOINT_DEBOUNCE_MILLIS, DEFAULT_DEVICE_POLL_PACKETS_PER_MINUTE, false, false, "core-mosquitto", 1883, 60, "", "", "info");
+    }
+
+    public int haMaxSilenceInSecondsOrDefault() {
+        // options.json written by older addon versions doesn't contain this field
+        return haMaxSilenceInSeconds > 0 ? haMaxSilenceInSeconds : DEFAULT_HA_MAX_SILENCE_IN_SECONDS;
+    }
+
+    public int refreshPacketsPerSecondOrDefault() {
+        // options.json written by older addon versions doesn't contain this field
+        return refreshPacketsPerSecond > 0 ? refreshPacketsPerSecond : DEFAULT_REFRESH_PACKETS_PER_SECOND;
+    }
+
+    public int historyRecordsPerRoomOrDefault() {
+        // options.json written by older addon versions doesn't contain this field
+        return historyRecordsPerRoom > 0 ? historyRecordsPerRoom : DEFAULT_HISTORY_RECORDS_PER_ROOM;
+    }
+
+    public int setpointDebounceMillisOrDefault() {
+        // options.json written by older addon versions doesn't contain this field
+        return setpointDebounceMillis > 0 ? setpointDebounceMillis : DEFAULT_SETPOINT_DEBOUNCE_MILLIS;
+    }
+
+    public int devicePollPacketsPerMinuteOrDefault() {
+        // options.json written by older addon versions doesn't contain this field
+        return devicePollPacketsPerMinute > 0 ? devicePollPacketsPerMinute : DEFAULT_DEVICE_POLL_PACKETS_PER_MINUTE;
+    }
+
+    public boolean haWebSocketSinkEnabled() {
+        return HA_SINK_WEBSOCKET.equalsIgnoreCase(haSink);
     }
 
 }
@@ -0,0 +1,55 @@
+package net.soundvibe.hasio.model;
+
+import net.soundvibe.hasio.danfoss.data.DaySchedule;
+
+import java.time.DayOfWeek;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Body of schedule writes, the same shape as schedules are read in. Days which are missing are left as they are.
+ * A day is given either by its periods or by its raw payload in hex.
+ */
+public record WeekSchedule(Day monday, Day tuesday, Day wednesday, Day thursday, Day friday, Day saturday, Day sunday) {
+
+    public record Day(List<Period> periods, String raw) {
+
+        DaySchedule toDaySchedule() {
+            if (raw != null && !raw.isEmpty()) {
+                return DaySchedule.fromHex(raw);
+            }
+            var parsed = new ArrayList<DaySchedule.Period>(periods == null ? 0 : periods.size());
+            if (periods != null) {
+                for (var period : periods) {
+                    parsed.add(DaySchedule.Period.parse(period.start(), period.end()));
+                }
+            }
+            return DaySchedule.of(parsed);
+        }
+    }
+
+    public record Period(String start, String end) {}
+
+    /**
+     * Schedules of the given days, throws {@link IllegalArgumentException} when any of them is invalid.
+     */
+    public Map<DayOfWeek, DaySchedule> toDays() {
+        var days = new EnumMap<DayOfWeek, DaySchedule>(DayOfWeek.class);
+        put(days, DayOfWeek.MONDAY, monday);
+        put(days, DayOfWeek.TUESDAY, tuesday);
+        put(days, DayOfWeek.WEDNESDAY, wednesday);
+        put(days, DayOfWeek.THURSDAY, thursday);
+        put(days, DayOfWeek.FRIDAY, friday);
+        put(days, DayOfWeek.SATURDAY, saturday);
+        put(days, DayOfWeek.SUNDAY, sunday);
+        return days;
+    }
+
+    private static void put(Map<DayOfWeek, DaySchedule> days, DayOfWeek dayOfWeek, Day day) {
+        if (day != null) {
+            days.put(dayOfWeek, day.toDaySchedule());
+        }
+    }
+}
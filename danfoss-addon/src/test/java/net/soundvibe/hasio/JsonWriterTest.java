@@ -0,0 +1,78 @@
+package net.soundvibe.hasio;
+
+import com.google.gson.JsonParser;
+import net.soundvibe.hasio.danfoss.data.HeatingState;
+import net.soundvibe.hasio.danfoss.data.IconMaster;
+import net.soundvibe.hasio.danfoss.data.IconRoom;
+import net.soundvibe.hasio.danfoss.data.RoomMode;
+import net.soundvibe.hasio.ha.MQTTPublisher;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class JsonWriterTest {
+
+    private static final String ODD_NAME = "Kid's <room> & \"attic\" = \\ \t\n\u0001 é €   😀 \uD83D";
+
+    private static String written(double value) {
+        return new String(Json.write(writer -> writer.beginObject().stringField("v", value).endObject()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void should_write_doubles_like_double_to_string() {
+        for (int hundredths = -1_000_000; hundredths <= 1_000_000; hundredths++) {
+            var value = hundredths / 100.0;
+            assertEquals(STR."{\"v\":\"\{value}\"}", written(value));
+        }
+        for (var value : new double[]{0.0, -0.0, Double.NaN, Double.POSITIVE_INFINITY, 1e7, 1e-4, 0.001, 123456.789,
+                Math.PI, -Double.MAX_VALUE, Double.MIN_VALUE, 99999.99, 9999999.99}) {
+            assertEquals(STR."{\"v\":\"\{value}\"}", written(value));
+        }
+    }
+
+    @Test
+    void should_write_room_states_like_gson() {
+        for (var roomMode : RoomMode.values()) {
+            var room = new IconRoom(ODD_NAME, 44, 22.35, 24.1, 23.0, 21.05, 19.0,
+                    30.0, Double.NaN, (short) 99, HeatingState.COOL, roomMode);
+
+            var expected = Json.GSON.toJson(room.toState()).getBytes(StandardCharsets.UTF_8);
+            var actual = Json.write(room::writeState);
+            assertEquals(JsonParser.parseString(new String(expected, StandardCharsets.UTF_8)),
+                    JsonParser.parseString(new String(actual, StandardCharsets.UTF_8)));
+            // maps are written in their iteration order, same as Gson does
+            assertArrayEquals(expected, Json.toJsonBytes(room.toState()));
+        }
+    }
+
+    @Test
+    void should_leave_out_mode_and_preset_which_have_not_been_reported() {
+        var room = new IconRoom(ODD_NAME, 44, 22.35, null, 23.0, 21.05, 19.0, 30.0, 5.0, (short) 99, null, null);
+
+        var expected = JsonParser.parseString(new String(Json.toJsonBytes(room.toState()), StandardCharsets.UTF_8));
+        var actual = JsonParser.parseString(new String(Json.write(room::writeState), StandardCharsets.UTF_8));
+        assertEquals(expected, actual);
+        var attributes = actual.getAsJsonObject().getAsJsonObject("attributes");
+        assertFalse(attributes.has("mode"));
+        assertFalse(attributes.has("preset"));
+        assertFalse(attributes.has("temperature_target"));
+    }
+
+    @Test
+    void should_write_climate_entities_like_gson() {
+        var room = new IconRoom(ODD_NAME, 3, 22.3, null, 23.0, 21.0, 19.0,
+                35.0, 5.0, (short) 99, HeatingState.OFF, RoomMode.HOME);
+        var master = new IconMaster(ODD_NAME, 15.0, 5.0, "1.2", "2.3", "123456", 1, 1, null);
+        var entity = room.toMQTTClimateEntity("danfoss_icon_thermostat_room_3", MQTTPublisher.STATE_TOPIC_FMT,
+                MQTTPublisher.SET_TOPIC_FMT, master);
+
+        var expected = Json.GSON.toJson(entity).getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(expected, Json.toJsonBytes(entity));
+        assertEquals(new String(expected, StandardCharsets.UTF_8), Json.toJsonString(entity));
+    }
+}
@@ -0,0 +1,48 @@
+package net.soundvibe.hasio.danfoss.data;
+
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class DayScheduleTest {
+
+    @Test
+    void should_encode_periods_into_the_reported_payload() {
+        var sut = DaySchedule.of(List.of(DaySchedule.Period.parse("06:30", "08:00"), DaySchedule.Period.parse("17:00", "24:00")));
+
+        assertEquals("0c" + "8601" + "e001" + "fc03" + "a005" + "0000" + "0000", sut.hex());
+        assertEquals(12, sut.arrayData().length);
+        assertEquals(List.of(new DaySchedule.Period(390, 480), new DaySchedule.Period(1020, 1440)), sut.periods());
+        assertEquals("17:00", sut.periods().get(1).start());
+        assertEquals("24:00", sut.periods().get(1).end());
+    }
+
+    @Test
+    void should_keep_reported_payloads_verbatim() {
+        var payload = new byte[]{0, 0, 0x0c, 0x68, 0x01, (byte) 0xe0, 0x01, -1, -1, -1, -1, 0, 0, 0, 0};
+
+        var sut = DaySchedule.fromPayload(payload, 2, DaySchedule.PAYLOAD_LENGTH);
+
+        assertEquals("0c6801e001ffffffff00000000", sut.hex());
+        assertEquals(List.of(new DaySchedule.Period(360, 480)), sut.periods());
+        assertEquals(sut, DaySchedule.fromHex(sut.hex()));
+        assertNull(DaySchedule.fromPayload(payload, 0, 12));
+    }
+
+    @Test
+    void should_reject_invalid_periods() {
+        assertThrows(IllegalArgumentException.class, () -> DaySchedule.Period.parse("08:00", "06:00"));
+        assertThrows(IllegalArgumentException.class, () -> DaySchedule.Period.parse("06:00", "24:30"));
+        assertThrows(IllegalArgumentException.class, () -> DaySchedule.Period.parse("6", "8"));
+        assertThrows(IllegalArgumentException.class, () -> DaySchedule.of(List.of(
+                DaySchedule.Period.parse("06:00", "09:00"), DaySchedule.Period.parse("08:00", "10:00"))));
+        assertThrows(IllegalArgumentException.class, () -> DaySchedule.of(List.of(
+                DaySchedule.Period.parse("01:00", "02:00"), DaySchedule.Period.parse("03:00", "04:00"),
+                DaySchedule.Period.parse("05:00", "06:00"), DaySchedule.Period.parse("07:00", "08:00"))));
+    }
+}
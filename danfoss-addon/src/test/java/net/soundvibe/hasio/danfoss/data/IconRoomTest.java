@@ -17,7 +17,7 @@ class IconRoomTest {
 
     @Test
     void test_state_json() {
-        var sut = new IconRoom("Living Room", 1, 22.3, 23.0, 21.0, 19.0,
+        var sut = new IconRoom("Living Room", 1, 22.3, null, 23.0, 21.0, 19.0,
                  30.0, 15.0, (short) 99, HeatingState.OFF, RoomMode.HOME);
         var state = sut.toState();
 
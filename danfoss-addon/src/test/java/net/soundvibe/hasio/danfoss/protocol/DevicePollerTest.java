@@ -0,0 +1,123 @@
+package net.soundvibe.hasio.danfoss.protocol;
+
+import net.soundvibe.hasio.danfoss.protocol.config.Dominion;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static net.soundvibe.hasio.danfoss.protocol.DevicePoller.TICK_MILLIS;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgClass.OUTPUT_FIRST;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.OUTPUT_REGULATIONFLOORDUTYCYCLE;
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class DevicePollerTest {
+
+    private record Request(int msgClass, int msgCode) {}
+
+    private final IconMasterHandler master = new IconMasterHandler(null, null);
+    private final List<Request> requests = new ArrayList<>();
+
+    private DevicePoller poller(int packetsPerMinute) {
+        return new DevicePoller(master.houseState(), (packets, count) -> {
+            for (int i = 0; i < count; i++) {
+                requests.add(new Request(packets[i].getMsgClass(), packets[i].getMsgCode()));
+            }
+            return true;
+        }, packetsPerMinute);
+    }
+
+    private static int probes() {
+        int probes = 0;
+        for (var scope : FieldScope.DEVICES) {
+            probes += scope.instances();
+        }
+        return probes;
+    }
+
+    private void receiveDutyCycle(int output, int dutyCycle) {
+        var out = new ByteArrayOutputStream();
+        PacketBursts.writeByte(out, OUTPUT_FIRST + output, OUTPUT_REGULATIONFLOORDUTYCYCLE, dutyCycle);
+        var data = out.toByteArray();
+        master.handleBatch(new Dominion.PacketCursor().reset(data, 0, data.length));
+    }
+
+    private int tickUntilIdle(DevicePoller sut, long from) {
+        int sent = 0;
+        for (long now = from; now < from + 3_600_000; now += TICK_MILLIS) {
+            int count = sut.tick(now);
+            if (count == 0 && now > from) {
+                break;
+            }
+            sent += count;
+        }
+        return sent;
+    }
+
+    @Test
+    void should_probe_every_instance_once_per_connection() {
+        var sut = poller(600);
+
+        assertEquals(probes(), tickUntilIdle(sut, 0));
+        for (var request : requests) {
+            var scope = FieldScope.of(request.msgClass());
+            assertTrue(FieldScope.DEVICES.contains(scope), request.toString());
+            assertSame(HouseFields.of(scope).getFirst(), HouseFields.byCode(scope, request.msgCode()), request.toString());
+        }
+
+        requests.clear();
+        sut.onConnected();
+        assertEquals(probes(), tickUntilIdle(sut, 3_600_000));
+    }
+
+    @Test
+    void should_read_all_the_fields_of_instances_which_answered() {
+        var sut = poller(600);
+        tickUntilIdle(sut, 0);
+        receiveDutyCycle(3, 40);
+        requests.clear();
+
+        int fields = HouseFields.of(FieldScope.OUTPUT).size();
+        for (long now = 3_600_000; requests.size() < 2 * fields; now += TICK_MILLIS) {
+            sut.tick(now);
+        }
+
+        assertTrue(requests.stream().allMatch(request -> request.msgClass() == OUTPUT_FIRST + 3), requests.toString());
+        assertEquals(fields, requests.stream().limit(fields).distinct().count());
+    }
+
+    @Test
+    void should_stay_within_budget() {
+        var sut = poller(30);
+        receiveDutyCycle(0, 10);
+        int sent = 0;
+        for (long now = 0; now <= 120_000; now += TICK_MILLIS) {
+            sent += sut.tick(now);
+        }
+        // a packet at the start, then 30 per minute
+        assertTrue(sent <= 61, STR."sent \{sent}");
+        assertTrue(sent >= 59, STR."sent \{sent}");
+    }
+
+    @Test
+    void should_notify_about_changed_devices() {
+        var changed = new ArrayList<String>();
+        master.addStateListener(new IconStateListener() {
+            @Override
+            public void onDevicesChanged(FieldScope scope, long changedInstances) {
+                changed.add(STR."\{scope}:\{changedInstances}");
+            }
+        });
+
+        receiveDutyCycle(5, 40);
+        receiveDutyCycle(5, 40);
+        receiveDutyCycle(5, 55);
+
+        assertEquals(List.of(STR."OUTPUT:\{1L << 5}", STR."OUTPUT:\{1L << 5}"), changed);
+        assertEquals(55, master.houseState().number(HouseFields.OUTPUT_DUTY_CYCLE, 5));
+    }
+}
@@ -0,0 +1,138 @@
+package net.soundvibe.hasio.danfoss.protocol;
+
+import io.github.sonic_amiga.opensdg.java.Connection;
+import io.github.sonic_amiga.opensdg.java.GridConnection;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class GridSessionTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * Grid connection which completes the handshake without the network, until it is closed.
+     */
+    private static final class LocalGrid extends GridConnection {
+
+        LocalGrid(byte[] privateKey, ScheduledExecutorService scheduler) {
+            super(privateKey, scheduler);
+        }
+
+        @Override
+        public void connect(Endpoint[] endpoints) {
+            setState(State.CONNECTED);
+        }
+
+        @Override
+        public void close() {
+            setState(State.CLOSED);
+        }
+    }
+
+    private final List<LocalGrid> handshakes = new ArrayList<>();
+
+    private static byte[] privateKey(int seed) {
+        var key = new byte[32];
+        Arrays.fill(key, (byte) seed);
+        return key;
+    }
+
+    private GridSession acquire(byte[] privateKey) {
+        return GridSession.acquire(privateKey, scheduler, (key, s) -> {
+            var grid = new LocalGrid(key, s);
+            handshakes.add(grid);
+            return grid;
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void should_share_the_session_of_the_same_private_key() {
+        var first = GridSession.acquire(new byte[]{1, 2, 3}, scheduler);
+        var second = GridSession.acquire(new byte[]{1, 2, 3}, scheduler);
+        var other = GridSession.acquire(new byte[]{4, 5, 6}, scheduler);
+
+        assertSame(first, second);
+        assertNotSame(first, other);
+
+        first.release();
+        second.release();
+        other.release();
+    }
+
+    @Test
+    void should_start_a_new_session_once_the_last_connector_has_released_it() {
+        var first = GridSession.acquire(new byte[]{7, 8, 9}, scheduler);
+        var second = GridSession.acquire(new byte[]{7, 8, 9}, scheduler);
+
+        first.release();
+        assertSame(second, GridSession.acquire(new byte[]{7, 8, 9}, scheduler));
+        second.release();
+        second.release();
+
+        var next = GridSession.acquire(new byte[]{7, 8, 9}, scheduler);
+        assertNotSame(second, next);
+        next.release();
+    }
+
+    @Test
+    void should_reuse_the_connected_grid_for_every_connector() throws Exception {
+        var first = acquire(privateKey(10));
+        var second = acquire(privateKey(10));
+
+        var grid = first.connection();
+        assertSame(grid, second.connection());
+        assertSame(grid, first.connection());
+        assertEquals(1, handshakes.size());
+
+        first.release();
+        assertEquals(Connection.State.CONNECTED, grid.getState());
+        second.release();
+        assertEquals(Connection.State.CLOSED, grid.getState());
+    }
+
+    @Test
+    void should_handshake_again_once_the_grid_is_invalidated() throws Exception {
+        var sut = acquire(privateKey(12));
+        var stale = sut.connection();
+
+        sut.invalidate(stale);
+        var fresh = sut.connection();
+
+        assertNotSame(stale, fresh);
+        assertEquals(2, handshakes.size());
+        assertEquals(Connection.State.CLOSED, stale.getState());
+        // a late invalidation of the stale grid doesn't close its replacement
+        sut.invalidate(stale);
+        assertSame(fresh, sut.connection());
+        assertEquals(2, handshakes.size());
+        sut.release();
+    }
+
+    @Test
+    void should_handshake_again_once_the_grid_is_closed() throws Exception {
+        var sut = acquire(privateKey(14));
+        var lost = sut.connection();
+
+        lost.close();
+
+        assertNotSame(lost, sut.connection());
+        assertEquals(2, handshakes.size());
+        sut.release();
+    }
+}
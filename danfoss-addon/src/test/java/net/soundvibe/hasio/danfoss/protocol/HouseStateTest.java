@@ -0,0 +1,121 @@
+package net.soundvibe.hasio.danfoss.protocol;
+
+import net.soundvibe.hasio.danfoss.protocol.config.Dominion;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static net.soundvibe.hasio.danfoss.protocol.config.DanfossBindingConstants.ICON_MAX_ROOMS;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgClass.ALL_ROOMS;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgClass.ROOM_FIRST;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class HouseStateTest {
+
+    @Test
+    void should_dispatch_registered_codes_by_scope() {
+        assertSame(HouseFields.ROOM_TEMPERATURE, HouseFields.byCode(FieldScope.ROOM, ROOM_ROOMTEMPERATURE));
+        assertSame(HouseFields.MASTER_HOUSE_NAME, HouseFields.byCode(FieldScope.MASTER, HOUSE_NAME));
+        assertNull(HouseFields.byCode(FieldScope.MASTER, ROOM_ROOMTEMPERATURE));
+        assertNull(HouseFields.byCode(FieldScope.ROOM, 0xFFFF));
+        assertEquals(FieldScope.ROOM, FieldScope.of(ROOM_FIRST + ICON_MAX_ROOMS - 1));
+        assertEquals(FieldScope.REPEATER, FieldScope.of(ROOM_FIRST + ICON_MAX_ROOMS));
+        assertEquals(FieldScope.OUTPUT, FieldScope.of(ROOM_FIRST - 1));
+        assertEquals(FieldScope.MASTER, FieldScope.of(ALL_ROOMS));
+        assertEquals(ICON_MAX_ROOMS, FieldScope.ROOM.instances());
+    }
+
+    @Test
+    void should_keep_room_field_bits() {
+        assertEquals(1, IconRoomHandler.FIELD_NAME);
+        assertEquals(1 << 1, IconRoomHandler.FIELD_TEMPERATURE);
+        assertEquals(1 << 13, IconRoomHandler.FIELD_HEATING_STATE);
+        var room = new IconRoomHandler(null, 4, new IconStateListener() {});
+        assertEquals(ROOM_SETPOINTASLEEP, room.fieldRequestPacket(IconRoomHandler.FIELD_SETPOINT_SLEEP).getMsgCode());
+    }
+
+    @Test
+    void should_scan_a_field_across_all_the_rooms() {
+        var sut = new IconMasterHandler(null, null);
+        var burst = PacketBursts.initialDump();
+        sut.handleBatch(new Dominion.PacketCursor().reset(burst, 0, burst.length));
+
+        var temperatures = sut.houseState().numbers(HouseFields.ROOM_TEMPERATURE);
+
+        assertEquals(ICON_MAX_ROOMS, temperatures.length);
+        for (int room = 0; room < ICON_MAX_ROOMS; room++) {
+            assertEquals(20.0 + room * 0.1, temperatures[room], 0.001);
+        }
+        assertEquals("Room 7", sut.houseState().object(HouseFields.ROOM_NAME, 7));
+        assertEquals("123456", sut.iconMaster().serialNumber());
+    }
+
+    @Test
+    void should_decode_strings_within_their_payload() {
+        var out = new ByteArrayOutputStream();
+        // the length prefix claims more bytes than the payload has, the next packet follows right after
+        PacketBursts.writeHeader(out, ROOM_FIRST + 1, ROOMNAME, 5);
+        out.writeBytes(new byte[]{32, 'H', 'a', 'l', 'l'});
+        PacketBursts.writeHeader(out, ROOM_FIRST + 2, ROOMNAME, 0);
+        PacketBursts.writeString(out, ROOM_FIRST + 3, ROOMNAME, "Attic", 33);
+        var data = out.toByteArray();
+        var cursor = new Dominion.PacketCursor().reset(data, 0, data.length);
+
+        assertTrue(cursor.next());
+        assertEquals("Hall", cursor.getString());
+        assertTrue(cursor.next());
+        assertEquals("", cursor.getString());
+        assertTrue(cursor.next());
+        assertEquals("Attic", cursor.getString());
+    }
+
+    @Test
+    void should_snapshot_the_floor_temperature_once_reported() {
+        var sut = new IconMasterHandler(null, null);
+        var out = new ByteArrayOutputStream();
+        PacketBursts.writeString(out, ROOM_FIRST + 2, ROOMNAME, "Bathroom", 33);
+        var name = out.toByteArray();
+        sut.handleBatch(new Dominion.PacketCursor().reset(name, 0, name.length));
+        assertNull(sut.roomHandlerByNumber(2).orElseThrow().toIconRoom().temperatureFloor());
+
+        out.reset();
+        PacketBursts.writeDecimal(out, ROOM_FIRST + 2, ROOM_FLOORTEMPERATURE, 26.5);
+        var data = out.toByteArray();
+        sut.handleBatch(new Dominion.PacketCursor().reset(data, 0, data.length));
+
+        assertEquals(26.5, sut.roomHandlerByNumber(2).orElseThrow().toIconRoom().temperatureFloor(), 0.001);
+    }
+
+    @Test
+    void should_decode_fields_which_are_not_part_of_room_snapshots() {
+        var sut = new IconMasterHandler(null, null);
+        var out = new ByteArrayOutputStream();
+        PacketBursts.writeShort(out, ROOM_FIRST + 2, ROOM_ERRORCODE, 0x8001);
+        PacketBursts.writeByte(out, ROOM_FIRST + 2, ROOM_OPERATIONMODE, 1);
+        var data = out.toByteArray();
+
+        sut.handleBatch(new Dominion.PacketCursor().reset(data, 0, data.length));
+
+        var state = sut.houseState();
+        assertTrue(state.isPresent(HouseFields.ROOM_ERROR_CODE, 2));
+        assertEquals(0x8001, state.number(HouseFields.ROOM_ERROR_CODE, 2));
+        assertEquals(1, state.number(HouseFields.ROOM_OPERATION_MODE, 2));
+        assertFalse(state.isPresent(HouseFields.ROOM_ERROR_CODE, 3));
+    }
+
+    @Test
+    void should_ignore_values_which_are_not_accepted() {
+        var sut = new IconMasterHandler(null, null);
+        var out = new ByteArrayOutputStream();
+        PacketBursts.writeByte(out, ROOM_FIRST + 1, ROOM_ROOMMODE, 7);
+        var data = out.toByteArray();
+
+        sut.handleBatch(new Dominion.PacketCursor().reset(data, 0, data.length));
+
+        assertFalse(sut.houseState().isPresent(HouseFields.ROOM_MODE, 1));
+    }
+}
@@ -0,0 +1,221 @@
+package net.soundvibe.hasio.danfoss.protocol;
+
+import net.soundvibe.hasio.danfoss.data.DaySchedule;
+import net.soundvibe.hasio.danfoss.protocol.config.Dominion;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.time.DayOfWeek;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+import static net.soundvibe.hasio.danfoss.protocol.config.DanfossBindingConstants.ICON_MAX_ROOMS;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgClass.ALL_ROOMS;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgClass.ROOM_FIRST;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.ROOMNAME;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.ROOM_ROOMTEMPERATURE;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.ROOM_SCHEDULEFRIDAY;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.ROOM_SCHEDULEMONDAY;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.ROOM_SCHEDULESUNDAY;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.ROOM_SETPOINTATHOME;
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class IconMasterHandlerTest {
+
+    private record Notification(long changedRooms, boolean masterChanged) {}
+
+    private static IconStateListener recordTo(List<Notification> notifications) {
+        return new IconStateListener() {
+            @Override
+            public void onStateChanged(long changedRooms, boolean masterChanged) {
+                notifications.add(new Notification(changedRooms, masterChanged));
+            }
+        };
+    }
+
+    @Test
+    void should_notify_once_per_burst() {
+        var sut = new IconMasterHandler(null, null);
+        var notifications = new ArrayList<Notification>();
+        sut.addStateListener(recordTo(notifications));
+
+        var burst = PacketBursts.initialDump();
+        sut.handleBatch(new Dominion.PacketCursor().reset(burst, 0, burst.length));
+
+        assertEquals(1, notifications.size());
+        assertEquals((1L << ICON_MAX_ROOMS) - 1, notifications.getFirst().changedRooms());
+        assertTrue(notifications.getFirst().masterChanged());
+        assertEquals(ICON_MAX_ROOMS, sut.listRooms().size());
+        assertEquals("Benchmark House", sut.iconMaster().houseName());
+        assertEquals(20.7, sut.roomHandlerByNumber(7).orElseThrow().toIconRoom().temperature(), 0.001);
+
+        // the same burst doesn't change anything
+        sut.handleBatch(new Dominion.PacketCursor().reset(burst, 0, burst.length));
+        assertEquals(1, notifications.size());
+    }
+
+    @Test
+    void should_report_only_changed_rooms() {
+        var sut = new IconMasterHandler(null, null);
+        var burst = PacketBursts.initialDump();
+        sut.handleBatch(new Dominion.PacketCursor().reset(burst, 0, burst.length));
+        var notifications = new ArrayList<Notification>();
+        sut.addStateListener(recordTo(notifications));
+
+        var out = new ByteArrayOutputStream();
+        PacketBursts.writeDecimal(out, ROOM_FIRST + 3, ROOM_ROOMTEMPERATURE, 23.5);
+        PacketBursts.writeDecimal(out, ROOM_FIRST + 3, ROOM_ROOMTEMPERATURE, 23.6);
+        PacketBursts.writeDecimal(out, ROOM_FIRST + 10, ROOM_ROOMTEMPERATURE, 19.0);
+        var data = out.toByteArray();
+        sut.handleBatch(new Dominion.PacketCursor().reset(data, 0, data.length));
+
+        assertEquals(1, notifications.size());
+        assertEquals((1L << 3) | (1L << 10), notifications.getFirst().changedRooms());
+        assertFalse(notifications.getFirst().masterChanged());
+        assertEquals(23.6, sut.roomHandlerByNumber(3).orElseThrow().toIconRoom().temperature(), 0.001);
+    }
+
+    @Test
+    void should_report_setpoints_after_the_commit_outside_of_the_monitor() {
+        var sut = new IconMasterHandler(null, null);
+        var burst = PacketBursts.initialDump();
+        sut.handleBatch(new Dominion.PacketCursor().reset(burst, 0, burst.length));
+        var reported = new ArrayList<String>();
+        sut.addStateListener(new IconStateListener() {
+            @Override
+            public void onSetpointReported(int roomNumber, Setpoint setpoint, double value) {
+                assertFalse(Thread.holdsLock(sut.houseState()));
+                // the room is committed already
+                assertEquals(value, sut.roomHandlerByNumber(roomNumber).orElseThrow().toIconRoom().temperatureHome(), 0.001);
+                reported.add(STR."\{roomNumber}:\{setpoint}:\{value}");
+            }
+        });
+
+        var out = new ByteArrayOutputStream();
+        PacketBursts.writeDecimal(out, ROOM_FIRST + 2, ROOM_SETPOINTATHOME, 22.0);
+        PacketBursts.writeDecimal(out, ROOM_FIRST + 2, ROOM_SETPOINTATHOME, 22.5);
+        var data = out.toByteArray();
+        sut.handleBatch(new Dominion.PacketCursor().reset(data, 0, data.length));
+        // an echo of the same value is reported too
+        sut.handleBatch(new Dominion.PacketCursor().reset(data, data.length / 2, data.length));
+
+        assertEquals(List.of("2:HOME:22.5", "2:HOME:22.5"), reported);
+    }
+
+    @Test
+    void should_find_rooms_by_number_and_name() {
+        var sut = new IconMasterHandler(null, null);
+        assertTrue(sut.roomHandlerByNumber(5).isEmpty());
+        assertTrue(sut.roomHandlerByNumber(-1).isEmpty());
+        assertTrue(sut.roomHandlerByNumber(ICON_MAX_ROOMS).isEmpty());
+
+        var burst = PacketBursts.initialDump();
+        sut.handleBatch(new Dominion.PacketCursor().reset(burst, 0, burst.length));
+        assertEquals(5, sut.roomHandlerByNumber(5).orElseThrow().roomNumber);
+        assertEquals(5, sut.roomHandlerByName("Room 5").orElseThrow().roomNumber);
+
+        var out = new ByteArrayOutputStream();
+        PacketBursts.writeString(out, ROOM_FIRST + 5, ROOMNAME, "Kitchen", 33);
+        var data = out.toByteArray();
+        sut.handleBatch(new Dominion.PacketCursor().reset(data, 0, data.length));
+
+        assertTrue(sut.roomHandlerByName("Room 5").isEmpty());
+        assertEquals(5, sut.roomHandlerByName("Kitchen").orElseThrow().roomNumber);
+        assertEquals(ICON_MAX_ROOMS, sut.roomHandlers().size());
+    }
+
+    @Test
+    void should_write_only_schedule_days_which_differ() {
+        var sut = new IconMasterHandler(null, null);
+        var burst = PacketBursts.initialDump();
+        sut.handleBatch(new Dominion.PacketCursor().reset(burst, 0, burst.length));
+        var workday = DaySchedule.of(List.of(DaySchedule.Period.parse("06:00", "08:00"), DaySchedule.Period.parse("16:00", "22:00")));
+        var weekend = DaySchedule.of(List.of(DaySchedule.Period.parse("08:00", "23:00")));
+        var out = new ByteArrayOutputStream();
+        for (int room = 0; room < ICON_MAX_ROOMS; room++) {
+            for (var day : DayOfWeek.values()) {
+                var schedule = day.getValue() >= DayOfWeek.SATURDAY.getValue() ? weekend : workday;
+                PacketBursts.writeHeader(out, ROOM_FIRST + room, ROOM_SCHEDULEMONDAY + day.ordinal(), DaySchedule.PAYLOAD_LENGTH);
+                out.writeBytes(HexFormat.of().parseHex(schedule.hex()));
+            }
+        }
+        var data = out.toByteArray();
+        var notifications = new ArrayList<Notification>();
+        sut.addStateListener(recordTo(notifications));
+        sut.handleBatch(new Dominion.PacketCursor().reset(data, 0, data.length));
+
+        // schedules are cached, but they are not room changes
+        assertTrue(notifications.isEmpty());
+        assertEquals(weekend, sut.roomHandlerByNumber(4).orElseThrow().schedule(DayOfWeek.SUNDAY));
+        assertEquals(0, sut.requestMissingSchedules(4));
+
+        var week = new EnumMap<DayOfWeek, DaySchedule>(DayOfWeek.class);
+        for (var day : DayOfWeek.values()) {
+            week.put(day, day == DayOfWeek.FRIDAY ? weekend : day.getValue() >= DayOfWeek.SATURDAY.getValue() ? weekend : workday);
+        }
+        var house = new HashMap<Integer, Map<DayOfWeek, DaySchedule>>();
+        for (int room = 0; room < 3; room++) {
+            house.put(room, week);
+        }
+
+        // not connected, so nothing is cached and the write is retried in full
+        assertEquals(new ScheduleWrite(3, 3, false), sut.writeSchedules(house));
+        assertEquals(workday, sut.roomHandlerByNumber(2).orElseThrow().schedule(DayOfWeek.FRIDAY));
+        assertEquals(new ScheduleWrite(3, 3, false), sut.writeSchedules(house));
+
+        // the master reports the written days back
+        var echo = new ByteArrayOutputStream();
+        for (int room = 0; room < 3; room++) {
+            PacketBursts.writeHeader(echo, ROOM_FIRST + room, ROOM_SCHEDULEFRIDAY, DaySchedule.PAYLOAD_LENGTH);
+            echo.writeBytes(HexFormat.of().parseHex(weekend.hex()));
+        }
+        var echoData = echo.toByteArray();
+        sut.handleBatch(new Dominion.PacketCursor().reset(echoData, 0, echoData.length));
+
+        assertEquals(weekend, sut.roomHandlerByNumber(2).orElseThrow().schedule(DayOfWeek.FRIDAY));
+        assertEquals(new ScheduleWrite(0, 0, true), sut.writeSchedules(house));
+    }
+
+    @Test
+    void should_write_days_shared_by_the_whole_house_to_all_rooms() {
+        var sut = new IconMasterHandler(null, null);
+        var burst = PacketBursts.initialDump();
+        sut.handleBatch(new Dominion.PacketCursor().reset(burst, 0, burst.length));
+        var workday = DaySchedule.of(List.of(DaySchedule.Period.parse("06:00", "08:00"), DaySchedule.Period.parse("16:00", "22:00")));
+        var weekend = DaySchedule.of(List.of(DaySchedule.Period.parse("08:00", "23:00")));
+        var week = new EnumMap<DayOfWeek, DaySchedule>(DayOfWeek.class);
+        for (var day : DayOfWeek.values()) {
+            week.put(day, day.getValue() >= DayOfWeek.SATURDAY.getValue() ? weekend : workday);
+        }
+        var house = new HashMap<Integer, Map<DayOfWeek, DaySchedule>>();
+        for (var room : sut.roomHandlers()) {
+            house.put(room.roomNumber, week);
+        }
+        var kitchen = new EnumMap<>(week);
+        kitchen.put(DayOfWeek.MONDAY, weekend);
+        house.put(5, kitchen);
+
+        // Monday differs in the kitchen, so it takes a packet per room
+        int rooms = house.size();
+        assertEquals(new ScheduleWrite(rooms * 7, rooms + 6, false), sut.writeSchedules(house));
+
+        // the master reports a day written to all the rooms the same way
+        var echo = new ByteArrayOutputStream();
+        PacketBursts.writeHeader(echo, ALL_ROOMS, ROOM_SCHEDULESUNDAY, DaySchedule.PAYLOAD_LENGTH);
+        echo.writeBytes(HexFormat.of().parseHex(weekend.hex()));
+        var echoData = echo.toByteArray();
+        sut.handleBatch(new Dominion.PacketCursor().reset(echoData, 0, echoData.length));
+
+        for (var room : sut.roomHandlers()) {
+            assertEquals(weekend, room.schedule(DayOfWeek.SUNDAY));
+        }
+        assertEquals(new ScheduleWrite(rooms * 6, rooms + 5, false), sut.writeSchedules(house));
+    }
+}
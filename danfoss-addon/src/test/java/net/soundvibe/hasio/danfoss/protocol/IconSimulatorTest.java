@@ -0,0 +1,162 @@
+package net.soundvibe.hasio.danfoss.protocol;
+
+import net.soundvibe.hasio.danfoss.data.DaySchedule;
+import net.soundvibe.hasio.danfoss.data.HeatingState;
+import net.soundvibe.hasio.danfoss.data.RoomMode;
+import net.soundvibe.hasio.danfoss.protocol.config.Dominion;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.time.DayOfWeek;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgClass.ROOM_FIRST;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.ROOMNAME;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.ROOM_ROOMMODE;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.ROOM_SETPOINTATHOME;
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class IconSimulatorTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final IconMasterHandler master = new IconMasterHandler(null, null);
+
+    private final SetpointPipeline setpoints = master.newSetpointPipeline(0);
+
+    private SetpointWrite writeSetpoint(int roomNumber, Setpoint setpoint, double value) {
+        var write = setpoints.submit(roomNumber, setpoint, value);
+        setpoints.flush(TimeUnit.NANOSECONDS.toMillis(System.nanoTime()), true);
+        return write;
+    }
+
+    private IconSimulator simulate(IconSimulator.Config config) {
+        var sut = new IconSimulator(config);
+        master.simulate(sut);
+        sut.tick(0);
+        return sut;
+    }
+
+    @Test
+    void should_dump_the_house_and_answer_name_requests() {
+        var connects = new int[1];
+        master.addStateListener(new IconStateListener() {
+            @Override
+            public void onConnected() {
+                connects[0]++;
+            }
+        });
+
+        simulate(IconSimulator.Config.of(5));
+
+        assertEquals(1, connects[0]);
+        assertEquals(5, master.listRooms().size());
+        var room = master.roomHandlerByName("Room 3").orElseThrow().toIconRoom();
+        assertEquals(21.5, room.temperatureHome(), 0.001);
+        assertEquals(97, room.batteryPercent());
+        assertEquals("Simulated House", master.iconMaster().houseName());
+        assertEquals("100001", master.iconMaster().serialNumber());
+    }
+
+    @Test
+    void should_apply_and_echo_writes() {
+        var sut = simulate(IconSimulator.Config.of(3));
+        var reported = new ArrayList<String>();
+        master.addStateListener(new IconStateListener() {
+            @Override
+            public void onSetpointReported(int roomNumber, Setpoint setpoint, double value) {
+                reported.add(STR."\{roomNumber}:\{setpoint}:\{value}");
+            }
+        });
+        var room = master.roomHandlerByNumber(1).orElseThrow();
+
+        var write = writeSetpoint(1, Setpoint.AWAY, 16.5);
+        assertEquals(7, master.requestMissingSchedules(1));
+        sut.tick(1);
+
+        assertEquals(List.of("1:AWAY:16.5"), reported);
+        assertEquals(SetpointWrite.Outcome.CONFIRMED, write.outcome());
+        assertEquals(16.5, room.toIconRoom().temperatureAway(), 0.001);
+        assertNotNull(room.schedule(DayOfWeek.MONDAY));
+    }
+
+    @Test
+    void should_ignore_writes_of_the_wrong_length() {
+        var sut = simulate(IconSimulator.Config.of(2));
+        var room = master.roomHandlerByNumber(1).orElseThrow();
+
+        // an empty write of the room mode and a decimal written as a single byte
+        assertTrue(master.connector().Send(new byte[]{0, (byte) (ROOM_FIRST + 1), (byte) ROOM_ROOMMODE, (byte) (ROOM_ROOMMODE >> 8), 0}));
+        assertTrue(master.connector().SendPacket(new Dominion.Packet(ROOM_FIRST + 1, ROOM_SETPOINTATHOME, (byte) 30)));
+        sut.tick(SECOND);
+
+        assertEquals(RoomMode.HOME, room.toIconRoom().roomMode());
+        assertEquals(21.5, room.toIconRoom().temperatureHome(), 0.001);
+
+        // names are shorter than the stored fixed length
+        assertTrue(master.connector().SendPacket(new Dominion.Packet(ROOM_FIRST + 1, ROOMNAME, "Hall")));
+        sut.tick(2 * SECOND);
+        assertEquals("Hall", room.toIconRoom().name());
+    }
+
+    @Test
+    void should_cache_schedules_once_the_master_echoes_them() {
+        var sut = simulate(IconSimulator.Config.of(4));
+        var weekend = DaySchedule.of(List.of(DaySchedule.Period.parse("08:00", "23:00")));
+        var week = new EnumMap<DayOfWeek, DaySchedule>(DayOfWeek.class);
+        for (var day : DayOfWeek.values()) {
+            week.put(day, weekend);
+        }
+        var house = new HashMap<Integer, Map<DayOfWeek, DaySchedule>>();
+        for (var room : master.roomHandlers()) {
+            house.put(room.roomNumber, week);
+        }
+
+        // a day for all the rooms at once
+        assertEquals(new ScheduleWrite(4 * 7, 7, true), master.writeSchedules(house));
+        assertNull(master.roomHandlerByNumber(2).orElseThrow().schedule(DayOfWeek.FRIDAY));
+        sut.tick(SECOND);
+
+        for (var room : master.roomHandlers()) {
+            assertEquals(weekend, room.schedule(DayOfWeek.FRIDAY));
+        }
+        assertEquals(new ScheduleWrite(0, 0, true), master.writeSchedules(house));
+    }
+
+    @Test
+    void should_heat_rooms_below_their_setpoint() {
+        var sut = simulate(IconSimulator.Config.of(2));
+        var room = master.roomHandlerByNumber(0).orElseThrow();
+        writeSetpoint(0, Setpoint.HOME, 30.0);
+        double before = room.toIconRoom().temperature();
+
+        for (long now = SECOND; now <= TimeUnit.MINUTES.toNanos(30); now += SECOND) {
+            sut.tick(now);
+        }
+
+        assertEquals(HeatingState.HEAT, room.toIconRoom().mode());
+        assertTrue(room.toIconRoom().temperature() > before + 1.0, STR."\{before} -> \{room.toIconRoom().temperature()}");
+        // the other room keeps around its setpoint
+        assertEquals(21.5, master.roomHandlerByNumber(1).orElseThrow().toIconRoom().temperature(), 0.5);
+    }
+
+    @Test
+    void should_push_reports_at_the_configured_rate() {
+        var sut = simulate(IconSimulator.Config.of(10).withReportsPerSecond(5000));
+
+        assertEquals(5000, sut.tick(SECOND));
+        assertEquals(2500, sut.tick(SECOND + SECOND / 2));
+        // a stall doesn't turn into a burst of more than a second worth of reports
+        assertEquals(5000, sut.tick(60 * SECOND));
+
+        sut.close();
+        assertEquals(0, sut.tick(61 * SECOND));
+    }
+}
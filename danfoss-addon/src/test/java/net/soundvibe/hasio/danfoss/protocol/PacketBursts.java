@@ -0,0 +1,87 @@
+package net.soundvibe.hasio.danfoss.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static net.soundvibe.hasio.danfoss.protocol.config.DanfossBindingConstants.ICON_MAX_ROOMS;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgClass.*;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.*;
+
+/**
+ * Merged incoming buffers shaped like the ones Icon master sends right after connecting.
+ */
+public final class PacketBursts {
+
+    private PacketBursts() {}
+
+    /**
+     * Initial dump for the whole house: globals followed by names, temperatures, setpoints and modes of every room.
+     */
+    public static byte[] initialDump() {
+        var out = new ByteArrayOutputStream(8192);
+        writeString(out, 0, HOUSE_NAME, "Benchmark House", 33);
+        writeDecimal(out, 0, VACATION_SETPOINT, 15.0);
+        writeDecimal(out, 0, PAUSE_SETPOINT, 5.0);
+        writeShort(out, 0, GLOBAL_HARDWAREREVISION, 0x0102);
+        writeShort(out, 0, GLOBAL_SOFTWAREREVISION, 0x0203);
+        writeInt(out, 0, GLOBAL_SERIALNUMBER, 123456);
+        for (int room = 0; room < ICON_MAX_ROOMS; room++) {
+            int msgClass = ROOM_FIRST + room;
+            writeString(out, msgClass, ROOMNAME, "Room " + room, 33);
+            writeDecimal(out, msgClass, ROOM_ROOMTEMPERATURE, 20.0 + room * 0.1);
+            writeDecimal(out, msgClass, ROOM_FLOORTEMPERATURE, 24.0 + room * 0.1);
+            writeDecimal(out, msgClass, ROOM_SETPOINTMINIMUM, 5.0);
+            writeDecimal(out, msgClass, ROOM_SETPOINTMAXIMUM, 35.0);
+            writeDecimal(out, msgClass, ROOM_SETPOINTATHOME, 21.5);
+            writeDecimal(out, msgClass, ROOM_SETPOINTAWAY, 18.0);
+            writeDecimal(out, msgClass, ROOM_SETPOINTASLEEP, 19.0);
+            writeDecimal(out, msgClass, ROOM_FLOORTEMPERATUREMINIMUM, 18.0);
+            writeDecimal(out, msgClass, ROOM_FLOORTEMPERATUREMAXIMUM, 28.0);
+            writeByte(out, msgClass, ROOM_BATTERYINDICATIONPERCENT, room % 100);
+            writeByte(out, msgClass, ROOM_ROOMMODE, room % 3);
+            writeByte(out, msgClass, ROOM_ROOMCONTROL, 0);
+            writeByte(out, msgClass, ROOM_HEATINGCOOLINGSTATE, room % 2);
+        }
+        return out.toByteArray();
+    }
+
+    public static void writeHeader(ByteArrayOutputStream out, int msgClass, int msgCode, int payloadLength) {
+        out.write(msgClass);
+        out.write(msgCode & 0xFF);
+        out.write((msgCode >> 8) & 0xFF);
+        out.write(payloadLength);
+    }
+
+    public static void writeByte(ByteArrayOutputStream out, int msgClass, int msgCode, int value) {
+        writeHeader(out, msgClass, msgCode, 1);
+        out.write(value);
+    }
+
+    public static void writeShort(ByteArrayOutputStream out, int msgClass, int msgCode, int value) {
+        writeHeader(out, msgClass, msgCode, 2);
+        out.write(value & 0xFF);
+        out.write((value >> 8) & 0xFF);
+    }
+
+    public static void writeInt(ByteArrayOutputStream out, int msgClass, int msgCode, int value) {
+        writeHeader(out, msgClass, msgCode, 4);
+        for (int shift = 0; shift < 32; shift += 8) {
+            out.write((value >> shift) & 0xFF);
+        }
+    }
+
+    public static void writeDecimal(ByteArrayOutputStream out, int msgClass, int msgCode, double value) {
+        var fixed = (short) Math.round(value * 100);
+        writeHeader(out, msgClass, msgCode, 2);
+        out.write(fixed & 0xFF);
+        out.write((fixed >> 8) & 0xFF);
+    }
+
+    public static void writeString(ByteArrayOutputStream out, int msgClass, int msgCode, String value, int payloadLength) {
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeHeader(out, msgClass, msgCode, payloadLength);
+        out.write(bytes.length);
+        out.write(bytes, 0, bytes.length);
+        out.write(new byte[payloadLength - 1 - bytes.length], 0, payloadLength - 1 - bytes.length);
+    }
+}
@@ -0,0 +1,177 @@
+package net.soundvibe.hasio.danfoss.protocol;
+
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgClass.ROOM_FIRST;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.ROOM_ROOMTEMPERATURE;
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class PacketCaptureTest {
+
+    @TempDir
+    Path directory;
+
+    private static byte[] temperature(int room, double value) {
+        var out = new ByteArrayOutputStream();
+        PacketBursts.writeDecimal(out, ROOM_FIRST + room, ROOM_ROOMTEMPERATURE, value);
+        return out.toByteArray();
+    }
+
+    @Test
+    void should_read_records_back_with_their_timestamps() throws IOException {
+        var clock = new long[]{1_000_000};
+        var out = new ByteArrayOutputStream();
+        var sut = new PacketCapture(out, true, 1_700_000_000_000L, () -> clock[0]);
+        clock[0] += TimeUnit.MILLISECONDS.toNanos(15);
+        sut.received(new byte[]{9, 1, 2, 3, 9}, 1, 3);
+        clock[0] += 2_500;
+        sut.sent(new byte[]{4, 5});
+        sut.close();
+
+        try (var reader = new PacketCapture.Reader(new ByteArrayInputStream(out.toByteArray()))) {
+            assertTrue(reader.next());
+            assertEquals(PacketCapture.SESSION, reader.kind());
+            assertEquals(1_700_000_000_000L, reader.epochMillis());
+
+            assertTrue(reader.next());
+            assertEquals(PacketCapture.RECEIVED, reader.kind());
+            assertEquals(TimeUnit.MILLISECONDS.toNanos(15), reader.nanos());
+            assertArrayEquals(new byte[]{1, 2, 3}, Arrays.copyOf(reader.data(), reader.length()));
+
+            assertTrue(reader.next());
+            assertEquals(PacketCapture.SENT, reader.kind());
+            // micros are rounded down, without drifting
+            assertEquals(TimeUnit.MILLISECONDS.toNanos(15) + 2_000, reader.nanos());
+            assertArrayEquals(new byte[]{4, 5}, Arrays.copyOf(reader.data(), reader.length()));
+
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    void should_append_sessions_and_stop_at_a_truncated_record() throws IOException {
+        var file = directory.resolve("capture").resolve("default.dcap");
+        try (var capture = PacketCapture.open(file)) {
+            capture.received(temperature(0, 21.0), 0, 5);
+        }
+        try (var capture = PacketCapture.open(file)) {
+            var data = temperature(1, 22.0);
+            capture.received(data, 0, data.length);
+            capture.received(data, 0, data.length);
+        }
+        var bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 2));
+
+        int sessions = 0;
+        int received = 0;
+        try (var reader = PacketCapture.Reader.open(file)) {
+            while (reader.next()) {
+                switch (reader.kind()) {
+                    case PacketCapture.SESSION -> sessions++;
+                    case PacketCapture.RECEIVED -> received++;
+                    default -> fail(STR."unexpected kind \{reader.kind()}");
+                }
+            }
+        }
+        assertEquals(2, sessions);
+        assertEquals(2, received);
+    }
+
+    @Test
+    void should_truncate_a_torn_record_before_appending() throws IOException {
+        var file = directory.resolve("default.dcap");
+        var data = temperature(0, 21.0);
+        try (var capture = PacketCapture.open(file)) {
+            capture.received(data, 0, data.length);
+            capture.received(data, 0, data.length);
+        }
+        var bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 2));
+
+        try (var capture = PacketCapture.open(file)) {
+            capture.received(data, 0, data.length);
+        }
+
+        var kinds = new ArrayList<Byte>();
+        try (var reader = PacketCapture.Reader.open(file)) {
+            while (reader.next()) {
+                kinds.add(reader.kind());
+                if (reader.kind() == PacketCapture.RECEIVED) {
+                    assertArrayEquals(data, Arrays.copyOf(reader.data(), reader.length()));
+                }
+            }
+            assertEquals(Files.size(file), reader.position());
+        }
+        // the torn record is gone, the new session follows the last complete record
+        assertEquals(List.of(PacketCapture.SESSION, PacketCapture.RECEIVED, PacketCapture.SESSION, PacketCapture.RECEIVED), kinds);
+    }
+
+    @Test
+    void should_refuse_to_append_to_other_files() throws IOException {
+        var file = directory.resolve("options.json");
+        Files.writeString(file, "{}");
+
+        assertThrows(IOException.class, () -> PacketCapture.open(file));
+    }
+
+    @Test
+    void should_replay_a_capture_into_the_house_state() throws IOException, InterruptedException {
+        var file = directory.resolve("default.dcap");
+        try (var capture = PacketCapture.open(file)) {
+            var burst = PacketBursts.initialDump();
+            capture.received(burst, 0, burst.length);
+            var update = temperature(3, 24.5);
+            capture.received(update, 0, update.length);
+            capture.sent(temperature(3, 0.0));
+        }
+        var master = new IconMasterHandler(null, null);
+        var connects = new int[1];
+        master.addStateListener(new IconStateListener() {
+            @Override
+            public void onConnected() {
+                connects[0]++;
+            }
+        });
+
+        var result = new PacketReplay(PacketReplay.MAX_SPEED).replay(file, master);
+
+        assertEquals(1, result.sessions());
+        assertEquals(2, result.buffers());
+        assertEquals(1, connects[0]);
+        assertEquals(24.5, master.roomHandlerByNumber(3).orElseThrow().toIconRoom().temperature(), 0.001);
+        assertEquals("123456", master.iconMaster().serialNumber());
+    }
+
+    @Test
+    void should_replay_at_the_captured_pace_divided_by_the_speed() throws IOException, InterruptedException {
+        var clock = new long[]{0};
+        var out = new ByteArrayOutputStream();
+        try (var capture = new PacketCapture(out, true, 0, () -> clock[0])) {
+            var update = temperature(0, 21.0);
+            capture.received(update, 0, update.length);
+            clock[0] += TimeUnit.SECONDS.toNanos(2);
+            capture.received(update, 0, update.length);
+        }
+
+        var result = new PacketReplay(100).replay(
+                new PacketCapture.Reader(new ByteArrayInputStream(out.toByteArray())), new IconMasterHandler(null, null));
+
+        assertEquals(2, result.buffers());
+        assertTrue(result.elapsedNanos() >= TimeUnit.MILLISECONDS.toNanos(20), STR."elapsed \{result.elapsedNanos()}");
+        assertThrows(IllegalArgumentException.class, () -> new PacketReplay(0));
+    }
+}
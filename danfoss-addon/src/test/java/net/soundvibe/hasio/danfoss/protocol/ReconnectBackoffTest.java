@@ -0,0 +1,57 @@
+package net.soundvibe.hasio.danfoss.protocol;
+
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class ReconnectBackoffTest {
+
+    @Test
+    void should_double_the_delay_up_to_the_cap() {
+        // always the largest jitter
+        var sut = new ReconnectBackoff(1_000, 10_000, bound -> bound - 1);
+
+        List<Long> delays = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            delays.add(sut.nextDelayMillis());
+        }
+
+        assertEquals(List.of(1_000L, 2_000L, 4_000L, 8_000L, 10_000L, 10_000L), delays);
+    }
+
+    @Test
+    void should_keep_the_jitter_within_the_upper_half_of_the_step() {
+        var sut = new ReconnectBackoff(1_000, 10_000, _ -> 0);
+
+        assertEquals(500, sut.nextDelayMillis());
+        assertEquals(1_000, sut.nextDelayMillis());
+        assertEquals(2_000, sut.nextDelayMillis());
+    }
+
+    @Test
+    void should_start_over_once_connected() {
+        var sut = new ReconnectBackoff(1_000, 10_000, bound -> bound - 1);
+        sut.nextDelayMillis();
+        sut.nextDelayMillis();
+
+        sut.reset();
+
+        assertEquals(0, sut.attempts());
+        assertEquals(1_000, sut.nextDelayMillis());
+    }
+
+    @Test
+    void should_not_overflow_after_many_attempts() {
+        var sut = new ReconnectBackoff(1_000, ReconnectBackoff.MAX_DELAY_MILLIS, bound -> bound - 1);
+        for (int i = 0; i < 200; i++) {
+            long delay = sut.nextDelayMillis();
+            assertTrue(delay > 0 && delay <= ReconnectBackoff.MAX_DELAY_MILLIS, String.valueOf(delay));
+        }
+    }
+}
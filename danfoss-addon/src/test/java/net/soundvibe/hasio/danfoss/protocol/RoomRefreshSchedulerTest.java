@@ -0,0 +1,187 @@
+package net.soundvibe.hasio.danfoss.protocol;
+
+import net.soundvibe.hasio.danfoss.protocol.config.Dominion;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static net.soundvibe.hasio.danfoss.protocol.RoomRefreshScheduler.*;
+import static net.soundvibe.hasio.danfoss.protocol.config.DanfossBindingConstants.ICON_MAX_ROOMS;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgClass.ROOM_FIRST;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class RoomRefreshSchedulerTest {
+
+    private record Request(int roomNumber, int msgCode) {}
+
+    private final IconRoomHandler[] rooms = new IconRoomHandler[ICON_MAX_ROOMS];
+    private final List<List<Request>> sends = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        for (int n = 0; n < ICON_MAX_ROOMS; n++) {
+            rooms[n] = new IconRoomHandler(null, n, new IconStateListener() {});
+        }
+    }
+
+    private RoomRefreshScheduler scheduler(int packetsPerSecond) {
+        return new RoomRefreshScheduler(rooms, (packets, count) -> {
+            var requests = new ArrayList<Request>();
+            for (int i = 0; i < count; i++) {
+                requests.add(new Request(packets[i].getMsgClass() - ROOM_FIRST, packets[i].getMsgCode()));
+            }
+            sends.add(requests);
+            return true;
+        }, packetsPerSecond);
+    }
+
+    private void receive(RoomRefreshScheduler sut, int roomNumber, int msgCode, double temperature, String name) {
+        var out = new ByteArrayOutputStream();
+        if (name != null) {
+            PacketBursts.writeString(out, ROOM_FIRST + roomNumber, msgCode, name, 33);
+        } else {
+            PacketBursts.writeDecimal(out, ROOM_FIRST + roomNumber, msgCode, temperature);
+        }
+        var data = out.toByteArray();
+        var cursor = new Dominion.PacketCursor().reset(data, 0, data.length);
+        cursor.next();
+        var before = rooms[roomNumber].toIconRoom();
+        rooms[roomNumber].handlePacket(cursor.getMsgClass(), cursor.getMsgCode(), cursor);
+        sut.onRoomChanged(before, rooms[roomNumber].toIconRoom());
+    }
+
+    @Test
+    void should_send_due_requests_of_a_tick_together() {
+        var sut = scheduler(ICON_MAX_ROOMS);
+
+        assertEquals(0, sut.tick(0));
+        assertEquals(ICON_MAX_ROOMS, sut.tick(FAST_INTERVAL_MILLIS));
+
+        assertEquals(1, sends.size());
+        assertEquals(ICON_MAX_ROOMS, sends.getFirst().size());
+        // rooms without a name are only asked for it
+        assertTrue(sends.getFirst().stream().allMatch(request -> request.msgCode() == ROOMNAME));
+        assertEquals(UNNAMED_INTERVAL_MILLIS, sut.intervalMillis(0));
+    }
+
+    @Test
+    void should_stay_within_budget() {
+        var sut = scheduler(2);
+        int sent = 0;
+        for (long now = 0; now <= 60_000; now += TICK_MILLIS) {
+            int count = sut.tick(now);
+            assertTrue(count <= 2, STR."sent \{count} at \{now}");
+            sent += count;
+        }
+        // every room was due once within the fast interval, the rest had to wait
+        assertEquals(ICON_MAX_ROOMS, sent);
+        assertTrue(sends.size() > ICON_MAX_ROOMS / 2);
+    }
+
+    @Test
+    void should_back_off_stable_rooms_and_speed_up_moving_ones() {
+        var sut = scheduler(ICON_MAX_ROOMS);
+        receive(sut, 0, ROOMNAME, 0, "Kitchen");
+        receive(sut, 0, ROOM_ROOMTEMPERATURE, 21.0, null);
+
+        long now = 0;
+        sut.tick(now);
+        List<Long> intervals = new ArrayList<>();
+        while (now < 1_000_000) {
+            now += TICK_MILLIS;
+            if (sut.tick(now) > 0 && sends.getLast().contains(new Request(0, ROOM_ROOMTEMPERATURE))) {
+                intervals.add(sut.intervalMillis(0));
+            }
+        }
+        assertEquals(List.of(60_000L, 120_000L, 240_000L, 300_000L, 300_000L), intervals.subList(0, 5));
+
+        receive(sut, 0, ROOM_ROOMTEMPERATURE, 21.5, null);
+        sut.tick(now += TICK_MILLIS);
+        assertEquals(FAST_INTERVAL_MILLIS, sut.intervalMillis(0));
+
+        sends.clear();
+        for (long until = now + FAST_INTERVAL_MILLIS; now < until; ) {
+            sut.tick(now += TICK_MILLIS);
+        }
+        assertTrue(sends.stream().anyMatch(requests -> requests.contains(new Request(0, ROOM_ROOMTEMPERATURE))));
+    }
+
+    @Test
+    void should_poll_commanded_rooms_soon_and_often() {
+        var sut = scheduler(ICON_MAX_ROOMS);
+        receive(sut, 3, ROOMNAME, 0, "Bedroom");
+        long now = 0;
+        for (; now < 1_000_000; now += TICK_MILLIS) {
+            sut.tick(now);
+        }
+        assertEquals(SLOW_INTERVAL_MILLIS, sut.intervalMillis(3));
+
+        sends.clear();
+        sut.onRoomCommanded(3);
+        long commandedAt = now;
+        for (; now <= commandedAt + COMMANDED_WINDOW_MILLIS; now += TICK_MILLIS) {
+            sut.tick(now);
+        }
+
+        var polls = sends.stream().filter(requests -> requests.contains(new Request(3, ROOM_ROOMTEMPERATURE))).count();
+        // after the echo delay and then every fast interval: at 5, 35, 65 and 95 seconds
+        assertEquals(4, polls);
+        assertEquals(FAST_INTERVAL_MILLIS, sut.intervalMillis(3));
+    }
+
+    @Test
+    void should_resync_only_stale_fields_of_named_rooms_after_a_reconnect() {
+        var sut = scheduler(ICON_MAX_ROOMS);
+        receive(sut, 2, ROOMNAME, 0, "Office");
+        long now = 0;
+        sut.tick(now);
+        // reported well before the connection dropped
+        receive(sut, 2, ROOM_SETPOINTAWAY, 17.0, null);
+        sut.tick(now += TICK_MILLIS);
+
+        now += STALE_AFTER_MILLIS;
+        // reported right after the reconnect
+        receive(sut, 2, ROOM_SETPOINTATHOME, 22.0, null);
+        sut.onConnected();
+        sends.clear();
+        for (long until = now + 2 * RESYNC_SETTLE_MILLIS; now < until; ) {
+            sut.tick(now += TICK_MILLIS);
+        }
+        var resynced = sends.stream().flatMap(List::stream)
+                .filter(request -> request.roomNumber() == 2 && request.msgCode() != ROOM_ROOMTEMPERATURE)
+                .toList();
+        assertTrue(resynced.contains(new Request(2, ROOM_SETPOINTAWAY)), resynced.toString());
+        assertFalse(resynced.contains(new Request(2, ROOM_SETPOINTATHOME)), resynced.toString());
+        // the rest of the rooms are not named, so they might not exist
+        assertTrue(sends.stream().flatMap(List::stream)
+                .allMatch(request -> request.roomNumber() == 2 || request.msgCode() == ROOMNAME));
+        assertEquals(0, sut.pendingResyncs());
+    }
+
+    @Test
+    void should_spread_the_resync_over_the_budget() {
+        var sut = scheduler(4);
+        for (int n = 0; n < ICON_MAX_ROOMS; n++) {
+            receive(sut, n, ROOMNAME, 0, STR."Room \{n}");
+        }
+        long now = 0;
+        sut.onConnected();
+        sut.tick(now);
+        sut.tick(now += RESYNC_SETTLE_MILLIS);
+        assertTrue(sut.pendingResyncs() > 0);
+
+        int ticks = 0;
+        while (sut.pendingResyncs() > 0) {
+            assertTrue(sut.tick(now += TICK_MILLIS) <= 4);
+            ticks++;
+        }
+        assertTrue(ticks > 100, STR."resynced in \{ticks} ticks");
+    }
+}
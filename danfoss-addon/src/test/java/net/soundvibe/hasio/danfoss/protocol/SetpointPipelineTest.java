@@ -0,0 +1,236 @@
+package net.soundvibe.hasio.danfoss.protocol;
+
+import net.soundvibe.hasio.danfoss.protocol.config.Dominion;
+import net.soundvibe.hasio.metrics.Metrics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static net.soundvibe.hasio.danfoss.protocol.SetpointPipeline.CONFIRM_TIMEOUT_MILLIS;
+import static net.soundvibe.hasio.danfoss.protocol.SetpointPipeline.MAX_ATTEMPTS;
+import static net.soundvibe.hasio.danfoss.protocol.config.DanfossBindingConstants.ICON_MAX_ROOMS;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgClass.ROOM_FIRST;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class SetpointPipelineTest {
+
+    // requests for the setpoint have no value
+    private record Write(int roomNumber, int msgCode, double value) {}
+
+    private static final long DEBOUNCE_MILLIS = 500;
+    private static final long T0 = 1_000_000;
+
+    private final IconRoomHandler[] rooms = new IconRoomHandler[ICON_MAX_ROOMS];
+    private final List<List<Write>> sends = new ArrayList<>();
+    private final AtomicLong clock = new AtomicLong(T0);
+    private boolean connected = true;
+    private SetpointPipeline sut;
+
+    @BeforeEach
+    void setUp() {
+        var listener = new IconStateListener() {
+            @Override
+            public void onSetpointReported(int roomNumber, Setpoint setpoint, double value) {
+                sut.onSetpointReported(roomNumber, setpoint, value);
+            }
+        };
+        for (int n = 0; n < ICON_MAX_ROOMS; n++) {
+            rooms[n] = new IconRoomHandler(null, n, listener);
+        }
+        sut = new SetpointPipeline(rooms, (packets, count) -> {
+            if (!connected) {
+                return false;
+            }
+            var writes = new ArrayList<Write>();
+            for (int i = 0; i < count; i += 2) {
+                assertEquals(packets[i].getMsgCode(), packets[i + 1].getMsgCode());
+                writes.add(new Write(packets[i].getMsgClass() - ROOM_FIRST, packets[i].getMsgCode(), packets[i].getDecimal()));
+            }
+            sends.add(writes);
+            return true;
+        }, DEBOUNCE_MILLIS, clock::get);
+    }
+
+    /**
+     * Runs scheduled tasks by the test clock instead of real time.
+     */
+    private final class ManualScheduler extends ScheduledThreadPoolExecutor {
+
+        private record Task(long dueAt, Runnable command, CompletableFuture<Void> future) {}
+
+        private final List<Task> tasks = new ArrayList<>();
+
+        ManualScheduler() {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            var task = new Task(clock.get() + unit.toMillis(delay), command, new CompletableFuture<>());
+            tasks.add(task);
+            var future = task.future();
+            return new ScheduledFuture<Object>() {
+                public long getDelay(TimeUnit u) { return u.convert(task.dueAt() - clock.get(), TimeUnit.MILLISECONDS); }
+                public int compareTo(Delayed o) { return Long.compare(getDelay(TimeUnit.MILLISECONDS), o.getDelay(TimeUnit.MILLISECONDS)); }
+                public boolean cancel(boolean mayInterrupt) { return future.cancel(mayInterrupt); }
+                public boolean isCancelled() { return future.isCancelled(); }
+                public boolean isDone() { return future.isDone(); }
+                public Object get() { return null; }
+                public Object get(long timeout, TimeUnit u) { return null; }
+            };
+        }
+
+        void runUntil(long offsetMillis) {
+            clock.set(T0 + offsetMillis);
+            for (int i = 0; i < tasks.size(); i++) {
+                var task = tasks.get(i);
+                if (task.dueAt() <= clock.get() && task.future().complete(null)) {
+                    task.command().run();
+                }
+            }
+        }
+    }
+
+    private int flushAt(long offsetMillis) {
+        clock.set(T0 + offsetMillis);
+        return sut.flush(clock.get(), false);
+    }
+
+    private void echo(int roomNumber, int msgCode, double value) {
+        var out = new ByteArrayOutputStream();
+        PacketBursts.writeDecimal(out, ROOM_FIRST + roomNumber, msgCode, value);
+        var data = out.toByteArray();
+        var cursor = new Dominion.PacketCursor().reset(data, 0, data.length);
+        cursor.next();
+        rooms[roomNumber].handlePacket(cursor.getMsgClass(), cursor.getMsgCode(), cursor);
+    }
+
+    @Test
+    void should_write_only_the_last_value_of_a_drag() {
+        long coalesced = Metrics.SETPOINTS_COALESCED.get();
+        var writes = new ArrayList<SetpointWrite>();
+        for (int i = 0; i < 10; i++) {
+            clock.set(T0 + i * 100L);
+            writes.add(sut.submit(3, Setpoint.HOME, 20.0 + i * 0.25));
+        }
+
+        // still dragging
+        assertEquals(0, flushAt(1_000));
+        assertEquals(1, flushAt(1_400));
+
+        assertEquals(List.of(List.of(new Write(3, ROOM_SETPOINTATHOME, 22.25))), sends);
+        assertEquals(9, Metrics.SETPOINTS_COALESCED.get() - coalesced);
+        assertEquals(SetpointWrite.Outcome.SUPERSEDED, writes.getFirst().outcome());
+        assertNull(writes.getLast().outcome());
+    }
+
+    @Test
+    void should_write_due_setpoints_together() {
+        sut.submit(1, Setpoint.HOME, 21.0);
+        sut.submit(1, Setpoint.SLEEP, 18.0);
+        sut.submit(2, Setpoint.AWAY, 16.5);
+        clock.addAndGet(300);
+        sut.submit(4, Setpoint.HOME, 22.0);
+
+        assertEquals(3, flushAt(DEBOUNCE_MILLIS));
+        assertEquals(1, flushAt(DEBOUNCE_MILLIS + 300));
+
+        assertEquals(List.of(
+                List.of(new Write(1, ROOM_SETPOINTATHOME, 21.0), new Write(2, ROOM_SETPOINTAWAY, 16.5),
+                        new Write(1, ROOM_SETPOINTASLEEP, 18.0)),
+                List.of(new Write(4, ROOM_SETPOINTATHOME, 22.0))), sends);
+    }
+
+    @Test
+    void should_confirm_writes_by_their_echo() {
+        var write = sut.submit(3, Setpoint.HOME, 22.5);
+        flushAt(DEBOUNCE_MILLIS);
+        // not applied optimistically
+        assertEquals(0.0, rooms[3].toIconRoom().temperatureHome());
+
+        echo(3, ROOM_SETPOINTATHOME, 21.0);
+        assertNull(write.outcome());
+        echo(3, ROOM_SETPOINTATHOME, 22.5);
+
+        assertEquals(SetpointWrite.Outcome.CONFIRMED, write.outcome());
+        assertEquals(22.5, rooms[3].toIconRoom().temperatureHome());
+        assertEquals(0, flushAt(DEBOUNCE_MILLIS + CONFIRM_TIMEOUT_MILLIS));
+    }
+
+    @Test
+    void should_retry_unconfirmed_writes_and_give_up() {
+        var write = sut.submit(5, Setpoint.AWAY, 15.0);
+        long now = DEBOUNCE_MILLIS;
+        assertEquals(1, flushAt(now));
+        for (int attempt = 2; attempt <= MAX_ATTEMPTS; attempt++) {
+            assertEquals(0, flushAt(now + CONFIRM_TIMEOUT_MILLIS - 1));
+            now += CONFIRM_TIMEOUT_MILLIS;
+            assertEquals(1, flushAt(now));
+        }
+        assertEquals(MAX_ATTEMPTS, sends.size());
+        assertNull(write.outcome());
+
+        assertEquals(0, flushAt(now + CONFIRM_TIMEOUT_MILLIS));
+        assertEquals(SetpointWrite.Outcome.FAILED, write.outcome());
+    }
+
+    @Test
+    void should_hold_writes_while_disconnected() {
+        connected = false;
+        var write = sut.submit(5, Setpoint.SLEEP, 17.0);
+        for (int i = 1; i <= 2 * MAX_ATTEMPTS; i++) {
+            assertEquals(0, flushAt(i * CONFIRM_TIMEOUT_MILLIS));
+        }
+        assertTrue(sends.isEmpty());
+
+        connected = true;
+        assertEquals(1, flushAt(100 * CONFIRM_TIMEOUT_MILLIS));
+        echo(5, ROOM_SETPOINTASLEEP, 17.0);
+
+        assertEquals(List.of(List.of(new Write(5, ROOM_SETPOINTASLEEP, 17.0))), sends);
+        assertEquals(SetpointWrite.Outcome.CONFIRMED, write.outcome());
+    }
+
+    @Test
+    void should_not_wait_for_a_pending_retry_to_write_a_new_value() {
+        var scheduler = new ManualScheduler();
+        sut.start(scheduler);
+        sut.submit(1, Setpoint.HOME, 21.0);
+        scheduler.runUntil(DEBOUNCE_MILLIS);
+        assertEquals(1, sends.size());
+
+        // the retry of the unconfirmed write is scheduled CONFIRM_TIMEOUT_MILLIS out
+        clock.set(T0 + 1_000);
+        sut.submit(2, Setpoint.AWAY, 16.5);
+        scheduler.runUntil(1_000 + DEBOUNCE_MILLIS);
+
+        assertEquals(List.of(List.of(new Write(1, ROOM_SETPOINTATHOME, 21.0)), List.of(new Write(2, ROOM_SETPOINTAWAY, 16.5))),
+                sends);
+        // and the retry still happens
+        scheduler.runUntil(DEBOUNCE_MILLIS + CONFIRM_TIMEOUT_MILLIS);
+        assertEquals(3, sends.size());
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void should_write_pending_setpoints_on_close() {
+        sut.submit(5, Setpoint.AWAY, 15.0);
+
+        sut.close();
+
+        assertEquals(List.of(List.of(new Write(5, ROOM_SETPOINTAWAY, 15.0))), sends);
+    }
+}
@@ -0,0 +1,97 @@
+package net.soundvibe.hasio.ha;
+
+import net.soundvibe.hasio.ha.model.State;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static net.soundvibe.hasio.danfoss.protocol.config.DanfossBindingConstants.ICON_MAX_ROOMS;
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class HomeAssistantClientTest {
+
+    private static final long ROUND_TRIP_MILLIS = 300;
+
+    private final MockWebServer server = new MockWebServer();
+    private HomeAssistantClient sut;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server.setDispatcher(new Dispatcher() {
+            @NotNull
+            @Override
+            public MockResponse dispatch(@NotNull RecordedRequest request) {
+                if (request.getPath().endsWith("/failing")) {
+                    return new MockResponse().setResponseCode(500);
+                }
+                return new MockResponse().setResponseCode(200)
+                        .setHeadersDelay(ROUND_TRIP_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        });
+        server.start();
+        sut = new HomeAssistantClient("token", server.url("/api"), HomeAssistantClient.newHttpClient());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    void should_upsert_all_rooms_concurrently() throws InterruptedException {
+        var states = new LinkedHashMap<String, State>();
+        for (int i = 0; i < ICON_MAX_ROOMS; i++) {
+            states.put(STR."sensor.danfoss_\{i}_temperature", new State(String.valueOf(20.0 + i), Map.of("room_number", String.valueOf(i))));
+        }
+
+        var startedAt = System.nanoTime();
+        var results = sut.upsertStates(states).join();
+        var elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+
+        assertEquals(ICON_MAX_ROOMS, results.size());
+        assertTrue(results.values().stream().allMatch(Boolean::booleanValue));
+        // sequential requests would take ICON_MAX_ROOMS round trips
+        assertTrue(elapsedMillis < ROUND_TRIP_MILLIS * 5, STR."took \{elapsedMillis} ms");
+
+        var request = server.takeRequest();
+        assertEquals("POST", request.getMethod());
+        assertTrue(request.getPath().startsWith("/api/states/sensor.danfoss_"));
+        assertEquals("Bearer token", request.getHeader("Authorization"));
+        assertTrue(request.getHeader("Content-Type").startsWith("application/json"));
+    }
+
+    @Test
+    void should_report_result_per_sensor() {
+        var states = new LinkedHashMap<String, State>();
+        states.put("sensor.ok", new State("1.0", Map.of()));
+        states.put("failing", new State("2.0", Map.of()));
+
+        var results = sut.upsertStates(states).join();
+
+        assertEquals(Map.of("sensor.ok", true, "failing", false), results);
+    }
+
+    @Test
+    void should_skip_requests_without_a_token() {
+        var noToken = new HomeAssistantClient("", server.url("/api"), HomeAssistantClient.newHttpClient());
+
+        var results = noToken.upsertStates(Map.of("sensor.ok", new State("1.0", Map.of()))).join();
+
+        assertEquals(Map.of("sensor.ok", false), results);
+        assertFalse(noToken.upsertState(new State("1.0", Map.of()), "sensor.ok"));
+        assertEquals(0, server.getRequestCount());
+    }
+}
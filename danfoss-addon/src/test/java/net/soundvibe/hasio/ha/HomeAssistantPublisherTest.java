@@ -0,0 +1,145 @@
+package net.soundvibe.hasio.ha;
+
+import net.soundvibe.hasio.danfoss.data.IconRoom;
+import net.soundvibe.hasio.danfoss.protocol.IconMasterHandler;
+import net.soundvibe.hasio.danfoss.protocol.PacketBursts;
+import net.soundvibe.hasio.danfoss.protocol.config.Dominion;
+import net.soundvibe.hasio.model.Options;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static net.soundvibe.hasio.danfoss.protocol.config.DanfossBindingConstants.ICON_MAX_ROOMS;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgClass.ROOM_FIRST;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.ROOM_ROOMTEMPERATURE;
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class HomeAssistantPublisherTest {
+
+    private static final int MAX_SILENCE_SECONDS = 60;
+
+    private final IconMasterHandler master = new IconMasterHandler(null, null);
+    private final AtomicLong clock = new AtomicLong(1_700_000_000_000L);
+    // sensor names of every upsert, in the order they were sent
+    private final BlockingQueue<Set<String>> upserts = new LinkedBlockingQueue<>();
+    private final Set<String> failing = ConcurrentHashMap.newKeySet();
+    private HomeAssistantPublisher sut;
+
+    @BeforeEach
+    void setUp() throws InterruptedException {
+        var burst = PacketBursts.initialDump();
+        master.handleBatch(new Dominion.PacketCursor().reset(burst, 0, burst.length));
+        HomeAssistantStateSink sink = stateJsons -> {
+            var results = new HashMap<String, Boolean>();
+            stateJsons.keySet().forEach(sensorName -> results.put(sensorName, !failing.contains(sensorName)));
+            // the outcome is decided before the test sees the upsert
+            upserts.add(Set.copyOf(stateJsons.keySet()));
+            return CompletableFuture.completedFuture(results);
+        };
+        var options = new Options(1, MAX_SILENCE_SECONDS, Options.HA_SINK_REST, "sensor.danfoss_%d_temperature", 9199,
+                2, 16384, 500, 30, false, false, "core-mosquitto", 1883, 60, "", "", "info");
+        sut = new HomeAssistantPublisher(master, HouseNamespace.DEFAULT, sink, options, clock::get);
+        master.addStateListener(sut);
+        sut.start().tick();
+
+        // every sensor is sent once at first
+        assertEquals(ICON_MAX_ROOMS + 1, nextUpsert().size());
+    }
+
+    @AfterEach
+    void tearDown() {
+        sut.close();
+    }
+
+    private Set<String> nextUpsert() throws InterruptedException {
+        var sensorNames = upserts.poll(5, TimeUnit.SECONDS);
+        assertNotNull(sensorNames, "nothing was upserted");
+        return sensorNames;
+    }
+
+    private void changeTemperature(int room, double temperature) {
+        var out = new ByteArrayOutputStream();
+        PacketBursts.writeDecimal(out, ROOM_FIRST + room, ROOM_ROOMTEMPERATURE, temperature);
+        var data = out.toByteArray();
+        master.handleBatch(new Dominion.PacketCursor().reset(data, 0, data.length));
+    }
+
+    private static String sensor(int room) {
+        return STR."sensor.danfoss_\{room}_temperature";
+    }
+
+    @Test
+    void should_skip_rooms_which_have_not_changed_since_they_were_sent() throws InterruptedException {
+        var unchanged = master.roomHandlerByNumber(5).orElseThrow().toIconRoom();
+        sut.onRoomChanged(unchanged, unchanged);
+        sut.onStateChanged(1L << 5, false);
+
+        changeTemperature(3, 25.0);
+
+        // an upsert of room 5 would have come first
+        assertEquals(Set.of(sensor(3)), nextUpsert());
+        assertTrue(upserts.isEmpty());
+    }
+
+    @Test
+    void should_send_rooms_which_have_not_reported_their_mode_or_preset() throws InterruptedException {
+        var before = master.roomHandlerByNumber(5).orElseThrow().toIconRoom();
+        var partial = new IconRoom(before.name(), 5, 21.0, null, 21.5, 18.0, 19.0, 35.0, 5.0, (short) 80, null, null);
+        sut.onRoomChanged(before, partial);
+        sut.onStateChanged(1L << 5, false);
+
+        assertEquals(Set.of(sensor(5)), nextUpsert());
+
+        // the tick went through, so the next change is sent too
+        changeTemperature(3, 25.0);
+        assertEquals(Set.of(sensor(3)), nextUpsert());
+    }
+
+    @Test
+    void should_retry_failed_upserts_until_they_succeed() throws InterruptedException {
+        failing.add(sensor(4));
+        changeTemperature(4, 25.0);
+        assertEquals(Set.of(sensor(4)), nextUpsert());
+
+        sut.tick();
+        assertEquals(Set.of(sensor(4)), nextUpsert());
+
+        failing.clear();
+        sut.tick();
+        assertEquals(Set.of(sensor(4)), nextUpsert());
+
+        // room 4 is not pending anymore
+        changeTemperature(6, 25.0);
+        assertEquals(Set.of(sensor(6)), nextUpsert());
+    }
+
+    @Test
+    void should_resend_every_sensor_after_max_silence() throws InterruptedException {
+        clock.addAndGet(TimeUnit.SECONDS.toMillis(MAX_SILENCE_SECONDS) - 1);
+        changeTemperature(2, 25.0);
+        assertEquals(Set.of(sensor(2)), nextUpsert());
+
+        clock.addAndGet(1);
+        sut.tick();
+
+        var heartbeat = nextUpsert();
+        // room 2 has been sent a moment ago
+        assertEquals(ICON_MAX_ROOMS, heartbeat.size());
+        assertFalse(heartbeat.contains(sensor(2)));
+        assertTrue(heartbeat.contains(HomeAssistantPublisher.MASTER_SENSOR_NAME));
+    }
+}
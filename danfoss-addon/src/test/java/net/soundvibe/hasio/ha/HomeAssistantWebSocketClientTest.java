@@ -0,0 +1,142 @@
+package net.soundvibe.hasio.ha;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class HomeAssistantWebSocketClientTest {
+
+    /**
+     * Bare minimum of the Home Assistant WebSocket API: authentication, subscribe_events and fire_event.
+     */
+    private static final class StubHomeAssistant extends WebSocketListener {
+        private final List<JsonObject> events = new CopyOnWriteArrayList<>();
+        private final List<WebSocket> sockets = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onOpen(@NotNull WebSocket ws, @NotNull Response response) {
+            sockets.add(ws);
+            ws.send("{\"type\":\"auth_required\",\"ha_version\":\"2024.1.0\"}");
+        }
+
+        @Override
+        public void onMessage(@NotNull WebSocket ws, @NotNull String text) {
+            var message = JsonParser.parseString(text).getAsJsonObject();
+            switch (message.get("type").getAsString()) {
+                case "auth" -> ws.send("token".equals(message.get("access_token").getAsString())
+                        ? "{\"type\":\"auth_ok\"}" : "{\"type\":\"auth_invalid\"}");
+                case "subscribe_events" -> ws.send(result(message, true));
+                case "fire_event" -> {
+                    var eventData = message.getAsJsonObject("event_data");
+                    events.add(eventData);
+                    ws.send(result(message, !"failing".equals(eventData.get("entity_id").getAsString())));
+                }
+                default -> ws.send(result(message, false));
+            }
+        }
+
+        @Override
+        public void onClosing(@NotNull WebSocket ws, int code, @NotNull String reason) {
+            ws.close(code, null);
+        }
+
+        private static String result(JsonObject message, boolean success) {
+            return STR."{\"id\":\{message.get("id").getAsLong()},\"type\":\"result\",\"success\":\{success},\"result\":null}";
+        }
+    }
+
+    private final MockWebServer server = new MockWebServer();
+    private final StubHomeAssistant stub = new StubHomeAssistant();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Semaphore ready = new Semaphore(0);
+    private HomeAssistantWebSocketClient sut;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server.setDispatcher(new Dispatcher() {
+            @NotNull
+            @Override
+            public MockResponse dispatch(@NotNull RecordedRequest request) {
+                return new MockResponse().withWebSocketUpgrade(stub);
+            }
+        });
+        server.start();
+        var url = server.url("/api/websocket").toString().replace("http:", "ws:");
+        sut = new HomeAssistantWebSocketClient("token", url, HomeAssistantClient.newHttpClient(), scheduler, 10);
+        sut.onReady(ready::release);
+        sut.connect();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        sut.close();
+        scheduler.shutdownNow();
+        server.shutdown();
+    }
+
+    private static byte[] state(String value) {
+        return STR."{\"state\":\"\{value}\",\"attributes\":{\"room_number\":\"1\"}}".getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void should_fire_states_as_events() throws InterruptedException {
+        assertTrue(ready.tryAcquire(5, TimeUnit.SECONDS));
+
+        var states = new LinkedHashMap<String, byte[]>();
+        states.put("sensor.danfoss_1_temperature", state("21.5"));
+        states.put("failing", state("22.0"));
+        var results = sut.upsertSerializedStates(states).join();
+
+        assertEquals(Map.of("sensor.danfoss_1_temperature", true, "failing", false), results);
+        var event = stub.events.getFirst();
+        assertEquals("sensor.danfoss_1_temperature", event.get("entity_id").getAsString());
+        assertEquals("21.5", event.get("state").getAsString());
+        assertEquals("1", event.getAsJsonObject("attributes").get("room_number").getAsString());
+    }
+
+    @Test
+    void should_reconnect_and_notify_listeners_again() throws InterruptedException {
+        assertTrue(ready.tryAcquire(5, TimeUnit.SECONDS));
+
+        stub.sockets.getFirst().close(1001, "restarting");
+        assertTrue(ready.tryAcquire(5, TimeUnit.SECONDS));
+        assertEquals(2, stub.sockets.size());
+
+        var results = sut.upsertSerializedStates(Map.of("sensor.danfoss_1_temperature", state("21.5"))).join();
+        assertEquals(Map.of("sensor.danfoss_1_temperature", true), results);
+    }
+
+    @Test
+    void should_notify_listeners_when_home_assistant_restarts() throws InterruptedException {
+        assertTrue(ready.tryAcquire(5, TimeUnit.SECONDS));
+
+        stub.sockets.getFirst().send("{\"id\":1,\"type\":\"event\",\"event\":{\"event_type\":\"homeassistant_started\",\"data\":{}}}");
+        assertTrue(ready.tryAcquire(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,69 @@
+package net.soundvibe.hasio.ha;
+
+import net.soundvibe.hasio.danfoss.data.HeatingState;
+import net.soundvibe.hasio.danfoss.data.IconMaster;
+import net.soundvibe.hasio.danfoss.data.IconRoom;
+import net.soundvibe.hasio.danfoss.data.RoomMode;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class HouseNamespaceTest {
+
+    @Test
+    void should_keep_names_of_the_default_house() {
+        var sut = HouseNamespace.DEFAULT;
+
+        assertEquals(MQTTPublisher.STATE_TOPIC_FMT, sut.topicFmt(MQTTPublisher.STATE_TOPIC_FMT));
+        assertEquals("danfoss_icon_thermostat_room_3", sut.thermostatID(3));
+        assertEquals("sensor.danfoss_3_temperature", sut.entityId("sensor.danfoss_3_temperature"));
+        assertEquals("", sut.suffix());
+    }
+
+    @Test
+    void should_namespace_names_of_other_houses() {
+        var sut = new HouseNamespace("flat_2");
+
+        assertEquals("danfoss/icon/flat_2/%d/state", sut.topicFmt(MQTTPublisher.STATE_TOPIC_FMT));
+        assertEquals("danfoss/icon/flat_2/%d/set", sut.topicFmt(MQTTPublisher.SET_TOPIC_FMT));
+        assertEquals("danfoss_icon_flat_2_thermostat_room_3", sut.thermostatID(3));
+        assertEquals("sensor.flat_2_danfoss_3_temperature", sut.entityId("sensor.danfoss_3_temperature"));
+        assertEquals("-flat_2", sut.suffix());
+    }
+
+    @Test
+    void should_reject_house_ids_which_are_not_valid_in_entity_ids() {
+        assertThrows(IllegalArgumentException.class, () -> new HouseNamespace("Flat 2"));
+        assertThrows(IllegalArgumentException.class, () -> new HouseNamespace("flat/2"));
+        assertThrows(IllegalArgumentException.class, () -> new HouseNamespace(null));
+    }
+
+    @Test
+    void should_reject_house_ids_which_collide_with_device_topics() {
+        // room 3 of the house would share danfoss/icon/rail/3/state with rail 3 of the default house
+        assertThrows(IllegalArgumentException.class, () -> new HouseNamespace("rail"));
+        assertThrows(IllegalArgumentException.class, () -> new HouseNamespace("output"));
+        assertThrows(IllegalArgumentException.class, () -> new HouseNamespace("repeater"));
+        assertEquals("danfoss/icon/rails/%s/%d/state", new HouseNamespace("rails").topicFmt(MQTTPublisher.DEVICE_STATE_TOPIC_FMT));
+    }
+
+    @Test
+    void should_discover_climate_entities_with_namespaced_topics() {
+        var namespace = new HouseNamespace("flat_2");
+        var sut = new MQTTDiscoveryCache(namespace, namespace.topicFmt(MQTTPublisher.STATE_TOPIC_FMT),
+                namespace.topicFmt(MQTTPublisher.SET_TOPIC_FMT));
+        var room = new IconRoom("Kitchen", 4, 21.0, null, 23.0, 21.0, 19.0, 30.0, 15.0, (short) 99, HeatingState.OFF, RoomMode.HOME);
+        var master = new IconMaster("Flat", 15.0, 5.0, "1.2", "2.3", "123456", 1, 1, null);
+
+        var config = new String(sut.update(room, master), StandardCharsets.UTF_8);
+
+        assertTrue(config.contains("danfoss_icon_flat_2_thermostat_room_4"), config);
+        assertTrue(config.contains("danfoss/icon/flat_2/4/state"), config);
+        assertTrue(config.contains("danfoss/icon/flat_2/4/set"), config);
+    }
+}
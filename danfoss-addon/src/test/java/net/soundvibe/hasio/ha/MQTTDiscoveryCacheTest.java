@@ -0,0 +1,55 @@
+package net.soundvibe.hasio.ha;
+
+import net.soundvibe.hasio.danfoss.data.HeatingState;
+import net.soundvibe.hasio.danfoss.data.IconMaster;
+import net.soundvibe.hasio.danfoss.data.IconRoom;
+import net.soundvibe.hasio.danfoss.data.RoomMode;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class MQTTDiscoveryCacheTest {
+
+    private static final IconMaster MASTER = new IconMaster("House", 15.0, 5.0, "1.2", "2.3", "123456", 1, 1, null);
+
+    private static IconRoom room(String name, double temperature, double high, RoomMode roomMode) {
+        return new IconRoom(name, 1, temperature, null, 23.0, 21.0, 19.0, high, 15.0, (short) 99, HeatingState.OFF, roomMode);
+    }
+
+    @Test
+    void should_return_config_only_when_discovery_inputs_change() {
+        var sut = new MQTTDiscoveryCache(MQTTPublisher.STATE_TOPIC_FMT, MQTTPublisher.SET_TOPIC_FMT);
+
+        var first = sut.update(room("Living Room", 22.3, 30.0, RoomMode.HOME), MASTER);
+        assertNotNull(first);
+        assertTrue(new String(first, StandardCharsets.UTF_8).contains("danfoss_icon_thermostat_room_1"));
+
+        assertNull(sut.update(room("Living Room", 22.8, 30.0, RoomMode.AWAY), MASTER));
+        assertNull(sut.update(room("Living Room", 22.8, 30.0, RoomMode.AWAY),
+                new IconMaster("House", 15.0, 5.0, "1.2", "2.3", "123456", 1, 2, null)));
+
+        assertNotNull(sut.update(room("Kitchen", 22.8, 30.0, RoomMode.AWAY), MASTER));
+        assertNotNull(sut.update(room("Kitchen", 22.8, 28.0, RoomMode.AWAY), MASTER));
+        assertNotNull(sut.update(room("Kitchen", 22.8, 28.0, RoomMode.AWAY),
+                new IconMaster("House", 15.0, 5.0, "1.2", "2.4", "123456", 1, 1, null)));
+    }
+
+    @Test
+    void should_return_config_again_after_invalidation() {
+        var sut = new MQTTDiscoveryCache(MQTTPublisher.STATE_TOPIC_FMT, MQTTPublisher.SET_TOPIC_FMT);
+        var room = room("Living Room", 22.3, 30.0, RoomMode.HOME);
+        var first = sut.update(room, MASTER);
+
+        sut.invalidate(room.number());
+        assertArrayEquals(first, sut.update(room, MASTER));
+
+        sut.clear();
+        assertArrayEquals(first, sut.update(room, MASTER));
+        assertNull(sut.update(room, MASTER));
+    }
+}
@@ -0,0 +1,172 @@
+package net.soundvibe.hasio.history;
+
+import com.google.gson.JsonParser;
+import net.soundvibe.hasio.danfoss.data.HeatingState;
+import net.soundvibe.hasio.danfoss.data.IconRoom;
+import net.soundvibe.hasio.danfoss.data.RoomMode;
+import net.soundvibe.hasio.danfoss.protocol.IconMasterHandler;
+import net.soundvibe.hasio.danfoss.protocol.PacketBursts;
+import net.soundvibe.hasio.danfoss.protocol.config.Dominion;
+import net.soundvibe.hasio.danfoss.protocol.config.Icon;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgClass.ROOM_FIRST;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.ROOMNAME;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.ROOM_BATTERYINDICATIONPERCENT;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.ROOM_ROOMMODE;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.ROOM_ROOMTEMPERATURE;
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class RoomHistoryStoreTest {
+
+    private record Change(long timestamp, HistoryField field, int value) {}
+
+    @TempDir
+    Path directory;
+
+    private final AtomicLong clock = new AtomicLong(1_000);
+
+    private static IconRoom room(double temperature, double temperatureHome) {
+        return new IconRoom("Kitchen", 7, temperature, 24.0, temperatureHome, 18.0, 19.0, 35.0, 5.0,
+                (short) 80, HeatingState.HEAT, RoomMode.HOME);
+    }
+
+    private static List<Change> query(RoomHistoryStore sut, long from, long to, HistoryField field) {
+        var changes = new ArrayList<Change>();
+        sut.query(7, from, to, field, (timestamp, recordField, value) -> changes.add(new Change(timestamp, recordField, value)));
+        return changes;
+    }
+
+    private void change(RoomHistoryStore sut, IconRoom before, IconRoom after) {
+        clock.addAndGet(1_000);
+        sut.onRoomChanged(before, after);
+    }
+
+    @Test
+    void should_record_only_changed_fields() throws IOException {
+        var sut = new RoomHistoryStore(directory, 1024, clock::get);
+        var unnamed = new IconRoom("", 7, 0, null, 0, 0, 0, 0, 0, (short) 0, HeatingState.OFF, RoomMode.HOME);
+
+        change(sut, unnamed, room(21.0, 22.0));
+        change(sut, room(21.0, 22.0), room(21.5, 22.0));
+        change(sut, room(21.5, 22.0), room(21.7, 22.5));
+
+        assertEquals(HistoryField.values().length + 3, query(sut, 0, Long.MAX_VALUE, null).size());
+        assertEquals(List.of(new Change(2_000, HistoryField.TEMPERATURE, 2100), new Change(3_000, HistoryField.TEMPERATURE, 2150),
+                new Change(4_000, HistoryField.TEMPERATURE, 2170)), query(sut, 0, Long.MAX_VALUE, HistoryField.TEMPERATURE));
+        assertEquals(List.of(new Change(3_000, HistoryField.TEMPERATURE, 2150)), query(sut, 2_500, 3_500, HistoryField.TEMPERATURE));
+        assertEquals(1, query(sut, 0, Long.MAX_VALUE, HistoryField.TEMPERATURE_AWAY).size());
+        assertEquals(List.of(new Change(2_000, HistoryField.TEMPERATURE_FLOOR, 2400)),
+                query(sut, 0, Long.MAX_VALUE, HistoryField.TEMPERATURE_FLOOR));
+    }
+
+    @Test
+    void should_not_record_fields_which_have_not_been_reported() throws IOException {
+        var sut = new RoomHistoryStore(directory, 1024, clock::get);
+        var master = new IconMasterHandler(null, null);
+        sut.recordFrom(master.houseState());
+        master.addStateListener(sut);
+        var out = new ByteArrayOutputStream();
+        PacketBursts.writeString(out, ROOM_FIRST + 7, ROOMNAME, "Kitchen", 33);
+        PacketBursts.writeDecimal(out, ROOM_FIRST + 7, ROOM_ROOMTEMPERATURE, 21.0);
+        PacketBursts.writeByte(out, ROOM_FIRST + 7, ROOM_ROOMMODE, Icon.RoomMode.Away);
+        var data = out.toByteArray();
+        master.handleBatch(new Dominion.PacketCursor().reset(data, 0, data.length));
+
+        var changes = query(sut, 0, Long.MAX_VALUE, null);
+        assertEquals(List.of(HistoryField.TEMPERATURE, HistoryField.PRESET), changes.stream().map(Change::field).toList());
+        assertEquals(2100, changes.getFirst().value());
+
+        // the rest is recorded once it is reported
+        out.reset();
+        PacketBursts.writeByte(out, ROOM_FIRST + 7, ROOM_BATTERYINDICATIONPERCENT, 0);
+        data = out.toByteArray();
+        master.handleBatch(new Dominion.PacketCursor().reset(data, 0, data.length));
+        assertEquals(List.of(0), query(sut, 0, Long.MAX_VALUE, HistoryField.BATTERY_LEVEL).stream().map(Change::value).toList());
+    }
+
+    @Test
+    void should_keep_only_the_latest_records() throws IOException {
+        var sut = new RoomHistoryStore(directory, 1024, clock::get);
+        var before = room(0, 22.0);
+        for (int i = 1; i <= 3000; i++) {
+            var after = room(i / 100.0, 22.0);
+            change(sut, before, after);
+            before = after;
+        }
+
+        var changes = query(sut, 0, Long.MAX_VALUE, null);
+        assertEquals(1024, changes.size());
+        assertEquals(new Change(clock.get(), HistoryField.TEMPERATURE, 3000), changes.getLast());
+        for (int i = 1; i < changes.size(); i++) {
+            assertEquals(changes.get(i - 1).value() + 1, changes.get(i).value());
+        }
+    }
+
+    @Test
+    void should_recover_the_tail_and_ignore_torn_records() throws IOException {
+        var sut = new RoomHistoryStore(directory, 1024, clock::get);
+        change(sut, room(0, 0), room(21.0, 22.0));
+        change(sut, room(21.0, 22.0), room(21.5, 22.0));
+        change(sut, room(21.5, 22.0), room(21.7, 22.0));
+        sut.close();
+
+        // the last record is torn, as if the power was lost while it was being written
+        long tornRecord = (HistoryField.values().length + 1) * (long) RoomHistoryRing.RECORD_SIZE;
+        try (var channel = FileChannel.open(directory.resolve("room-7.ring"), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3, 4}), tornRecord + 16);
+        }
+
+        var reopened = new RoomHistoryStore(directory, 1024, clock::get);
+        assertEquals(List.of(2100, 2150), query(reopened, 0, Long.MAX_VALUE, HistoryField.TEMPERATURE).stream()
+                .map(Change::value).toList());
+
+        // the recovered last value is not recorded again, a new one replaces the torn record
+        change(reopened, room(0, 0), room(21.5, 22.0));
+        change(reopened, room(21.5, 22.0), room(21.8, 22.0));
+        assertEquals(List.of(2100, 2150, 2180), query(reopened, 0, Long.MAX_VALUE, HistoryField.TEMPERATURE).stream()
+                .map(Change::value).toList());
+    }
+
+    @Test
+    void should_stream_records_as_json() throws IOException {
+        var sut = new RoomHistoryStore(directory, 4096, clock::get);
+        var before = room(0, 22.0);
+        for (int i = 1; i <= 1000; i++) {
+            var after = room(20.0 + i / 100.0, 22.0);
+            change(sut, before, after);
+            before = after;
+        }
+
+        var out = new ByteArrayOutputStream();
+        sut.writeJson(7, 0, Long.MAX_VALUE, null, out);
+        var json = JsonParser.parseString(out.toString(StandardCharsets.UTF_8)).getAsJsonArray();
+
+        assertEquals(1000 + HistoryField.values().length - 1, json.size());
+        var first = json.get(0).getAsJsonObject();
+        assertEquals(2_000, first.get("timestamp").getAsLong());
+        assertEquals("temperature", first.get("field").getAsString());
+        assertEquals(20.01, first.get("value").getAsDouble());
+        assertTrue(json.asList().stream().anyMatch(element -> element.getAsJsonObject().get("field").getAsString().equals("mode")
+                && element.getAsJsonObject().get("value").getAsString().equals("heat")));
+
+        out.reset();
+        sut.writeJson(8, 0, Long.MAX_VALUE, null, out);
+        assertEquals("[]", out.toString(StandardCharsets.UTF_8));
+    }
+}
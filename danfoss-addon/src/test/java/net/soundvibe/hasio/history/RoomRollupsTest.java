@@ -0,0 +1,124 @@
+package net.soundvibe.hasio.history;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import net.soundvibe.hasio.danfoss.data.HeatingState;
+import net.soundvibe.hasio.danfoss.data.IconRoom;
+import net.soundvibe.hasio.danfoss.data.RoomMode;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class RoomRollupsTest {
+
+    // whole hour
+    private static final long T0 = 1_699_999_200_000L;
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @TempDir
+    Path directory;
+
+    private final AtomicLong clock = new AtomicLong(T0);
+    private IconRoom current = new IconRoom("", 7, 0, null, 0, 0, 0, 0, 0, (short) 0, HeatingState.OFF, RoomMode.HOME);
+
+    private void record(RoomHistoryStore sut, long at, double temperature, HeatingState heatingState) {
+        clock.set(at);
+        // the floor is kept 4 degrees above the air
+        var next = new IconRoom("Kitchen", 7, temperature, temperature + 4.0, 22.0, 18.0, 19.0, 35.0, 5.0,
+                (short) 80, heatingState, RoomMode.HOME);
+        sut.onRoomChanged(current, next);
+        current = next;
+    }
+
+    private static JsonArray query(RoomHistoryStore sut, long from, long to, HistoryField field, long resolution) throws IOException {
+        var out = new ByteArrayOutputStream();
+        sut.writeJson(7, from, to, field, resolution, out);
+        return JsonParser.parseString(out.toString(StandardCharsets.UTF_8)).getAsJsonArray();
+    }
+
+    @Test
+    void should_pick_the_coarsest_tier_within_resolution() {
+        assertEquals(-1, RoomRollups.tierFor(0));
+        assertEquals(-1, RoomRollups.tierFor(30_000));
+        assertEquals(0, RoomRollups.tierFor(MINUTE));
+        assertEquals(0, RoomRollups.tierFor(10 * MINUTE));
+        assertEquals(1, RoomRollups.tierFor(15 * MINUTE));
+        assertEquals(2, RoomRollups.tierFor(TimeUnit.DAYS.toMillis(1)));
+    }
+
+    @Test
+    void should_integrate_values_over_time() throws IOException {
+        var sut = new RoomHistoryStore(directory, 1024, clock::get);
+        record(sut, T0, 20.0, HeatingState.HEAT);
+        record(sut, T0 + 30_000, 22.0, HeatingState.HEAT);
+        record(sut, T0 + 45_000, 22.0, HeatingState.OFF);
+        clock.set(T0 + 2 * MINUTE);
+
+        var minutes = query(sut, T0, T0 + 2 * MINUTE, null, MINUTE);
+
+        JsonObject temperature = minutes.get(0).getAsJsonObject();
+        assertEquals(T0, temperature.get("timestamp").getAsLong());
+        assertEquals("temperature", temperature.get("field").getAsString());
+        assertEquals(20.0, temperature.get("min").getAsDouble());
+        assertEquals(22.0, temperature.get("max").getAsDouble());
+        assertEquals(21.0, temperature.get("avg").getAsDouble());
+
+        var floor = query(sut, T0, T0 + MINUTE, HistoryField.TEMPERATURE_FLOOR, MINUTE).get(0).getAsJsonObject();
+        assertEquals("temperature_floor", floor.get("field").getAsString());
+        assertEquals(24.0, floor.get("min").getAsDouble());
+        assertEquals(26.0, floor.get("max").getAsDouble());
+        assertEquals(25.0, floor.get("avg").getAsDouble());
+
+        var heating = minutes.asList().stream().map(JsonObject.class::cast)
+                .filter(bucket -> bucket.get("field").getAsString().equals("mode"))
+                .toList();
+        assertEquals(2, heating.size());
+        assertEquals(45_000, heating.getFirst().get("heating_millis").getAsLong());
+        assertEquals(0.75, heating.getFirst().get("duty").getAsDouble());
+        assertEquals(0.0, heating.getLast().get("duty").getAsDouble());
+
+        // values are held until they change
+        var secondMinute = query(sut, T0 + MINUTE, T0 + 2 * MINUTE, HistoryField.TEMPERATURE, MINUTE);
+        assertEquals(1, secondMinute.size());
+        assertEquals(22.0, secondMinute.get(0).getAsJsonObject().get("min").getAsDouble());
+        assertEquals(22.0, secondMinute.get(0).getAsJsonObject().get("avg").getAsDouble());
+    }
+
+    @Test
+    void should_serve_long_ranges_from_coarse_tiers() throws IOException {
+        var sut = new RoomHistoryStore(directory, 65536, clock::get);
+        long end = T0 + TimeUnit.DAYS.toMillis(30);
+        int changes = 0;
+        for (long at = T0; at < end; at += 5 * MINUTE) {
+            record(sut, at, 20.0 + (changes++ % 20) / 10.0, (changes % 4 == 0) ? HeatingState.HEAT : HeatingState.OFF);
+        }
+        clock.set(end);
+
+        var hours = query(sut, T0, end, HistoryField.TEMPERATURE, TimeUnit.DAYS.toMillis(1));
+        assertEquals(30 * 24, hours.size());
+        var first = hours.get(0).getAsJsonObject();
+        assertEquals(T0, first.get("timestamp").getAsLong());
+        assertEquals(20.0, first.get("min").getAsDouble());
+        assertEquals(21.1, first.get("max").getAsDouble());
+
+        // the raw records are still there
+        assertEquals(changes, query(sut, T0, end, HistoryField.TEMPERATURE, 0).size());
+
+        // rollups are rebuilt from the rings
+        var reopened = new RoomHistoryStore(directory, 65536, clock::get);
+        assertEquals(hours, query(reopened, T0, end, HistoryField.TEMPERATURE, HOUR));
+    }
+}
@@ -0,0 +1,107 @@
+package net.soundvibe.hasio.metrics;
+
+import net.soundvibe.hasio.danfoss.protocol.FieldScope;
+import net.soundvibe.hasio.danfoss.protocol.HouseFields;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static net.soundvibe.hasio.danfoss.protocol.config.DanfossBindingConstants.ICON_MAX_ROOMS;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgClass.ROOM_FIRST;
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+class MetricsTest {
+
+    @Test
+    void should_count_keys_concurrently() throws InterruptedException {
+        var sut = new KeyedCounter("test_total", "Test.", 8, (out, key) -> out.append("key=\"").append(key).append('"'));
+        try (var executor = Executors.newFixedThreadPool(4)) {
+            for (int thread = 0; thread < 4; thread++) {
+                executor.execute(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        sut.inc(i % 10);
+                    }
+                });
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+
+        long total = 0L;
+        for (int key = 0; key < 10; key++) {
+            total += sut.get(key);
+        }
+        assertEquals(4 * 10_000, total + sut.get(KeyedCounter.OVERFLOW));
+        // 10 keys don't fit into 8 slots
+        assertEquals(2 * 4 * 1_000, sut.get(KeyedCounter.OVERFLOW));
+
+        var out = new StringBuilder();
+        sut.writeSamples(out);
+        assertTrue(out.toString().contains("test_total{key=\"0\"} 4000\n"), out.toString());
+        assertTrue(out.toString().contains("test_total{key=\"-1\"} 8000\n"), out.toString());
+    }
+
+    @Test
+    void should_fit_the_packets_of_a_whole_house() {
+        var sut = new KeyedCounter("test_total", "Test.", 1024, (out, key) -> {});
+        int keys = 0;
+        for (int msgClass = 0; msgClass < 256; msgClass++) {
+            for (var field : HouseFields.of(FieldScope.of(msgClass))) {
+                sut.inc(Metrics.packetKey(msgClass, field.msgCode));
+                keys++;
+            }
+        }
+
+        assertTrue(keys > 1024, STR."\{keys} packets");
+        assertEquals(0, sut.get(KeyedCounter.OVERFLOW));
+        assertEquals(ICON_MAX_ROOMS, sut.get(Metrics.packetKey(ROOM_FIRST, HouseFields.ROOM_TEMPERATURE.msgCode)));
+    }
+
+    @Test
+    void should_give_up_on_a_key_after_a_few_probes() {
+        var sut = new KeyedCounter("test_total", "Test.", 1024, (out, key) -> {});
+        // fills the table, later keys collide with claimed slots
+        for (int key = 0; key < 4096; key++) {
+            sut.inc(key);
+        }
+        assertTrue(sut.get(KeyedCounter.OVERFLOW) >= 4096 - 1024);
+        assertTrue(sut.get(KeyedCounter.OVERFLOW) < 4096);
+    }
+
+    @Test
+    void should_write_cumulative_buckets() {
+        var sut = new Histogram("test_seconds", "Test.", "publisher=\"test\"", new double[]{0.01, 0.1});
+        sut.observeNanos(5_000_000L);
+        sut.observeNanos(50_000_000L);
+        sut.observeNanos(2_000_000_000L);
+
+        var out = new StringBuilder();
+        sut.writeSamples(out);
+        assertEquals("""
+                test_seconds_bucket{publisher="test",le="0.01"} 1
+                test_seconds_bucket{publisher="test",le="0.1"} 2
+                test_seconds_bucket{publisher="test",le="+Inf"} 3
+                test_seconds_sum{publisher="test"} 2.055
+                test_seconds_count{publisher="test"} 3
+                """, out.toString());
+    }
+
+    @Test
+    void should_write_families_once() {
+        Metrics.publishTickDuration("first").observeNanos(1_000L);
+        Metrics.publishTickDuration("second").observeNanos(1_000L);
+        Metrics.PACKETS_RECEIVED.inc(Metrics.packetKey(ROOM_FIRST + 7, 0x2A));
+
+        var scrape = Metrics.scrape();
+
+        assertEquals(1, scrape.split("# TYPE publish_tick_duration_seconds histogram\n", -1).length - 1);
+        assertTrue(scrape.contains("publish_tick_duration_seconds_count{publisher=\"first\"} 1\n"), scrape);
+        assertTrue(scrape.contains("publish_tick_duration_seconds_count{publisher=\"second\"} 1\n"), scrape);
+        assertTrue(scrape.contains("danfoss_packets_received_total{scope=\"room\",msg_code=\"42\"} 1\n"), scrape);
+        assertTrue(scrape.contains("# TYPE danfoss_packets_received_total counter\n"), scrape);
+    }
+}
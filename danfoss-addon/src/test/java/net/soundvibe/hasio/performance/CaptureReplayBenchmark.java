@@ -0,0 +1,98 @@
+package net.soundvibe.hasio.performance;
+
+import net.soundvibe.hasio.Json;
+import net.soundvibe.hasio.danfoss.protocol.IconMasterHandler;
+import net.soundvibe.hasio.danfoss.protocol.IconStateListener;
+import net.soundvibe.hasio.danfoss.protocol.PacketBursts;
+import net.soundvibe.hasio.danfoss.protocol.PacketCapture;
+import net.soundvibe.hasio.danfoss.protocol.PacketReplay;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static net.soundvibe.hasio.danfoss.protocol.config.DanfossBindingConstants.ICON_MAX_ROOMS;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgClass.ROOM_FIRST;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.ROOM_ROOMTEMPERATURE;
+
+/**
+ * Replays a {@link PacketCapture} at max speed through decoding, house state and serialization of changed rooms,
+ * the way publishers serialize them. Pass a capture taken with {@code packetCaptureEnabled} as
+ * {@code -p capture=/path/to/default.dcap}, without it the initial dump followed by temperature updates is replayed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CaptureReplayBenchmark {
+
+    private static final int UPDATES = 1000;
+
+    @Param({""})
+    public String capture;
+
+    private Path file;
+    private boolean synthesized;
+    private final PacketReplay replay = new PacketReplay(PacketReplay.MAX_SPEED);
+
+    @Setup
+    public void setUp() throws IOException {
+        if (!capture.isEmpty()) {
+            file = Path.of(capture);
+            return;
+        }
+        file = Files.createTempFile("replay", ".dcap");
+        synthesized = true;
+        Files.delete(file);
+        try (var out = PacketCapture.open(file)) {
+            var burst = PacketBursts.initialDump();
+            out.received(burst, 0, burst.length);
+            for (int i = 0; i < UPDATES; i++) {
+                var update = new ByteArrayOutputStream();
+                PacketBursts.writeDecimal(update, ROOM_FIRST + i % ICON_MAX_ROOMS, ROOM_ROOMTEMPERATURE, 20.0 + (i % 50) * 0.1);
+                var data = update.toByteArray();
+                out.received(data, 0, data.length);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (synthesized) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Benchmark
+    public PacketReplay.Result replay(Blackhole bh) throws IOException, InterruptedException {
+        var master = new IconMasterHandler(null, null);
+        master.addStateListener(new IconStateListener() {
+            @Override
+            public void onStateChanged(long changedRooms, boolean masterChanged) {
+                for (long rooms = changedRooms; rooms != 0; rooms &= rooms - 1) {
+                    master.roomHandlerByNumber(Long.numberOfTrailingZeros(rooms))
+                            .ifPresent(room -> bh.consume(Json.write(room.toIconRoom()::writeState)));
+                }
+            }
+        });
+        return replay.replay(file, master);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        var options = new OptionsBuilder()
+                .include(CaptureReplayBenchmark.class.getSimpleName());
+        if (args.length > 0) {
+            options.param("capture", args[0]);
+        }
+        new Runner(options.build()).run();
+    }
+}
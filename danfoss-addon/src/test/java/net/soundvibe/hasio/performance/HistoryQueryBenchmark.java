@@ -0,0 +1,75 @@
+package net.soundvibe.hasio.performance;
+
+import net.soundvibe.hasio.danfoss.data.HeatingState;
+import net.soundvibe.hasio.danfoss.data.IconRoom;
+import net.soundvibe.hasio.danfoss.data.RoomMode;
+import net.soundvibe.hasio.history.HistoryField;
+import net.soundvibe.hasio.history.RoomHistoryStore;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queries 30 days of temperature history of a room changing every minute: raw records versus 1 hour rollups.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HistoryQueryBenchmark {
+
+    private static final long DAYS = 30;
+
+    private RoomHistoryStore store;
+    private long from;
+    private long to;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 20);
+
+    @Setup
+    public void setUp() throws IOException {
+        to = System.currentTimeMillis();
+        from = to - TimeUnit.DAYS.toMillis(DAYS);
+        var clock = new AtomicLong(from);
+        store = RoomHistoryStore.open(Files.createTempDirectory("history"), 1 << 16, clock::get);
+        var before = new IconRoom("", 0, 0, null, 0, 0, 0, 0, 0, (short) 0, HeatingState.OFF, RoomMode.HOME);
+        for (int minute = 0; minute < DAYS * 24 * 60; minute++) {
+            clock.set(from + TimeUnit.MINUTES.toMillis(minute));
+            var after = new IconRoom("Room", 0, 20.0 + (minute % 200) / 100.0, 24.0, 22.0, 18.0, 19.0, 35.0, 5.0,
+                    (short) 80, minute % 3 == 0 ? HeatingState.HEAT : HeatingState.OFF, RoomMode.HOME);
+            store.onRoomChanged(before, after);
+            before = after;
+        }
+        clock.set(to);
+        store.compact();
+    }
+
+    @Benchmark
+    public int raw() throws IOException {
+        out.reset();
+        store.writeJson(0, from, to, HistoryField.TEMPERATURE, 0, out);
+        return out.size();
+    }
+
+    @Benchmark
+    public int hourlyRollups() throws IOException {
+        out.reset();
+        store.writeJson(0, from, to, HistoryField.TEMPERATURE, TimeUnit.HOURS.toMillis(1), out);
+        return out.size();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(HistoryQueryBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,70 @@
+package net.soundvibe.hasio.performance;
+
+import net.soundvibe.hasio.Json;
+import net.soundvibe.hasio.danfoss.data.HeatingState;
+import net.soundvibe.hasio.danfoss.data.IconMaster;
+import net.soundvibe.hasio.danfoss.data.IconRoom;
+import net.soundvibe.hasio.danfoss.data.RoomMode;
+import net.soundvibe.hasio.ha.MQTTPublisher;
+import net.soundvibe.hasio.ha.model.MQTTClimateEntity;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializes a room state and an MQTT climate entity with reflective Gson (how {@link Json} used to do it)
+ * and with {@link net.soundvibe.hasio.JsonWriter}. {@code *State} includes building the state itself,
+ * as {@link IconRoom#writeState} doesn't need a {@link net.soundvibe.hasio.ha.model.State}.
+ * Run with {@code -prof gc} to see bytes allocated per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonSerializationBenchmark {
+
+    private IconRoom room;
+    private MQTTClimateEntity climateEntity;
+
+    @Setup
+    public void setUp() {
+        room = new IconRoom("Living Room", 7, 22.35, null, 23.0, 21.0, 19.0, 30.0, 15.0,
+                (short) 99, HeatingState.HEAT, RoomMode.HOME);
+        var master = new IconMaster("House", 15.0, 5.0, "1.2", "2.3", "123456", 1, 1, null);
+        climateEntity = room.toMQTTClimateEntity("danfoss_icon_thermostat_room_7",
+                MQTTPublisher.STATE_TOPIC_FMT, MQTTPublisher.SET_TOPIC_FMT, master);
+    }
+
+    @Benchmark
+    public byte[] gsonState() {
+        return Json.GSON.toJson(room.toState()).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] writerState() {
+        return Json.write(room::writeState);
+    }
+
+    @Benchmark
+    public byte[] gsonClimateEntity() {
+        return Json.GSON.toJson(climateEntity).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] writerClimateEntity() {
+        return Json.toJsonBytes(climateEntity);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(JsonSerializationBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,141 @@
+package net.soundvibe.hasio.performance;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bare minimum MQTT 3.1.1 broker stand-in for benchmarks: accepts connections, acknowledges
+ * CONNECT, QoS 0/1 PUBLISH, SUBSCRIBE, UNSUBSCRIBE and PINGREQ, and counts received publishes.
+ * Nothing is routed to subscribers.
+ */
+public final class LocalMqttBroker implements AutoCloseable {
+
+    private static final int CONNECT = 1;
+    private static final int PUBLISH = 3;
+    private static final int SUBSCRIBE = 8;
+    private static final int UNSUBSCRIBE = 10;
+    private static final int PINGREQ = 12;
+    private static final int DISCONNECT = 14;
+
+    private final ServerSocket serverSocket;
+    private final AtomicLong publishes = new AtomicLong();
+    private volatile boolean closed;
+
+    public LocalMqttBroker() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread.ofVirtual().name("mqtt-broker").start(this::accept);
+    }
+
+    public String uri() {
+        return STR."tcp://127.0.0.1:\{serverSocket.getLocalPort()}";
+    }
+
+    public long publishes() {
+        return publishes.get();
+    }
+
+    public void awaitPublishes(long count, long timeout, TimeUnit unit) throws TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (publishes.get() < count) {
+            if (System.nanoTime() > deadline) {
+                throw new TimeoutException(STR."received \{publishes.get()} of \{count} publishes");
+            }
+            LockSupport.parkNanos(1_000);
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                var socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Thread.ofVirtual().name("mqtt-broker-session").start(() -> serve(socket));
+            } catch (IOException e) {
+                if (!closed) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            var out = new BufferedOutputStream(socket.getOutputStream());
+            while (!closed) {
+                int header = in.read();
+                if (header < 0) {
+                    return;
+                }
+                var body = new byte[readRemainingLength(in)];
+                in.readFully(body);
+                switch (header >>> 4) {
+                    case CONNECT -> out.write(new byte[]{0x20, 0x02, 0x00, 0x00});
+                    case PUBLISH -> {
+                        publishes.incrementAndGet();
+                        int qos = (header >>> 1) & 0x03;
+                        if (qos > 0) {
+                            int topicLength = ((body[0] & 0xFF) << 8) | (body[1] & 0xFF);
+                            out.write(new byte[]{0x40, 0x02, body[2 + topicLength], body[3 + topicLength]});
+                        }
+                    }
+                    case SUBSCRIBE -> {
+                        int topics = 0;
+                        for (int i = 2; i < body.length; i += 2 + (((body[i] & 0xFF) << 8) | (body[i + 1] & 0xFF)) + 1) {
+                            topics++;
+                        }
+                        out.write(0x90);
+                        out.write(2 + topics);
+                        out.write(body, 0, 2);
+                        for (int i = 0; i < topics; i++) {
+                            out.write(0x01);
+                        }
+                    }
+                    case UNSUBSCRIBE -> out.write(new byte[]{(byte) 0xB0, 0x02, body[0], body[1]});
+                    case PINGREQ -> out.write(new byte[]{(byte) 0xD0, 0x00});
+                    case DISCONNECT -> {
+                        return;
+                    }
+                    default -> {
+                        // not needed by the benchmarks
+                    }
+                }
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // client has gone
+        }
+    }
+
+    private static int readRemainingLength(DataInputStream in) throws IOException {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return length;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+    }
+}
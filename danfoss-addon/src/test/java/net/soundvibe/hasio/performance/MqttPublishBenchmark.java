@@ -0,0 +1,117 @@
+package net.soundvibe.hasio.performance;
+
+import net.soundvibe.hasio.Json;
+import net.soundvibe.hasio.danfoss.protocol.IconMasterHandler;
+import net.soundvibe.hasio.danfoss.protocol.PacketBursts;
+import net.soundvibe.hasio.danfoss.protocol.config.Dominion;
+import net.soundvibe.hasio.ha.MQTTPublisher;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static net.soundvibe.hasio.danfoss.protocol.config.DanfossBindingConstants.ICON_MAX_ROOMS;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgClass.ROOM_FIRST;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.ROOM_ROOMTEMPERATURE;
+
+/**
+ * Publishes a temperature change of every room to {@link LocalMqttBroker} and waits until the broker has received it.
+ * {@code blockingPerRoom} replicates the previous design: a blocking {@link MqttClient} sending the discovery config
+ * and the state of every room one after another, {@code pipelinedOnChange} is the current {@link MQTTPublisher}
+ * fed by state listener events.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MqttPublishBenchmark {
+
+    private final Dominion.PacketCursor cursor = new Dominion.PacketCursor();
+    private final byte[][] bursts = new byte[2][];
+    private int next;
+
+    private LocalMqttBroker broker;
+    private IconMasterHandler masterHandler;
+    private MqttClient blockingClient;
+    private MqttAsyncClient asyncClient;
+    private MQTTPublisher publisher;
+
+    @Setup
+    public void setUp() throws IOException, MqttException, TimeoutException {
+        broker = new LocalMqttBroker();
+        masterHandler = new IconMasterHandler(null, null);
+        var dump = PacketBursts.initialDump();
+        masterHandler.handleBatch(cursor.reset(dump, 0, dump.length));
+        for (int i = 0; i < bursts.length; i++) {
+            var out = new ByteArrayOutputStream();
+            for (int room = 0; room < ICON_MAX_ROOMS; room++) {
+                PacketBursts.writeDecimal(out, ROOM_FIRST + room, ROOM_ROOMTEMPERATURE, 30.0 + i);
+            }
+            bursts[i] = out.toByteArray();
+        }
+
+        var connectOptions = new MqttConnectOptions();
+        connectOptions.setCleanSession(true);
+        connectOptions.setMaxInflight(MQTTPublisher.MAX_IN_FLIGHT);
+        blockingClient = new MqttClient(broker.uri(), "blocking", null);
+        blockingClient.connect(connectOptions);
+        asyncClient = new MqttAsyncClient(broker.uri(), "pipelined", null);
+        asyncClient.connect(connectOptions).waitForCompletion();
+
+        // initial discovery and subscriptions are not a part of the measurement
+        publisher = new MQTTPublisher(masterHandler, asyncClient, _ -> {});
+        masterHandler.addStateListener(publisher);
+        publisher.start().tick();
+        broker.awaitPublishes(2L * ICON_MAX_ROOMS, 10, TimeUnit.SECONDS);
+    }
+
+    @TearDown
+    public void tearDown() throws MqttException, IOException {
+        publisher.close();
+        blockingClient.disconnect();
+        blockingClient.close();
+        asyncClient.disconnect().waitForCompletion();
+        asyncClient.close();
+        broker.close();
+    }
+
+    @Benchmark
+    public void blockingPerRoom() throws MqttException, TimeoutException {
+        long expected = broker.publishes() + 2L * ICON_MAX_ROOMS;
+        var iconMaster = masterHandler.iconMaster();
+        for (var roomHandler : masterHandler.roomHandlers()) {
+            var room = roomHandler.toIconRoom();
+            var thermostatID = STR."danfoss_icon_thermostat_room_\{room.number()}";
+            var climateEntity = room.toMQTTClimateEntity(thermostatID, MQTTPublisher.STATE_TOPIC_FMT, MQTTPublisher.SET_TOPIC_FMT, iconMaster);
+            blockingClient.publish(STR."homeassistant/climate/\{thermostatID}/config", Json.toJsonBytes(climateEntity), 0, false);
+            blockingClient.publish(String.format(MQTTPublisher.STATE_TOPIC_FMT, room.number()), Json.toJsonBytes(room.toState()), 0, false);
+        }
+        broker.awaitPublishes(expected, 10, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public void pipelinedOnChange() throws TimeoutException {
+        long expected = broker.publishes() + ICON_MAX_ROOMS;
+        var burst = bursts[next++ & 1];
+        masterHandler.handleBatch(cursor.reset(burst, 0, burst.length));
+        broker.awaitPublishes(expected, 10, TimeUnit.SECONDS);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(MqttPublishBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
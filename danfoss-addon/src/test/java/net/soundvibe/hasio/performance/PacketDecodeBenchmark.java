@@ -0,0 +1,89 @@
+package net.soundvibe.hasio.performance;
+
+import net.soundvibe.hasio.danfoss.protocol.PacketBursts;
+import net.soundvibe.hasio.danfoss.protocol.config.Dominion;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.*;
+
+/**
+ * Compares decoding of the initial dump burst with a new {@link Dominion.Packet} per message
+ * (how DeviSmartConnection used to do it) against the pooled buffer and {@link Dominion.PacketCursor}.
+ * Run with {@code -prof gc} to see allocation rate per burst.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PacketDecodeBenchmark {
+
+    private ByteArrayInputStream stream;
+    private final byte[] rxBuffer = new byte[8192];
+    private final Dominion.PacketCursor cursor = new Dominion.PacketCursor();
+
+    @Setup
+    public void setUp() {
+        stream = new ByteArrayInputStream(PacketBursts.initialDump());
+    }
+
+    @Benchmark
+    public void packetPerMessage(Blackhole bh) throws IOException {
+        stream.reset();
+        int length = stream.available();
+        byte[] data = new byte[length];
+        stream.read(data);
+        int offset = 0;
+        while (length >= Dominion.Packet.HeaderSize) {
+            var pkt = new Dominion.Packet(data, offset);
+            int packetLen = pkt.getLength();
+            if (packetLen > length) {
+                break;
+            }
+            switch (pkt.getMsgCode()) {
+                case ROOMNAME, HOUSE_NAME -> bh.consume(pkt.getString());
+                case ROOM_BATTERYINDICATIONPERCENT, ROOM_ROOMMODE, ROOM_ROOMCONTROL, ROOM_HEATINGCOOLINGSTATE ->
+                        bh.consume(pkt.getByte());
+                default -> bh.consume(pkt.getDecimal());
+            }
+            offset += packetLen;
+            length -= packetLen;
+        }
+    }
+
+    @Benchmark
+    public void pooledCursor(Blackhole bh) throws IOException {
+        stream.reset();
+        var length = read(stream);
+        var pkt = cursor.reset(rxBuffer, 0, length);
+        while (pkt.next()) {
+            switch (pkt.getMsgCode()) {
+                case ROOMNAME, HOUSE_NAME -> bh.consume(pkt.getString());
+                case ROOM_BATTERYINDICATIONPERCENT, ROOM_ROOMMODE, ROOM_ROOMCONTROL, ROOM_HEATINGCOOLINGSTATE ->
+                        bh.consume(pkt.getByte());
+                default -> bh.consume(pkt.getDecimal());
+            }
+        }
+    }
+
+    private int read(InputStream stream) throws IOException {
+        return stream.readNBytes(rxBuffer, 0, stream.available());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PacketDecodeBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
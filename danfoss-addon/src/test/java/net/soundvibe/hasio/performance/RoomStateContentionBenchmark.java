@@ -0,0 +1,121 @@
+package net.soundvibe.hasio.performance;
+
+import net.soundvibe.hasio.danfoss.data.HeatingState;
+import net.soundvibe.hasio.danfoss.data.IconRoom;
+import net.soundvibe.hasio.danfoss.data.RoomMode;
+import net.soundvibe.hasio.danfoss.protocol.IconRoomHandler;
+import net.soundvibe.hasio.danfoss.protocol.IconStateListener;
+import net.soundvibe.hasio.danfoss.protocol.PacketBursts;
+import net.soundvibe.hasio.danfoss.protocol.config.Dominion;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgClass.ROOM_FIRST;
+import static net.soundvibe.hasio.danfoss.protocol.config.Icon.MsgCode.ROOM_ROOMTEMPERATURE;
+
+/**
+ * One receive thread applying room temperature packets while HA, MQTT and REST readers
+ * take room snapshots. {@code locked*} replicates the previous design: mutable room fields
+ * behind a fair {@link ReentrantReadWriteLock}, {@code snapshot*} is the current {@link IconRoomHandler}.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoomStateContentionBenchmark {
+
+    private final Dominion.PacketCursor[] packets = new Dominion.PacketCursor[16];
+    private int next;
+
+    private IconRoomHandler snapshotRoom;
+    private LockedRoom lockedRoom;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < packets.length; i++) {
+            var out = new ByteArrayOutputStream();
+            PacketBursts.writeDecimal(out, ROOM_FIRST, ROOM_ROOMTEMPERATURE, 20.0 + i * 0.1);
+            var data = out.toByteArray();
+            packets[i] = new Dominion.PacketCursor().reset(data, 0, data.length);
+            packets[i].next();
+        }
+        snapshotRoom = new IconRoomHandler(null, 0, new IconStateListener() {});
+        lockedRoom = new LockedRoom();
+    }
+
+    @Benchmark
+    @Group("snapshot")
+    @GroupThreads(1)
+    public void snapshotWriter() {
+        var pkt = packets[next++ & (packets.length - 1)];
+        snapshotRoom.handlePacket(pkt.getMsgClass(), pkt.getMsgCode(), pkt);
+    }
+
+    @Benchmark
+    @Group("snapshot")
+    @GroupThreads(3)
+    public IconRoom snapshotReader() {
+        return snapshotRoom.toIconRoom();
+    }
+
+    @Benchmark
+    @Group("locked")
+    @GroupThreads(1)
+    public void lockedWriter() {
+        var pkt = packets[next++ & (packets.length - 1)];
+        lockedRoom.setTemperature(pkt.getDecimal());
+    }
+
+    @Benchmark
+    @Group("locked")
+    @GroupThreads(3)
+    public IconRoom lockedReader() {
+        return lockedRoom.toIconRoom();
+    }
+
+    private static final class LockedRoom {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock(true);
+        private final String roomName = "Room";
+        private double temperature;
+        private double setPointHigh;
+        private double setPointLow;
+        private double setPointHome;
+        private double setPointAway;
+        private double setPointSleep;
+        private short batteryPercent;
+        private final RoomMode roomMode = RoomMode.HOME;
+        private final HeatingState heatingState = HeatingState.OFF;
+
+        void setTemperature(double temperature) {
+            lock.writeLock().lock();
+            this.temperature = temperature;
+            lock.writeLock().unlock();
+        }
+
+        IconRoom toIconRoom() {
+            lock.readLock().lock();
+            try {
+                return new IconRoom(roomName, 0, temperature, null, setPointHome, setPointAway, setPointSleep,
+                        setPointHigh, setPointLow, batteryPercent, heatingState, roomMode);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RoomStateContentionBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
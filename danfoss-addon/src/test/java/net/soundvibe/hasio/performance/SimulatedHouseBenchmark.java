@@ -0,0 +1,81 @@
+package net.soundvibe.hasio.performance;
+
+import net.soundvibe.hasio.Json;
+import net.soundvibe.hasio.danfoss.protocol.IconMasterHandler;
+import net.soundvibe.hasio.danfoss.protocol.IconSimulator;
+import net.soundvibe.hasio.danfoss.protocol.IconStateListener;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static net.soundvibe.hasio.danfoss.protocol.config.DanfossBindingConstants.ICON_MAX_ROOMS;
+
+/**
+ * Soaks {@link IconMasterHandler} with a simulated house of {@code ICON_MAX_ROOMS} rooms, pushing reports
+ * at the given rate while the refresh scheduler and the device poller run against it, and serializes
+ * changed rooms the way publishers do. Every invocation simulates one second of the house.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SimulatedHouseBenchmark {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Param({"1000", "10000"})
+    public int reportsPerSecond;
+
+    private ScheduledExecutorService scheduler;
+    private IconMasterHandler master;
+    private IconSimulator simulator;
+    private long now;
+
+    @Setup
+    public void setUp(Blackhole bh) {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        master = new IconMasterHandler(null, scheduler);
+        master.addStateListener(new IconStateListener() {
+            @Override
+            public void onStateChanged(long changedRooms, boolean masterChanged) {
+                for (long rooms = changedRooms; rooms != 0; rooms &= rooms - 1) {
+                    master.roomHandlerByNumber(Long.numberOfTrailingZeros(rooms))
+                            .ifPresent(room -> bh.consume(Json.write(room.toIconRoom()::writeState)));
+                }
+            }
+        });
+        master.newRefreshScheduler(50).start(scheduler);
+        master.newDevicePoller(600).start(scheduler);
+        simulator = new IconSimulator(IconSimulator.Config.of(ICON_MAX_ROOMS).withReportsPerSecond(reportsPerSecond));
+        master.simulate(simulator);
+    }
+
+    @TearDown
+    public void tearDown() {
+        simulator.close();
+        master.dispose();
+        scheduler.shutdownNow();
+    }
+
+    @Benchmark
+    public int simulateSecond() {
+        // the simulator is ticked by the benchmark instead of a scheduler, so that every invocation is one simulated second
+        now += SECOND;
+        return simulator.tick(now);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SimulatedHouseBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}